@@ -37,6 +37,18 @@ import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import loci.common.Constants;
 import loci.common.DataTools;
@@ -89,6 +101,12 @@ public final class ImageConverter {
   private static final Logger LOGGER =
     LoggerFactory.getLogger(ImageConverter.class);
 
+  /** Number of tiles that may be queued per thread when pipelining. */
+  private static final int TILES_PER_THREAD = 4;
+
+  /** Marks the end of the tiles read for a plane. */
+  private static final Tile END_OF_PLANE = new Tile(0, 0, 0, 0, null);
+
   // -- Fields --
 
   private String in = null, out = null;
@@ -106,6 +124,7 @@ public final class ImageConverter {
   private int xCoordinate = 0, yCoordinate = 0, width = 0, height = 0;
   private int saveTileWidth = 0, saveTileHeight = 0;
   private boolean validate = false;
+  private int threads = 1;
 
   private IFormatReader reader;
   private MinMaxCalculator minMax;
@@ -113,6 +132,15 @@ public final class ImageConverter {
   private HashMap<String, Integer> nextOutputIndex = new HashMap<String, Integer>();
   private boolean firstTile = true;
 
+  /** Reads tiles ahead of the writer, or null if not pipelining. */
+  private ExecutorService tileReader;
+
+  /** Compresses the tiles of each row concurrently, or null. */
+  private ThreadPoolExecutor tileEncoder;
+
+  private Stage readStage, encodeStage, writeStage;
+  private long queueSamples, queueDepthSum, queueDepthMax;
+
   // -- Constructor --
 
   private ImageConverter() { }
@@ -191,6 +219,12 @@ public final class ImageConverter {
           }
           catch (NumberFormatException e) { }
         }
+        else if (args[i].equals("-threads")) {
+          try {
+            threads = Math.max(1, Integer.parseInt(args[++i]));
+          }
+          catch (NumberFormatException e) { }
+        }
         else if (!args[i].equals(CommandLineTools.NO_UPGRADE_CHECK)) {
           LOGGER.error("Found unknown command flag: {}; exiting.", args[i]);
           return false;
@@ -220,8 +254,8 @@ public final class ImageConverter {
       "  bfconvert [-debug] [-stitch] [-separate] [-merge] [-expand]",
       "    [-bigtiff] [-compression codec] [-series series] [-map id]",
       "    [-range start end] [-crop x,y,w,h] [-channel channel] [-z Z]",
-      "    [-timepoint timepoint] [-nogroup] [-autoscale] [-version]",
-      "    [-no-upgrade] in_file out_file",
+      "    [-timepoint timepoint] [-nogroup] [-autoscale] [-threads count]",
+      "    [-version] [-no-upgrade] in_file out_file",
       "",
       "    -version: print the library version and exit",
       " -no-upgrade: do not perform the upgrade check",
@@ -246,6 +280,8 @@ public final class ImageConverter {
       "    -channel: only convert the specified channel (indexed from 0)",
       "          -z: only convert the specified Z section (indexed from 0)",
       "  -timepoint: only convert the specified timepoint (indexed from 0)",
+      "    -threads: read, compress and write tiles of TIFF output",
+      "              concurrently, using the given number of threads",
       "",
       "If any of the following patterns are present in out_file, they will",
       "be replaced with the indicated metadata value from the input file.",
@@ -286,6 +322,22 @@ public final class ImageConverter {
   /** A utility method for converting a file from the command line. */
   public boolean testConvert(IFormatWriter writer, String[] args)
     throws FormatException, IOException
+  {
+    try {
+      return convert(writer, args);
+    }
+    finally {
+      stopPipeline(writer);
+    }
+  }
+
+  /**
+   * Convert a file as described by the given command line arguments.
+   * Any threads started by {@link #startPipeline(IFormatWriter)} are left
+   * running; see {@link #testConvert(IFormatWriter, String[])}.
+   */
+  private boolean convert(IFormatWriter writer, String[] args)
+    throws FormatException, IOException
   {
     nextOutputIndex.clear();
     MetadataOptions options= new DefaultMetadataOptions();
@@ -487,6 +539,7 @@ public final class ImageConverter {
     int first = series == -1 ? 0 : series;
     int last = series == -1 ? num : series + 1;
     long timeLastLogged = System.currentTimeMillis();
+    startPipeline(writer);
     for (int q=first; q<last; q++) {
       reader.setSeries(q);
       firstTile = true;
@@ -591,6 +644,9 @@ public final class ImageConverter {
     float writeAvg = (float) write / total;
     LOGGER.info("{}s elapsed ({}+{}ms per plane, {}ms overhead)",
       new Object[] {sec, readAvg, writeAvg, initial});
+    if (readStage != null) {
+      logPipelineStats(end - mid);
+    }
 
     return true;
   }
@@ -673,6 +729,13 @@ public final class ImageConverter {
       nYTiles++;
     }
 
+    if (tileReader != null &&
+      currentFile.equals(FormatTools.getTileFilename(0, 0, 0, currentFile)))
+    {
+      return convertTilePlanePipelined(getTiffWriter(writer), index,
+        outputIndex, w, h, nXTiles, nYTiles);
+    }
+
     IFD ifd = new IFD();
     ifd.put(IFD.TILE_WIDTH, w);
     ifd.put(IFD.TILE_LENGTH, h);
@@ -744,6 +807,258 @@ public final class ImageConverter {
     return m;
   }
 
+  /**
+   * Convert the specified plane as a set of tiles, reading and decoding tiles
+   * on a separate thread so that reading overlaps with compressing and
+   * writing.  Where possible each row of tiles is saved at once, so that
+   * the writer compresses the tiles in the row concurrently.
+   * @param writer the {@link loci.formats.out.TiffWriter} to use for writing
+   *   the plane
+   * @param index the index of the plane to convert in the input file
+   * @param outputIndex the index of the plane to convert in the output file
+   * @param w the width of each tile
+   * @param h the height of each tile
+   * @param nXTiles the number of tiles in each row
+   * @param nYTiles the number of rows of tiles
+   * @return the time at which conversion started, in milliseconds
+   * @throws FormatException
+   * @throws IOException
+   */
+  private long convertTilePlanePipelined(TiffWriter writer, final int index,
+    int outputIndex, final int w, final int h, final int nXTiles,
+    final int nYTiles)
+    throws FormatException, IOException
+  {
+    final BlockingQueue<Tile> queue =
+      new ArrayBlockingQueue<Tile>(TILES_PER_THREAD * threads);
+    boolean saveRows =
+      writer.isInterleaved() || reader.getRGBChannelCount() == 1;
+    applyLUT(writer);
+
+    Future<Void> reading = tileReader.submit(new Callable<Void>() {
+      @Override
+      public Void call()
+        throws FormatException, IOException, InterruptedException
+      {
+        try {
+          for (int y=0; y<nYTiles; y++) {
+            for (int x=0; x<nXTiles; x++) {
+              int tileWidth = x < nXTiles - 1 ? w : width - (w * x);
+              int tileHeight = y < nYTiles - 1 ? h : height - (h * y);
+              long start = System.nanoTime();
+              byte[] buf = reader.openBytes(index, xCoordinate + x * w,
+                yCoordinate + y * h, tileWidth, tileHeight);
+              autoscalePlane(buf, index);
+              long read = System.nanoTime();
+              readStage.add(buf.length, read - start);
+              queue.put(new Tile(x, y, tileWidth, tileHeight, buf));
+              readStage.blocked.addAndGet(System.nanoTime() - read);
+            }
+          }
+        }
+        finally {
+          queue.put(END_OF_PLANE);
+        }
+        return null;
+      }
+    });
+
+    IFD ifd = new IFD();
+    ifd.put(IFD.TILE_WIDTH, w);
+    ifd.put(IFD.TILE_LENGTH, h);
+
+    byte[] row = null;
+    Long m = null;
+    try {
+      for (int i=0; i<nXTiles * nYTiles; i++) {
+        long start = System.nanoTime();
+        int depth = queue.size();
+        queueSamples++;
+        queueDepthSum += depth;
+        queueDepthMax = Math.max(queueDepthMax, depth);
+        Tile tile = queue.take();
+        if (tile == END_OF_PLANE) {
+          waitForReader(reading);
+          throw new FormatException("Tiles missing from plane " + index);
+        }
+        long taken = System.nanoTime();
+        writeStage.blocked.addAndGet(taken - start);
+        if (m == null) {
+          m = System.currentTimeMillis();
+        }
+
+        int tileX = xCoordinate + tile.x * w;
+        int tileY = yCoordinate + tile.y * h;
+        if (!saveRows) {
+          writer.saveBytes(outputIndex, tile.buf, ifd,
+            tileX, tileY, tile.width, tile.height);
+        }
+        else {
+          int pixel = tile.buf.length / (tile.width * tile.height);
+          int rowLength = width * pixel;
+          if (tile.x == 0 &&
+            (row == null || row.length != rowLength * tile.height))
+          {
+            row = new byte[rowLength * tile.height];
+          }
+          for (int r=0; r<tile.height; r++) {
+            System.arraycopy(tile.buf, r * tile.width * pixel, row,
+              r * rowLength + tile.x * w * pixel, tile.width * pixel);
+          }
+          if (tile.x == nXTiles - 1) {
+            writer.saveBytes(outputIndex, row, ifd,
+              xCoordinate, tileY, width, tile.height);
+          }
+        }
+        writeStage.add(tile.buf.length, System.nanoTime() - taken);
+      }
+      waitForReader(reading);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new FormatException("Interrupted while converting tiles", e);
+    }
+    finally {
+      reading.cancel(true);
+    }
+    return m;
+  }
+
+  /**
+   * Wait for the reader stage to finish reading a plane, rethrowing any
+   * exception that it threw.
+   */
+  private void waitForReader(Future<Void> reading)
+    throws FormatException, IOException
+  {
+    try {
+      reading.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new FormatException("Interrupted while reading tiles", e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof FormatException) {
+        throw (FormatException) cause;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new FormatException(cause);
+    }
+  }
+
+  /**
+   * Start the threads used to read and compress tiles concurrently, if more
+   * than one thread was requested.
+   * @param writer the {@link loci.formats.IFormatWriter} that will be used
+   * @throws FormatException
+   */
+  private void startPipeline(IFormatWriter writer) throws FormatException {
+    readStage = null;
+    if (threads <= 1) {
+      return;
+    }
+    readStage = new Stage();
+    encodeStage = new Stage();
+    writeStage = new Stage();
+    queueSamples = 0;
+    queueDepthSum = 0;
+    queueDepthMax = 0;
+
+    tileReader =
+      Executors.newSingleThreadExecutor(new StageThreadFactory("read"));
+    tileEncoder = new ThreadPoolExecutor(threads, threads, 0L,
+      TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+      new StageThreadFactory("encode"))
+    {
+      private final ThreadLocal<Long> started = new ThreadLocal<Long>();
+
+      @Override
+      protected void beforeExecute(Thread t, Runnable r) {
+        started.set(System.nanoTime());
+      }
+
+      @Override
+      protected void afterExecute(Runnable r, Throwable t) {
+        encodeStage.add(0, System.nanoTime() - started.get());
+      }
+    };
+
+    TiffWriter tiffWriter = getTiffWriter(writer);
+    if (tiffWriter != null) {
+      tiffWriter.setCompressExecutor(tileEncoder);
+    }
+  }
+
+  /**
+   * Stop the threads started by {@link #startPipeline(IFormatWriter)}.
+   * @param writer the {@link loci.formats.IFormatWriter} that was used
+   * @throws FormatException
+   */
+  private void stopPipeline(IFormatWriter writer) throws FormatException {
+    if (tileReader == null) {
+      return;
+    }
+    tileReader.shutdownNow();
+    tileEncoder.shutdownNow();
+    tileReader = null;
+    tileEncoder = null;
+
+    TiffWriter tiffWriter = getTiffWriter(writer);
+    if (tiffWriter != null) {
+      tiffWriter.setCompressExecutor(null);
+    }
+  }
+
+  /**
+   * Log the throughput of each pipeline stage, and the depth of the queue
+   * of tiles waiting to be written.
+   * @param elapsed the time spent converting planes, in milliseconds
+   */
+  private void logPipelineStats(long elapsed) {
+    LOGGER.info("Read stage: {} tiles, {}; {}s blocked on a full queue",
+      new Object[] {readStage.items, readStage.getThroughput(),
+      readStage.getBlockedSeconds()});
+    float encodeBusy = elapsed == 0 ? 0 :
+      encodeStage.busy.get() / (elapsed * 10000f * threads);
+    LOGGER.info("Encode stage: {} tiles on {} threads, {}% busy",
+      new Object[] {encodeStage.items, threads, encodeBusy});
+    LOGGER.info("Write stage: {} tiles, {}; {}s waiting for tiles",
+      new Object[] {writeStage.items, writeStage.getThroughput(),
+      writeStage.getBlockedSeconds()});
+    float averageDepth =
+      queueSamples == 0 ? 0 : (float) queueDepthSum / queueSamples;
+    LOGGER.info("Tile queue: capacity {}, average depth {}, maximum depth {}",
+      new Object[] {TILES_PER_THREAD * threads, averageDepth, queueDepthMax});
+  }
+
+  /**
+   * Get the TIFF writer that will be used by the given writer, if any.
+   * @param writer the {@link loci.formats.IFormatWriter} to check
+   * @return the {@link loci.formats.out.TiffWriter}, or null
+   * @throws FormatException
+   */
+  private TiffWriter getTiffWriter(IFormatWriter writer)
+    throws FormatException
+  {
+    if (writer instanceof TiffWriter) {
+      return (TiffWriter) writer;
+    }
+    if (writer instanceof ImageWriter) {
+      IFormatWriter w = ((ImageWriter) writer).getWriter(out);
+      if (w instanceof TiffWriter) {
+        return (TiffWriter) w;
+      }
+    }
+    return null;
+  }
+
   /**
    * Calculate the number of vertical tiles represented by the given file name pattern.
    * @param outputName the output file name pattern
@@ -864,6 +1179,68 @@ public final class ImageConverter {
     }
   }
 
+  // -- Helper classes --
+
+  /** A tile read by the reader stage of a pipelined conversion. */
+  private static class Tile {
+    final int x, y, width, height;
+    final byte[] buf;
+
+    Tile(int x, int y, int width, int height, byte[] buf) {
+      this.x = x;
+      this.y = y;
+      this.width = width;
+      this.height = height;
+      this.buf = buf;
+    }
+  }
+
+  /** Work done by one stage of a pipelined conversion. */
+  private static class Stage {
+    final AtomicLong items = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+
+    /** Nanoseconds spent working. */
+    final AtomicLong busy = new AtomicLong();
+
+    /** Nanoseconds spent waiting on the tile queue. */
+    final AtomicLong blocked = new AtomicLong();
+
+    void add(long nBytes, long nanos) {
+      items.incrementAndGet();
+      bytes.addAndGet(nBytes);
+      busy.addAndGet(nanos);
+    }
+
+    String getThroughput() {
+      float mb = bytes.get() / (1024f * 1024f);
+      float seconds = busy.get() / 1e9f;
+      return String.format("%.1f MB in %.1fs (%.1f MB/s)", mb, seconds,
+        seconds == 0 ? 0 : mb / seconds);
+    }
+
+    String getBlockedSeconds() {
+      return String.format("%.1f", blocked.get() / 1e9f);
+    }
+  }
+
+  /** Creates daemon threads, so that a failed conversion cannot hang. */
+  private static class StageThreadFactory implements ThreadFactory {
+    private final String stage;
+    private int count = 0;
+
+    StageThreadFactory(String stage) {
+      this.stage = stage;
+    }
+
+    @Override
+    public synchronized Thread newThread(Runnable r) {
+      Thread t = new Thread(r, "bfconvert-" + stage + "-" + count++);
+      t.setDaemon(true);
+      return t;
+    }
+  }
+
   // -- Main method --
 
   public static void main(String[] args) throws FormatException, IOException {
@@ -561,6 +561,46 @@ public class J2KImageReader extends ImageReader implements MsgLogger {
         return ras;
     }
 
+    /**
+     * Decodes the image directly into a byte array, without creating a
+     * Raster.  The samples are stored with the given byte order, with the
+     * bands either interleaved or in consecutive planes.
+     *
+     * @return the decoded samples, or <code>null</code> if this image can
+     *         only be decoded with {@link #readRaster(int, ImageReadParam)}
+     */
+    public byte[] readBytes(int imageIndex, ImageReadParam param,
+                            boolean littleEndian, boolean interleaved)
+        throws IOException {
+        checkIndex(imageIndex);
+        processImageStarted(imageIndex);
+
+        if (param == null) {
+            param = getDefaultReadParam();
+        }
+        param = new J2KImageReadParamJava(param);
+
+        iis.seek(streamPosition0);
+        if (!ignoreMetadata) {
+            imageMetadata = new J2KMetadata();
+            readState = new J2KReadState(iis,
+                                         (J2KImageReadParamJava)param,
+                                         imageMetadata,
+                                         this);
+        } else {
+            readState = new J2KReadState(iis,
+                                         (J2KImageReadParamJava)param,
+                                         this);
+        }
+
+        byte[] bytes = readState.readAsBytes(littleEndian, interleaved);
+        if (abortRequested())
+            processReadAborted();
+        else
+            processImageComplete();
+        return bytes;
+    }
+
     public boolean isImageTiled(int imageIndex) {
         checkIndex(imageIndex);
         readHeader();
@@ -615,6 +615,18 @@ public class J2KReadState {
                                (":\n"+e.getMessage()) : ""));
             }
 
+            // Only the code-blocks contributing to the source region need
+            // to be read and decoded
+            if (param.getSourceRegion() != null &&
+                breader instanceof FileBitstreamReaderAgent &&
+                decSpec.dls.getMin() == decSpec.dls.getMax()) {
+                ((FileBitstreamReaderAgent)breader).setRegion(
+                    sourceOrigin.x, sourceOrigin.y,
+                    destinationRegion.width * scaleX,
+                    destinationRegion.height * scaleY,
+                    minResLevels - resolution);
+            }
+
             // **** Entropy decoder ****
             try {
                 entdec = hd.createEntropyDecoder(breader, j2krparam);
@@ -742,6 +754,188 @@ public class J2KReadState {
         }
     }
 
+    /**
+     * Decodes the destination region straight into a byte array, without
+     * creating a Raster.  Each sample is 1, 2 or 4 bytes wide, matching the
+     * data type chosen by {@link #getSampleModel()}, and is stored in the
+     * requested byte order.  Bands are either interleaved or stored as
+     * consecutive planes.
+     *
+     * @return the decoded samples, or <code>null</code> if the image must
+     *         be decoded with {@link #readAsRaster()} instead (packed binary
+     *         samples, YCbCr data or a destination image or offset)
+     */
+    public byte[] readAsBytes(boolean littleEndian, boolean interleaved)
+        throws IOException {
+        if (j2krparam.getDestination() != null ||
+            destinationRegion.x != 0 || destinationRegion.y != 0)
+            return null;
+
+        sampleModel = getSampleModel();
+        if (ImageUtil.isBinary(sampleModel) ||
+            sampleModel instanceof MultiPixelPackedSampleModel)
+            return null;
+
+        int bpp = maxDepth <= 8 ? 1 : (maxDepth <= 16 ? 2 : 4);
+        int outBands = sampleModel.getNumBands();
+        int w = destinationRegion.width;
+        int h = destinationRegion.height;
+        long planeSize = (long) w * h * bpp;
+        if (planeSize * outBands > Integer.MAX_VALUE)
+            return null;
+        byte[] buf = new byte[(int) (planeSize * outBands)];
+
+        // distance in bytes between adjacent samples of the same band
+        int pixelStride = interleaved ? outBands * bpp : bpp;
+        int rowStride = w * pixelStride;
+        int[] bandStart = new int[destinationBands.length];
+        for (int i = 0; i < bandStart.length; i++)
+            bandStart[i] = interleaved ? destinationBands[i] * bpp :
+                (int) (destinationBands[i] * planeSize);
+
+        Point nT = ictransf.getNumTiles(null);
+        int numBands = sourceBands.length;
+
+        int sourceSX = sourceOrigin.x;
+        int sourceSY = sourceOrigin.y;
+        int sourceEX = (w - 1) * scaleX + sourceSX;
+        int sourceEY = (h - 1) * scaleY + sourceSY;
+
+        int startXTile = clip((sourceSX - tileXOffset) / tileWidth, 0, nT.x - 1);
+        int startYTile = clip((sourceSY - tileYOffset) / tileHeight, 0, nT.y - 1);
+        int endXTile = clip((sourceEX - tileXOffset) / tileWidth, 0, nT.x - 1);
+        int endYTile = clip((sourceEY - tileYOffset) / tileHeight, 0, nT.y - 1);
+
+        int totalXTiles = endXTile - startXTile + 1;
+        int totalTiles = totalXTiles * (endYTile - startYTile + 1);
+
+        for (int y = startYTile; y <= endYTile; y++) {
+            if (reader.getAbortRequest())
+                break;
+
+            for (int x = startXTile; x <= endXTile; x++) {
+                if (reader.getAbortRequest())
+                    break;
+
+                float initialFraction =
+                    (x - startXTile + (y - startYTile)*totalXTiles)/totalTiles;
+
+                ictransf.setTile(x*tileStepX, y*tileStepY);
+
+                int sx = hd.getCompSubsX(0);
+                int cTileWidth = (ictransf.getTileWidth() + sx - 1)/sx;
+                int sy = hd.getCompSubsY(0);
+                int cTileHeight = (ictransf.getTileHeight() + sy - 1)/sy;
+
+                // Offsets within the tile, as in readSubsampledRaster
+                int tx = 0;
+                int ty = 0;
+                int startX = tileXOffset + x * tileWidth;
+                int startY = tileYOffset + y * tileHeight;
+
+                if (sourceSX > startX) {
+                    if (startX >= hd.getImgULX()) {
+                        tx = sourceSX - startX;
+                        cTileWidth -= tx;
+                    }
+                    startX = sourceSX;
+                }
+                if (sourceSY > startY) {
+                    if (startY >= hd.getImgULY()) {
+                        ty = sourceSY - startY;
+                        cTileHeight -= ty;
+                    }
+                    startY = sourceSY;
+                }
+                if (sourceEX < startX + cTileWidth - 1)
+                    cTileWidth += sourceEX - startX - cTileWidth + 1;
+                if (sourceEY < startY + cTileHeight - 1)
+                    cTileHeight += sourceEY - startY - cTileHeight + 1;
+
+                int x1 = (startX + scaleX - 1 - sourceOrigin.x) / scaleX;
+                int x2 = (startX + scaleX -1 + cTileWidth - sourceOrigin.x) /
+                         scaleX;
+                int lineLength = x2 - x1;
+                x2 = (x2 - 1) * scaleX + sourceOrigin.x - startX;
+                int y1 = (startY + scaleY -1 - sourceOrigin.y) /scaleY;
+
+                // YCbCr data is only handled by readSubsampledRaster
+                for (int i = 0; i < numBands; i++) {
+                    DataBlkInt db = dataBlocks[i];
+                    db.ulx = tx;
+                    db.uly = ty + cTileHeight - 1;
+                    db.w = cTileWidth;
+                    db.h = 1;
+                    try {
+                        ictransf.getInternCompData(db, channelMap[sourceBands[i]]);
+                    }
+                    catch (ArrayIndexOutOfBoundsException e) {
+                        return null;
+                    }
+                }
+
+                for (int l = ty, m = y1;
+                     l < ty + cTileHeight;
+                     l += scaleY, m++) {
+                    if (reader.getAbortRequest())
+                        break;
+
+                    for (int i = 0; i < numBands; i++) {
+                        DataBlkInt db = dataBlocks[i];
+                        db.ulx = tx;
+                        db.uly = l;
+                        db.w = cTileWidth;
+                        db.h = 1;
+                        ictransf.getInternCompData(db, channelMap[sourceBands[i]]);
+
+                        int[] data = db.data;
+                        int k1 = db.offset + x2;
+
+                        int fracBit = fracBits[i];
+                        int lS = levelShift[i];
+                        int min = minValues[i];
+                        int max = maxValues[i];
+
+                        int off = bandStart[i] + m * rowStride +
+                            (x1 + lineLength - 1) * pixelStride;
+                        for (int j = lineLength - 1; j >= 0;
+                             j--, k1 -= scaleX, off -= pixelStride) {
+                            int tmp = (data[k1] >> fracBit) + lS;
+                            tmp = (tmp < min) ? min : ((tmp > max) ? max : tmp);
+                            if (bpp == 1) {
+                                buf[off] = (byte) tmp;
+                            } else if (bpp == 2) {
+                                if (littleEndian) {
+                                    buf[off] = (byte) tmp;
+                                    buf[off + 1] = (byte) (tmp >> 8);
+                                } else {
+                                    buf[off] = (byte) (tmp >> 8);
+                                    buf[off + 1] = (byte) tmp;
+                                }
+                            } else if (littleEndian) {
+                                buf[off] = (byte) tmp;
+                                buf[off + 1] = (byte) (tmp >> 8);
+                                buf[off + 2] = (byte) (tmp >> 16);
+                                buf[off + 3] = (byte) (tmp >> 24);
+                            } else {
+                                buf[off] = (byte) (tmp >> 24);
+                                buf[off + 1] = (byte) (tmp >> 16);
+                                buf[off + 2] = (byte) (tmp >> 8);
+                                buf[off + 3] = (byte) tmp;
+                            }
+                        }
+                    }
+
+                    float fraction = initialFraction +
+                        (l - ty + 1.0F)/cTileHeight/totalTiles;
+                    reader.processImageProgressWrapper(100.0f*fraction);
+                }
+            }
+        }
+
+        return buf;
+    }
+
     private Raster readSubsampledRaster(WritableRaster raster) throws IOException {
         if (raster == null)
             raster = Raster.createWritableRaster(
@@ -237,6 +237,20 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
     /** Whether or not to use only first progression order */
     private boolean usePOCQuit = false;
 
+    /**
+     * Number of subband samples added around the region of interest, so
+     * that the wavelet synthesis filters of every level see all the
+     * coefficients that contribute to the region.
+     * */
+    private static final int REGION_MARGIN = 8;
+
+    /** The region of interest (x0, y0, x1, y1), or null for the whole
+     * image */
+    private int[] region;
+
+    /** The decomposition level in which the region is expressed */
+    private int regionLevel;
+
     /**
      * Reads all tiles headers and keep offset of their first
      * packet. Finally it calls the rate allocation method.
@@ -2281,6 +2295,53 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         }
     }
 
+    /**
+     * Restricts decoding to a region of interest. Code-blocks which do not
+     * contribute to the region are returned without any data, so they are
+     * neither read from the bit stream nor entropy decoded. Samples outside
+     * of the region are not reconstructed correctly.
+     *
+     * @param x The horizontal coordinate of the region, in the component's
+     * grid at the given decomposition level.
+     *
+     * @param y The vertical coordinate of the region.
+     *
+     * @param w The width of the region.
+     *
+     * @param h The height of the region.
+     *
+     * @param level The decomposition level in which the region is expressed,
+     * i.e. the number of resolution levels discarded below the full
+     * resolution.
+     * */
+    public void setRegion(int x, int y, int w, int h, int level) {
+        region = new int[] {x, y, x + w, y + h};
+        regionLevel = level;
+    }
+
+    /**
+     * Returns whether the given code-block may contribute to the region of
+     * interest set with {@link #setRegion}.
+     * */
+    private boolean intersectsRegion(CBlkInfo cb, SubbandSyn sb) {
+        if (region == null) {
+            return true;
+        }
+        int shift = sb.level - regionLevel;
+        if (shift < 0) {
+            return true;
+        }
+        int x0 = (region[0] >> shift) - REGION_MARGIN;
+        int y0 = (region[1] >> shift) - REGION_MARGIN;
+        int x1 = ((region[2] + (1 << shift) - 1) >> shift) + REGION_MARGIN;
+        int y1 = ((region[3] + (1 << shift) - 1) >> shift) + REGION_MARGIN;
+
+        // Code-block position in the subband, with respect to the canvas
+        int cx = sb.ulcx + cb.ulx - sb.ulx;
+        int cy = sb.ulcy + cb.uly - sb.uly;
+        return cx < x1 && cx + cb.w > x0 && cy < y1 && cy + cb.h > y0;
+    }
+
     /**
      * Returns the specified coded code-block, for the specified component, in
      * the current tile. The first layer to return is indicated by 'fl'. The
@@ -2406,6 +2467,13 @@ public class FileBitstreamReaderAgent extends BitstreamReaderAgent
         ccb.h = rcb.h;
         ccb.ftpIdx = 0;
 
+        if(!intersectsRegion(rcb, sb)) {
+            // Outside of the region of interest. Returns no data
+            ccb.skipMSBP = 0;
+            ccb.prog = false;
+            return ccb;
+        }
+
         // Search for index of first truncation point (first layer where
         // length of data is not zero)
         int l=0;
@@ -82,6 +82,17 @@ public abstract class DelegateReader extends FormatReader {
   /** Gets whether to use the legacy reader by default. */
   public boolean isLegacy() { return useLegacy; }
 
+  // -- Internal FormatReader API methods --
+
+  /* @see FormatReader#setHeaderBlock(HeaderBlock) */
+  @Override
+  void setHeaderBlock(HeaderBlock block) {
+    super.setHeaderBlock(block);
+    if (nativeReader instanceof FormatReader) {
+      ((FormatReader) nativeReader).setHeaderBlock(block);
+    }
+  }
+
   // -- IMetadataConfigurable API methods --
 
   /* @see IMetadataConfigurable#getSupportedMetadataLevels() */
@@ -0,0 +1,296 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package loci.formats;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of the reader chosen by {@link ImageReader} for each file, so that
+ * files which have already been identified do not need to be checked
+ * against every reader again.
+ *
+ * Entries are keyed on the canonical path of the file and are only used
+ * while the file's length and last modification time are unchanged.  The
+ * most recently used entries are kept in memory; if a directory is given,
+ * entries are also stored on disk under that directory, in the same layout
+ * as loci.formats.Memoizer memo files, so that they outlive the JVM.
+ *
+ * @see ImageReader#setDetectionCache(DetectionCache)
+ */
+public class DetectionCache {
+
+  // -- Constants --
+
+  /** Default maximum number of entries held in memory. */
+  public static final int DEFAULT_SIZE = 10000;
+
+  /** Version number of the files written to disk. */
+  public static final int VERSION = 1;
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(DetectionCache.class);
+
+  // -- Fields --
+
+  /** Directory under which entries are stored, or null. */
+  private final File directory;
+
+  /** Entries in least recently used order. */
+  private final Map<String, CacheEntry> entries;
+
+  // -- Constructors --
+
+  /** Constructs an in-memory cache of {@link #DEFAULT_SIZE} entries. */
+  public DetectionCache() {
+    this(DEFAULT_SIZE, null);
+  }
+
+  /**
+   * Constructs a cache of {@link #DEFAULT_SIZE} entries in memory, also
+   * stored under the given directory.
+   */
+  public DetectionCache(File directory) {
+    this(DEFAULT_SIZE, directory);
+  }
+
+  /**
+   * Constructs a cache that holds at most the given number of entries
+   * in memory.
+   *
+   * @param directory a {@link File} specifying the directory under which
+   *   entries are stored, or null if entries should only be held in memory
+   */
+  public DetectionCache(final int maxEntries, File directory) {
+    this.directory = directory;
+    entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(
+        Map.Entry<String, CacheEntry> eldest)
+      {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  // -- DetectionCache API methods --
+
+  /** Returns the directory under which entries are stored, or null. */
+  public File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Returns the name of the reader class recorded for the given file,
+   * or null if there is no entry or the file has changed since the entry
+   * was recorded.
+   */
+  public String get(String id) {
+    File file = new File(id);
+    if (!file.isFile()) return null;
+    String path = getPath(file);
+    if (path == null) return null;
+
+    CacheEntry entry;
+    synchronized (entries) {
+      entry = entries.get(path);
+    }
+    if (entry == null && directory != null) {
+      entry = load(path);
+      if (entry != null) {
+        synchronized (entries) {
+          entries.put(path, entry);
+        }
+      }
+    }
+    if (entry == null) return null;
+
+    if (entry.length != file.length() ||
+      entry.lastModified != file.lastModified())
+    {
+      LOGGER.debug("{} has changed; ignoring cached reader {}", id,
+        entry.reader);
+      removePath(path);
+      return null;
+    }
+    return entry.reader;
+  }
+
+  /** Records the reader class chosen for the given file. */
+  public void put(String id, Class<? extends IFormatReader> reader) {
+    File file = new File(id);
+    if (!file.isFile()) return;
+    String path = getPath(file);
+    if (path == null) return;
+
+    CacheEntry entry = new CacheEntry();
+    entry.length = file.length();
+    entry.lastModified = file.lastModified();
+    entry.reader = reader.getName();
+    synchronized (entries) {
+      entries.put(path, entry);
+    }
+    if (directory != null) {
+      save(path, entry);
+    }
+  }
+
+  /** Removes any entry for the given file. */
+  public void remove(String id) {
+    String path = getPath(new File(id));
+    if (path != null) removePath(path);
+  }
+
+  /** Removes all entries held in memory. */
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+    }
+  }
+
+  /**
+   * Returns the file under {@link #getDirectory()} in which the entry for
+   * the given file is stored, or null if entries are only held in memory.
+   */
+  public File getCacheFile(String id) {
+    String path = getPath(new File(id));
+    return path == null ? null : getStoreFile(path);
+  }
+
+  // -- Helper methods --
+
+  /** Returns the file in which the entry for the canonical path is stored. */
+  private File getStoreFile(String path) {
+    if (directory == null) return null;
+    // this serves to strip off the drive letter on Windows
+    path = path.substring(path.indexOf(File.separator) + 1);
+    File f = new File(directory, path);
+    return new File(f.getParent(), "." + f.getName() + ".bfdetect");
+  }
+
+  private void removePath(String path) {
+    synchronized (entries) {
+      entries.remove(path);
+    }
+    File f = getStoreFile(path);
+    if (f != null && f.exists() && !f.delete()) {
+      LOGGER.debug("Could not delete {}", f);
+    }
+  }
+
+  private String getPath(File file) {
+    try {
+      return file.getCanonicalPath();
+    }
+    catch (IOException e) {
+      LOGGER.debug("Could not resolve {}", file, e);
+      return null;
+    }
+  }
+
+  private CacheEntry load(String path) {
+    File f = getStoreFile(path);
+    if (f == null || !f.exists()) return null;
+    try {
+      DataInputStream in = new DataInputStream(new FileInputStream(f));
+      try {
+        if (in.readInt() != VERSION || !path.equals(in.readUTF())) {
+          return null;
+        }
+        CacheEntry entry = new CacheEntry();
+        entry.length = in.readLong();
+        entry.lastModified = in.readLong();
+        entry.reader = in.readUTF();
+        return entry;
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      LOGGER.debug("Could not read {}", f, e);
+      return null;
+    }
+  }
+
+  private void save(String path, CacheEntry entry) {
+    File f = getStoreFile(path);
+    File parent = f.getParentFile();
+    if (!parent.exists() && !parent.mkdirs()) {
+      LOGGER.debug("Could not create {}", parent);
+      return;
+    }
+    try {
+      // write to a temporary file first, so that concurrent readers
+      // never see a partial entry
+      File tempFile = File.createTempFile(f.getName(), ".tmp", parent);
+      DataOutputStream out =
+        new DataOutputStream(new FileOutputStream(tempFile));
+      try {
+        out.writeInt(VERSION);
+        out.writeUTF(path);
+        out.writeLong(entry.length);
+        out.writeLong(entry.lastModified);
+        out.writeUTF(entry.reader);
+      }
+      finally {
+        out.close();
+      }
+      if (f.exists()) f.delete();
+      if (!tempFile.renameTo(f)) {
+        LOGGER.debug("Could not rename {} to {}", tempFile, f);
+        tempFile.delete();
+      }
+    }
+    catch (IOException e) {
+      LOGGER.debug("Could not write {}", f, e);
+    }
+  }
+
+  // -- Helper classes --
+
+  private static class CacheEntry {
+    public long length;
+    public long lastModified;
+    public String reader;
+  }
+
+}
@@ -33,6 +33,7 @@
 package loci.formats;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
@@ -125,6 +126,15 @@ public abstract class FormatReader extends FormatHandler
   /** Default thumbnail width and height. */
   protected static final int THUMBNAIL_DIMENSION = 128;
 
+  /**
+   * Largest gap between the rows of a region that {@link #readPlane} reads
+   * through, rather than issuing a separate read for each row.
+   */
+  private static final int MAX_REGION_GAP = 64 * 1024;
+
+  /** Largest number of bytes read at once when reading through row gaps. */
+  private static final int MAX_REGION_SPAN = 4 * 1024 * 1024;
+
   // -- Fields --
 
   /** Current file. */
@@ -193,6 +203,19 @@ public abstract class FormatReader extends FormatHandler
   private ServiceFactory factory;
   private OMEXMLService service;
 
+  /**
+   * Start of the file whose type is being checked, shared with other
+   * readers by {@link ImageReader}.
+   */
+  private transient HeaderBlock headerBlock;
+
+  /**
+   * Array into which planes are read before being copied into a buffer
+   * passed to {@link #openBytes(int, ByteBuffer, int, int, int, int)}
+   * that has no accessible backing array.  Reused between calls.
+   */
+  private transient byte[] transferBuffer;
+
   // -- Constructors --
 
   /** Constructs a format reader with the given name and default suffix. */
@@ -546,44 +569,117 @@ public abstract class FormatReader extends FormatHandler
       }
     }
     else {
-      int scanlineWidth = getSizeX() + scanlinePad;
+      // compute the position of every row up front, and read them with
+      // positional reads instead of a skip and a buffered read per row
+      // where the stream supports them
+      long start = s.getFilePointer();
+      long scanlineWidth = getSizeX() + scanlinePad;
+      long end = start;
       if (isInterleaved()) {
-        s.skipBytes(y * scanlineWidth * bpp * c);
-        for (int row=0; row<h; row++) {
-          s.skipBytes(x * bpp * c);
-          s.read(buf, row * w * bpp * c, w * bpp * c);
-          if (row < h - 1) {
-            // no need to skip bytes after reading final row
-            s.skipBytes(bpp * c * (scanlineWidth - w - x));
-          }
-        }
+        long stride = scanlineWidth * bpp * c;
+        long first = start + y * stride + (long) x * bpp * c;
+        readRows(s, first, stride, w * bpp * c, h, buf, 0);
+        end = first + (h - 1) * stride + w * bpp * c;
       }
       else {
+        long stride = scanlineWidth * bpp;
+        long planeStride = stride * getSizeY();
         for (int channel=0; channel<c; channel++) {
-          s.skipBytes(y * scanlineWidth * bpp);
-          for (int row=0; row<h; row++) {
-            s.skipBytes(x * bpp);
-            s.read(buf, channel * w * h * bpp + row * w * bpp, w * bpp);
-            if (row < h - 1 || channel < c - 1) {
-              // no need to skip bytes after reading final row of final channel
-              s.skipBytes(bpp * (scanlineWidth - w - x));
-            }
-          }
-          if (channel < c - 1) {
-            // no need to skip bytes after reading final channel
-            s.skipBytes(scanlineWidth * bpp * (getSizeY() - y - h));
-          }
+          long first = start + channel * planeStride + y * stride +
+            (long) x * bpp;
+          readRows(s, first, stride, w * bpp, h, buf, channel * w * h * bpp);
+          end = first + (h - 1) * stride + w * bpp;
         }
       }
+      // leave the stream just after the last row, as sequential reads would
+      s.seek(Math.min(end, s.length()));
     }
     return buf;
   }
 
+  /**
+   * Reads evenly spaced rows from the given stream into consecutive rows of
+   * the given buffer.  Rows that are close together are read with a single
+   * read through the gaps between them; rows that are far apart are each
+   * read directly into the buffer.  As with sequential reads, rows beyond
+   * the end of the stream are left unchanged.
+   *
+   * @param first position of the first row in the stream
+   * @param stride distance between the starts of consecutive rows
+   * @param rowLength number of bytes in each row
+   * @param rows number of rows to read
+   * @param buf the buffer into which rows are read
+   * @param offset position in buf of the first row
+   */
+  private void readRows(RandomAccessInputStream s, long first, long stride,
+    int rowLength, int rows, byte[] buf, int offset) throws IOException
+  {
+    if (rows <= 0 || rowLength <= 0) return;
+    if (stride == rowLength) {
+      readAvailable(s, first, buf, offset, rows * rowLength);
+    }
+    else if (stride - rowLength > MAX_REGION_GAP) {
+      for (int row=0; row<rows; row++) {
+        readAvailable(s, first + row * stride, buf, offset + row * rowLength,
+          rowLength);
+      }
+    }
+    else {
+      int rowsPerSpan = (int) Math.max(1, Math.min(rows,
+        (MAX_REGION_SPAN - rowLength) / stride + 1));
+      byte[] span = new byte[(int) ((rowsPerSpan - 1) * stride + rowLength)];
+      for (int row=0; row<rows; row+=rowsPerSpan) {
+        int n = Math.min(rowsPerSpan, rows - row);
+        int read = readAvailable(s, first + row * stride, span, 0,
+          (int) ((n - 1) * stride + rowLength));
+        for (int i=0; i<n; i++) {
+          int length = (int) Math.min(rowLength, read - i * stride);
+          if (length <= 0) break;
+          System.arraycopy(span, (int) (i * stride), buf,
+            offset + (row + i) * rowLength, length);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads up to the given number of bytes at the given position, stopping
+   * early at the end of the stream.
+   *
+   * @return the number of bytes read
+   */
+  private int readAvailable(RandomAccessInputStream s, long pos, byte[] buf,
+    int offset, int length) throws IOException
+  {
+    boolean positional = s.isPositionalReadEfficient();
+    if (!positional) {
+      // stream-based handles only seek cheaply forwards
+      s.seek(pos);
+    }
+    int total = 0;
+    while (total < length) {
+      int n = positional ?
+        s.read(pos + total, buf, offset + total, length - total) :
+        s.read(buf, offset + total, length - total);
+      if (n <= 0) break;
+      total += n;
+    }
+    return total;
+  }
+
   /** Return a properly configured loci.formats.meta.FilterMetadata. */
   protected MetadataStore makeFilterMetadata() {
     return new FilterMetadata(getMetadataStore(), isMetadataFiltered());
   }
 
+  /**
+   * Sets the shared block from which
+   * {@link #isThisType(String, boolean)} reads the start of the file.
+   */
+  void setHeaderBlock(HeaderBlock block) {
+    headerBlock = block;
+  }
+
   // -- IFormatReader API methods --
 
   /**
@@ -614,6 +710,16 @@ public abstract class FormatReader extends FormatHandler
 
     // suffix matching was inconclusive; we need to analyze the file contents
     if (!open) return false; // not allowed to open any files
+    if (headerBlock != null && name.equals(headerBlock.getId())) {
+      try {
+        return isThisType(headerBlock.getStream());
+      }
+      catch (IOException exc) {
+        // reads past the end of the block are repeated by ImageReader
+        if (!headerBlock.isExhausted()) LOGGER.debug("", exc);
+        return false;
+      }
+    }
     try {
       RandomAccessInputStream stream = new RandomAccessInputStream(name);
       boolean isThisType = isThisType(stream);
@@ -895,6 +1001,57 @@ public abstract class FormatReader extends FormatHandler
   public abstract byte[] openBytes(int no, byte[] buf, int x, int y,
     int w, int h) throws FormatException, IOException;
 
+  /* @see IFormatReader#openBytes(int, ByteBuffer) */
+  @Override
+  public ByteBuffer openBytes(int no, ByteBuffer buf)
+    throws FormatException, IOException
+  {
+    return openBytes(no, buf, 0, 0, getSizeX(), getSizeY());
+  }
+
+  /**
+   * Heap buffers positioned at the start of their backing array are filled
+   * in place by {@link #openBytes(int, byte[], int, int, int, int)}; any
+   * other buffer is filled from an array that is reused between calls.
+   * Readers that can decode directly into a buffer should override this.
+   *
+   * @see IFormatReader#openBytes(int, ByteBuffer, int, int, int, int)
+   */
+  @Override
+  public ByteBuffer openBytes(int no, ByteBuffer buf, int x, int y, int w,
+    int h) throws FormatException, IOException
+  {
+    FormatTools.checkPlaneParameters(this, no, buf.remaining(), x, y, w, h);
+    int size = FormatTools.getPlaneSize(this, w, h);
+    if (buf.hasArray() && buf.arrayOffset() + buf.position() == 0) {
+      openBytes(no, buf.array(), x, y, w, h);
+      buf.position(size);
+      return buf;
+    }
+    if (transferBuffer == null || transferBuffer.length < size) {
+      transferBuffer = new byte[size];
+    }
+    openBytes(no, transferBuffer, x, y, w, h);
+    buf.put(transferBuffer, 0, size);
+    return buf;
+  }
+
+  /* @see IFormatReader#openBytes(int, ByteBuffer[]) */
+  @Override
+  public long openBytes(int no, ByteBuffer[] bufs)
+    throws FormatException, IOException
+  {
+    return openBytes(no, bufs, 0, 0, getSizeX(), getSizeY());
+  }
+
+  /* @see IFormatReader#openBytes(int, ByteBuffer[], int, int, int, int) */
+  @Override
+  public long openBytes(int no, ByteBuffer[] bufs, int x, int y, int w,
+    int h) throws FormatException, IOException
+  {
+    return FormatTools.openBytes(this, no, bufs, x, y, w, h);
+  }
+
   /* @see IFormatReader#openPlane(int, int, int, int, int int) */
   @Override
   public Object openPlane(int no, int x, int y, int w, int h)
@@ -920,6 +1077,7 @@ public abstract class FormatReader extends FormatHandler
       currentId = null;
       resolution = 0;
       core = null;
+      transferBuffer = null;
     }
   }
 
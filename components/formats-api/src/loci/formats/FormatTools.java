@@ -34,14 +34,16 @@ package loci.formats;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 import java.util.Vector;
 
 import loci.common.Constants;
+import loci.common.DataTools;
 import loci.common.DateTools;
 import loci.common.RandomAccessInputStream;
-import loci.common.ReflectException;
-import loci.common.ReflectedUniverse;
 
 import loci.common.services.DependencyException;
 import loci.common.services.ServiceException;
@@ -181,6 +183,12 @@ public final class FormatTools {
 
   // -- Constants - miscellaneous --
 
+  /**
+   * Maximum size in bytes of a plane that {@link #openThumbBytes} reads in
+   * full; larger planes are subsampled by row.
+   */
+  public static final int MAX_THUMBNAIL_PLANE_SIZE = 64 * 1024 * 1024;
+
   /** File grouping options. */
   public static final int MUST_GROUP = 0;
   public static final int CAN_GROUP = 1;
@@ -198,6 +206,12 @@ public final class FormatTools {
   public static final String TILE_Y = "%y";
   public static final String TILE_NUM = "%m";
 
+  /**
+   * Largest strip of rows read at once by
+   * {@link #openBytes(IFormatReader, int, ByteBuffer[], int, int, int, int)}.
+   */
+  public static final int MAX_STRIP_SIZE = 64 * 1024 * 1024;
+
   // -- Constants - versioning --
 
   public static final Properties VERSION_PROPERTIES = loadProperties();
@@ -939,6 +953,22 @@ public final class FormatTools {
     if (bufLength >= 0) checkBufferSize(r, bufLength, w, h);
   }
 
+  /**
+   * Convenience method for checking that the plane number, tile size and
+   * buffer sizes are all valid for the given reader, where the buffer
+   * length may exceed 2 GB.
+   * If 'bufLength' is less than 0, then the buffer length check is not
+   * performed.
+   */
+  public static void checkPlaneParameters(IFormatReader r, int no,
+    long bufLength, int x, int y, int w, int h) throws FormatException
+  {
+    assertId(r.getCurrentFile(), true, 2);
+    checkPlaneNumber(r, no);
+    checkTileSize(r, x, y, w, h);
+    if (bufLength >= 0) checkBufferSize(r, bufLength, w, h);
+  }
+
   /** Checks that the given plane number is valid for the given reader. */
   public static void checkPlaneNumber(IFormatReader r, int no)
     throws FormatException
@@ -985,6 +1015,21 @@ public final class FormatTools {
     }
   }
 
+  /**
+   * Checks that the given buffer size, which may exceed 2 GB, is large
+   * enough to hold a w * h image as returned by the given reader.
+   * @throws FormatException if the buffer is too small
+   */
+  public static void checkBufferSize(IFormatReader r, long len, int w, int h)
+    throws FormatException
+  {
+    long size = getPlaneSize(r, (long) w, (long) h);
+    if (size > len) {
+      throw new FormatException("Buffer too small (got " + len +
+        ", expected " + size + ").");
+    }
+  }
+
   /**
    * Returns true if the given RandomAccessInputStream conatins at least
    * 'len' bytes.
@@ -1007,6 +1052,14 @@ public final class FormatTools {
     return w * h * r.getRGBChannelCount() * getBytesPerPixel(r.getPixelType());
   }
 
+  /**
+   * Returns the size in bytes of a w * h tile, which unlike
+   * {@link #getPlaneSize(IFormatReader, int, int)} may exceed 2 GB.
+   */
+  public static long getPlaneSize(IFormatReader r, long w, long h) {
+    return w * h * r.getRGBChannelCount() * getBytesPerPixel(r.getPixelType());
+  }
+
   // -- Utility methods -- export
 
   public static String getTileFilename(int tileX, int tileY,
@@ -1105,6 +1158,150 @@ public final class FormatTools {
 
   // -- Utility methods -- other
 
+  /**
+   * Reads a sub-image of the given plane into the given buffer through the
+   * reader's byte array methods, as described by
+   * {@link IFormatReader#openBytes(int, ByteBuffer, int, int, int, int)}.
+   * Heap buffers positioned at the start of their backing array are filled
+   * in place; any other buffer is filled from a temporary array.
+   */
+  public static ByteBuffer openBytes(IFormatReader reader, int no,
+    ByteBuffer buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    checkPlaneParameters(reader, no, buf.remaining(), x, y, w, h);
+    if (buf.hasArray() && buf.arrayOffset() + buf.position() == 0) {
+      reader.openBytes(no, buf.array(), x, y, w, h);
+      buf.position(getPlaneSize(reader, w, h));
+    }
+    else {
+      buf.put(reader.openBytes(no, x, y, w, h));
+    }
+    return buf;
+  }
+
+  /**
+   * Reads a sub-image of the given plane into the given sequence of buffers,
+   * as described by
+   * {@link IFormatReader#openBytes(int, ByteBuffer[], int, int, int, int)}.
+   * The sub-image is read in strips of whole rows, each small enough to fit
+   * in an array, and each strip is copied into place in the buffers.
+   */
+  public static long openBytes(IFormatReader reader, int no,
+    ByteBuffer[] bufs, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    long remaining = 0;
+    for (ByteBuffer buf : bufs) {
+      remaining += buf.remaining();
+    }
+    checkPlaneParameters(reader, no, remaining, x, y, w, h);
+
+    int bpp = getBytesPerPixel(reader.getPixelType());
+    int channels = reader.getRGBChannelCount();
+    boolean planar = channels > 1 && !reader.isInterleaved();
+    long size = getPlaneSize(reader, (long) w, (long) h);
+    long rowSize = (long) w * bpp * channels;
+    if (rowSize > Integer.MAX_VALUE) {
+      throw new FormatException("Rows of more than 2 GB are not supported " +
+        "(" + w + " pixels x " + channels + " channels x " + bpp + " bytes)");
+    }
+
+    int stripHeight = (int) Math.max(1, Math.min(h, MAX_STRIP_SIZE / rowSize));
+    int tileHeight = reader.getOptimalTileHeight();
+    if (tileHeight > 0 && stripHeight > tileHeight) {
+      stripHeight -= stripHeight % tileHeight;
+    }
+
+    // offsets of the buffers within the sub-image
+    long[] starts = new long[bufs.length + 1];
+    for (int i=0; i<bufs.length; i++) {
+      starts[i + 1] = starts[i] + bufs[i].remaining();
+    }
+
+    byte[] strip = null;
+    for (int row=0; row<h; row+=stripHeight) {
+      int rows = Math.min(stripHeight, h - row);
+      int stripSize = (int) (rows * rowSize);
+      if (!planar) {
+        // read straight into the buffer if the strip does not span two
+        ByteBuffer target = slice(bufs, starts, row * rowSize, stripSize);
+        if (target != null) {
+          reader.openBytes(no, target, x, y + row, w, rows);
+          continue;
+        }
+      }
+      if (strip == null || strip.length != stripSize) {
+        strip = new byte[stripSize];
+      }
+      reader.openBytes(no, strip, x, y + row, w, rows);
+      if (planar) {
+        int channelSize = stripSize / channels;
+        for (int c=0; c<channels; c++) {
+          long offset = c * (size / channels) + row * (rowSize / channels);
+          scatter(bufs, starts, offset, strip, c * channelSize, channelSize);
+        }
+      }
+      else {
+        scatter(bufs, starts, row * rowSize, strip, 0, stripSize);
+      }
+    }
+
+    for (int i=0; i<bufs.length; i++) {
+      long written = Math.max(0, Math.min(size, starts[i + 1]) - starts[i]);
+      bufs[i].position(bufs[i].position() + (int) written);
+    }
+    return size;
+  }
+
+  /**
+   * Returns a view of the given length at the given offset within the given
+   * sequence of buffers, or null if the range spans more than one buffer.
+   *
+   * @see #scatter(ByteBuffer[], long[], long, byte[], int, int)
+   */
+  private static ByteBuffer slice(ByteBuffer[] bufs, long[] starts,
+    long offset, int length)
+  {
+    int i = 0;
+    while (starts[i + 1] <= offset) {
+      i++;
+    }
+    if (offset + length > starts[i + 1]) {
+      return null;
+    }
+    ByteBuffer view = bufs[i].duplicate();
+    view.position(view.position() + (int) (offset - starts[i]));
+    view.limit(view.position() + length);
+    return view;
+  }
+
+  /**
+   * Copies bytes into the given sequence of buffers at the given offset from
+   * the first buffer's position, without moving the buffers' positions.
+   *
+   * @param starts the offset of each buffer's position, followed by the
+   *   total number of bytes remaining in all of the buffers
+   */
+  private static void scatter(ByteBuffer[] bufs, long[] starts, long offset,
+    byte[] src, int srcOffset, int length)
+  {
+    int i = 0;
+    while (length > 0) {
+      while (starts[i + 1] <= offset) {
+        i++;
+      }
+      int n = (int) Math.min(length, starts[i + 1] - offset);
+      ByteBuffer target = bufs[i].duplicate();
+      target.position(target.position() + (int) (offset - starts[i]));
+      target.put(src, srcOffset, n);
+      offset += n;
+      srcOffset += n;
+      length -= n;
+    }
+  }
+
+
   /**
    * Recursively look for the first underlying reader that is an
    * instance of the given class.
@@ -1184,71 +1381,211 @@ public final class FormatTools {
   /**
    * Default implementation for {@link IFormatReader#openThumbBytes}.
    *
-   * At the moment, it uses {@link java.awt.image.BufferedImage} objects
-   * to resize thumbnails, so it is not safe for use in headless contexts.
-   * In the future, we may reimplement the image scaling logic purely with
-   * byte arrays, but handling every case would be substantial effort, so
-   * doing so is currently a low priority item.
+   * The thumbnail is computed from the smallest resolution level that is at
+   * least as large as the thumbnail, by averaging the pixels that fall into
+   * each thumbnail pixel.  Planes larger than {@link #MAX_THUMBNAIL_PLANE_SIZE}
+   * are not read in full; only one row per thumbnail row is read.  Indexed
+   * images are subsampled rather than averaged.  The returned thumbnail has
+   * the same pixel type, endianness and channel interleaving as the reader.
    */
   public static byte[] openThumbBytes(IFormatReader reader, int no)
     throws FormatException, IOException
   {
-    // NB: Dependency on AWT here is unfortunate, but very difficult to
-    // eliminate in general. We use reflection to limit class loading
-    // problems with AWT on Mac OS X.
-    ReflectedUniverse r = new ReflectedUniverse();
-    byte[][] bytes = null;
+    int thumbSizeX = reader.getThumbSizeX();
+    int thumbSizeY = reader.getThumbSizeY();
+
+    int coreIndex = reader.getCoreIndex();
+    int level = getThumbnailLevel(reader, thumbSizeX, thumbSizeY);
+    if (level != coreIndex) {
+      reader.setCoreIndex(level);
+    }
     try {
-      r.exec("import loci.formats.gui.AWTImageTools");
-
-      int planeSize = getPlaneSize(reader);
-      byte[] plane = null;
-      if (planeSize < 0) {
-        int width = reader.getThumbSizeX() * 4;
-        int height = reader.getThumbSizeY() * 4;
-        int x = (reader.getSizeX() - width) / 2;
-        int y = (reader.getSizeY() - height) / 2;
-        plane = reader.openBytes(no, x, y, width, height);
-      }
-      else {
-        plane = reader.openBytes(no);
+      return scalePlane(reader, no, thumbSizeX, thumbSizeY);
+    }
+    finally {
+      if (level != coreIndex) {
+        reader.setCoreIndex(coreIndex);
       }
+    }
+  }
 
-      r.setVar("plane", plane);
-      r.setVar("reader", reader);
-      r.setVar("sizeX", reader.getSizeX());
-      r.setVar("sizeY", reader.getSizeY());
-      r.setVar("thumbSizeX", reader.getThumbSizeX());
-      r.setVar("thumbSizeY", reader.getThumbSizeY());
-      r.setVar("little", reader.isLittleEndian());
-      r.exec("img = AWTImageTools.openImage(plane, reader, sizeX, sizeY)");
-      r.exec("img = AWTImageTools.makeUnsigned(img)");
-      r.exec("thumb = AWTImageTools.scale(img, thumbSizeX, thumbSizeY, false)");
-      bytes = (byte[][]) r.exec("AWTImageTools.getPixelBytes(thumb, little)");
-    }
-    catch (ReflectException exc) {
-      throw new FormatException(exc);
-    }
-
-    if (bytes.length == 1) return bytes[0];
-    int rgbChannelCount = reader.getRGBChannelCount();
-    byte[] rtn = new byte[rgbChannelCount * bytes[0].length];
-    
-    if (!reader.isInterleaved()) {
-      for (int i=0; i<rgbChannelCount; i++) {
-        System.arraycopy(bytes[i], 0, rtn, bytes[0].length * i, bytes[i].length);
+  /**
+   * Gets the core index of the smallest resolution level of the current
+   * series whose planes are at least the given size.
+   */
+  private static int getThumbnailLevel(IFormatReader reader,
+    int width, int height)
+  {
+    int coreIndex = reader.getCoreIndex();
+    List<CoreMetadata> core = reader.getCoreMetadataList();
+    if (core == null || coreIndex >= core.size()) return coreIndex;
+    CoreMetadata full = core.get(coreIndex);
+    int levels = reader.hasFlattenedResolutions() ? full.resolutionCount :
+      reader.getResolutionCount() - reader.getResolution();
+
+    int level = coreIndex;
+    for (int i=1; i<levels && coreIndex + i < core.size(); i++) {
+      CoreMetadata m = core.get(coreIndex + i);
+      if (m == null || m.sizeX < width || m.sizeY < height ||
+        m.imageCount != full.imageCount || m.pixelType != full.pixelType ||
+        m.rgb != full.rgb || m.sizeC != full.sizeC)
+      {
+        continue;
+      }
+      if ((long) m.sizeX * m.sizeY <
+        (long) core.get(level).sizeX * core.get(level).sizeY)
+      {
+        level = coreIndex + i;
       }
     }
+    return level;
+  }
+
+  /**
+   * Scales the given plane of the reader's current resolution level to the
+   * given size.
+   */
+  private static byte[] scalePlane(IFormatReader reader, int no,
+    int thumbSizeX, int thumbSizeY)
+    throws FormatException, IOException
+  {
+    int sizeX = reader.getSizeX();
+    int sizeY = reader.getSizeY();
+    int pixelType = reader.getPixelType();
+    int bpp = getBytesPerPixel(pixelType);
+    int channels = reader.getRGBChannelCount();
+    boolean interleaved = reader.isInterleaved();
+    boolean little = reader.isLittleEndian();
+    boolean average = !reader.isIndexed();
+
+    long rowSize = (long) sizeX * channels * bpp;
+    if (rowSize > Integer.MAX_VALUE) {
+      throw new FormatException("Image rows are too large to scale (" +
+        rowSize + " bytes)");
+    }
+
+    // read small planes in one call; otherwise, read one row per thumbnail row
+    byte[] plane = null;
+    byte[] row = null;
+    if (rowSize * sizeY <= MAX_THUMBNAIL_PLANE_SIZE) {
+      plane = reader.openBytes(no);
+    }
     else {
-      int bpp = FormatTools.getBytesPerPixel(reader.getPixelType());
+      row = new byte[(int) rowSize];
+    }
+    int planeHeight = plane == null ? 1 : sizeY;
+
+    byte[] thumb = new byte[thumbSizeX * thumbSizeY * channels * bpp];
+    double[] sums = new double[thumbSizeX * channels];
+    int[] x0 = new int[thumbSizeX + 1];
+    for (int tx=0; tx<=thumbSizeX; tx++) {
+      x0[tx] = (int) ((long) tx * sizeX / thumbSizeX);
+    }
 
-      for (int i=0; i<bytes[0].length/bpp; i+=bpp) {
-        for (int j=0; j<rgbChannelCount; j++) {
-          System.arraycopy(bytes[j], i, rtn, (i * rgbChannelCount) + j * bpp, bpp);
+    for (int ty=0; ty<thumbSizeY; ty++) {
+      int firstRow = (int) ((long) ty * sizeY / thumbSizeY);
+      int lastRow = Math.max(firstRow + 1,
+        (int) ((long) (ty + 1) * sizeY / thumbSizeY));
+      if (plane == null || !average) {
+        // use only the center row
+        firstRow = (firstRow + lastRow - 1) / 2;
+        lastRow = firstRow + 1;
+      }
+
+      Arrays.fill(sums, 0);
+      for (int y=firstRow; y<lastRow; y++) {
+        byte[] src = plane;
+        int srcY = y;
+        if (plane == null) {
+          reader.openBytes(no, row, 0, y, sizeX, 1);
+          src = row;
+          srcY = 0;
+        }
+        for (int tx=0; tx<thumbSizeX; tx++) {
+          int start = x0[tx];
+          int end = Math.max(start + 1, x0[tx + 1]);
+          if (!average) {
+            start = (start + end - 1) / 2;
+            end = start + 1;
+          }
+          for (int c=0; c<channels; c++) {
+            double sum = 0;
+            for (int x=start; x<end; x++) {
+              int index = getSampleIndex(x, srcY, c, sizeX, planeHeight,
+                channels, interleaved);
+              sum += getSample(src, index * bpp, pixelType, little);
+            }
+            sums[tx * channels + c] += sum;
+          }
         }
       }
+
+      int rows = lastRow - firstRow;
+      for (int tx=0; tx<thumbSizeX; tx++) {
+        int count = rows * (average ? Math.max(1, x0[tx + 1] - x0[tx]) : 1);
+        for (int c=0; c<channels; c++) {
+          int index = getSampleIndex(tx, ty, c, thumbSizeX, thumbSizeY,
+            channels, interleaved);
+          setSample(thumb, index * bpp, sums[tx * channels + c] / count,
+            pixelType, little);
+        }
+      }
+    }
+    return thumb;
+  }
+
+  /** Gets the index of a sample within a plane. */
+  private static int getSampleIndex(int x, int y, int c, int width,
+    int height, int channels, boolean interleaved)
+  {
+    if (interleaved) {
+      return (y * width + x) * channels + c;
+    }
+    return (c * height + y) * width + x;
+  }
+
+  /** Reads one sample of the given pixel type. */
+  private static double getSample(byte[] b, int offset, int pixelType,
+    boolean little)
+  {
+    switch (pixelType) {
+      case INT8:
+        return b[offset];
+      case INT16:
+        return DataTools.bytesToShort(b, offset, 2, little);
+      case UINT16:
+        return DataTools.bytesToShort(b, offset, 2, little) & 0xffff;
+      case INT32:
+        return DataTools.bytesToInt(b, offset, 4, little);
+      case UINT32:
+        return DataTools.bytesToInt(b, offset, 4, little) & 0xffffffffL;
+      case FLOAT:
+        return Float.intBitsToFloat(DataTools.bytesToInt(b, offset, 4, little));
+      case DOUBLE:
+        return Double.longBitsToDouble(
+          DataTools.bytesToLong(b, offset, 8, little));
+      default:
+        return b[offset] & 0xff;
+    }
+  }
+
+  /** Writes one sample of the given pixel type, rounding integer types. */
+  private static void setSample(byte[] b, int offset, double value,
+    int pixelType, boolean little)
+  {
+    switch (pixelType) {
+      case FLOAT:
+        DataTools.unpackBytes(Float.floatToIntBits((float) value), b, offset,
+          4, little);
+        break;
+      case DOUBLE:
+        DataTools.unpackBytes(Double.doubleToLongBits(value), b, offset,
+          8, little);
+        break;
+      default:
+        DataTools.unpackBytes(Math.round(value), b, offset,
+          getBytesPerPixel(pixelType), little);
     }
-    return rtn;
   }
 
   // -- Conversion convenience methods --
@@ -0,0 +1,252 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package loci.formats;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import loci.common.ByteArrayHandle;
+import loci.common.Constants;
+import loci.common.RandomAccessInputStream;
+
+/**
+ * The first block of a file, read once and shared between readers while
+ * {@link ImageReader} determines which reader can open the file.
+ *
+ * Readers check the file type against an in-memory stream over the block.
+ * If a reader's check goes beyond the block, the check is repeated against
+ * the file itself, which is opened only once for all readers.
+ */
+class HeaderBlock {
+
+  // -- Constants --
+
+  /** Number of bytes read from the start of the file. */
+  public static final int BLOCK_SIZE = 65536;
+
+  // -- Fields --
+
+  /** Name of the file. */
+  private String id;
+
+  /** Stream over the whole file, or null if it has not been opened. */
+  private RandomAccessInputStream file;
+
+  /** Error raised when the file was opened, if any. */
+  private IOException error;
+
+  /** Handle and stream over the first block of the file. */
+  private BlockHandle handle;
+  private RandomAccessInputStream block;
+
+  /** Whether streams are read from the file instead of the block. */
+  private boolean readFile;
+
+  // -- Constructor --
+
+  public HeaderBlock(String id) {
+    this.id = id;
+  }
+
+  // -- HeaderBlock API methods --
+
+  /** Returns the name of the file. */
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * Returns a big-endian stream positioned at the start of the file.
+   * The file is opened and its first block read on the first call.
+   */
+  public RandomAccessInputStream getStream() throws IOException {
+    if (error != null) throw error;
+    if (file == null) {
+      try {
+        file = new RandomAccessInputStream(id);
+        byte[] b = new byte[(int) Math.min(BLOCK_SIZE, file.length())];
+        file.readFully(b);
+        handle = new BlockHandle(b, file.length());
+        block = new RandomAccessInputStream(handle, id);
+      }
+      catch (IOException e) {
+        error = e;
+        close();
+        throw e;
+      }
+    }
+    RandomAccessInputStream stream = readFile ? file : block;
+    stream.setEncoding(Constants.ENCODING);
+    stream.order(false);
+    stream.seek(0);
+    return stream;
+  }
+
+  /**
+   * Returns true if a stream returned by {@link #getStream()} has been read
+   * beyond the end of the block since the last call to {@link #reset()}.
+   */
+  public boolean isExhausted() {
+    return handle != null && handle.exhausted;
+  }
+
+  /** Sets whether subsequent streams are read from the file itself. */
+  public void setReadFile(boolean readFile) {
+    this.readFile = readFile;
+  }
+
+  /** Prepares the block for checking the next reader. */
+  public void reset() {
+    readFile = false;
+    if (handle != null) handle.exhausted = false;
+  }
+
+  /** Closes the file, if it was opened. */
+  public void close() throws IOException {
+    if (file != null) file.close();
+    file = null;
+    block = null;
+    handle = null;
+  }
+
+  // -- Helper classes --
+
+  /**
+   * Handle over the first block of a file, which reports the length of
+   * the whole file and records any attempt to read past the block.
+   */
+  private static class BlockHandle extends ByteArrayHandle {
+
+    private long fileLength;
+
+    public boolean exhausted;
+
+    public BlockHandle(byte[] bytes, long fileLength) {
+      super(bytes);
+      this.fileLength = fileLength;
+    }
+
+    /** Throws an EOFException if the given offset is past the block. */
+    private void checkBlock(long end) throws EOFException {
+      if (end > buffer.limit() && buffer.limit() < fileLength) {
+        exhausted = true;
+        throw new EOFException("Read past the end of the header block");
+      }
+    }
+
+    @Override
+    public long length() {
+      return fileLength;
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+      checkBlock(pos);
+      super.seek(pos);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      checkBlock(getFilePointer() + len);
+      return super.read(b, off, len);
+    }
+
+    @Override
+    public int read(ByteBuffer buf, int off, int len) throws IOException {
+      checkBlock(getFilePointer() + len);
+      return super.read(buf, off, len);
+    }
+
+    @Override
+    public int read(long pos, byte[] b, int off, int len) throws IOException {
+      checkBlock(pos + len);
+      return super.read(pos, b, off, len);
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+      checkBlock(getFilePointer() + 1);
+      return super.readByte();
+    }
+
+    @Override
+    public char readChar() throws IOException {
+      checkBlock(getFilePointer() + 2);
+      return super.readChar();
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+      checkBlock(getFilePointer() + 8);
+      return super.readDouble();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+      checkBlock(getFilePointer() + 4);
+      return super.readFloat();
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+      checkBlock(getFilePointer() + len);
+      super.readFully(b, off, len);
+    }
+
+    @Override
+    public int readInt() throws IOException {
+      checkBlock(getFilePointer() + 4);
+      return super.readInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+      checkBlock(getFilePointer() + 8);
+      return super.readLong();
+    }
+
+    @Override
+    public short readShort() throws IOException {
+      checkBlock(getFilePointer() + 2);
+      return super.readShort();
+    }
+
+    @Override
+    public int skipBytes(int n) throws IOException {
+      checkBlock(getFilePointer() + n);
+      return super.skipBytes(n);
+    }
+
+  }
+
+}
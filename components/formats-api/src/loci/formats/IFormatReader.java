@@ -33,6 +33,7 @@
 package loci.formats;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Hashtable;
 import java.util.List;
 
@@ -272,6 +273,69 @@ public interface IFormatReader extends IFormatHandler {
   byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h)
     throws FormatException, IOException;
 
+  /**
+   * Obtains the specified image plane from the current file into the
+   * given buffer, which may be a heap or direct buffer.
+   *
+   * @see #openBytes(int, ByteBuffer, int, int, int, int)
+   */
+  ByteBuffer openBytes(int no, ByteBuffer buf)
+    throws FormatException, IOException;
+
+  /**
+   * Obtains a sub-image of the specified image plane into the given buffer,
+   * which may be a heap or direct buffer.  The sub-image is written starting
+   * at the buffer's current position, which is then advanced past it; the
+   * buffer's limit and byte order are not changed.  This allows callers to
+   * recycle buffers instead of allocating a new array for each plane.
+   *
+   * @param no the image index within the file.
+   * @param buf a buffer with at least w * h * bytesPerPixel * RGB channel
+   *   count bytes remaining.
+   * @param x X coordinate of the upper-left corner of the sub-image
+   * @param y Y coordinate of the upper-left corner of the sub-image
+   * @param w width of the sub-image
+   * @param h height of the sub-image
+   * @return the buffer <code>buf</code> for convenience.
+   * @throws FormatException if there was a problem parsing the metadata of the
+   *   file, or if the buffer is too small.
+   * @throws IOException if there was a problem reading the file.
+   */
+  ByteBuffer openBytes(int no, ByteBuffer buf, int x, int y, int w, int h)
+    throws FormatException, IOException;
+
+  /**
+   * Obtains the specified image plane from the current file into the
+   * given sequence of buffers, which together may hold more than 2 GB.
+   *
+   * @see #openBytes(int, ByteBuffer[], int, int, int, int)
+   */
+  long openBytes(int no, ByteBuffer[] bufs)
+    throws FormatException, IOException;
+
+  /**
+   * Obtains a sub-image of the specified image plane into the given sequence
+   * of buffers, so that sub-images larger than 2 GB can be read in one call.
+   * The sub-image is written starting at the current position of the first
+   * buffer, continuing into each following buffer once the previous one is
+   * full, as with a scattering read; the buffers' positions are advanced past
+   * the bytes written.  Buffers may be heap, direct or memory-mapped.
+   *
+   * @param no the image index within the file.
+   * @param bufs buffers with at least w * h * bytesPerPixel * RGB channel
+   *   count bytes remaining in total.
+   * @param x X coordinate of the upper-left corner of the sub-image
+   * @param y Y coordinate of the upper-left corner of the sub-image
+   * @param w width of the sub-image
+   * @param h height of the sub-image
+   * @return the number of bytes written.
+   * @throws FormatException if there was a problem parsing the metadata of the
+   *   file, or if the buffers are too small.
+   * @throws IOException if there was a problem reading the file.
+   */
+  long openBytes(int no, ByteBuffer[] bufs, int x, int y, int w, int h)
+    throws FormatException, IOException;
+
   /**
    * Obtains the specified image plane (or sub-image thereof) in the reader's
    * native data structure. For most readers this is a byte array; however,
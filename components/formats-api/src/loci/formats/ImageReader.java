@@ -34,6 +34,7 @@ package loci.formats;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -105,6 +106,9 @@ public class ImageReader implements IFormatReader {
 
   private boolean allowOpen = true;
 
+  /** Readers previously chosen for each file, or null. */
+  private DetectionCache detectionCache;
+
   // -- Constructors --
 
   /**
@@ -147,6 +151,20 @@ public class ImageReader implements IFormatReader {
     this.allowOpen = allowOpen;
   }
 
+  /**
+   * Sets the cache used to remember which reader was chosen for each file.
+   * The cache may be shared between ImageReaders with the same list of
+   * readers.  By default, no cache is used.
+   */
+  public void setDetectionCache(DetectionCache cache) {
+    detectionCache = cache;
+  }
+
+  /** Gets the cache used to remember which reader was chosen for each file. */
+  public DetectionCache getDetectionCache() {
+    return detectionCache;
+  }
+
   /** Gets a string describing the file format for the given file. */
   public String getFormat(String id) throws FormatException, IOException {
     return getReader(id).getFormat();
@@ -177,13 +195,11 @@ public class ImageReader implements IFormatReader {
       // initialize file
       boolean success = false;
       if (!invalid) {
-        for (int i=0; i<readers.length; i++) {
-          if (readers[i].isThisType(id, allowOpen)) {
-            current = i;
-            currentId = id;
-            success = true;
-            break;
-          }
+        int index = getReaderIndex(id, allowOpen);
+        if (index >= 0) {
+          current = index;
+          currentId = id;
+          success = true;
         }
       }
       if (!success) {
@@ -243,10 +259,7 @@ public class ImageReader implements IFormatReader {
   /* @see IFormatReader#isThisType(String, boolean) */
   @Override
   public boolean isThisType(String name, boolean open) {
-    for (int i=0; i<readers.length; i++) {
-      if (readers[i].isThisType(name, open)) return true;
-    }
-    return false;
+    return getReaderIndex(name, open) >= 0;
   }
 
   /* @see IFormatReader.isThisType(byte[]) */
@@ -453,6 +466,38 @@ public class ImageReader implements IFormatReader {
     return getReader().openBytes(no, buf, x, y, w, h);
   }
 
+  /* @see IFormatReader#openBytes(int, ByteBuffer) */
+  @Override
+  public ByteBuffer openBytes(int no, ByteBuffer buf)
+    throws FormatException, IOException
+  {
+    return getReader().openBytes(no, buf);
+  }
+
+  /* @see IFormatReader#openBytes(int, ByteBuffer, int, int, int, int) */
+  @Override
+  public ByteBuffer openBytes(int no, ByteBuffer buf, int x, int y, int w,
+    int h) throws FormatException, IOException
+  {
+    return getReader().openBytes(no, buf, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openBytes(int, ByteBuffer[]) */
+  @Override
+  public long openBytes(int no, ByteBuffer[] bufs)
+    throws FormatException, IOException
+  {
+    return getReader().openBytes(no, bufs);
+  }
+
+  /* @see IFormatReader#openBytes(int, ByteBuffer[], int, int, int, int) */
+  @Override
+  public long openBytes(int no, ByteBuffer[] bufs, int x, int y, int w,
+    int h) throws FormatException, IOException
+  {
+    return getReader().openBytes(no, bufs, x, y, w, h);
+  }
+
   /* @see IFormatReader#openPlane(int, int, int, int, int) */
   @Override
   public Object openPlane(int no, int x, int y, int w, int h)
@@ -845,4 +890,75 @@ public class ImageReader implements IFormatReader {
   @Override
   public void close() throws IOException { close(false); }
 
+  // -- Helper methods --
+
+  /**
+   * Returns the index of the first reader that can open the given file,
+   * or -1 if no reader can open it.  If files may be opened and a
+   * {@link DetectionCache} has been set, a cached choice is used when the
+   * file has not changed.
+   */
+  private int getReaderIndex(String id, boolean open) {
+    DetectionCache cache = open ? detectionCache : null;
+    if (cache != null) {
+      String cached = cache.get(id);
+      if (cached != null) {
+        for (int i=0; i<readers.length; i++) {
+          if (readers[i].getClass().getName().equals(cached)) return i;
+        }
+      }
+    }
+
+    int index = detectReaderIndex(id, open);
+    if (cache != null && index >= 0) {
+      cache.put(id, readers[index].getClass());
+    }
+    return index;
+  }
+
+  /**
+   * Returns the index of the first reader whose isThisType method accepts
+   * the given file, or -1 if no reader accepts it.  If files may be opened,
+   * the start of the file is read once and shared between readers; see
+   * {@link HeaderBlock}.
+   */
+  private int detectReaderIndex(String id, boolean open) {
+    HeaderBlock block = open ? new HeaderBlock(id) : null;
+    try {
+      for (int i=0; i<readers.length; i++) {
+        if (block == null || !(readers[i] instanceof FormatReader)) {
+          if (readers[i].isThisType(id, open)) return i;
+          continue;
+        }
+        FormatReader reader = (FormatReader) readers[i];
+        reader.setHeaderBlock(block);
+        try {
+          block.reset();
+          boolean isThisType = reader.isThisType(id, open);
+          if (block.isExhausted()) {
+            // the check needed more than the first block; repeat it
+            // against the whole file
+            block.setReadFile(true);
+            isThisType = reader.isThisType(id, open);
+          }
+          if (isThisType) return i;
+        }
+        finally {
+          reader.setHeaderBlock(null);
+        }
+      }
+      return -1;
+    }
+    finally {
+      if (block != null) {
+        try {
+          block.close();
+        }
+        catch (IOException e) {
+          LOGGER.debug("Could not close {}", id, e);
+        }
+      }
+    }
+  }
+
 }
@@ -35,6 +35,7 @@ package loci.formats;
 import java.io.IOException;
 import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.List;
@@ -56,6 +57,9 @@ public abstract class ReaderWrapper implements IFormatReader {
   /** FormatReader used to read the file. */
   protected IFormatReader reader;
 
+  /** Whether buffer reads may skip this wrapper; computed on first use. */
+  private Boolean pixelPassThrough;
+
   // -- Constructors --
 
   /** Constructs a reader wrapper around a new image reader. */
@@ -349,6 +353,40 @@ public abstract class ReaderWrapper implements IFormatReader {
     return reader.openBytes(no, buf, x, y, w, h);
   }
 
+  @Override
+  public ByteBuffer openBytes(int no, ByteBuffer buf)
+    throws FormatException, IOException
+  {
+    return openBytes(no, buf, 0, 0, getSizeX(), getSizeY());
+  }
+
+  @Override
+  public ByteBuffer openBytes(int no, ByteBuffer buf, int x, int y, int w,
+    int h) throws FormatException, IOException
+  {
+    if (isPixelPassThrough()) {
+      return reader.openBytes(no, buf, x, y, w, h);
+    }
+    return FormatTools.openBytes(this, no, buf, x, y, w, h);
+  }
+
+  @Override
+  public long openBytes(int no, ByteBuffer[] bufs)
+    throws FormatException, IOException
+  {
+    return openBytes(no, bufs, 0, 0, getSizeX(), getSizeY());
+  }
+
+  @Override
+  public long openBytes(int no, ByteBuffer[] bufs, int x, int y, int w,
+    int h) throws FormatException, IOException
+  {
+    if (isPixelPassThrough()) {
+      return reader.openBytes(no, bufs, x, y, w, h);
+    }
+    return FormatTools.openBytes(this, no, bufs, x, y, w, h);
+  }
+
   @Override
   public Object openPlane(int no, int x, int y, int w, int h)
     throws FormatException, IOException
@@ -663,6 +701,30 @@ public abstract class ReaderWrapper implements IFormatReader {
 
   // -- Helper methods --
 
+  /**
+   * Returns true if this wrapper does not override the byte array openBytes
+   * methods, and so returns the wrapped reader's pixels unchanged.  Buffer
+   * reads are then passed straight to the wrapped reader; otherwise they go
+   * through this wrapper's byte array methods.
+   */
+  protected boolean isPixelPassThrough() {
+    if (pixelPassThrough == null) {
+      try {
+        Class<?> region = getClass().getMethod("openBytes", int.class,
+          byte[].class, int.class, int.class, int.class, int.class)
+          .getDeclaringClass();
+        Class<?> plane = getClass().getMethod("openBytes", int.class,
+          int.class, int.class, int.class, int.class).getDeclaringClass();
+        pixelPassThrough =
+          region == ReaderWrapper.class && plane == ReaderWrapper.class;
+      }
+      catch (NoSuchMethodException e) {
+        pixelPassThrough = false;
+      }
+    }
+    return pixelPassThrough;
+  }
+
   private ReaderWrapper duplicateRecurse(
     Class<? extends IFormatReader> imageReaderClass) throws FormatException
   {
@@ -0,0 +1,278 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * A cache of decoded tiles that may be shared by any number of
+ * {@link TileCachingReader}s.  Once the cached tiles use more than the
+ * cache's byte budget, the least recently used tiles are evicted.
+ * All methods are thread-safe; tiles are decoded outside the cache's lock.
+ */
+public class TileCache {
+
+  // -- Constants --
+
+  /** Default byte budget of the shared tile cache. */
+  public static final long DEFAULT_MAX_SIZE = 256L * 1024 * 1024;
+
+  // -- Static fields --
+
+  /** Cache used by readers that are not given one. */
+  private static TileCache sharedCache;
+
+  // -- Fields --
+
+  /** Cached tiles, in order from least to most recently used. */
+  private final LinkedHashMap<Key, byte[]> tiles =
+    new LinkedHashMap<Key, byte[]>(16, 0.75f, true);
+
+  /** Maximum total number of bytes in the cached tiles. */
+  private long maxSize;
+
+  /** Total number of bytes in the cached tiles. */
+  private long size;
+
+  private long hits, misses, evictions;
+
+  // -- Constructor --
+
+  /** Constructs a tile cache holding at most the given number of bytes. */
+  public TileCache(long maxSize) {
+    setMaxSize(maxSize);
+  }
+
+  // -- Static TileCache API methods --
+
+  /**
+   * Returns the cache shared by all readers that are not given their own,
+   * creating it with a budget of {@link #DEFAULT_MAX_SIZE} if necessary.
+   */
+  public static synchronized TileCache getSharedCache() {
+    if (sharedCache == null) {
+      sharedCache = new TileCache(DEFAULT_MAX_SIZE);
+    }
+    return sharedCache;
+  }
+
+  // -- TileCache API methods --
+
+  /**
+   * Returns the cached tile with the given key, or null if it is not cached.
+   * The returned array must not be modified.
+   */
+  public synchronized byte[] get(Key key) {
+    byte[] tile = tiles.get(key);
+    if (tile == null) {
+      misses++;
+    }
+    else {
+      hits++;
+    }
+    return tile;
+  }
+
+  /**
+   * Caches the given tile, evicting the least recently used tiles as needed.
+   * Tiles larger than the whole budget are not cached.  The array must not
+   * be modified once cached.
+   */
+  public synchronized void put(Key key, byte[] tile) {
+    if (tile.length > maxSize) {
+      return;
+    }
+    byte[] previous = tiles.put(key, tile);
+    if (previous != null) {
+      size -= previous.length;
+    }
+    size += tile.length;
+    evict();
+  }
+
+  /** Removes all cached tiles of the given file. */
+  public synchronized void remove(String file) {
+    Iterator<Key> keys = tiles.keySet().iterator();
+    while (keys.hasNext()) {
+      if (keys.next().file.equals(file)) {
+        keys.remove();
+      }
+    }
+    size = 0;
+    for (byte[] tile : tiles.values()) {
+      size += tile.length;
+    }
+  }
+
+  /** Removes all cached tiles. */
+  public synchronized void clear() {
+    tiles.clear();
+    size = 0;
+  }
+
+  /**
+   * Sets the maximum total number of bytes in the cached tiles, evicting
+   * tiles if the cache is now over budget.
+   */
+  public synchronized void setMaxSize(long maxSize) {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException("Invalid cache size: " + maxSize);
+    }
+    this.maxSize = maxSize;
+    evict();
+  }
+
+  /** Returns the maximum total number of bytes in the cached tiles. */
+  public synchronized long getMaxSize() {
+    return maxSize;
+  }
+
+  /** Returns the total number of bytes in the cached tiles. */
+  public synchronized long getSize() {
+    return size;
+  }
+
+  /** Returns the number of cached tiles. */
+  public synchronized int getTileCount() {
+    return tiles.size();
+  }
+
+  /** Returns the number of calls to {@link #get} that found a tile. */
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+  /** Returns the number of calls to {@link #get} that found no tile. */
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+  /** Returns the number of tiles evicted to stay within the budget. */
+  public synchronized long getEvictionCount() {
+    return evictions;
+  }
+
+  /** Resets the hit, miss and eviction counts to zero. */
+  public synchronized void resetStatistics() {
+    hits = 0;
+    misses = 0;
+    evictions = 0;
+  }
+
+  // -- Object API methods --
+
+  @Override
+  public synchronized String toString() {
+    return "TileCache[" + tiles.size() + " tiles, " + size + "/" + maxSize +
+      " bytes, " + hits + " hits, " + misses + " misses, " + evictions +
+      " evictions]";
+  }
+
+  // -- Helper methods --
+
+  /** Evicts least recently used tiles until the cache is within budget. */
+  private void evict() {
+    Iterator<byte[]> values = tiles.values().iterator();
+    while (size > maxSize && values.hasNext()) {
+      size -= values.next().length;
+      values.remove();
+      evictions++;
+    }
+  }
+
+  // -- Helper classes --
+
+  /** Identifies a decoded tile of a plane. */
+  public static final class Key {
+    private final String file;
+    private final long fileLength;
+    private final long lastModified;
+    private final String format;
+    private final int coreIndex;
+    private final int plane;
+    private final int row;
+    private final int col;
+
+    /**
+     * Constructs a key for a tile.
+     *
+     * @param file the file from which the tile is read
+     * @param fileLength the length of the file's data, so that tiles of a
+     *   rewritten file are not reused
+     * @param lastModified the last modification time of the file's data
+     * @param format identifies how the tile was decoded and how planes are
+     *   numbered, such as the classes of the reader and its wrappers, since
+     *   different readers may decode a file differently
+     * @param coreIndex the core index, identifying the series and resolution
+     * @param plane the plane index within the series
+     * @param row the tile row within the plane
+     * @param col the tile column within the plane
+     */
+    public Key(String file, long fileLength, long lastModified, String format,
+      int coreIndex, int plane, int row, int col)
+    {
+      this.file = file;
+      this.fileLength = fileLength;
+      this.lastModified = lastModified;
+      this.format = format;
+      this.coreIndex = coreIndex;
+      this.plane = plane;
+      this.row = row;
+      this.col = col;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) return false;
+      Key k = (Key) o;
+      return coreIndex == k.coreIndex && plane == k.plane && row == k.row &&
+        col == k.col && fileLength == k.fileLength &&
+        lastModified == k.lastModified && file.equals(k.file) &&
+        format.equals(k.format);
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = file.hashCode();
+      hash = 31 * hash + (int) (fileLength ^ (fileLength >>> 32));
+      hash = 31 * hash + (int) (lastModified ^ (lastModified >>> 32));
+      hash = 31 * hash + format.hashCode();
+      hash = 31 * hash + coreIndex;
+      hash = 31 * hash + plane;
+      hash = 31 * hash + row;
+      return 31 * hash + col;
+    }
+  }
+
+}
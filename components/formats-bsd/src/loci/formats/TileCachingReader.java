@@ -0,0 +1,227 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats;
+
+import java.io.IOException;
+
+import loci.common.Location;
+
+/**
+ * Caches decoded tiles of the wrapped reader in a {@link TileCache}, so that
+ * regions that overlap tiles read before, such as those requested by a
+ * viewer panning across a pyramid, do not decode the same tiles again.
+ * Tiles follow the wrapped reader's optimal tile size, and are keyed by
+ * file, the length and modification time of the files read, the classes and
+ * dimension orders of the wrapped readers, series, resolution, plane and
+ * tile position, so one cache may be shared by any number of readers.
+ */
+public class TileCachingReader extends ReaderWrapper {
+
+  // -- Fields --
+
+  /** Cache holding the decoded tiles. */
+  private TileCache cache;
+
+  /** Total length of the files used by the current dataset. */
+  private long fileLength;
+
+  /** Latest modification time of the files used by the current dataset. */
+  private long lastModified;
+
+  // -- Constructors --
+
+  /** Constructs a TileCachingReader around a new image reader. */
+  public TileCachingReader() {
+    this(new ImageReader());
+  }
+
+  /**
+   * Constructs a TileCachingReader with a given reader, caching tiles in
+   * the shared tile cache.
+   */
+  public TileCachingReader(IFormatReader r) {
+    this(r, TileCache.getSharedCache());
+  }
+
+  /**
+   * Constructs a TileCachingReader with a given reader, caching tiles in
+   * the given tile cache.
+   */
+  public TileCachingReader(IFormatReader r, TileCache cache) {
+    super(r);
+    setTileCache(cache);
+  }
+
+  // -- TileCachingReader API methods --
+
+  /** Sets the cache in which decoded tiles are held. */
+  public void setTileCache(TileCache cache) {
+    if (cache == null) {
+      throw new IllegalArgumentException("Tile cache cannot be null");
+    }
+    this.cache = cache;
+  }
+
+  /** Returns the cache in which decoded tiles are held. */
+  public TileCache getTileCache() {
+    return cache;
+  }
+
+  // -- IFormatReader API methods --
+
+  /* @see IFormatReader#setId(String) */
+  @Override
+  public void setId(String id) throws FormatException, IOException {
+    super.setId(id);
+    fileLength = 0;
+    lastModified = 0;
+    String[] files = getUsedFiles();
+    if (files != null) {
+      for (String file : files) {
+        Location location = new Location(file);
+        fileLength += location.length();
+        lastModified = Math.max(lastModified, location.lastModified());
+      }
+    }
+  }
+
+  /* @see IFormatReader#openBytes(int) */
+  @Override
+  public byte[] openBytes(int no) throws FormatException, IOException {
+    return openBytes(no, 0, 0, getSizeX(), getSizeY());
+  }
+
+  /* @see IFormatReader#openBytes(int, byte[]) */
+  @Override
+  public byte[] openBytes(int no, byte[] buf)
+    throws FormatException, IOException
+  {
+    return openBytes(no, buf, 0, 0, getSizeX(), getSizeY());
+  }
+
+  /* @see IFormatReader#openBytes(int, int, int, int, int) */
+  @Override
+  public byte[] openBytes(int no, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    byte[] buf = new byte[w * h * getRGBChannelCount() *
+      FormatTools.getBytesPerPixel(getPixelType())];
+    return openBytes(no, buf, x, y, w, h);
+  }
+
+  /* @see IFormatReader#openBytes(int, byte[], int, int, int, int) */
+  @Override
+  public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    FormatTools.checkPlaneParameters(this, no, buf.length, x, y, w, h);
+
+    int tileWidth = getOptimalTileWidth();
+    int tileHeight = getOptimalTileHeight();
+    int bpp = FormatTools.getBytesPerPixel(getPixelType());
+    int channels = getRGBChannelCount();
+    if (tileWidth <= 0 || tileHeight <= 0 ||
+      (long) tileWidth * tileHeight * bpp * channels > cache.getMaxSize())
+    {
+      // tiles would never be cached
+      return reader.openBytes(no, buf, x, y, w, h);
+    }
+
+    String file = getCurrentFile();
+    String format = getTileFormat();
+    int coreIndex = getCoreIndex();
+    boolean interleaved = channels == 1 || isInterleaved();
+
+    for (int row=y/tileHeight; row<=(y+h-1)/tileHeight; row++) {
+      int tileY = row * tileHeight;
+      int th = Math.min(tileHeight, getSizeY() - tileY);
+      for (int col=x/tileWidth; col<=(x+w-1)/tileWidth; col++) {
+        int tileX = col * tileWidth;
+        int tw = Math.min(tileWidth, getSizeX() - tileX);
+
+        TileCache.Key key = new TileCache.Key(file, fileLength, lastModified,
+          format, coreIndex, no, row, col);
+        byte[] tile = cache.get(key);
+        if (tile == null) {
+          tile = reader.openBytes(no, tileX, tileY, tw, th);
+          cache.put(key, tile);
+        }
+
+        // copy the part of the tile that overlaps the requested region
+        int startX = Math.max(x, tileX);
+        int startY = Math.max(y, tileY);
+        int endX = Math.min(x + w, tileX + tw);
+        int endY = Math.min(y + h, tileY + th);
+        int pixel = interleaved ? bpp * channels : bpp;
+        int copy = (endX - startX) * pixel;
+        for (int c=0; c<(interleaved ? 1 : channels); c++) {
+          int src = c * tw * th * bpp;
+          int dest = c * w * h * bpp;
+          for (int r=startY; r<endY; r++) {
+            System.arraycopy(tile,
+              src + ((r - tileY) * tw + startX - tileX) * pixel, buf,
+              dest + ((r - y) * w + startX - x) * pixel, copy);
+          }
+        }
+      }
+    }
+    return buf;
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Describes how the wrapped readers decode and number planes, so that
+   * readers of the same file only share tiles if their wrappers match.
+   */
+  private String getTileFormat() {
+    StringBuilder format = new StringBuilder();
+    IFormatReader r = reader;
+    while (true) {
+      if (r instanceof ImageReader) {
+        r = ((ImageReader) r).getReader();
+      }
+      format.append(r.getClass().getName());
+      if (!(r instanceof ReaderWrapper)) break;
+      // wrappers may renumber planes, e.g. when swapping dimensions
+      format.append('[');
+      if (r instanceof DimensionSwapper) {
+        format.append(((DimensionSwapper) r).getInputOrder()).append('>');
+      }
+      format.append(r.getDimensionOrder()).append("]/");
+      r = ((ReaderWrapper) r).getReader();
+    }
+    return format.toString();
+  }
+
+}
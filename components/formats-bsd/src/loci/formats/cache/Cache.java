@@ -66,6 +66,9 @@ public class Cache implements CacheReporter {
   /** Whether each position is currently supposed to be cached. */
   protected boolean[] inCache;
 
+  /** Whether each position is on the current load list. */
+  private boolean[] wanted;
+
   /** List of cache event listeners. */
   protected Vector<CacheListener> listeners;
 
@@ -91,7 +94,7 @@ public class Cache implements CacheReporter {
   // -- Cache API methods --
 
   /** Gets the cached object at the given dimensional position. */
-  public Object getObject(int[] pos) throws CacheException {
+  public synchronized Object getObject(int[] pos) throws CacheException {
     if (pos.length != strategy.getLengths().length) {
       throw new CacheException("Invalid number of axes; got " + pos.length +
         "; expected " + strategy.getLengths().length);
@@ -110,15 +113,16 @@ public class Cache implements CacheReporter {
   }
 
   /** Returns true if the object at the given index is in the cache. */
-  public boolean isInCache(int pos) throws CacheException {
+  public synchronized boolean isInCache(int pos) throws CacheException {
     return inCache[pos];
   }
 
   /** Reallocates the cache. */
-  public void reset() throws CacheException {
+  public synchronized void reset() throws CacheException {
     currentPos = new int[strategy.getLengths().length];
     cache = new Object[source.getObjectCount()];
     inCache = new boolean[source.getObjectCount()];
+    wanted = new boolean[source.getObjectCount()];
   }
 
   /** Gets the cache's caching strategy. */
@@ -177,33 +181,78 @@ public class Cache implements CacheReporter {
 
   /** Updates the given plane. */
   public void recache(int n) throws CacheException {
-    int[][] indices = strategy.getLoadList(currentPos);
+    int[] indices = getLoadIndices();
+    retain(indices);
+    load(indices[n]);
+  }
+
+  /**
+   * Gets the raster indices of the objects on the strategy's load list for
+   * the current position, in order of loading priority.
+   */
+  public int[] getLoadIndices() throws CacheException {
+    int[][] list = strategy.getLoadList(currentPos);
     int[] len = strategy.getLengths();
+    int[] indices = new int[list.length];
+    for (int i=0; i<list.length; i++) {
+      indices[i] = FormatTools.positionToRaster(len, list[i]);
+    }
+    return indices;
+  }
 
-    for (int i=0; i<inCache.length; i++) {
-      boolean found = false;
-      for (int j=0; j<indices.length; j++) {
-        if (i == FormatTools.positionToRaster(len, indices[j])) {
-          found = true;
-          break;
-        }
+  /**
+   * Marks the objects at the given raster indices as belonging in the cache,
+   * and drops all other cached objects. Objects are only reported by
+   * {@link #isInCache(int)} once they have been loaded.
+   */
+  public void retain(int[] indices) {
+    boolean[] dropped;
+    synchronized (this) {
+      boolean[] keep = new boolean[wanted.length];
+      for (int ndx : indices) {
+        if (ndx >= 0 && ndx < keep.length) keep[ndx] = true;
       }
-      if (!found) {
-        inCache[i] = false;
-        if (cache[i] != null) {
-          cache[i] = null;
-          notifyListeners(new CacheEvent(this, CacheEvent.OBJECT_DROPPED, i));
+      dropped = new boolean[keep.length];
+      for (int i=0; i<keep.length; i++) {
+        wanted[i] = keep[i];
+        if (!keep[i]) {
+          inCache[i] = false;
+          if (cache[i] != null) {
+            cache[i] = null;
+            dropped[i] = true;
+          }
         }
       }
     }
+    for (int i=0; i<dropped.length; i++) {
+      if (dropped[i]) {
+        notifyListeners(new CacheEvent(this, CacheEvent.OBJECT_DROPPED, i));
+      }
+    }
+  }
 
-    int ndx = FormatTools.positionToRaster(len, indices[n]);
-    if (ndx >= 0) inCache[ndx] = true;
-
-    if (cache[ndx] == null) {
-      cache[ndx] = source.getObject(ndx);
-      notifyListeners(new CacheEvent(this, CacheEvent.OBJECT_LOADED, ndx));
+  /**
+   * Loads the object at the given raster index from the source, unless it is
+   * already cached or no longer belongs in the cache. The cache is not locked
+   * while the source is queried, so objects can be loaded from several
+   * threads, and cached objects retrieved, at the same time.
+   *
+   * @return true if the object was loaded
+   */
+  public boolean load(int ndx) throws CacheException {
+    ICacheSource s;
+    synchronized (this) {
+      if (!isPending(ndx)) return false;
+      s = source;
+    }
+    Object o = s.getObject(ndx);
+    synchronized (this) {
+      if (s != source || !isPending(ndx)) return false;
+      cache[ndx] = o;
+      inCache[ndx] = true;
     }
+    notifyListeners(new CacheEvent(this, CacheEvent.OBJECT_LOADED, ndx));
+    return true;
   }
 
   /** Updates all planes on the load list. */
@@ -220,8 +269,10 @@ public class Cache implements CacheReporter {
     // each time through the loop only (i.e., only when a recache call occurs)
     //
     // /lo
-    for (int i=0; i<strategy.getLoadList(currentPos).length; i++) {
-      recache(i);
+    int[] indices = getLoadIndices();
+    retain(indices);
+    for (int ndx : indices) {
+      load(ndx);
     }
   }
 
@@ -258,6 +309,11 @@ public class Cache implements CacheReporter {
 
   // -- Helper methods --
 
+  /** Returns true if the object at the given index should be loaded. */
+  private boolean isPending(int ndx) {
+    return ndx >= 0 && ndx < wanted.length && wanted[ndx] && !inCache[ndx];
+  }
+
   /** Informs listeners of a cache update. */
   protected void notifyListeners(CacheEvent e) {
     synchronized (listeners) {
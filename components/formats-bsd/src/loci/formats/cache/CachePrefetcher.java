@@ -0,0 +1,353 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.cache;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import loci.formats.FormatTools;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the objects on a cache's load list in the background, using a pool
+ * of worker threads, so that changing the current position does not wait
+ * for the neighbouring objects to load.
+ *
+ * Whenever the cache's position or its strategy's parameters change, loads
+ * that have not started yet are cancelled and the new load list is queued
+ * in order of priority, truncated to fit the memory budget. The cache should
+ * be constructed without automatic updates; call {@link #update()} after
+ * changing its source or strategy.
+ *
+ * Unless the source is marked thread-safe with
+ * {@link #setSourceThreadSafe(boolean)}, loads hold the source's lock, as
+ * Bio-Formats readers must not be used by several threads at once; more than
+ * one worker thread only helps with thread-safe sources. Cache events are
+ * delivered on the worker threads.
+ */
+public class CachePrefetcher implements CacheListener {
+
+  // -- Constants --
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(CachePrefetcher.class);
+
+  /** Default maximum number of bytes in the prefetched objects. */
+  public static final long DEFAULT_MEMORY_BUDGET = 512L * 1024 * 1024;
+
+  // -- Fields --
+
+  /** Cache into which objects are loaded. */
+  private final Cache cache;
+
+  /** Worker threads loading objects. */
+  private final ThreadPoolExecutor executor;
+
+  /** Queued and running loads, by raster index. */
+  private final Map<Integer, Load> loads = new HashMap<Integer, Load>();
+
+  /** Maximum number of bytes in the prefetched objects. */
+  private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+  /** Whether the source may be queried by several threads at once. */
+  private volatile boolean sourceThreadSafe;
+
+  // -- Constructors --
+
+  /** Constructs a prefetcher for the given cache, with one worker thread. */
+  public CachePrefetcher(Cache cache) throws CacheException {
+    this(cache, 1);
+  }
+
+  /**
+   * Constructs a prefetcher for the given cache, with the given number of
+   * worker threads.
+   */
+  public CachePrefetcher(Cache cache, int threads) throws CacheException {
+    if (cache == null) throw new CacheException("cache is null");
+    if (threads < 1) {
+      throw new CacheException("Invalid thread count: " + threads);
+    }
+    this.cache = cache;
+    executor = new ThreadPoolExecutor(threads, threads, 0L,
+      TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+      new ThreadFactory() {
+        private int count = 0;
+
+        @Override
+        public synchronized Thread newThread(Runnable r) {
+          Thread t = new Thread(r, "Bio-Formats-Cache-Prefetcher-" + count++);
+          t.setDaemon(true);
+          t.setPriority(Thread.MIN_PRIORITY);
+          return t;
+        }
+      });
+    cache.addCacheListener(this);
+    update();
+  }
+
+  // -- CachePrefetcher API methods --
+
+  /** Gets the cache into which objects are loaded. */
+  public Cache getCache() { return cache; }
+
+  /** Gets the number of worker threads. */
+  public int getThreadCount() { return executor.getCorePoolSize(); }
+
+  /** Gets the maximum number of bytes in the prefetched objects. */
+  public synchronized long getMemoryBudget() { return memoryBudget; }
+
+  /**
+   * Sets the maximum number of bytes in the prefetched objects. The object
+   * at the current position is always loaded, whatever its size.
+   */
+  public void setMemoryBudget(long bytes) throws CacheException {
+    if (bytes < 0) throw new CacheException("Invalid memory budget: " + bytes);
+    synchronized (this) {
+      memoryBudget = bytes;
+    }
+    update();
+  }
+
+  /** Returns true if the source may be queried by several threads at once. */
+  public boolean isSourceThreadSafe() { return sourceThreadSafe; }
+
+  /** Sets whether the source may be queried by several threads at once. */
+  public void setSourceThreadSafe(boolean threadSafe) {
+    sourceThreadSafe = threadSafe;
+  }
+
+  /**
+   * Gets the object at the given dimensional position. If it is queued, it
+   * is loaded on the calling thread; if it is being loaded, this waits for
+   * it; if it is not on the load list, it is read from the source without
+   * being cached.
+   */
+  public Object getObject(int[] pos) throws CacheException {
+    Object o = cache.getObject(pos);
+    if (o != null) return o;
+
+    int ndx =
+      FormatTools.positionToRaster(cache.getStrategy().getLengths(), pos);
+    Load load;
+    synchronized (this) {
+      load = loads.get(ndx);
+    }
+    if (load != null) {
+      // no-op if a worker has already started the load
+      load.run();
+      try {
+        load.get();
+      }
+      catch (CancellationException exc) { }
+      catch (InterruptedException exc) { throw new CacheException(exc); }
+      catch (ExecutionException exc) {
+        throw new CacheException(exc.getCause());
+      }
+      o = cache.getObject(pos);
+    }
+    if (o == null) {
+      ICacheSource source = cache.getSource();
+      if (sourceThreadSafe) return source.getObject(ndx);
+      synchronized (source) {
+        return source.getObject(ndx);
+      }
+    }
+    return o;
+  }
+
+  /**
+   * Reschedules loading for the cache's current position: drops objects that
+   * are no longer wanted, cancels loads that have not started, and queues the
+   * objects on the load list that fit in the memory budget.
+   */
+  public void update() throws CacheException {
+    int[] indices = cache.getLoadIndices();
+
+    long size = getObjectSize();
+    int count = indices.length;
+    if (size > 0) {
+      synchronized (this) {
+        count = (int) Math.min(count, Math.max(1, memoryBudget / size));
+      }
+    }
+    int[] window = Arrays.copyOf(indices, count);
+    cache.retain(window);
+
+    synchronized (this) {
+      boolean[] keep = new boolean[cache.getSource().getObjectCount()];
+      for (int ndx : window) {
+        if (ndx >= 0 && ndx < keep.length) keep[ndx] = true;
+      }
+      // loads already running are left to finish
+      Iterator<Load> iter = loads.values().iterator();
+      while (iter.hasNext()) {
+        Load load = iter.next();
+        if (!load.started || load.index >= keep.length || !keep[load.index]) {
+          iter.remove();
+          load.cancel(false);
+        }
+      }
+      executor.purge();
+
+      for (int ndx : window) {
+        if (ndx >= 0 && !loads.containsKey(ndx)) {
+          Load load = new Load(ndx);
+          loads.put(ndx, load);
+          executor.execute(load);
+        }
+      }
+    }
+  }
+
+  /**
+   * Cancels all queued loads and stops the worker threads, waiting for
+   * running loads to finish.
+   */
+  public void shutdown() {
+    cache.removeCacheListener(this);
+    synchronized (this) {
+      Load[] queued = loads.values().toArray(new Load[loads.size()]);
+      loads.clear();
+      for (Load load : queued) {
+        load.cancel(false);
+      }
+    }
+    executor.shutdown();
+    // NB: Must wait for the loads to finish; Bio-Formats is not thread-safe,
+    // so the source must not be used elsewhere until they are done.
+    try {
+      executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+    catch (InterruptedException exc) {
+      LOGGER.info("Thread interrupted", exc);
+    }
+  }
+
+  // -- CacheListener API methods --
+
+  /* @see CacheListener#cacheUpdated(CacheEvent) */
+  @Override
+  public void cacheUpdated(CacheEvent e) {
+    switch (e.getType()) {
+      case CacheEvent.POSITION_CHANGED:
+      case CacheEvent.PRIORITIES_CHANGED:
+      case CacheEvent.ORDER_CHANGED:
+      case CacheEvent.RANGE_CHANGED:
+        try {
+          update();
+        }
+        catch (CacheException exc) {
+          LOGGER.info("", exc);
+        }
+        break;
+    }
+  }
+
+  // -- Helper methods --
+
+  /**
+   * Estimates the number of bytes in each cached object, or returns 0 if
+   * unknown, in which case the memory budget is not applied. The default
+   * implementation uses the plane size of a {@link CacheSource}'s reader.
+   */
+  protected long getObjectSize() {
+    ICacheSource source = cache.getSource();
+    if (source instanceof CacheSource) {
+      CacheSource s = (CacheSource) source;
+      return FormatTools.getPlaneSize(s.reader, (long) s.reader.getSizeX(),
+        (long) s.reader.getSizeY());
+    }
+    return 0;
+  }
+
+  // -- Helper classes --
+
+  /** Loads one object into the cache. */
+  private class Load extends FutureTask<Boolean> {
+    private final int index;
+    private boolean started;
+
+    public Load(final int index) {
+      super(new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws CacheException {
+          ICacheSource source = cache.getSource();
+          if (sourceThreadSafe) return cache.load(index);
+          synchronized (source) {
+            return cache.load(index);
+          }
+        }
+      });
+      this.index = index;
+    }
+
+    @Override
+    public void run() {
+      synchronized (CachePrefetcher.this) {
+        if (started || isDone()) return;
+        started = true;
+      }
+      super.run();
+    }
+
+    @Override
+    protected void done() {
+      synchronized (CachePrefetcher.this) {
+        if (loads.get(index) == this) loads.remove(index);
+      }
+      if (!isCancelled()) {
+        try {
+          get();
+        }
+        catch (InterruptedException exc) { }
+        catch (ExecutionException exc) {
+          LOGGER.info("Could not load object #" + index, exc.getCause());
+        }
+      }
+    }
+  }
+
+}
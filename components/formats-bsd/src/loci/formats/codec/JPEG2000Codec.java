@@ -286,7 +286,15 @@ public class JPEG2000Codec extends BaseCodec {
     int bpp = options.bitsPerSample / 8;
 
     try {
+      // decode straight into the returned array where possible; images
+      // that jj2000 can only deliver as a raster are handled below
       ByteArrayInputStream bis = new ByteArrayInputStream(buf);
+      byte[] direct =
+        service.readBytes(bis, (JPEG2000CodecOptions) options);
+      bis.close();
+      if (direct != null) return direct;
+
+      bis = new ByteArrayInputStream(buf);
       b = (WritableRaster) service.readRaster(
           bis, (JPEG2000CodecOptions) options);
       single = AWTImageTools.getPixelBytes(b, options.littleEndian);
@@ -32,6 +32,8 @@
 
 package loci.formats.codec;
 
+import loci.common.Region;
+
 /**
  * Options for compressing and decompressing JPEG-2000 data.
  */
@@ -65,6 +67,15 @@ public class JPEG2000CodecOptions extends CodecOptions {
    */
   public Integer resolution;
 
+  /**
+   * The region to decode, in the coordinates of the selected resolution level,
+   * as would be provided to:
+   * {@link javax.imageio.ImageReadParam#setSourceRegion(java.awt.Rectangle)}
+   * (READ). Only the code-blocks that contribute to the region are decoded.
+   * Leaving this value <code>null</code> decodes the whole image.
+   */
+  public Region region;
+
   /**
    * Whether or not to write a boxed stream, i.e. with SOC and SIZ markers.
    * By default, a raw code stream is written.
@@ -91,6 +102,7 @@ public class JPEG2000CodecOptions extends CodecOptions {
       }
       numDecompositionLevels = j2kOptions.numDecompositionLevels;
       resolution = j2kOptions.resolution;
+      region = j2kOptions.region;
     }
   }
 
@@ -39,6 +39,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import loci.common.RandomAccessInputStream;
+import loci.common.Region;
 import loci.formats.CoreMetadata;
 import loci.formats.FormatException;
 import loci.formats.FormatReader;
@@ -60,6 +61,12 @@ public class JPEG2000Reader extends FormatReader {
   private static final Logger LOGGER =
     LoggerFactory.getLogger(JPEG2000Reader.class);
 
+  /**
+   * Planes larger than this many bytes are not decoded and cached as a whole
+   * when only a region is requested; the region is decoded on its own.
+   */
+  private static final long MAX_CACHED_PLANE_SIZE = 64 * 1024 * 1024;
+
   // -- Fields --
 
   /** The number of JPEG 2000 resolution levels the file has. */
@@ -178,6 +185,19 @@ public class JPEG2000Reader extends FormatReader {
       options.resolution = getCoreIndex();
     }
 
+    long planeSize = (long) getSizeX() * getSizeY() * getRGBChannelCount() *
+      FormatTools.getBytesPerPixel(getPixelType());
+    boolean wholePlane = x == 0 && y == 0 &&
+      w == getSizeX() && h == getSizeY();
+    if (!wholePlane && planeSize > MAX_CACHED_PLANE_SIZE) {
+      // decode only the code-blocks that intersect the requested region
+      options.region = new Region(x, y, w, h);
+      in.seek(pixelsOffset);
+      byte[] region = new JPEG2000Codec().decompress(in, options);
+      System.arraycopy(region, 0, buf, 0, Math.min(region.length, buf.length));
+      return buf;
+    }
+
     in.seek(pixelsOffset);
     lastSeriesPlane = new JPEG2000Codec().decompress(in, options);
     RandomAccessInputStream s = new RandomAccessInputStream(lastSeriesPlane);
@@ -213,6 +233,10 @@ public class JPEG2000Reader extends FormatReader {
       ms0.pixelType = metadataParser.getHeaderPixelType();
     }
     lut = metadataParser.getLookupTable();
+    resolutionLevels = metadataParser.getResolutionLevels();
+    if (resolutionLevels != null && resolutionLevels <= 0) {
+      resolutionLevels = null;
+    }
 
     pixelsOffset = metadataParser.getCodestreamOffset();
 
@@ -226,16 +250,20 @@ public class JPEG2000Reader extends FormatReader {
     ms0.indexed = !isRGB() && lut != null;
 
     // New core metadata now that we know how many sub-resolutions we have.
-    if (resolutionLevels != null) {
+    // Each JPEG 2000 resolution level halves the size of the previous one,
+    // rounding up.  With flattened resolutions only the full resolution
+    // is exposed.
+    if (resolutionLevels != null && !hasFlattenedResolutions()) {
       int seriesCount = resolutionLevels + 1;
-      core.get(0).resolutionCount = seriesCount;
+      ms0.resolutionCount = seriesCount;
 
       for (int i = 1; i < seriesCount; i++) {
         CoreMetadata ms = new CoreMetadata(this, 0);
         core.add(ms);
-        ms.sizeX = core.get(i - 1).sizeX / 2;
-        ms.sizeY = core.get(i - 1).sizeY / 2;
+        ms.sizeX = (core.get(i - 1).sizeX + 1) / 2;
+        ms.sizeY = (core.get(i - 1).sizeY + 1) / 2;
         ms.thumbnail = true;
+        ms.resolutionCount = 1;
       }
     }
 
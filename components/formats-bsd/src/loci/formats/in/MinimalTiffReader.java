@@ -33,10 +33,12 @@
 package loci.formats.in;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -52,6 +54,7 @@ import loci.formats.codec.JPEG2000CodecOptions;
 import loci.formats.meta.MetadataStore;
 import loci.formats.tiff.IFD;
 import loci.formats.tiff.IFDList;
+import loci.formats.tiff.LazyIFDList;
 import loci.formats.tiff.PhotoInterp;
 import loci.formats.tiff.TiffCompression;
 import loci.formats.tiff.TiffIFDEntry;
@@ -73,7 +76,10 @@ public class MinimalTiffReader extends FormatReader {
 
   // -- Fields --
 
-  /** List of IFDs for the current TIFF. */
+  /**
+   * List of IFDs for the current TIFF.  This is null while IFDs are read
+   * lazily, until {@link #getIFDs()} is called.
+   */
   protected IFDList ifds;
 
   /** List of thumbnail IFDs for the current TIFF. */
@@ -101,6 +107,21 @@ public class MinimalTiffReader extends FormatReader {
   /** Codec options to use when decoding JPEG 2000 data. */
   private JPEG2000CodecOptions j2kCodecOptions;
 
+  /** Executor used to decode tiles concurrently, or null. */
+  private transient ExecutorService decodeExecutor;
+
+  /** Number of threads used by the decode executor. */
+  private int decodeThreads = 1;
+
+  /** Whether IFDs are read only when needed. */
+  private boolean lazyIFDs = false;
+
+  /** Number of planes when IFDs are read lazily, or 0 if not known. */
+  private int ifdCount = 0;
+
+  /** IFDs read on demand, if IFDs are read lazily. */
+  private LazyIFDList lazyList;
+
   // -- Constructors --
 
   /** Constructs a new MinimalTiffReader. */
@@ -122,8 +143,17 @@ public class MinimalTiffReader extends FormatReader {
 
   // -- MinimalTiffReader API methods --
 
-  /** Gets the list of IFDs associated with the current TIFF's image planes. */
+  /**
+   * Gets the list of IFDs associated with the current TIFF's image planes.
+   * If IFDs are read lazily, every IFD is read when this is first called.
+   */
   public IFDList getIFDs() {
+    if (ifds == null && lazyList != null) {
+      IFDList all = new IFDList();
+      all.addAll(lazyList);
+      ifds = all;
+      lazyList = null;
+    }
     return ifds;
   }
 
@@ -132,6 +162,66 @@ public class MinimalTiffReader extends FormatReader {
     return thumbnailIFDs;
   }
 
+  /**
+   * Sets the executor used to decode the tiles of a single plane or region
+   * concurrently.  The executor is not shut down when this reader is closed.
+   *
+   * @param executor the executor to use, or null to decode tiles on the
+   *   calling thread (the default)
+   * @param threads the number of threads available to the executor
+   * @see TiffParser#setDecodeExecutor(ExecutorService, int)
+   */
+  public void setDecodeExecutor(ExecutorService executor, int threads) {
+    decodeExecutor = executor;
+    decodeThreads = threads;
+    if (tiffParser != null) {
+      tiffParser.setDecodeExecutor(decodeExecutor, decodeThreads);
+    }
+  }
+
+  /**
+   * Sets whether IFDs should be read only when they are needed, rather than
+   * all at once when the file is initialized.  Initialization then only
+   * follows the IFD chain to count the planes, unless the count has been
+   * set with {@link #setIFDCount(int)}, and a bounded number of parsed IFDs
+   * are kept in memory.  Thumbnail IFDs are left out by checking only their
+   * NewSubfileType entry.  Files whose first IFD is JPEG 2000 compressed or
+   * uses a color palette are always read in full.  This must be called
+   * before the file is initialized.  Subclasses that use {@link #ifds}
+   * directly should call {@link #getIFDs()} first.
+   *
+   * @see LazyIFDList
+   */
+  public void setLazyIFDs(boolean lazy) {
+    lazyIFDs = lazy;
+  }
+
+  /** Returns whether IFDs are read only when they are needed. */
+  public boolean isLazyIFDs() {
+    return lazyIFDs;
+  }
+
+  /**
+   * Sets the number of planes in the file when it is known from other
+   * metadata, such as OME-XML TiffData elements.  If IFDs are read lazily,
+   * initialization then does not follow the IFD chain at all; planes that
+   * are not in the file are only detected when they are read.  A count of
+   * 0 (the default) means that the IFDs are counted.
+   */
+  public void setIFDCount(int count) {
+    ifdCount = count;
+    if (count > 0 && lazyList != null) {
+      CoreMetadata ms0 = core.get(0);
+      ms0.imageCount = count;
+      ms0.sizeT = count;
+    }
+  }
+
+  /** Gets the number of planes set with {@link #setIFDCount(int)}. */
+  public int getIFDCount() {
+    return ifdCount;
+  }
+
   // -- IFormatReader API methods --
 
   /* @see loci.formats.IFormatReader#isThisType(RandomAccessInputStream) */
@@ -144,15 +234,15 @@ public class MinimalTiffReader extends FormatReader {
   @Override
   public byte[][] get8BitLookupTable() throws FormatException, IOException {
     FormatTools.assertId(currentId, true, 1);
-    if (ifds == null || lastPlane < 0 || lastPlane >= ifds.size()) return null;
-    IFD lastIFD = ifds.get(lastPlane);
+    IFD lastIFD = getLastIFD();
+    if (lastIFD == null) return null;
     int[] bits = lastIFD.getBitsPerSample();
     if (bits[0] <= 8) {
       int[] colorMap = tiffParser.getColorMap(lastIFD);
       if (colorMap == null) {
         // it's possible that the LUT is only present in the first IFD
         if (lastPlane != 0) {
-          lastIFD = ifds.get(0);
+          lastIFD = getIFD(0);
           colorMap = tiffParser.getColorMap(lastIFD);
           if (colorMap == null) return null;
         }
@@ -181,15 +271,15 @@ public class MinimalTiffReader extends FormatReader {
   @Override
   public short[][] get16BitLookupTable() throws FormatException, IOException {
     FormatTools.assertId(currentId, true, 1);
-    if (ifds == null || lastPlane < 0 || lastPlane >= ifds.size()) return null;
-    IFD lastIFD = ifds.get(lastPlane);
+    IFD lastIFD = getLastIFD();
+    if (lastIFD == null) return null;
     int[] bits = lastIFD.getBitsPerSample();
     if (bits[0] <= 16 && bits[0] > 8) {
       int[] colorMap = tiffParser.getColorMap(lastIFD);
       if (colorMap == null || colorMap.length < 65536 * 3) {
         // it's possible that the LUT is only present in the first IFD
         if (lastPlane != 0) {
-          lastIFD = ifds.get(0);
+          lastIFD = getIFD(0);
           colorMap = tiffParser.getColorMap(lastIFD);
           if (colorMap == null || colorMap.length < 65536 * 3) return null;
         }
@@ -280,9 +370,9 @@ public class MinimalTiffReader extends FormatReader {
   {
     FormatTools.checkPlaneParameters(this, no, buf.length, x, y, w, h);
 
-    IFD firstIFD = ifds.get(0);
+    IFD firstIFD = getIFD(0);
     lastPlane = no;
-    IFD ifd = ifds.get(no);
+    IFD ifd = getIFD(no);
     if ((firstIFD.getCompression() == TiffCompression.JPEG_2000
         || firstIFD.getCompression() == TiffCompression.JPEG_2000_LOSSY)
         && resolutionLevels != null) {
@@ -349,6 +439,36 @@ public class MinimalTiffReader extends FormatReader {
     return buf;
   }
 
+  /**
+   * Decodes a sub-image of the specified plane directly into the given
+   * buffer.  Subclasses whose pixels need no post-processing beyond that
+   * done by {@link #openBytes(int, byte[], int, int, int, int)} may
+   * use this to implement
+   * {@link #openBytes(int, ByteBuffer, int, int, int, int)}.
+   */
+  protected ByteBuffer openSamples(int no, ByteBuffer buf, int x, int y,
+    int w, int h) throws FormatException, IOException
+  {
+    FormatTools.checkPlaneParameters(this, no, buf.remaining(), x, y, w, h);
+
+    IFD firstIFD = getIFD(0);
+    boolean jpeg2000 = firstIFD.getCompression() == TiffCompression.JPEG_2000
+      || firstIFD.getCompression() == TiffCompression.JPEG_2000_LOSSY;
+    if ((jpeg2000 && resolutionLevels != null) ||
+      (getPixelType() == FormatTools.FLOAT &&
+      firstIFD.getBitsPerSample()[0] < 32))
+    {
+      // sub-resolutions and half floats are handled by openBytes
+      return super.openBytes(no, buf, x, y, w, h);
+    }
+
+    lastPlane = no;
+    if (tiffParser == null) {
+      initTiffParser();
+    }
+    return tiffParser.getSamples(getIFD(no), buf, x, y, w, h);
+  }
+
   /* @see loci.formats.IFormatReader#reopenFile() */
   @Override
   public void reopenFile() throws IOException {
@@ -360,8 +480,9 @@ public class MinimalTiffReader extends FormatReader {
   public void close(boolean fileOnly) throws IOException {
     super.close(fileOnly);
     if (!fileOnly) {
-      if (ifds != null) {
-        for (IFD ifd : ifds) {
+      IFDList parsed = lazyList != null ? lazyList.getCachedIFDs() : ifds;
+      if (parsed != null) {
+        for (IFD ifd : parsed) {
           try {
             if (ifd.getOnDemandStripOffsets() != null) {
               ifd.getOnDemandStripOffsets().close();
@@ -373,6 +494,7 @@ public class MinimalTiffReader extends FormatReader {
         }
       }
       ifds = null;
+      lazyList = null;
       thumbnailIFDs = null;
       subResolutionIFDs = null;
       lastPlane = 0;
@@ -387,7 +509,7 @@ public class MinimalTiffReader extends FormatReader {
   public int getOptimalTileWidth() {
     FormatTools.assertId(currentId, true, 1);
     try {
-      return (int) ifds.get(0).getTileWidth();
+      return (int) getFirstIFD().getTileWidth();
     }
     catch (FormatException e) {
       LOGGER.debug("Could not retrieve tile width", e);
@@ -400,7 +522,7 @@ public class MinimalTiffReader extends FormatReader {
   public int getOptimalTileHeight() {
     FormatTools.assertId(currentId, true, 1);
     try {
-      int height = (int) ifds.get(0).getTileLength();
+      int height = (int) getFirstIFD().getTileLength();
       if (height <= 0) {
         height = getSizeY();
       }
@@ -440,13 +562,17 @@ public class MinimalTiffReader extends FormatReader {
 
     LOGGER.info("Reading IFDs");
 
-    IFDList allIFDs = tiffParser.getIFDs();
+    tiffParser.setAssumeEqualStrips(equalStrips);
+    boolean lazy = lazyIFDs && initLazyIFDs();
+
+    // IFDs read on demand are only listed by lazyList
+    IFDList allIFDs = lazy ? new IFDList() : tiffParser.getIFDs();
 
-    if (allIFDs == null || allIFDs.size() == 0) {
+    if (!lazy && (allIFDs == null || allIFDs.size() == 0)) {
       throw new FormatException("No IFDs found");
     }
 
-    ifds = new IFDList();
+    ifds = lazy ? null : new IFDList();
     thumbnailIFDs = new IFDList();
     subResolutionIFDs = new ArrayList<IFDList>();
     for (IFD ifd : allIFDs) {
@@ -464,10 +590,18 @@ public class MinimalTiffReader extends FormatReader {
 
     CoreMetadata ms0 = core.get(0);
 
-    ms0.imageCount = ifds.size();
+    // a LazyIFDList is only walked to the end if the count is unknown
+    if (!lazy) {
+      ms0.imageCount = ifds.size();
+    }
+    else {
+      ms0.imageCount = ifdCount > 0 ? ifdCount : lazyList.size();
+    }
 
-    tiffParser.setAssumeEqualStrips(equalStrips);
-    for (IFD ifd : ifds) {
+    // IFDs read on demand are filled in as they are read, and are never
+    // JPEG 2000 compressed
+    IFDList unparsed = lazy ? new IFDList() : ifds;
+    for (IFD ifd : unparsed) {
       tiffParser.fillInIFD(ifd);
       if ((ifd.getCompression() == TiffCompression.JPEG_2000
           || ifd.getCompression() == TiffCompression.JPEG_2000_LOSSY) &&
@@ -541,7 +675,7 @@ public class MinimalTiffReader extends FormatReader {
       }
     }
 
-    IFD firstIFD = ifds.get(0);
+    IFD firstIFD = getIFD(0);
 
     PhotoInterp photo = firstIFD.getPhotometricInterpretation();
     int samples = firstIFD.getSamplesPerPixel();
@@ -553,7 +687,7 @@ public class MinimalTiffReader extends FormatReader {
     ms0.sizeY = (int) firstIFD.getImageLength();
     ms0.sizeZ = 1;
     ms0.sizeC = isRGB() ? samples : 1;
-    ms0.sizeT = ifds.size();
+    ms0.sizeT = ms0.imageCount;
     ms0.pixelType = firstIFD.getPixelType();
     ms0.metadataComplete = true;
     ms0.indexed = photo == PhotoInterp.RGB_PALETTE &&
@@ -637,6 +771,64 @@ public class MinimalTiffReader extends FormatReader {
     tiffParser = new TiffParser(in);
     tiffParser.setDoCaching(false);
     tiffParser.setUse64BitOffsets(use64Bit);
+    tiffParser.setDecodeExecutor(decodeExecutor, decodeThreads);
+    if (lazyList != null) {
+      lazyList.setParser(tiffParser);
+    }
+  }
+
+  /**
+   * Gets the IFD of the given plane.  Errors reading IFDs that are read
+   * lazily are thrown rather than wrapped in unchecked exceptions.
+   */
+  protected IFD getIFD(int no) throws IOException {
+    if (lazyList != null) {
+      if (tiffParser == null) {
+        initTiffParser();
+      }
+      return lazyList.getIFD(no);
+    }
+    return ifds.get(no);
+  }
+
+  /** Gets the IFD of the first plane. */
+  private IFD getFirstIFD() {
+    return lazyList != null ? lazyList.get(0) : ifds.get(0);
+  }
+
+  /** Gets the IFD of the last plane read, or null if there is none. */
+  private IFD getLastIFD() throws IOException {
+    if (lazyList != null) {
+      return lazyList.hasIFD(lastPlane) ? getIFD(lastPlane) : null;
+    }
+    if (ifds == null || lastPlane < 0 || lastPlane >= ifds.size()) {
+      return null;
+    }
+    return ifds.get(lastPlane);
+  }
+
+  /**
+   * Starts reading IFDs on demand, unless the file's IFDs must all be read.
+   * @return true if IFDs are read lazily
+   */
+  private boolean initLazyIFDs() throws FormatException, IOException {
+    LazyIFDList list = tiffParser.getLazyNonThumbnailIFDs();
+    if (list.hasIFD(0) && canReadLazily(list.getIFD(0))) {
+      lazyList = list;
+    }
+    return lazyList != null;
+  }
+
+  /**
+   * Returns whether the IFDs of a file starting with the given IFD can be
+   * read on demand, i.e. do not need the JPEG 2000 sub-resolution or
+   * color palette handling applied to every IFD.
+   */
+  private boolean canReadLazily(IFD firstIFD) throws FormatException {
+    TiffCompression compression = firstIFD.getCompression();
+    return compression != TiffCompression.JPEG_2000 &&
+      compression != TiffCompression.JPEG_2000_LOSSY &&
+      firstIFD.getPhotometricInterpretation() != PhotoInterp.RGB_PALETTE;
   }
 
 }
@@ -34,12 +34,16 @@ package loci.formats.in;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Vector;
 
 import loci.common.DataTools;
@@ -62,7 +66,7 @@ import loci.formats.ome.OMEXMLMetadata;
 import loci.formats.services.OMEXMLService;
 import loci.formats.services.OMEXMLServiceImpl;
 import loci.formats.tiff.IFD;
-import loci.formats.tiff.IFDList;
+import loci.formats.tiff.LazyIFDList;
 import loci.formats.tiff.PhotoInterp;
 import loci.formats.tiff.TiffIFDEntry;
 import loci.formats.tiff.TiffParser;
@@ -78,6 +82,14 @@ import ome.xml.model.primitives.Timestamp;
  */
 public class OMETiffReader extends FormatReader {
 
+  // -- Constants --
+
+  /** Default maximum number of TIFF files to keep open at once. */
+  public static final int DEFAULT_MAX_OPEN_FILES = 64;
+
+  /** Zeroes copied into buffers for planes that are missing. */
+  private static final byte[] ZEROS = new byte[65536];
+
   // -- Fields --
 
   /** Mapping from series and plane numbers to files and IFD entries. */
@@ -98,6 +110,18 @@ public class OMETiffReader extends FormatReader {
 
   private String metadataFile;
 
+  /** Maximum number of TIFF files to keep open at once. */
+  private int maxOpenFiles = DEFAULT_MAX_OPEN_FILES;
+
+  /** Open per-file readers, least recently used first. */
+  private transient LinkedHashMap<String, IFormatReader> openReaders;
+
+  /** Whether referenced files are checked when first read, not in setId. */
+  private boolean deferredValidation;
+
+  /** Files that have been checked, mapped to whether they are valid TIFFs. */
+  private HashMap<String, Boolean> validFiles = new HashMap<String, Boolean>();
+
   // -- Constructor --
 
   /** Constructs a new OME-TIFF reader. */
@@ -125,7 +149,6 @@ public class OMETiffReader extends FormatReader {
     RandomAccessInputStream ras = new RandomAccessInputStream(fileName, 16);
     TiffParser tp = new TiffParser(ras);
     IFD ifd = tp.getFirstIFD();
-    long[] ifdOffsets = tp.getIFDOffsets();
     ras.close();
     String xml = ifd.getComment();
 
@@ -151,7 +174,17 @@ public class OMETiffReader extends FormatReader {
       int t = meta.getPixelsSizeT(i).getValue().intValue();
       nImages += z * t * nChannels;
     }
-    return nImages > 0 && nImages <= ifdOffsets.length;
+    if (nImages <= 0) return false;
+
+    // only follow the IFD chain as far as the last expected plane
+    ras = new RandomAccessInputStream(fileName, 16);
+    try {
+      LazyIFDList ifdList = new TiffParser(ras).getLazyIFDs();
+      return ifdList.hasIFD(nImages - 1);
+    }
+    finally {
+      ras.close();
+    }
   }
 
   /* @see loci.formats.IFormatReader#isThisType(String, boolean) */
@@ -286,8 +319,7 @@ public class OMETiffReader extends FormatReader {
     {
       return null;
     }
-    info[series][lastPlane].reader.setId(info[series][lastPlane].id);
-    return info[series][lastPlane].reader.get8BitLookupTable();
+    return openReader(info[series][lastPlane]).get8BitLookupTable();
   }
 
   /* @see loci.formats.IFormatReader#get16BitLookupTable() */
@@ -300,8 +332,7 @@ public class OMETiffReader extends FormatReader {
     {
       return null;
     }
-    info[series][lastPlane].reader.setId(info[series][lastPlane].id);
-    return info[series][lastPlane].reader.get16BitLookupTable();
+    return openReader(info[series][lastPlane]).get16BitLookupTable();
   }
 
   /* @see loci.formats.IFormatReader#reopenFile() */
@@ -328,36 +359,28 @@ public class OMETiffReader extends FormatReader {
     throws FormatException, IOException
   {
     FormatTools.checkPlaneParameters(this, no, buf.length, x, y, w, h);
-    int series = getSeries();
-    lastPlane = no;
-    int i = info[series][no].ifd;
-
-    if (!info[series][no].exists) {
+    if (!openPlane(no, buf, null, x, y, w, h)) {
       Arrays.fill(buf, (byte) 0);
-      return buf;
-    }
-
-    MinimalTiffReader r = (MinimalTiffReader) info[series][no].reader;
-    if (r.getCurrentFile() == null) {
-      r.setId(info[series][no].id);
-    }
-    r.lastPlane = i;
-    IFDList ifdList = r.getIFDs();
-    if (i >= ifdList.size()) {
-      LOGGER.warn("Error untangling IFDs; the OME-TIFF file may be malformed (IFD #{} missing).", i);
-      return buf;
     }
-    IFD ifd = ifdList.get(i);
-    RandomAccessInputStream s =
-      new RandomAccessInputStream(info[series][no].id);
-    TiffParser p = new TiffParser(s);
-    p.getSamples(ifd, buf, x, y, w, h);
-    s.close();
+    return buf;
+  }
 
-    // reasonably safe to close the reader if the entire plane or
-    // lower-right-most tile from a single plane file has been read
-    if (r.getImageCount() == 1 && w + x == getSizeX() && h + y == getSizeY()) {
-      r.close();
+  /*
+   * @see loci.formats.IFormatReader#openBytes(int, ByteBuffer, int, int, int,
+   *   int)
+   */
+  @Override
+  public ByteBuffer openBytes(int no, ByteBuffer buf, int x, int y, int w,
+    int h) throws FormatException, IOException
+  {
+    FormatTools.checkPlaneParameters(this, no, buf.remaining(), x, y, w, h);
+    if (!openPlane(no, null, buf, x, y, w, h)) {
+      int size = FormatTools.getPlaneSize(this, w, h);
+      while (size > 0) {
+        int len = Math.min(size, ZEROS.length);
+        buf.put(ZEROS, 0, len);
+        size -= len;
+      }
     }
     return buf;
   }
@@ -402,6 +425,7 @@ public class OMETiffReader extends FormatReader {
   @Override
   public void close(boolean fileOnly) throws IOException {
     super.close(fileOnly);
+    openReaders = null;
     if (info != null) {
       for (OMETiffPlane[] dimension : info) {
         if (dimension == null) continue;
@@ -424,6 +448,7 @@ public class OMETiffReader extends FormatReader {
       tileWidth = null;
       tileHeight = null;
       metadataFile = null;
+      validFiles.clear();
     }
   }
 
@@ -762,7 +787,10 @@ public class OMETiffReader extends FormatReader {
         else filename = normalizeFilename(dir, filename);
         IFormatReader r = readers.get(filename);
         if (r == null) {
-          r = new MinimalTiffReader();
+          // the OME-XML maps planes to IFDs, so IFDs are only read as needed
+          MinimalTiffReader tiffReader = new MinimalTiffReader();
+          tiffReader.setLazyIFDs(true);
+          r = tiffReader;
           readers.put(filename, r);
         }
 
@@ -850,40 +878,31 @@ public class OMETiffReader extends FormatReader {
       }
       LOGGER.debug("  }");
 
+      // the TiffData elements give the number of IFDs used in each file,
+      // so the IFD chains need not be followed to count them
+      for (OMETiffPlane plane : planes) {
+        if (plane.reader instanceof MinimalTiffReader && plane.ifd >= 0) {
+          MinimalTiffReader r = (MinimalTiffReader) plane.reader;
+          if (plane.ifd >= r.getIFDCount()) {
+            r.setIFDCount(plane.ifd + 1);
+          }
+        }
+      }
+
       // populate core metadata
       CoreMetadata m = core.get(s);
       info[s] = planes;
       try {
-        RandomAccessInputStream testFile = new RandomAccessInputStream(info[s][0].id);
-        String firstFile = info[s][0].id;
-        if (!info[s][0].reader.isThisType(testFile)) {
-          LOGGER.warn("{} is not a valid OME-TIFF", info[s][0].id);
-          info[s][0].id = currentId;
-          info[s][0].exists = false;
-        }
-        testFile.close();
-        for (int plane=1; plane<info[s].length; plane++) {
-          if (info[s][plane].id.equals(firstFile)) {
-            // don't repeat slow type checking if the files are the same
-            if (!info[s][0].exists) {
-              info[s][plane].id = info[s][0].id;
-              info[s][plane].exists = false;
-            }
-
-            continue;
-          }
-          testFile = new RandomAccessInputStream(info[s][plane].id);
-          if (!info[s][plane].reader.isThisType(testFile)) {
-            LOGGER.warn("{} is not a valid OME-TIFF", info[s][plane].id);
-            info[s][plane].id = info[s][0].id;
-            info[s][plane].exists = false;
+        validate(info[s][0], currentId);
+        if (!deferredValidation) {
+          for (int plane=1; plane<info[s].length; plane++) {
+            validate(info[s][plane], info[s][0].id);
           }
-          testFile.close();
         }
 
-        info[s][0].reader.setId(info[s][0].id);
-        tileWidth[s] = info[s][0].reader.getOptimalTileWidth();
-        tileHeight[s] = info[s][0].reader.getOptimalTileHeight();
+        IFormatReader firstReader = openReader(info[s][0]);
+        tileWidth[s] = firstReader.getOptimalTileWidth();
+        tileHeight[s] = firstReader.getOptimalTileHeight();
 
         m.sizeX = meta.getPixelsSizeX(i).getValue().intValue();
         int tiffWidth = (int) firstIFD.getImageWidth();
@@ -1026,6 +1045,53 @@ public class OMETiffReader extends FormatReader {
 
   // -- OMETiffReader API methods --
 
+  /**
+   * Sets the maximum number of TIFF files that are kept open at once.
+   * When a plane from another file is read, the least recently used file
+   * is closed.  Larger values avoid reopening files when reading from many
+   * files in turn, at the cost of more open file handles.
+   */
+  public void setMaxOpenFiles(int maxOpenFiles) throws IOException {
+    if (maxOpenFiles < 1) {
+      throw new IllegalArgumentException(
+        "At least one file must be allowed to stay open");
+    }
+    this.maxOpenFiles = maxOpenFiles;
+    if (openReaders != null) {
+      Iterator<IFormatReader> readers = openReaders.values().iterator();
+      while (openReaders.size() > maxOpenFiles && readers.hasNext()) {
+        readers.next().close();
+        readers.remove();
+      }
+    }
+  }
+
+  /** Gets the maximum number of TIFF files that are kept open at once. */
+  public int getMaxOpenFiles() {
+    return maxOpenFiles;
+  }
+
+  /**
+   * Sets whether each referenced TIFF file is checked when one of its planes
+   * is first read, instead of during {@link #setId(String)}.  This makes
+   * initializing datasets of many files much faster.  Planes in files that
+   * turn out to be invalid are read as blank planes, as with eager checking,
+   * but the files are still listed by {@link #getSeriesUsedFiles(boolean)}
+   * until then.  Must be called before {@link #setId(String)}.
+   */
+  public void setDeferredValidation(boolean deferredValidation) {
+    FormatTools.assertId(currentId, false, 1);
+    this.deferredValidation = deferredValidation;
+  }
+
+  /**
+   * Gets whether referenced TIFF files are checked when first read.
+   * @see #setDeferredValidation(boolean)
+   */
+  public boolean isDeferredValidation() {
+    return deferredValidation;
+  }
+
   /**
    * Returns a MetadataStore that is populated in such a way as to
    * produce valid OME-XML.  The returned MetadataStore cannot be used
@@ -1064,6 +1130,107 @@ public class OMETiffReader extends FormatReader {
 
   // -- Helper methods --
 
+  /**
+   * Reads the given region of a plane in the current series into either buf
+   * or, if it is null, the given output buffer.
+   *
+   * @return false if the plane's file or IFD is missing, in which case
+   *   nothing was read
+   */
+  private boolean openPlane(int no, byte[] buf, ByteBuffer out, int x, int y,
+    int w, int h) throws FormatException, IOException
+  {
+    int series = getSeries();
+    lastPlane = no;
+    int i = info[series][no].ifd;
+
+    if (deferredValidation) {
+      validate(info[series][no], info[series][0].id);
+    }
+    if (!info[series][no].exists) {
+      return false;
+    }
+
+    MinimalTiffReader r = (MinimalTiffReader) openReader(info[series][no]);
+    r.lastPlane = i;
+    IFD ifd;
+    try {
+      ifd = r.getIFD(i);
+    }
+    catch (IndexOutOfBoundsException e) {
+      LOGGER.warn("Error untangling IFDs; the OME-TIFF file may be malformed (IFD #{} missing).", i);
+      return false;
+    }
+    if (buf != null) {
+      r.tiffParser.getSamples(ifd, buf, x, y, w, h);
+    }
+    else {
+      r.tiffParser.getSamples(ifd, out, x, y, w, h);
+    }
+
+    // reasonably safe to close the reader if the entire plane or
+    // lower-right-most tile from a single plane file has been read
+    if (r.getImageCount() == 1 && w + x == getSizeX() && h + y == getSizeY()) {
+      openReaders.remove(r.getCurrentFile());
+      r.close();
+    }
+    return true;
+  }
+
+  /**
+   * Checks whether the given plane's file is a valid TIFF file, opening
+   * each file at most once.  A plane in an invalid file is redirected to
+   * the given fallback file and marked as missing.
+   */
+  private void validate(OMETiffPlane plane, String fallback)
+    throws IOException
+  {
+    Boolean valid = validFiles.get(plane.id);
+    if (valid == null) {
+      RandomAccessInputStream testFile = new RandomAccessInputStream(plane.id);
+      try {
+        valid = plane.reader.isThisType(testFile);
+      }
+      finally {
+        testFile.close();
+      }
+      if (!valid) {
+        LOGGER.warn("{} is not a valid OME-TIFF", plane.id);
+      }
+      validFiles.put(plane.id, valid);
+    }
+    if (!valid) {
+      plane.id = fallback;
+      plane.exists = false;
+    }
+  }
+
+  /**
+   * Initializes the reader for the given plane's file if necessary, and
+   * marks it as the most recently used.  The least recently used reader is
+   * closed if more than {@link #getMaxOpenFiles()} readers are open.
+   */
+  private IFormatReader openReader(OMETiffPlane plane)
+    throws FormatException, IOException
+  {
+    IFormatReader r = plane.reader;
+    if (openReaders == null) {
+      openReaders = new LinkedHashMap<String, IFormatReader>(16, 0.75f, true);
+    }
+    if (r.getCurrentFile() == null) {
+      r.setId(plane.id);
+    }
+    openReaders.put(r.getCurrentFile(), r);
+    Iterator<Map.Entry<String, IFormatReader>> readers =
+      openReaders.entrySet().iterator();
+    while (openReaders.size() > maxOpenFiles) {
+      Map.Entry<String, IFormatReader> eldest = readers.next();
+      readers.remove();
+      eldest.getValue().close();
+    }
+    return r;
+  }
+
   private String normalizeFilename(String dir, String name) {
      File file = new File(dir, name);
      if (file.exists()) return file.getAbsolutePath();
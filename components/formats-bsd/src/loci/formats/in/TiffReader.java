@@ -33,6 +33,7 @@
 package loci.formats.in;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Hashtable;
 import java.util.StringTokenizer;
 
@@ -107,6 +108,17 @@ public class TiffReader extends BaseTiffReader {
     return new String[] {currentId};
   }
 
+  /*
+   * @see loci.formats.IFormatReader#openBytes(int, ByteBuffer, int, int, int,
+   *   int)
+   */
+  @Override
+  public ByteBuffer openBytes(int no, ByteBuffer buf, int x, int y, int w,
+    int h) throws FormatException, IOException
+  {
+    return openSamples(no, buf, x, y, w, h);
+  }
+
   /* @see loci.formats.IFormatReader#close(boolean) */
   @Override
   public void close(boolean fileOnly) throws IOException {
@@ -33,16 +33,17 @@
 package loci.formats.out;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import ome.xml.meta.OMEXMLMetadataRoot;
 import ome.xml.model.primitives.NonNegativeInteger;
 import ome.xml.model.primitives.PositiveInteger;
 
+import loci.common.Constants;
 import loci.common.Location;
 import loci.common.RandomAccessInputStream;
 import loci.common.RandomAccessOutputStream;
@@ -81,6 +82,9 @@ public class OMETiffWriter extends TiffWriter {
 
   private Map<String, String> uuids = new HashMap<String, String>();
 
+  /** Companion file to which the OME-XML is written, or null. */
+  private String companion;
+
   // -- Constructor --
 
   public OMETiffWriter() {
@@ -95,6 +99,8 @@ public class OMETiffWriter extends TiffWriter {
   public void close() throws IOException {
     try {
       if (currentId != null) {
+        // the comment must be written after the final IFDs
+        writePendingResolutions();
         setupServiceAndMetadata();
 
         // remove any BinData and old TiffData elements from the OME-XML
@@ -106,22 +112,45 @@ public class OMETiffWriter extends TiffWriter {
           populateImage(omeMeta, series);
         }
 
-        List<String> files = new ArrayList<String>();
+        // list each file once, in the order in which it was first written
+        Set<String> files = new LinkedHashSet<String>();
         for (String[] s : imageLocations) {
           for (String f : s) {
-            if (!files.contains(f) && f != null) {
+            if (f != null) {
               files.add(f);
-
-              String xml = getOMEXML(f);
-              if (getMetadataOptions().isValidate()) {
-                service.validateOMEXML(xml);
-              }
-
-              // write OME-XML to the first IFD's comment
-              saveComment(f, xml);
             }
           }
         }
+
+        // serialise the OME-XML once, then substitute each file's UUID
+        // for the placeholder when writing the file's comment
+        String placeholder = "urn:uuid:" + UUID.randomUUID().toString();
+        String xml;
+        if (companion != null) {
+          String name = new Location(companion).getName();
+          String companionXML = getOMEXML("urn:uuid:" + getUUID(name));
+          if (getMetadataOptions().isValidate()) {
+            service.validateOMEXML(companionXML);
+          }
+          saveCompanion(companionXML);
+          xml = getBinaryOnlyXML(placeholder, name);
+        }
+        else {
+          xml = getOMEXML(placeholder);
+          if (getMetadataOptions().isValidate()) {
+            service.validateOMEXML(xml);
+          }
+        }
+
+        int split = xml.indexOf(placeholder);
+        String prefix = xml.substring(0, split);
+        String suffix = xml.substring(split + placeholder.length());
+        for (String f : files) {
+          String uuid = "urn:uuid:" + getUUID(new Location(f).getName());
+
+          // write OME-XML to the first IFD's comment
+          saveComment(f, prefix + uuid + suffix);
+        }
       }
     }
     catch (DependencyException de) {
@@ -173,6 +202,33 @@ public class OMETiffWriter extends TiffWriter {
     }
   }
 
+  // -- OMETiffWriter API methods --
+
+  /**
+   * Sets the companion file to which the OME-XML metadata is written when
+   * this writer is closed.  Each TIFF file then stores only a BinaryOnly
+   * element referencing the companion file, instead of a complete copy of
+   * the metadata, which keeps closing datasets of many files fast.  The
+   * companion file must be in the same directory as the TIFF files.
+   * This setting is not reset when close() is called.
+   *
+   * @param companion the path to the companion file, whose name must end
+   *   with ".companion.ome", or null to store the metadata in every TIFF
+   *   file (the default)
+   */
+  public void setCompanionFile(String companion) {
+    if (companion != null && !checkSuffix(companion, "companion.ome")) {
+      throw new IllegalArgumentException(
+        "Companion file name must end with .companion.ome: " + companion);
+    }
+    this.companion = companion;
+  }
+
+  /** Gets the companion file to which the OME-XML metadata is written. */
+  public String getCompanionFile() {
+    return companion;
+  }
+
   // -- IFormatWriter API methods --
 
   /**
@@ -251,9 +307,8 @@ public class OMETiffWriter extends TiffWriter {
     omeMeta = service.createOMEXMLMetadata(omexml);
   }
 
-  private String getOMEXML(String file) throws FormatException, IOException {
-    // generate UUID and add to OME element
-    String uuid = "urn:uuid:" + getUUID(new Location(file).getName());
+  /** Gets the OME-XML metadata, with the given UUID for the OME element. */
+  private String getOMEXML(String uuid) throws FormatException, IOException {
     omeMeta.setUUID(uuid);
 
     OMEXMLMetadataRoot root = (OMEXMLMetadataRoot) omeMeta.getRoot();
@@ -273,6 +328,46 @@ public class OMETiffWriter extends TiffWriter {
     return prefix + WARNING_COMMENT + suffix;
   }
 
+  /**
+   * Gets the OME-XML stored in a TIFF file when the metadata is written to
+   * the companion file.
+   *
+   * @param uuid the UUID of the TIFF file
+   * @param name the name of the companion file
+   */
+  private String getBinaryOnlyXML(String uuid, String name)
+    throws FormatException
+  {
+    try {
+      OMEXMLMetadata stub = service.createOMEXMLMetadata();
+      stub.setUUID(uuid);
+      stub.setBinaryOnlyMetadataFile(name);
+      stub.setBinaryOnlyUUID("urn:uuid:" + getUUID(name));
+      OMEXMLMetadataRoot root = (OMEXMLMetadataRoot) stub.getRoot();
+      root.setCreator(FormatTools.CREATOR);
+      return service.getOMEXML(stub);
+    }
+    catch (ServiceException se) {
+      throw new FormatException(se);
+    }
+  }
+
+  /** Writes the given OME-XML to the companion file. */
+  private void saveCompanion(String xml) throws IOException {
+    Location file = new Location(companion);
+    if (file.exists()) {
+      file.delete();
+    }
+    RandomAccessOutputStream companionOut =
+      new RandomAccessOutputStream(companion);
+    try {
+      companionOut.write(xml.getBytes(Constants.ENCODING));
+    }
+    finally {
+      companionOut.close();
+    }
+  }
+
   private void saveComment(String file, String xml) throws IOException {
     if (out != null) out.close();
     out = new RandomAccessOutputStream(file);
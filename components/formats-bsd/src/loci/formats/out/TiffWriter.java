@@ -33,6 +33,9 @@
 package loci.formats.out;
 
 import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
 
 import loci.common.RandomAccessInputStream;
 import loci.common.RandomAccessOutputStream;
@@ -96,6 +99,25 @@ public class TiffWriter extends FormatWriter {
   /** Whether or not to check the parameters passed to saveBytes. */
   protected boolean checkParams = true;
 
+  /** Executor used to compress strips concurrently, or null. */
+  private ExecutorService compressExecutor;
+
+  /** Number of resolutions written for each plane. */
+  private int resolutionCount = 1;
+
+  /** Factor by which each resolution is smaller than the previous one. */
+  private int resolutionScale = 2;
+
+  /** Whether reduced resolutions are generated from full resolution tiles. */
+  private boolean generateResolutions = true;
+
+  /** Resolution written by saveBytes. */
+  private int resolution = 0;
+
+  /** Reduced resolutions not yet written, keyed by image index. */
+  private Map<Integer, SubResolutions> subResolutions =
+    new TreeMap<Integer, SubResolutions>();
+
   /**
    * Sets the compression code for the specified IFD.
    * 
@@ -209,6 +231,10 @@ public class TiffWriter extends FormatWriter {
     throws IOException, FormatException
   {
     if (checkParams) checkParams(no, buf, x, y, w, h);
+    if (resolution > 0) {
+      saveResolution(no, buf, x, y, w, h);
+      return;
+    }
     if (ifd == null) ifd = new IFD();
     MetadataRetrieve retrieve = getMetadataRetrieve();
     int type = FormatTools.pixelTypeFromString(
@@ -225,8 +251,20 @@ public class TiffWriter extends FormatWriter {
       }
     }
 
-    tiffSaver.writeImage(buf, ifd, index, type, x, y, w, h,
-      no == getPlaneCount() - 1 && getSeries() == retrieve.getImageCount() - 1);
+    boolean last =
+      no == getPlaneCount() - 1 && getSeries() == retrieve.getImageCount() - 1;
+    tiffSaver.writeImage(buf, ifd, index, type, x, y, w, h, last);
+
+    if (resolutionCount > 1) {
+      synchronized (this) {
+        SubResolutions sub = getSubResolutions(index, type, last);
+        if (generateResolutions) {
+          downsample(sub, buf, x, y, w, h);
+        }
+        sub.remaining[0] -= (long) w * h;
+        writeSubResolutions(index, sub);
+      }
+    }
   }
 
   /**
@@ -361,6 +399,11 @@ public class TiffWriter extends FormatWriter {
     ifd.putIFDValue(IFD.PLANAR_CONFIGURATION,
       interleaved || getSamplesPerPixel() == 1 ? 1 : 2);
 
+    if (resolutionCount > 1 && !ifd.containsKey(IFD.SUB_IFD)) {
+      // placeholder offsets, filled in once the reduced resolutions are written
+      ifd.putIFDValue(IFD.SUB_IFD, new long[resolutionCount - 1]);
+    }
+
     int sampleFormat = 1;
     if (FormatTools.isSigned(type)) sampleFormat = 2;
     if (FormatTools.isFloatingPoint(type)) sampleFormat = 3;
@@ -373,11 +416,7 @@ public class TiffWriter extends FormatWriter {
       "ImageJ=\nhyperstack=true\nimages=" + (channels * z * t) + "\nchannels=" +
       channels + "\nslices=" + z + "\nframes=" + t);
 
-    int index = no;
-    for (int i=0; i<getSeries(); i++) {
-      index += getPlaneCount(i);
-    }
-    return index;
+    return getIndex(no);
   }
 
   // -- FormatWriter API methods --
@@ -387,12 +426,17 @@ public class TiffWriter extends FormatWriter {
    */
   @Override
   public void close() throws IOException {
-    super.close();
-    if (in != null) {
-      in.close();
+    try {
+      writePendingResolutions();
     }
-    if (tiffSaver != null) {
-      tiffSaver.close();
+    finally {
+      super.close();
+      if (in != null) {
+        in.close();
+      }
+      if (tiffSaver != null) {
+        tiffSaver.close();
+      }
     }
   }
 
@@ -477,9 +521,276 @@ public class TiffWriter extends FormatWriter {
     isBigTiff = bigTiff;
   }
 
+  /**
+   * Sets the executor used to compress the strips or tiles of each plane
+   * concurrently.  The executor is not shut down when this writer is closed.
+   *
+   * @param executor the executor to use, or null to compress strips on the
+   *   calling thread (the default)
+   * @see TiffSaver#setCompressExecutor(ExecutorService)
+   */
+  public void setCompressExecutor(ExecutorService executor) {
+    compressExecutor = executor;
+    if (tiffSaver != null) {
+      tiffSaver.setCompressExecutor(compressExecutor);
+    }
+  }
+
+  /**
+   * Sets the number of resolutions written for each plane, including the
+   * full resolution.  Each reduced resolution is stored as a SubIFD of its
+   * plane's IFD, and is held in memory until every resolution of the plane
+   * has been written, so each reduced resolution of a plane must be smaller
+   * than 2 GB.  This setting is not reset when close() is called.
+   *
+   * @param count the number of resolutions; 1 (the default) writes no
+   *   reduced resolutions
+   */
+  public void setResolutionCount(int count) {
+    FormatTools.assertId(currentId, false, 1);
+    if (count < 1) {
+      throw new IllegalArgumentException("Invalid resolution count: " + count);
+    }
+    resolutionCount = count;
+  }
+
+  /** Gets the number of resolutions written for each plane. */
+  public int getResolutionCount() {
+    return resolutionCount;
+  }
+
+  /**
+   * Sets the factor by which the width and height of each resolution are
+   * smaller than those of the previous resolution.  The default is 2.
+   */
+  public void setResolutionScale(int scale) {
+    FormatTools.assertId(currentId, false, 1);
+    if (scale < 2) {
+      throw new IllegalArgumentException("Invalid resolution scale: " + scale);
+    }
+    resolutionScale = scale;
+  }
+
+  /** Gets the factor by which each resolution is downsampled. */
+  public int getResolutionScale() {
+    return resolutionScale;
+  }
+
+  /**
+   * Sets whether reduced resolutions are generated by subsampling the full
+   * resolution tiles passed to saveBytes (the default).  If not, every
+   * reduced resolution must be written after selecting it with
+   * {@link #setResolution(int)}.
+   */
+  public void setGenerateResolutions(boolean generate) {
+    FormatTools.assertId(currentId, false, 1);
+    generateResolutions = generate;
+  }
+
+  /**
+   * Sets the resolution written by subsequent calls to saveBytes, where 0 is
+   * the full resolution.  Tile coordinates are relative to the selected
+   * resolution, whose size is that of the full resolution divided by the
+   * resolution scale once per level.  The IFD passed to saveBytes is ignored
+   * for reduced resolutions.
+   */
+  public void setResolution(int resolution) {
+    if (resolution < 0 || resolution >= resolutionCount) {
+      throw new IllegalArgumentException("Invalid resolution: " + resolution);
+    }
+    this.resolution = resolution;
+  }
+
+  /** Gets the resolution written by saveBytes. */
+  public int getResolution() {
+    return resolution;
+  }
+
   // -- Helper methods --
 
+  /**
+   * Writes the reduced resolutions of every plane that have not yet been
+   * written, even if they are incomplete.  No more planes may be written to
+   * the current file afterwards.
+   */
+  protected synchronized void writePendingResolutions() throws IOException {
+    if (subResolutions.isEmpty()) {
+      return;
+    }
+    try {
+      for (Map.Entry<Integer, SubResolutions> entry :
+        subResolutions.entrySet())
+      {
+        SubResolutions sub = entry.getValue();
+        if (sub.remaining[0] < (long) sub.sizeX * sub.sizeY) {
+          LOGGER.warn("Writing incomplete resolutions of image {}",
+            entry.getKey());
+          tiffSaver.writeSubResolutions(sub.buf, sub.widths, sub.heights,
+            entry.getKey(), sub.pixelType, true);
+        }
+      }
+    }
+    catch (FormatException e) {
+      throw new IOException(e);
+    }
+    finally {
+      subResolutions.clear();
+    }
+  }
+
+  /** Returns the index within the current file of the given plane. */
+  private int getIndex(int no) {
+    int index = no;
+    for (int i=0; i<getSeries(); i++) {
+      index += getPlaneCount(i);
+    }
+    return index;
+  }
+
+  /**
+   * Returns the reduced resolutions of the given image, allocating them if
+   * none of the image has been written yet.
+   */
+  private SubResolutions getSubResolutions(int index, int pixelType,
+    boolean last) throws FormatException
+  {
+    SubResolutions sub = subResolutions.get(index);
+    if (sub == null) {
+      MetadataRetrieve retrieve = getMetadataRetrieve();
+      sub = new SubResolutions();
+      sub.sizeX = retrieve.getPixelsSizeX(series).getValue().intValue();
+      sub.sizeY = retrieve.getPixelsSizeY(series).getValue().intValue();
+      sub.pixelType = pixelType;
+      sub.last = last;
+      sub.buf = new byte[resolutionCount - 1][];
+      sub.widths = new int[resolutionCount - 1];
+      sub.heights = new int[resolutionCount - 1];
+      sub.remaining = new long[resolutionCount];
+      sub.remaining[0] = (long) sub.sizeX * sub.sizeY;
+
+      int planeChannels = getSamplesPerPixel();
+      int bytesPerPixel = FormatTools.getBytesPerPixel(pixelType);
+      if (bytesPerPixel > 1 && planeChannels != 1 && planeChannels != 3) {
+        planeChannels = 1;
+      }
+      boolean planar = !interleaved && planeChannels > 1;
+      sub.planes = planar ? planeChannels : 1;
+      sub.pixelBytes = planar ? bytesPerPixel : planeChannels * bytesPerPixel;
+
+      int factor = 1;
+      for (int i=0; i<sub.buf.length; i++) {
+        factor *= resolutionScale;
+        sub.widths[i] = Math.max(1, sub.sizeX / factor);
+        sub.heights[i] = Math.max(1, sub.sizeY / factor);
+        long size = (long) sub.widths[i] * sub.heights[i] * sub.planes *
+          sub.pixelBytes;
+        if (size > Integer.MAX_VALUE) {
+          throw new FormatException("Resolution " + (i + 1) + " of image " +
+            index + " is too large to hold in memory (" + size + " bytes)");
+        }
+        sub.buf[i] = new byte[(int) size];
+        if (!generateResolutions) {
+          sub.remaining[i + 1] = (long) sub.widths[i] * sub.heights[i];
+        }
+      }
+      subResolutions.put(index, sub);
+    }
+    return sub;
+  }
+
+  /** Writes the reduced resolutions of the given image, if complete. */
+  private void writeSubResolutions(int index, SubResolutions sub)
+    throws FormatException, IOException
+  {
+    for (long remaining : sub.remaining) {
+      if (remaining > 0) {
+        return;
+      }
+    }
+    subResolutions.remove(index);
+    tiffSaver.writeSubResolutions(sub.buf, sub.widths, sub.heights, index,
+      sub.pixelType, sub.last);
+  }
+
+  /**
+   * Copies every pixel of the given full resolution tile that lies on the
+   * sampling grid of a reduced resolution into that resolution.
+   */
+  private void downsample(SubResolutions sub, byte[] buf, int x, int y,
+    int w, int h)
+  {
+    int pixel = sub.pixelBytes;
+    int factor = 1;
+    for (int r=0; r<sub.buf.length; r++) {
+      factor *= resolutionScale;
+      int width = sub.widths[r];
+      int height = sub.heights[r];
+      int x0 = (x + factor - 1) / factor;
+      int x1 = Math.min(width, (x + w + factor - 1) / factor);
+      int y0 = (y + factor - 1) / factor;
+      int y1 = Math.min(height, (y + h + factor - 1) / factor);
+      for (int p=0; p<sub.planes; p++) {
+        int srcPlane = p * w * h * pixel;
+        int destPlane = p * width * height * pixel;
+        for (int row=y0; row<y1; row++) {
+          int src = srcPlane + (row * factor - y) * w * pixel;
+          int dest = destPlane + row * width * pixel;
+          for (int col=x0; col<x1; col++) {
+            System.arraycopy(buf, src + (col * factor - x) * pixel,
+              sub.buf[r], dest + col * pixel, pixel);
+          }
+        }
+      }
+    }
+  }
+
+  /** Stores a tile of the currently selected reduced resolution. */
+  private void saveResolution(int no, byte[] buf, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    if (generateResolutions) {
+      throw new FormatException(
+        "Reduced resolutions are generated; call setGenerateResolutions(false)");
+    }
+    MetadataRetrieve retrieve = getMetadataRetrieve();
+    int type = FormatTools.pixelTypeFromString(
+      retrieve.getPixelsType(series).toString());
+    int c = getSamplesPerPixel();
+    if (FormatTools.getBytesPerPixel(type) > 1 && c != 1 && c != 3) {
+      throw new FormatException(
+        "Reduced resolutions cannot be written for " + c + " channel planes");
+    }
+    boolean last =
+      no == getPlaneCount() - 1 && getSeries() == retrieve.getImageCount() - 1;
+
+    synchronized (this) {
+      int index = getIndex(no);
+      SubResolutions sub = getSubResolutions(index, type, last);
+      int r = resolution - 1;
+      int width = sub.widths[r];
+      int height = sub.heights[r];
+      if (x + w > width || y + h > height) {
+        throw new FormatException("Tile (" + x + ", " + y + ", " + w + ", " +
+          h + ") exceeds resolution size " + width + "x" + height);
+      }
+      int pixel = sub.pixelBytes;
+      for (int p=0; p<sub.planes; p++) {
+        for (int row=0; row<h; row++) {
+          System.arraycopy(buf, (p * h + row) * w * pixel, sub.buf[r],
+            ((p * height + y + row) * width + x) * pixel, w * pixel);
+        }
+      }
+      sub.remaining[resolution] -= (long) w * h;
+      writeSubResolutions(index, sub);
+    }
+  }
+
   protected void setupTiffSaver() throws IOException {
+    if (!subResolutions.isEmpty()) {
+      LOGGER.warn("Discarding reduced resolutions of {} unfinished images",
+        subResolutions.size());
+      subResolutions.clear();
+    }
     out.close();
     out = new RandomAccessOutputStream(currentId);
     tiffSaver = new TiffSaver(out, currentId);
@@ -497,6 +808,24 @@ public class TiffWriter extends FormatWriter {
     tiffSaver.setLittleEndian(littleEndian);
     tiffSaver.setBigTiff(isBigTiff);
     tiffSaver.setCodecOptions(options);
+    tiffSaver.setCompressExecutor(compressExecutor);
+  }
+
+  // -- Helper classes --
+
+  /** Reduced resolutions of a plane that have not yet been written. */
+  private static class SubResolutions {
+    int sizeX, sizeY, pixelType;
+    boolean last;
+
+    /** Number of channel planes, and bytes per pixel in each plane. */
+    int planes, pixelBytes;
+
+    byte[][] buf;
+    int[] widths, heights;
+
+    /** Number of pixels still to be written at each resolution. */
+    long[] remaining;
   }
 
 }
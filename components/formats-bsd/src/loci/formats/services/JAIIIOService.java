@@ -111,4 +111,21 @@ public interface JAIIIOService extends Service {
    */
   public Raster readRaster(InputStream in) throws IOException, ServiceException;
 
+  /**
+   * Reads an image directly into a byte array using JAI Image I/O using the
+   * JPEG 2000 codec, without creating an intermediate raster.  Samples are
+   * stored in the byte order given by {@link JPEG2000CodecOptions#littleEndian}
+   * and are interleaved if {@link JPEG2000CodecOptions#interleaved} is set.
+   * @param in Target input stream.
+   * @param options Options for the JPEG 2000 codec.
+   * @return The decoded samples, or <code>null</code> if the image can only be
+   * read with {@link #readRaster(InputStream, JPEG2000CodecOptions)}.
+   * @throws IOException Thrown if there is an error reading from or writing
+   * to one of the target streams / buffers.
+   * @throws ServiceException Thrown if there is an error initializing or
+   * interacting with the dependencies of the service.
+   */
+  public byte[] readBytes(InputStream in, JPEG2000CodecOptions options)
+    throws IOException, ServiceException;
+
 }
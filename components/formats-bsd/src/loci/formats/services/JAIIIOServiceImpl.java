@@ -32,6 +32,7 @@
 
 package loci.formats.services;
 
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.Raster;
 import java.io.IOException;
@@ -47,6 +48,7 @@ import javax.imageio.spi.ServiceRegistry;
 import javax.imageio.stream.ImageOutputStream;
 import javax.imageio.stream.MemoryCacheImageInputStream;
 
+import loci.common.Region;
 import loci.common.services.AbstractService;
 import loci.common.services.ServiceException;
 import loci.formats.codec.JPEG2000CodecOptions;
@@ -144,10 +146,7 @@ public class JAIIIOServiceImpl extends AbstractService
     J2KImageReader reader = getReader();
     MemoryCacheImageInputStream mciis = new MemoryCacheImageInputStream(in);
     reader.setInput(mciis, false, true);
-    J2KImageReadParam param = (J2KImageReadParam) reader.getDefaultReadParam();
-    if (options.resolution != null) {
-      param.setResolution(options.resolution.intValue());
-    }
+    J2KImageReadParam param = getReadParam(reader, options);
     BufferedImage image = reader.read(0, param);
     reader.dispose();
     return image;
@@ -169,10 +168,7 @@ public class JAIIIOServiceImpl extends AbstractService
     J2KImageReader reader = getReader();
     MemoryCacheImageInputStream mciis = new MemoryCacheImageInputStream(in);
     reader.setInput(mciis, false, true);
-    J2KImageReadParam param = (J2KImageReadParam) reader.getDefaultReadParam();
-    if (options.resolution != null) {
-      param.setResolution(options.resolution.intValue());
-    }
+    J2KImageReadParam param = getReadParam(reader, options);
     Raster raster = reader.readRaster(0, param);
     reader.dispose();
     return raster;
@@ -185,6 +181,36 @@ public class JAIIIOServiceImpl extends AbstractService
     return readRaster(in, JPEG2000CodecOptions.getDefaultOptions());
   }
 
+  /* @see JAIIIOService#readBytes(InputStream, JPEG2000CodecOptions) */
+  @Override
+  public byte[] readBytes(InputStream in, JPEG2000CodecOptions options)
+    throws IOException, ServiceException
+  {
+    J2KImageReader reader = getReader();
+    MemoryCacheImageInputStream mciis = new MemoryCacheImageInputStream(in);
+    reader.setInput(mciis, false, true);
+    J2KImageReadParam param = getReadParam(reader, options);
+    byte[] bytes =
+      reader.readBytes(0, param, options.littleEndian, options.interleaved);
+    reader.dispose();
+    return bytes;
+  }
+
+  /** Set up the read parameters for the given codec options. */
+  private J2KImageReadParam getReadParam(J2KImageReader reader,
+    JPEG2000CodecOptions options)
+  {
+    J2KImageReadParam param = (J2KImageReadParam) reader.getDefaultReadParam();
+    if (options.resolution != null) {
+      param.setResolution(options.resolution.intValue());
+    }
+    if (options.region != null) {
+      Region r = options.region;
+      param.setSourceRegion(new Rectangle(r.x, r.y, r.width, r.height));
+    }
+    return param;
+  }
+
   /** Set up the JPEG-2000 image reader. */
   private J2KImageReader getReader() {
     J2KImageReaderSpi spi =
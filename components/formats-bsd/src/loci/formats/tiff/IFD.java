@@ -33,9 +33,18 @@
 package loci.formats.tiff;
 
 import java.io.IOException;
+import java.io.Serializable;
 import java.lang.reflect.Array;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
 import loci.common.DebugTools;
 import loci.formats.FormatException;
@@ -47,12 +56,20 @@ import org.slf4j.LoggerFactory;
 /**
  * Data structure for working with TIFF Image File Directories (IFDs).
  *
+ * An IFD is a {@link Map} whose entries are not stored in hash buckets:
+ * tags are kept in a sorted primitive array, and Boolean, Short, Integer and
+ * Long values are kept unboxed.  This keeps files with many IFDs from using
+ * large amounts of heap.  Every Map method, including those added in Java 8
+ * (e.g. forEach, compute, merge), operates on this storage.
+ *
  * @author Curtis Rueden ctrueden at wisc.edu
  * @author Eric Kjellman egkjellman at wisc.edu
  * @author Melissa Linkert melissa at glencoesoftware.com
  * @author Chris Allan callan at blackcat.ca
  */
-public class IFD extends HashMap<Integer, Object> {
+public class IFD extends AbstractMap<Integer, Object>
+  implements Cloneable, Serializable
+{
 
   // -- Constants --
 
@@ -197,6 +214,42 @@ public class IFD extends HashMap<Integer, Object> {
   public static final int SHARPNESS = 41994;
   public static final int SUBJECT_DISTANCE_RANGE = 41996;
 
+  /** Kinds of stored entry value. */
+  private static final byte OBJECT = 0;
+  private static final byte BOOLEAN = 1;
+  private static final byte SHORT = 2;
+  private static final byte INTEGER = 3;
+  private static final byte LONG = 4;
+
+  private static final int[] NO_TAGS = new int[0];
+  private static final Object[] NO_VALUES = new Object[0];
+  private static final long[] NO_SCALARS = new long[0];
+  private static final byte[] NO_KINDS = new byte[0];
+
+  // -- Fields --
+
+  /** Tags of the directory entries, in ascending order. */
+  private int[] tags = NO_TAGS;
+
+  /** Entry values; null where the value is stored in {@link #scalars}. */
+  private Object[] values = NO_VALUES;
+
+  /** Unboxed Boolean, Short, Integer and Long entry values. */
+  private long[] scalars = NO_SCALARS;
+
+  /** Kind of each entry value. */
+  private byte[] kinds = NO_KINDS;
+
+  /** Number of directory entries. */
+  private int entryCount;
+
+  /** Number of structural modifications, for fail-fast iteration. */
+  private transient int modifications;
+
+  private transient Set<Map.Entry<Integer, Object>> entrySet;
+  private transient Set<Integer> keySet;
+  private transient Collection<Object> valueCollection;
+
   // -- Constructors --
 
   public IFD() {
@@ -204,7 +257,205 @@ public class IFD extends HashMap<Integer, Object> {
   }
 
   public IFD(IFD ifd) {
-    super(ifd);
+    super();
+    ensureCapacity(ifd.entryCount);
+    System.arraycopy(ifd.tags, 0, tags, 0, ifd.entryCount);
+    System.arraycopy(ifd.values, 0, values, 0, ifd.entryCount);
+    System.arraycopy(ifd.scalars, 0, scalars, 0, ifd.entryCount);
+    System.arraycopy(ifd.kinds, 0, kinds, 0, ifd.entryCount);
+    entryCount = ifd.entryCount;
+  }
+
+  // -- IFD API methods --
+
+  /**
+   * Trims the entry storage to the number of entries.  Call this once an IFD
+   * is fully populated and is going to be kept for a long time.
+   */
+  public void trimToSize() {
+    if (tags.length > entryCount) {
+      tags = Arrays.copyOf(tags, entryCount);
+      values = Arrays.copyOf(values, entryCount);
+      scalars = Arrays.copyOf(scalars, entryCount);
+      kinds = Arrays.copyOf(kinds, entryCount);
+    }
+  }
+
+  /** Gets whether this IFD has an entry for the given tag. */
+  public boolean containsTag(int tag) {
+    return indexOf(tag) >= 0;
+  }
+
+  // -- Map API methods --
+
+  @Override
+  public int size() {
+    return entryCount;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return entryCount == 0;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return key instanceof Integer && indexOf(((Integer) key).intValue()) >= 0;
+  }
+
+  @Override
+  public boolean containsValue(Object value) {
+    for (int i=0; i<entryCount; i++) {
+      Object v = valueAt(i);
+      if (value == null ? v == null : value.equals(v)) return true;
+    }
+    return false;
+  }
+
+  @Override
+  public Object get(Object key) {
+    if (!(key instanceof Integer)) return null;
+    int index = indexOf(((Integer) key).intValue());
+    return index < 0 ? null : valueAt(index);
+  }
+
+  @Override
+  public Object put(Integer key, Object value) {
+    if (key == null) {
+      throw new NullPointerException("IFD tag cannot be null");
+    }
+    return put(key.intValue(), value);
+  }
+
+  @Override
+  public void putAll(Map<? extends Integer, ? extends Object> map) {
+    ensureCapacity(entryCount + map.size());
+    for (Map.Entry<? extends Integer, ? extends Object> e : map.entrySet()) {
+      put(e.getKey(), e.getValue());
+    }
+  }
+
+  @Override
+  public Object remove(Object key) {
+    if (!(key instanceof Integer)) return null;
+    int index = indexOf(((Integer) key).intValue());
+    if (index < 0) return null;
+    Object value = valueAt(index);
+    removeAt(index);
+    return value;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(values, 0, entryCount, null);
+    entryCount = 0;
+    modifications++;
+  }
+
+  @Override
+  public Object clone() {
+    return new IFD(this);
+  }
+
+  @Override
+  public Set<Integer> keySet() {
+    if (keySet == null) {
+      keySet = new AbstractSet<Integer>() {
+        @Override
+        public Iterator<Integer> iterator() {
+          return new EntryIterator<Integer>() {
+            @Override
+            Integer get(int index) {
+              return tags[index];
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return entryCount;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+          return containsKey(o);
+        }
+
+        @Override
+        public boolean remove(Object o) {
+          int size = entryCount;
+          IFD.this.remove(o);
+          return entryCount != size;
+        }
+
+        @Override
+        public void clear() {
+          IFD.this.clear();
+        }
+      };
+    }
+    return keySet;
+  }
+
+  @Override
+  public Collection<Object> values() {
+    if (valueCollection == null) {
+      valueCollection = new AbstractCollection<Object>() {
+        @Override
+        public Iterator<Object> iterator() {
+          return new EntryIterator<Object>() {
+            @Override
+            Object get(int index) {
+              return valueAt(index);
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return entryCount;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+          return containsValue(o);
+        }
+
+        @Override
+        public void clear() {
+          IFD.this.clear();
+        }
+      };
+    }
+    return valueCollection;
+  }
+
+  @Override
+  public Set<Map.Entry<Integer, Object>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new AbstractSet<Map.Entry<Integer, Object>>() {
+        @Override
+        public Iterator<Map.Entry<Integer, Object>> iterator() {
+          return new EntryIterator<Map.Entry<Integer, Object>>() {
+            @Override
+            Map.Entry<Integer, Object> get(int index) {
+              return new TagEntry(tags[index], valueAt(index));
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return entryCount;
+        }
+
+        @Override
+        public void clear() {
+          IFD.this.clear();
+        }
+      };
+    }
+    return entrySet;
   }
 
   // -- Tag retrieval methods --
@@ -221,7 +472,8 @@ public class IFD extends HashMap<Integer, Object> {
 
   /** Gets the given directory entry value from this IFD. */
   public Object getIFDValue(int tag) {
-    return get(new Integer(tag));
+    int index = indexOf(tag);
+    return index < 0 ? null : valueAt(index);
   }
 
   /**
@@ -229,7 +481,7 @@ public class IFD extends HashMap<Integer, Object> {
    * performing some error checking.
    */
   public Object getIFDValue(int tag, Class checkClass) throws FormatException {
-    Object value = get(new Integer(tag));
+    Object value = getIFDValue(tag);
     if (checkClass != null && value != null && !checkClass.isInstance(value)) {
       // wrap object in array of length 1, if appropriate
       Class cType = checkClass.getComponentType();
@@ -934,22 +1186,22 @@ public class IFD extends HashMap<Integer, Object> {
 
   /** Adds a directory entry to this IFD. */
   public void putIFDValue(int tag, Object value) {
-    put(new Integer(tag), value);
+    put(tag, value);
   }
 
   /** Adds a directory entry of type BYTE to this IFD. */
   public void putIFDValue(int tag, short value) {
-    putIFDValue(tag, new Short(value));
+    put(tag, SHORT, null, value);
   }
 
   /** Adds a directory entry of type SHORT to this IFD. */
   public void putIFDValue(int tag, int value) {
-    putIFDValue(tag, new Integer(value));
+    put(tag, INTEGER, null, value);
   }
 
   /** Adds a directory entry of type LONG to this IFD. */
   public void putIFDValue(int tag, long value) {
-    putIFDValue(tag, new Long(value));
+    put(tag, LONG, null, value);
   }
 
   // -- Debugging --
@@ -982,6 +1234,145 @@ public class IFD extends HashMap<Integer, Object> {
     }
   }
 
+  // -- Helper methods --
+
+  /** Gets the index of the given tag, or a negative value if not present. */
+  private int indexOf(int tag) {
+    return Arrays.binarySearch(tags, 0, entryCount, tag);
+  }
+
+  /** Gets the value of the entry at the given index, boxing if needed. */
+  private Object valueAt(int index) {
+    switch (kinds[index]) {
+      case BOOLEAN:
+        return Boolean.valueOf(scalars[index] != 0);
+      case SHORT:
+        return Short.valueOf((short) scalars[index]);
+      case INTEGER:
+        return Integer.valueOf((int) scalars[index]);
+      case LONG:
+        return Long.valueOf(scalars[index]);
+      default:
+        return values[index];
+    }
+  }
+
+  /** Stores the given value, unboxing it if possible. */
+  private Object put(int tag, Object value) {
+    if (value instanceof Boolean) {
+      return put(tag, BOOLEAN, null, ((Boolean) value).booleanValue() ? 1 : 0);
+    }
+    if (value instanceof Short) {
+      return put(tag, SHORT, null, ((Short) value).shortValue());
+    }
+    if (value instanceof Integer) {
+      return put(tag, INTEGER, null, ((Integer) value).intValue());
+    }
+    if (value instanceof Long) {
+      return put(tag, LONG, null, ((Long) value).longValue());
+    }
+    return put(tag, OBJECT, value, 0);
+  }
+
+  private Object put(int tag, byte kind, Object value, long scalar) {
+    int index = indexOf(tag);
+    Object previous = null;
+    if (index >= 0) {
+      previous = valueAt(index);
+    }
+    else {
+      index = -index - 1;
+      ensureCapacity(entryCount + 1);
+      int moved = entryCount - index;
+      if (moved > 0) {
+        System.arraycopy(tags, index, tags, index + 1, moved);
+        System.arraycopy(values, index, values, index + 1, moved);
+        System.arraycopy(scalars, index, scalars, index + 1, moved);
+        System.arraycopy(kinds, index, kinds, index + 1, moved);
+      }
+      tags[index] = tag;
+      entryCount++;
+      modifications++;
+    }
+    kinds[index] = kind;
+    values[index] = value;
+    scalars[index] = scalar;
+    return previous;
+  }
+
+  private void removeAt(int index) {
+    int moved = entryCount - index - 1;
+    if (moved > 0) {
+      System.arraycopy(tags, index + 1, tags, index, moved);
+      System.arraycopy(values, index + 1, values, index, moved);
+      System.arraycopy(scalars, index + 1, scalars, index, moved);
+      System.arraycopy(kinds, index + 1, kinds, index, moved);
+    }
+    entryCount--;
+    values[entryCount] = null;
+    modifications++;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity <= tags.length) return;
+    int newCapacity = Math.max(capacity, Math.max(8, tags.length * 3 / 2));
+    tags = Arrays.copyOf(tags, newCapacity);
+    values = Arrays.copyOf(values, newCapacity);
+    scalars = Arrays.copyOf(scalars, newCapacity);
+    kinds = Arrays.copyOf(kinds, newCapacity);
+  }
+
+  // -- Helper classes --
+
+  /** Iterates over the entries in tag order, supporting removal. */
+  private abstract class EntryIterator<T> implements Iterator<T> {
+    private int next;
+    private int last = -1;
+    private int expectedModifications = modifications;
+
+    abstract T get(int index);
+
+    @Override
+    public boolean hasNext() {
+      return next < entryCount;
+    }
+
+    @Override
+    public T next() {
+      if (modifications != expectedModifications) {
+        throw new ConcurrentModificationException();
+      }
+      if (next >= entryCount) throw new NoSuchElementException();
+      last = next++;
+      return get(last);
+    }
+
+    @Override
+    public void remove() {
+      if (last < 0) throw new IllegalStateException();
+      if (modifications != expectedModifications) {
+        throw new ConcurrentModificationException();
+      }
+      removeAt(last);
+      next = last;
+      last = -1;
+      expectedModifications = modifications;
+    }
+  }
+
+  /** Map entry whose value is written through to the IFD. */
+  private class TagEntry extends AbstractMap.SimpleEntry<Integer, Object> {
+    TagEntry(int tag, Object value) {
+      super(tag, value);
+    }
+
+    @Override
+    public Object setValue(Object value) {
+      put(getKey(), value);
+      return super.setValue(value);
+    }
+  }
+
   // -- Utility methods --
 
   /** Gets the name of the IFD tag encoded by the given number. */
@@ -0,0 +1,367 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.tiff;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoSerializable;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * List of the IFDs in a TIFF file that reads each IFD only when it is
+ * needed.  The IFD chain is followed only as far as the highest index
+ * requested so far, and each IFD is parsed when it is first retrieved with
+ * {@link #get(int)}.  A bounded number of parsed IFDs are kept; IFDs that
+ * have been dropped are parsed again when next requested, so changes made
+ * to a returned IFD are not guaranteed to persist.
+ *
+ * Only the main IFD chain is listed; SubIFDs are not included.  Modifying
+ * the list reads every IFD into memory, after which they are all kept.
+ * Every List method, including those added in Java 8 (e.g. forEach,
+ * stream), reads IFDs through {@link #get(int)} and {@link #size()}.
+ *
+ * When serialized with Kryo, only the IFD offsets found so far are stored;
+ * {@link #setParser(TiffParser)} must be called after deserialization
+ * before any IFD is read.
+ */
+public class LazyIFDList extends AbstractList<IFD>
+  implements KryoSerializable
+{
+
+  // -- Constants --
+
+  /** Default number of parsed IFDs to keep. */
+  public static final int DEFAULT_CACHE_SIZE = 256;
+
+  // -- Fields --
+
+  private transient TiffParser parser;
+
+  /** Maximum number of parsed IFDs to keep. */
+  private int cacheSize;
+
+  /** Whether thumbnail IFDs are left out of the list. */
+  private boolean skipThumbnails;
+
+  /** Number of thumbnail IFDs left out so far. */
+  private int skippedCount = 0;
+
+  /** Offset of the first thumbnail IFD left out, if any. */
+  private long firstSkipped = 0;
+
+  /** Offsets of the IFDs found so far. */
+  private long[] offsets = new long[16];
+
+  /** Number of valid entries in {@link #offsets}. */
+  private int offsetCount = 0;
+
+  /** Offset of the last IFD visited in the chain, or 0. */
+  private long lastOffset = 0;
+
+  /** Whether the end of the IFD chain has been reached. */
+  private boolean complete = false;
+
+  /** Recently used IFDs, indexed by position in the list. */
+  private final Map<Integer, IFD> cache =
+    new LinkedHashMap<Integer, IFD>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, IFD> eldest) {
+        return size() > cacheSize;
+      }
+    };
+
+  /** Every IFD, once the list has been modified; otherwise null. */
+  private ArrayList<IFD> loaded;
+
+  // -- Constructors --
+
+  /** Constructs an empty list, for deserialization. */
+  private LazyIFDList() {
+    this(null);
+  }
+
+  /** Constructs a list of the IFDs read by the given parser. */
+  public LazyIFDList(TiffParser parser) {
+    this(parser, DEFAULT_CACHE_SIZE);
+  }
+
+  /**
+   * Constructs a list of the IFDs read by the given parser, keeping at most
+   * the given number of parsed IFDs in memory.
+   */
+  public LazyIFDList(TiffParser parser, int cacheSize) {
+    this(parser, cacheSize, false);
+  }
+
+  /**
+   * Constructs a list of the IFDs read by the given parser, keeping at most
+   * the given number of parsed IFDs in memory.  If
+   * <code>skipThumbnails</code> is set, IFDs whose NewSubfileType is 1 are
+   * left out, unless the file has no other IFD; as with
+   * {@link TiffParser#getNonThumbnailIFDs()}.
+   */
+  public LazyIFDList(TiffParser parser, int cacheSize,
+    boolean skipThumbnails)
+  {
+    this.parser = parser;
+    this.cacheSize = cacheSize;
+    this.skipThumbnails = skipThumbnails;
+  }
+
+  // -- LazyIFDList API methods --
+
+  /**
+   * Sets the parser used to read IFDs, e.g. after the underlying file
+   * has been reopened.
+   */
+  public synchronized void setParser(TiffParser parser) {
+    this.parser = parser;
+  }
+
+  /**
+   * Gets the offset of the IFD at the given index.
+   * @throws IndexOutOfBoundsException if the file has fewer IFDs
+   */
+  public synchronized long getOffset(int index) throws IOException {
+    findOffset(index);
+    if (index < 0 || index >= offsetCount) {
+      throw new IndexOutOfBoundsException("Index: " + index);
+    }
+    return offsets[index];
+  }
+
+  /**
+   * Gets the IFD at the given index, reading it if necessary.  Unlike
+   * {@link #get(int)}, errors reading the file are not wrapped.
+   * @throws IndexOutOfBoundsException if the file has fewer IFDs
+   */
+  public synchronized IFD getIFD(int index) throws IOException {
+    if (loaded != null) return loaded.get(index);
+    IFD ifd = cache.get(index);
+    if (ifd != null) return ifd;
+    ifd = getParser().getIFD(getOffset(index));
+    if (ifd == null) {
+      throw new IOException("Invalid IFD offset " + offsets[index]);
+    }
+    parser.fillInIFD(ifd);
+    cache.put(index, ifd);
+    return ifd;
+  }
+
+  /**
+   * Returns whether the file has an IFD at the given index, following the
+   * IFD chain only as far as that index.
+   */
+  public synchronized boolean hasIFD(int index) throws IOException {
+    if (loaded != null) return index >= 0 && index < loaded.size();
+    findOffset(index);
+    return index >= 0 && index < offsetCount;
+  }
+
+  /** Gets the number of parsed IFDs currently held in memory. */
+  public synchronized int getCachedCount() {
+    return loaded != null ? loaded.size() : cache.size();
+  }
+
+  /** Gets the parsed IFDs currently held in memory. */
+  public synchronized IFDList getCachedIFDs() {
+    IFDList ifds = new IFDList();
+    ifds.addAll(loaded != null ? loaded : cache.values());
+    return ifds;
+  }
+
+  // -- List API methods --
+
+  /**
+   * Gets the IFD at the given index, reading it if necessary.  Errors
+   * reading the file are rethrown as unchecked exceptions; use
+   * {@link #getIFD(int)} to handle them.
+   */
+  @Override
+  public synchronized IFD get(int index) {
+    try {
+      return getIFD(index);
+    }
+    catch (IOException e) {
+      throw new RuntimeException("Could not read IFD #" + index, e);
+    }
+  }
+
+  @Override
+  public synchronized int size() {
+    if (loaded != null) return loaded.size();
+    try {
+      findOffset(Integer.MAX_VALUE);
+    }
+    catch (IOException e) {
+      throw new RuntimeException("Could not read IFD offsets", e);
+    }
+    return offsetCount;
+  }
+
+  @Override
+  public synchronized boolean isEmpty() {
+    if (loaded != null) return loaded.isEmpty();
+    try {
+      findOffset(0);
+    }
+    catch (IOException e) {
+      throw new RuntimeException("Could not read IFD offsets", e);
+    }
+    return offsetCount == 0;
+  }
+
+  @Override
+  public synchronized IFD set(int index, IFD ifd) {
+    return load().set(index, ifd);
+  }
+
+  @Override
+  public synchronized void add(int index, IFD ifd) {
+    load().add(index, ifd);
+    modCount++;
+  }
+
+  @Override
+  public synchronized IFD remove(int index) {
+    IFD ifd = load().remove(index);
+    modCount++;
+    return ifd;
+  }
+
+  // -- KryoSerializable API methods --
+
+  @Override
+  public synchronized void write(Kryo kryo, Output out) {
+    kryo.writeObject(out, cacheSize);
+    kryo.writeObject(out, skipThumbnails);
+    kryo.writeObject(out, loaded != null);
+    if (loaded != null) {
+      kryo.writeObject(out, loaded);
+    }
+    else {
+      kryo.writeObject(out, Arrays.copyOf(offsets, offsetCount));
+      kryo.writeObject(out, complete);
+      kryo.writeObject(out, skippedCount);
+      kryo.writeObject(out, firstSkipped);
+      kryo.writeObject(out, lastOffset);
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public synchronized void read(Kryo kryo, Input in) {
+    cacheSize = kryo.readObject(in, Integer.class);
+    skipThumbnails = kryo.readObject(in, Boolean.class);
+    boolean isLoaded = kryo.readObject(in, Boolean.class);
+    if (isLoaded) {
+      loaded = kryo.readObject(in, ArrayList.class);
+    }
+    else {
+      long[] found = kryo.readObject(in, long[].class);
+      offsetCount = found.length;
+      offsets = Arrays.copyOf(found, Math.max(16, found.length));
+      complete = kryo.readObject(in, Boolean.class);
+      skippedCount = kryo.readObject(in, Integer.class);
+      firstSkipped = kryo.readObject(in, Long.class);
+      lastOffset = kryo.readObject(in, Long.class);
+    }
+  }
+
+  // -- Helper methods --
+
+  /** Gets the parser, which must have been set. */
+  private TiffParser getParser() {
+    if (parser == null) {
+      throw new IllegalStateException("No TiffParser set");
+    }
+    return parser;
+  }
+
+  /**
+   * Follows the IFD chain until the offset of the IFD at the given index
+   * is known, or the end of the chain is reached.
+   */
+  private void findOffset(int index) throws IOException {
+    while (!complete && offsetCount <= index) {
+      TiffParser p = getParser();
+      long offset = lastOffset == 0 ? p.getFirstOffset() :
+        p.getNextIFDOffset(lastOffset);
+      if (offset <= 0 || offset >= p.getStream().length()) {
+        complete = true;
+        if (offsetCount == 0 && skippedCount == 1) {
+          // a lone thumbnail is the only image
+          addOffset(firstSkipped);
+        }
+        break;
+      }
+      lastOffset = offset;
+      if (skipThumbnails && p.getNewSubfileType(offset) == 1) {
+        if (skippedCount++ == 0) {
+          firstSkipped = offset;
+        }
+        continue;
+      }
+      addOffset(offset);
+    }
+  }
+
+  /** Appends an offset to the list of IFD offsets. */
+  private void addOffset(long offset) {
+    if (offsetCount == offsets.length) {
+      offsets = Arrays.copyOf(offsets, offsets.length * 2);
+    }
+    offsets[offsetCount++] = offset;
+  }
+
+  /** Reads every IFD into memory, so that the list can be modified. */
+  private ArrayList<IFD> load() {
+    if (loaded == null) {
+      ArrayList<IFD> ifds = new ArrayList<IFD>(size());
+      for (int i=0; i<size(); i++) {
+        ifds.add(get(i));
+      }
+      cache.clear();
+      loaded = ifds;
+    }
+    return loaded;
+  }
+
+}
@@ -64,11 +64,9 @@ public class OnDemandLongArray {
   }
 
   public long get(int index) throws IOException {
-    long fp = stream.getFilePointer();
-    stream.seek(start + index * 8);
-    long value = stream.readLong();
-    stream.seek(fp);
-    return value;
+    byte[] b = new byte[8];
+    stream.readFully(start + index * 8L, b, 0, b.length);
+    return DataTools.bytesToLong(b, stream.isLittleEndian());
   }
 
   public long size() {
@@ -76,11 +74,8 @@ public class OnDemandLongArray {
   }
 
   public long[] toArray() throws IOException {
-    long fp = stream.getFilePointer();
-    stream.seek(start);
     byte[] rawBytes = new byte[size * 8];
-    stream.readFully(rawBytes);
-    stream.seek(fp);
+    stream.readFully(start, rawBytes, 0, rawBytes.length);
     return (long[]) DataTools.makeDataArray(rawBytes, 8, false, stream.isLittleEndian());
   }
 
@@ -33,10 +33,21 @@
 package loci.formats.tiff;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import loci.common.ByteArrayHandle;
 import loci.common.Constants;
@@ -46,6 +57,7 @@ import loci.common.Region;
 import loci.common.enumeration.EnumException;
 import loci.formats.FormatException;
 import loci.formats.codec.CodecOptions;
+import loci.formats.codec.JPEG2000CodecOptions;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -65,14 +77,17 @@ public class TiffParser {
   private static final Logger LOGGER =
     LoggerFactory.getLogger(TiffParser.class);
 
+  /**
+   * Maximum number of compressed tiles per decoding thread that may be held
+   * in memory while waiting to be decoded.
+   */
+  private static final int PENDING_TILES_PER_THREAD = 4;
+
   // -- Fields --
 
   /** Input source from which to parse TIFF data. */
   protected transient RandomAccessInputStream in;
 
-  /** Cached tile buffer to avoid re-allocations when reading tiles. */
-  private byte[] cachedTileBuffer;
-
   /** Whether or not the TIFF file contains BigTIFF data. */
   private boolean bigTiff;
 
@@ -96,6 +111,21 @@ public class TiffParser {
   /** Codec options to be used when decoding compressed pixel data. */
   private CodecOptions codecOptions = CodecOptions.getDefaultOptions();
 
+  /** Executor used to decode tiles concurrently; null if decoding serially. */
+  private ExecutorService decodeExecutor;
+
+  /** Number of threads used by {@link #decodeExecutor}. */
+  private int decodeThreads = 1;
+
+  /** Whether pixel data is read without moving the stream's file pointer. */
+  private boolean concurrentReads = false;
+
+  /**
+   * Decoded tile and transfer arrays reused between calls to getSamples;
+   * only used when reads are not concurrent.
+   */
+  private transient byte[] tileBuffer, transferBuffer;
+
   // -- Constructors --
 
   /** Constructs a new TIFF parser from the given file name. */
@@ -142,6 +172,60 @@ public class TiffParser {
     return codecOptions;
   }
 
+  /**
+   * Sets whether pixel data should be read using positional reads, which
+   * neither use nor move the file pointer of the underlying stream.
+   *
+   * When enabled, {@link #getTile(IFD, byte[], int, int)} and the
+   * getSamples methods may be called concurrently from multiple threads
+   * that share this parser, provided that the IFDs being read have already
+   * been fully parsed.  The codec options set via
+   * {@link #setCodecOptions(CodecOptions)} are copied rather than updated
+   * in this mode.
+   *
+   * This is off by default, as positional reads are only efficient for
+   * streams that support random access; compressed streams such as
+   * {@link loci.common.GZipHandle} must rewind to honor them.
+   */
+  public void setConcurrentReads(boolean concurrentReads) {
+    this.concurrentReads = concurrentReads;
+  }
+
+  /**
+   * Retrieves whether pixel data is read using positional reads.
+   * @see #setConcurrentReads(boolean)
+   */
+  public boolean isConcurrentReads() {
+    return concurrentReads;
+  }
+
+  /**
+   * Sets the executor used to decode tiles concurrently within a single call
+   * to {@link #getSamples(IFD, byte[], int, int, long, long)}.
+   * Compressed tile data is always read from the stream on the calling
+   * thread, in order of increasing file offset; only decompression and
+   * unpacking are distributed across the executor.
+   *
+   * The executor is not shut down by this parser.
+   *
+   * @param executor the executor to use, or null to decode all tiles on the
+   *   calling thread (the default)
+   * @param threads the number of threads available to the executor; used to
+   *   bound the number of compressed tiles held in memory at once
+   */
+  public void setDecodeExecutor(ExecutorService executor, int threads) {
+    decodeExecutor = executor;
+    decodeThreads = Math.max(threads, 1);
+  }
+
+  /**
+   * Retrieves the executor used to decode tiles concurrently.
+   * @return See above; null if tiles are decoded on the calling thread.
+   */
+  public ExecutorService getDecodeExecutor() {
+    return decodeExecutor;
+  }
+
   /** Sets whether or not IFD entries should be cached. */
   public void setDoCaching(boolean doCaching) {
     this.doCaching = doCaching;
@@ -291,18 +375,11 @@ public class TiffParser {
 
   /** Gets the offsets to every IFD in the file. */
   public long[] getIFDOffsets() throws IOException {
-    // check TIFF header
-    int bytesPerEntry = bigTiff ? TiffConstants.BIG_TIFF_BYTES_PER_ENTRY :
-      TiffConstants.BYTES_PER_ENTRY;
-
     final List<Long> offsets = new ArrayList<Long>();
     long offset = getFirstOffset();
     while (offset > 0 && offset < in.length()) {
-      in.seek(offset);
       offsets.add(offset);
-      int nEntries = bigTiff ? (int) in.readLong() : in.readUnsignedShort();
-      in.skipBytes(nEntries * bytesPerEntry);
-      offset = getNextOffset(offset);
+      offset = getNextIFDOffset(offset);
     }
 
     long[] f = new long[offsets.size()];
@@ -314,6 +391,73 @@ public class TiffParser {
     return f;
   }
 
+  /**
+   * Returns the IFDs in the file's main IFD chain, reading each IFD only
+   * when it is first requested.  Unlike {@link #getIFDs()}, SubIFDs and
+   * IFDs without an image width are not excluded or expanded.
+   *
+   * @see LazyIFDList
+   */
+  public LazyIFDList getLazyIFDs() {
+    return new LazyIFDList(this);
+  }
+
+  /**
+   * Returns the IFDs in the file's main IFD chain that are not thumbnails,
+   * reading each IFD only when it is first requested.
+   *
+   * @see #getNonThumbnailIFDs()
+   * @see LazyIFDList
+   */
+  public LazyIFDList getLazyNonThumbnailIFDs() {
+    return new LazyIFDList(this, LazyIFDList.DEFAULT_CACHE_SIZE, true);
+  }
+
+  /**
+   * Gets the NewSubfileType of the IFD at the given offset, or 0 if the IFD
+   * has no such entry.  Since IFD entries are sorted by tag, only the
+   * entries preceding NewSubfileType are read.
+   */
+  public long getNewSubfileType(long offset) throws IOException {
+    int bytesPerEntry = bigTiff ? TiffConstants.BIG_TIFF_BYTES_PER_ENTRY :
+      TiffConstants.BYTES_PER_ENTRY;
+    int baseOffset = bigTiff ? 8 : 2;
+    in.seek(offset);
+    long numEntries = bigTiff ? in.readLong() : in.readUnsignedShort();
+    for (int i=0; i<numEntries; i++) {
+      in.seek(offset + baseOffset + bytesPerEntry * i);
+      int tag = in.readUnsignedShort();
+      if (tag > IFD.NEW_SUBFILE_TYPE) break;
+      if (tag == IFD.NEW_SUBFILE_TYPE) {
+        in.seek(offset + baseOffset + bytesPerEntry * i);
+        try {
+          Object value = getIFDValue(readTiffIFDEntry());
+          if (value instanceof Number) {
+            return ((Number) value).longValue();
+          }
+        }
+        catch (EnumException e) {
+          LOGGER.debug("", e);
+        }
+        break;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Gets the offset of the IFD following the IFD at the given offset,
+   * or 0 if it is the last IFD in the chain.
+   */
+  public long getNextIFDOffset(long offset) throws IOException {
+    int bytesPerEntry = bigTiff ? TiffConstants.BIG_TIFF_BYTES_PER_ENTRY :
+      TiffConstants.BYTES_PER_ENTRY;
+    in.seek(offset);
+    int nEntries = bigTiff ? (int) in.readLong() : in.readUnsignedShort();
+    in.skipBytes(nEntries * bytesPerEntry);
+    return getNextOffset(offset);
+  }
+
   /**
    * Gets the first IFD within the TIFF file, or null
    * if the input source is not a valid TIFF file.
@@ -427,10 +571,11 @@ public class TiffParser {
       }
       else value = getIFDValue(entry);
 
-      if (value != null && !ifd.containsKey(new Integer(tag))) {
-        ifd.put(new Integer(tag), value);
+      if (value != null && !ifd.containsTag(tag)) {
+        ifd.putIFDValue(tag, value);
       }
     }
+    ifd.trimToSize();
 
     long newOffset =offset + baseOffset + bytesPerEntry * numEntries;
     if (newOffset < in.length()) {
@@ -654,34 +799,42 @@ public class TiffParser {
   public byte[] getTile(IFD ifd, byte[] buf, int row, int col)
     throws FormatException, IOException
   {
-    byte[] jpegTable = (byte[]) ifd.getIFDValue(IFD.JPEG_TABLES);
+    CodecOptions options = codecOptions;
+    if (concurrentReads) {
+      options = copyCodecOptions(options);
+    }
+    return getTile(ifd, options, buf, row, col);
+  }
 
-    codecOptions.interleaved = true;
-    codecOptions.littleEndian = ifd.isLittleEndian();
+  private byte[] getTile(IFD ifd, CodecOptions options, byte[] buf, int row,
+    int col)
+    throws FormatException, IOException
+  {
+    options.interleaved = true;
+    options.littleEndian = ifd.isLittleEndian();
 
-    long tileWidth = ifd.getTileWidth();
-    long tileLength = ifd.getTileLength();
-    int samplesPerPixel = ifd.getSamplesPerPixel();
-    int planarConfig = ifd.getPlanarConfiguration();
-    TiffCompression compression = ifd.getCompression();
+    if (buf == null) buf = new byte[getTileSize(ifd)];
+    byte[] tile = readTile(ifd, row, col);
+    if (tile == null) {
+      return buf;
+    }
+    decodeTile(ifd, options, tile, buf, row);
+    return buf;
+  }
 
+  /**
+   * Reads the compressed bytes for the given tile or strip.
+   *
+   * @return the compressed tile, or null if the tile contains no data
+   */
+  private byte[] readTile(IFD ifd, int row, int col)
+    throws FormatException, IOException
+  {
+    long tileWidth = ifd.getTileWidth();
     long numTileCols = ifd.getTilesPerRow();
-
     int pixel = ifd.getBytesPerSample()[0];
-    int effectiveChannels = planarConfig == 2 ? 1 : samplesPerPixel;
 
-    if (ifd.get(IFD.STRIP_BYTE_COUNTS) instanceof OnDemandLongArray) {
-      OnDemandLongArray counts = (OnDemandLongArray) ifd.get(IFD.STRIP_BYTE_COUNTS);
-      if (counts != null) {
-        counts.setStream(in);
-      }
-    }
-    if (ifd.get(IFD.TILE_BYTE_COUNTS) instanceof OnDemandLongArray) {
-      OnDemandLongArray counts = (OnDemandLongArray) ifd.get(IFD.TILE_BYTE_COUNTS);
-      if (counts != null) {
-        counts.setStream(in);
-      }
-    }
+    setByteCountStream(ifd);
 
     long[] stripByteCounts = ifd.getStripByteCounts();
     long[] rowsPerStrip = ifd.getRowsPerStrip();
@@ -702,35 +855,41 @@ public class TiffParser {
       stripByteCounts[countIndex] = stripByteCounts[countIndex - 1];
     }
 
-    long stripOffset = 0;
-    long nStrips = 0;
+    long stripOffset = getStripOffset(ifd, offsetIndex);
 
-    if (ifd.getOnDemandStripOffsets() != null) {
-      OnDemandLongArray stripOffsets = ifd.getOnDemandStripOffsets();
-      stripOffsets.setStream(in);
-      stripOffset = stripOffsets.get(offsetIndex);
-      nStrips = stripOffsets.size();
-    }
-    else {
-      long[] stripOffsets = ifd.getStripOffsets();
-      stripOffset = stripOffsets[offsetIndex];
-      nStrips = stripOffsets.length;
-    }
-
-    int size = (int) (tileWidth * tileLength * pixel * effectiveChannels);
-
-    if (buf == null) buf = new byte[size];
     if (stripByteCounts[countIndex] == 0 || stripOffset >= in.length()) {
-      return buf;
+      return null;
     }
     byte[] tile = new byte[(int) stripByteCounts[countIndex]];
 
     LOGGER.debug("Reading tile Length {} Offset {}", tile.length, stripOffset);
-    in.seek(stripOffset);
-    in.read(tile);
+    if (concurrentReads) {
+      in.read(stripOffset, tile, 0, tile.length);
+    }
+    else {
+      in.seek(stripOffset);
+      in.read(tile);
+    }
+    return tile;
+  }
+
+  /**
+   * Decompresses and unpacks a tile or strip read by
+   * {@link #readTile(IFD, int, int)}.  Does not read from the stream, so
+   * may be called concurrently provided that each caller supplies its own
+   * codec options and output buffer.
+   */
+  private void decodeTile(IFD ifd, CodecOptions options, byte[] tile,
+    byte[] buf, int row)
+    throws FormatException, IOException
+  {
+    byte[] jpegTable = (byte[]) ifd.getIFDValue(IFD.JPEG_TABLES);
+    int planarConfig = ifd.getPlanarConfiguration();
+    TiffCompression compression = ifd.getCompression();
+    int pixel = ifd.getBytesPerSample()[0];
 
-    codecOptions.maxBytes = (int) Math.max(size, tile.length);
-    codecOptions.ycbcr =
+    options.maxBytes = (int) Math.max(getTileSize(ifd), tile.length);
+    options.ycbcr =
       ifd.getPhotometricInterpretation() == PhotoInterp.Y_CB_CR &&
       ifd.getIFDIntValue(IFD.Y_CB_CR_SUB_SAMPLING) == 1 && ycbcrCorrection;
 
@@ -738,13 +897,15 @@ public class TiffParser {
       byte[] q = new byte[jpegTable.length + tile.length - 4];
       System.arraycopy(jpegTable, 0, q, 0, jpegTable.length - 2);
       System.arraycopy(tile, 2, q, jpegTable.length - 2, tile.length - 2);
-      tile = compression.decompress(q, codecOptions);
+      tile = compression.decompress(q, options);
     }
-    else tile = compression.decompress(tile, codecOptions);
+    else tile = compression.decompress(tile, options);
     TiffCompression.undifference(tile, ifd);
     unpackBytes(buf, 0, tile, ifd);
 
     if (planarConfig == 2 && !ifd.isTiled() && ifd.getSamplesPerPixel() > 1) {
+      long nStrips = ifd.getOnDemandStripOffsets() != null ?
+        ifd.getOnDemandStripOffsets().size() : ifd.getStripOffsets().length;
       int channel = (int) (row % nStrips);
       if (channel < ifd.getBytesPerSample().length) {
         int realBytes = ifd.getBytesPerSample()[channel];
@@ -765,8 +926,43 @@ public class TiffParser {
         }
       }
     }
+  }
 
-    return buf;
+  /** Returns the number of bytes in a single decoded tile or strip. */
+  private int getTileSize(IFD ifd) throws FormatException {
+    int samplesPerPixel = ifd.getSamplesPerPixel();
+    int effectiveChannels =
+      ifd.getPlanarConfiguration() == 2 ? 1 : samplesPerPixel;
+    return (int) (ifd.getTileWidth() * ifd.getTileLength() *
+      ifd.getBytesPerSample()[0] * effectiveChannels);
+  }
+
+  /** Returns the file offset of the tile or strip with the given index. */
+  private long getStripOffset(IFD ifd, int index)
+    throws FormatException, IOException
+  {
+    if (ifd.getOnDemandStripOffsets() != null) {
+      OnDemandLongArray stripOffsets = ifd.getOnDemandStripOffsets();
+      stripOffsets.setStream(in);
+      return stripOffsets.get(index);
+    }
+    return ifd.getStripOffsets()[index];
+  }
+
+  /** Points any on-demand byte count arrays at the current stream. */
+  private void setByteCountStream(IFD ifd) {
+    if (ifd.get(IFD.STRIP_BYTE_COUNTS) instanceof OnDemandLongArray) {
+      OnDemandLongArray counts = (OnDemandLongArray) ifd.get(IFD.STRIP_BYTE_COUNTS);
+      if (counts != null) {
+        counts.setStream(in);
+      }
+    }
+    if (ifd.get(IFD.TILE_BYTE_COUNTS) instanceof OnDemandLongArray) {
+      OnDemandLongArray counts = (OnDemandLongArray) ifd.get(IFD.TILE_BYTE_COUNTS);
+      if (counts != null) {
+        counts.setStream(in);
+      }
+    }
   }
 
   public byte[] getSamples(IFD ifd, byte[] buf)
@@ -786,12 +982,40 @@ public class TiffParser {
   public byte[] getSamples(IFD ifd, byte[] buf, int x, int y,
     long width, long height, int overlapX, int overlapY)
     throws FormatException, IOException
+  {
+    return getSamples(ifd, buf, null, x, y, width, height, overlapX, overlapY);
+  }
+
+  /**
+   * Reads the given region of the image into the given heap or direct
+   * buffer, starting at the buffer's current position, which is then
+   * advanced past the region.  Decoded tiles are copied straight into the
+   * buffer, and the arrays used along the way are reused between calls.
+   *
+   * @throws FormatException if the buffer has too few bytes remaining
+   */
+  public ByteBuffer getSamples(IFD ifd, ByteBuffer buf, int x, int y,
+    long width, long height) throws FormatException, IOException
+  {
+    getSamples(ifd, null, buf, x, y, width, height, 0, 0);
+    return buf;
+  }
+
+  /**
+   * Reads the given region of the image into either buf or, if it is null,
+   * the given output buffer.
+   */
+  private byte[] getSamples(IFD ifd, byte[] buf, ByteBuffer out, int x,
+    int y, long width, long height, int overlapX, int overlapY)
+    throws FormatException, IOException
   {
     LOGGER.trace("parsing IFD entries");
 
     // get internal non-IFD entries
     boolean littleEndian = ifd.isLittleEndian();
-    in.order(littleEndian);
+    if (in.isLittleEndian() != littleEndian) {
+      in.order(littleEndian);
+    }
 
     // get relevant IFD entries
     int samplesPerPixel = ifd.getSamplesPerPixel();
@@ -830,20 +1054,34 @@ public class TiffParser {
     // width * height is less than Integer.MAX_VALUE
     int numSamples = (int) (width * height);
 
+    int base = 0;
+    long size = width * height * samplesPerPixel * pixel;
+    if (out != null) {
+      if (size > out.remaining()) {
+        throw new FormatException("Buffer too small (got " +
+          out.remaining() + ", expected " + size + ").");
+      }
+      base = out.position();
+    }
+
     // read in image strips
     LOGGER.trace("reading image data (samplesPerPixel={}; numSamples={})",
       samplesPerPixel, numSamples);
 
     TiffCompression compression = ifd.getCompression();
 
+    CodecOptions options;
     if (compression == TiffCompression.JPEG_2000 ||
       compression == TiffCompression.JPEG_2000_LOSSY)
     {
-      codecOptions = compression.getCompressionCodecOptions(ifd, codecOptions);
+      options = compression.getCompressionCodecOptions(ifd, codecOptions);
+    }
+    else options = compression.getCompressionCodecOptions(ifd);
+    options.interleaved = true;
+    options.littleEndian = ifd.isLittleEndian();
+    if (!concurrentReads) {
+      codecOptions = options;
     }
-    else codecOptions = compression.getCompressionCodecOptions(ifd);
-    codecOptions.interleaved = true;
-    codecOptions.littleEndian = ifd.isLittleEndian();
     long imageLength = ifd.getImageLength();
 
     long[] stripOffsets = null;
@@ -857,18 +1095,7 @@ public class TiffParser {
       stripOffsets = ifd.getStripOffsets();
     }
 
-    if (ifd.get(IFD.STRIP_BYTE_COUNTS) instanceof OnDemandLongArray) {
-      OnDemandLongArray counts = (OnDemandLongArray) ifd.get(IFD.STRIP_BYTE_COUNTS);
-      if (counts != null) {
-        counts.setStream(in);
-      }
-    }
-    if (ifd.get(IFD.TILE_BYTE_COUNTS) instanceof OnDemandLongArray) {
-      OnDemandLongArray counts = (OnDemandLongArray) ifd.get(IFD.TILE_BYTE_COUNTS);
-      if (counts != null) {
-        counts.setStream(in);
-      }
-    }
+    setByteCountStream(ifd);
 
     long[] stripByteCounts = ifd.getStripByteCounts();
 
@@ -881,6 +1108,10 @@ public class TiffParser {
       numTileRows * numTileCols == 1 && stripOffsets != null && stripByteCounts != null &&
       in.length() >= stripOffsets[0] + stripByteCounts[0])
     {
+      if (out != null) {
+        buf = getTransferBuffer((int) size);
+      }
+
       long column = x / tileWidth;
       int firstTile = (int) ((y / tileLength) * numTileCols + column);
       int lastTile =
@@ -898,12 +1129,16 @@ public class TiffParser {
           byteCount *= pixel;
         }
 
-        if (stripOffsets[tile] < in.length()) {
-          in.seek(stripOffsets[tile]);
+        if (stripOffsets[tile] >= in.length()) {
+          continue;
         }
-        else {
+        if (concurrentReads) {
+          offset = readStripRegion(buf, offset, stripOffsets[tile], byteCount,
+            x, y, width, height, tileWidth, width == tileWidth &&
+            height == imageLength, ifd.getBitsPerSample()[0] / 8);
           continue;
         }
+        in.seek(stripOffsets[tile]);
 
         if (width == tileWidth && height == imageLength) {
           // we want to entire tile, so just read the whole thing directly
@@ -933,6 +1168,11 @@ public class TiffParser {
           }
         }
       }
+      if (out != null) {
+        // leave no stale data from a previous call where the strip is short
+        Arrays.fill(buf, offset, buf.length, (byte) 0);
+        out.put(buf);
+      }
       return buf;
     }
 
@@ -941,16 +1181,9 @@ public class TiffParser {
 
     Region imageBounds = new Region(x, y, (int) width, (int) height);
 
-    int endX = (int) width + x;
-    int endY = (int) height + y;
-
-    long w = tileWidth;
-    long h = tileLength;
-    int rowLen = pixel * (int) w;//tileWidth;
-    int tileSize = (int) (rowLen * h);//tileLength);
-
-    int planeSize = (int) (width * height * pixel);
-    int outputRowLen = (int) (pixel * width);
+    TileCopier copier = new TileCopier(buf, out, base, x, y, width, height,
+      tileWidth, tileLength, overlapX, overlapY, pixel, effectiveChannels,
+      planarConfig == 2, nrows);
 
     int bufferSizeSamplesPerPixel = samplesPerPixel;
     if (ifd.getPlanarConfiguration() == 2) bufferSizeSamplesPerPixel = 1;
@@ -958,10 +1191,9 @@ public class TiffParser {
     int bufferSize = (int) tileWidth * (int) tileLength *
       bufferSizeSamplesPerPixel * bpp;
 
-    cachedTileBuffer = new byte[bufferSize];
-
     Region tileBounds = new Region(0, 0, (int) tileWidth, (int) tileLength);
 
+    List<TilePosition> tiles = new ArrayList<TilePosition>();
     for (int row=0; row<numTileRows; row++) {
       // make the first row shorter to account for row overlap
       if (row == 0) {
@@ -983,55 +1215,222 @@ public class TiffParser {
 
         if (!imageBounds.intersects(tileBounds)) continue;
 
-        getTile(ifd, cachedTileBuffer, row, col);
-
-        // adjust tile bounds, if necessary
-
-        int tileX = (int) Math.max(tileBounds.x, x);
-        int tileY = (int) Math.max(tileBounds.y, y);
-        int realX = tileX % (int) (tileWidth - overlapX);
-        int realY = tileY % (int) (tileLength - overlapY);
+        tiles.add(new TilePosition(row, col, tileBounds.x, tileBounds.y));
+      }
+    }
 
-        int twidth = (int) Math.min(endX - tileX, tileWidth - realX);
-        if (twidth <= 0) {
-          twidth = (int) Math.max(endX - tileX, tileWidth - realX);
+    // overlapping tiles must be copied in order, as a later tile may
+    // overwrite part of an earlier one
+    if (decodeExecutor != null && tiles.size() > 1 &&
+      overlapX == 0 && overlapY == 0)
+    {
+      decodeTiles(ifd, options, tiles, copier, bufferSize);
+    }
+    else {
+      byte[] tile = getTileBuffer(bufferSize);
+      for (TilePosition position : tiles) {
+        byte[] compressed = readTile(ifd, position.row, position.col);
+        if (compressed == null) {
+          Arrays.fill(tile, (byte) 0);
         }
-        int theight = (int) Math.min(endY - tileY, tileLength - realY);
-        if (theight <= 0) {
-          theight = (int) Math.max(endY - tileY, tileLength - realY);
+        else {
+          decodeTile(ifd, options, compressed, tile, position.row);
         }
+        copier.copy(tile, position);
+      }
+    }
 
-        // copy appropriate portion of the tile to the output buffer
+    if (out != null) {
+      out.position(base + (int) size);
+    }
+    return buf;
+  }
 
-        int copy = pixel * twidth;
+  /** Returns an array of the given length for decoding tiles. */
+  private byte[] getTileBuffer(int length) {
+    if (concurrentReads) {
+      return new byte[length];
+    }
+    if (tileBuffer == null || tileBuffer.length != length) {
+      tileBuffer = new byte[length];
+    }
+    return tileBuffer;
+  }
 
-        realX *= pixel;
-        realY *= rowLen;
+  /**
+   * Returns an array of the given length for reading a region before it is
+   * copied into an output buffer.
+   */
+  private byte[] getTransferBuffer(int length) {
+    if (concurrentReads) {
+      return new byte[length];
+    }
+    if (transferBuffer == null || transferBuffer.length != length) {
+      transferBuffer = new byte[length];
+    }
+    return transferBuffer;
+  }
 
-        for (int q=0; q<effectiveChannels; q++) {
-          int src = (int) (q * tileSize) + realX + realY;
-          int dest = (int) (q * planeSize) + pixel * (tileX - x) +
-            outputRowLen * (tileY - y);
-          if (planarConfig == 2) dest += (planeSize * (row / nrows));
+  /**
+   * Reads all or part of an uncompressed strip directly into the output
+   * buffer using positional reads.
+   *
+   * @return the offset into the output buffer following the last byte read
+   */
+  private int readStripRegion(byte[] buf, int offset, long stripOffset,
+    long byteCount, int x, int y, long width, long height, long tileWidth,
+    boolean wholeStrip, int bpp)
+    throws IOException
+  {
+    if (wholeStrip) {
+      int len = (int) Math.min(buf.length - offset, byteCount);
+      in.read(stripOffset, buf, offset, len);
+      return offset + len;
+    }
+    // read each row separately, skipping the columns outside the region
+    long pos = stripOffset + y * bpp * tileWidth;
+    for (int row=0; row<height; row++) {
+      pos += x * bpp;
+      int len = (int) Math.min(buf.length - offset, width * bpp);
+      if (len <= 0) {
+        break;
+      }
+      in.read(pos, buf, offset, len);
+      offset += len;
+      pos += len + bpp * (tileWidth - x - width);
+    }
+    return offset;
+  }
 
-          // copying the tile directly will only work if there is no overlap;
-          // otherwise, we may be overwriting a previous tile
-          // (or the current tile may be overwritten by a subsequent tile)
-          if (rowLen == outputRowLen && overlapX == 0 && overlapY == 0) {
-            System.arraycopy(cachedTileBuffer, src, buf, dest, copy * theight);
-          }
-          else {
-            for (int tileRow=0; tileRow<theight; tileRow++) {
-              System.arraycopy(cachedTileBuffer, src, buf, dest, copy);
-              src += rowLen;
-              dest += outputRowLen;
+  /**
+   * Decodes the given tiles using the decode executor.  Compressed tiles are
+   * read on the calling thread in order of increasing file offset, and each
+   * is then decompressed, unpacked and copied into the output buffer by a
+   * worker thread.  The tiles must not overlap.
+   */
+  private void decodeTiles(final IFD ifd, CodecOptions options,
+    List<TilePosition> tiles, final TileCopier copier, final int bufferSize)
+    throws FormatException, IOException
+  {
+    long numTileCols = ifd.getTilesPerRow();
+    for (TilePosition tile : tiles) {
+      tile.offset = getStripOffset(ifd, (int) (tile.row * numTileCols + tile.col));
+    }
+    Collections.sort(tiles, new Comparator<TilePosition>() {
+      @Override
+      public int compare(TilePosition a, TilePosition b) {
+        return a.offset < b.offset ? -1 : (a.offset == b.offset ? 0 : 1);
+      }
+    });
+
+    // decoded tile buffers are recycled between tasks, so at most one buffer
+    // is allocated per concurrently running task
+    final ConcurrentLinkedQueue<byte[]> buffers =
+      new ConcurrentLinkedQueue<byte[]>();
+    int maxPending = decodeThreads * PENDING_TILES_PER_THREAD;
+    LinkedList<Future<Void>> pending = new LinkedList<Future<Void>>();
+    final AtomicBoolean aborted = new AtomicBoolean();
+
+    try {
+      for (final TilePosition tile : tiles) {
+        final byte[] compressed = readTile(ifd, tile.row, tile.col);
+        final CodecOptions tileOptions = copyCodecOptions(options);
+
+        pending.add(decodeExecutor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws FormatException, IOException {
+            if (aborted.get()) {
+              return null;
+            }
+            byte[] tileBuffer = buffers.poll();
+            if (tileBuffer == null) {
+              tileBuffer = new byte[bufferSize];
+            }
+            if (compressed == null) {
+              Arrays.fill(tileBuffer, (byte) 0);
+            }
+            else {
+              decodeTile(ifd, tileOptions, compressed, tileBuffer, tile.row);
             }
+            copier.copy(tileBuffer, tile);
+            buffers.offer(tileBuffer);
+            return null;
           }
+        }));
+
+        while (pending.size() >= maxPending) {
+          waitForTile(pending.removeFirst());
         }
       }
+      while (!pending.isEmpty()) {
+        waitForTile(pending.removeFirst());
+      }
+    }
+    finally {
+      // tasks that have not started yet are skipped, and running tasks must
+      // finish before the caller may reuse the output buffer
+      aborted.set(true);
+      waitForAll(pending);
     }
+  }
 
-    return buf;
+  /** Waits for a tile decoding task to finish, rethrowing any failure. */
+  private static void waitForTile(Future<Void> task)
+    throws FormatException, IOException
+  {
+    try {
+      task.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new FormatException("Interrupted while decoding tiles", e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof FormatException) {
+        throw (FormatException) cause;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new FormatException(cause);
+    }
+  }
+
+  /**
+   * Waits for the given tile decoding tasks to finish, ignoring any failure,
+   * so that none is still copying into the output buffer.
+   */
+  private static void waitForAll(List<? extends Future<?>> tasks) {
+    boolean interrupted = false;
+    for (Future<?> task : tasks) {
+      while (true) {
+        try {
+          task.get();
+          break;
+        }
+        catch (InterruptedException e) {
+          interrupted = true;
+        }
+        catch (ExecutionException e) {
+          break;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Creates a private copy of the given codec options. */
+  private static CodecOptions copyCodecOptions(CodecOptions options) {
+    if (options instanceof JPEG2000CodecOptions) {
+      return new JPEG2000CodecOptions(options);
+    }
+    return new CodecOptions(options);
   }
 
   // -- Utility methods - byte stream decoding --
@@ -1276,4 +1675,130 @@ public class TiffParser {
     return new TiffIFDEntry(entryTag, entryType, valueCount, offset);
   }
 
+  // -- Helper classes --
+
+  /** Location of a tile or strip that intersects the requested region. */
+  private static class TilePosition {
+    final int row;
+    final int col;
+    final int x;
+    final int y;
+    long offset;
+
+    TilePosition(int row, int col, int x, int y) {
+      this.row = row;
+      this.col = col;
+      this.x = x;
+      this.y = y;
+    }
+  }
+
+  /**
+   * Copies the portion of a decoded tile that lies within the requested
+   * region into the output buffer.  Tiles that do not overlap write to
+   * disjoint parts of the buffer, so may be copied concurrently.
+   */
+  private static class TileCopier {
+    private final byte[] buf;
+    private final ByteBuffer out;
+    private final int base;
+    private final int x, y, endX, endY;
+    private final long tileWidth, tileLength;
+    private final int overlapX, overlapY;
+    private final int pixel, rowLen, tileSize, planeSize, outputRowLen;
+    private final int effectiveChannels;
+    private final boolean planar;
+    private final long nrows;
+
+    /**
+     * Copies tiles into buf or, if it is null, into out starting at the
+     * given base position.
+     */
+    TileCopier(byte[] buf, ByteBuffer out, int base, int x, int y,
+      long width, long height, long tileWidth, long tileLength, int overlapX,
+      int overlapY, int pixel, int effectiveChannels, boolean planar,
+      long nrows)
+    {
+      this.buf = buf;
+      this.out = out;
+      this.base = base;
+      this.x = x;
+      this.y = y;
+      this.endX = (int) width + x;
+      this.endY = (int) height + y;
+      this.tileWidth = tileWidth;
+      this.tileLength = tileLength;
+      this.overlapX = overlapX;
+      this.overlapY = overlapY;
+      this.pixel = pixel;
+      this.rowLen = pixel * (int) tileWidth;
+      this.tileSize = (int) (rowLen * tileLength);
+      this.planeSize = (int) (width * height * pixel);
+      this.outputRowLen = (int) (pixel * width);
+      this.effectiveChannels = effectiveChannels;
+      this.planar = planar;
+      this.nrows = nrows;
+    }
+
+    void copy(byte[] tile, TilePosition position) {
+      // adjust tile bounds, if necessary
+
+      int tileX = (int) Math.max(position.x, x);
+      int tileY = (int) Math.max(position.y, y);
+      int realX = tileX % (int) (tileWidth - overlapX);
+      int realY = tileY % (int) (tileLength - overlapY);
+
+      int twidth = (int) Math.min(endX - tileX, tileWidth - realX);
+      if (twidth <= 0) {
+        twidth = (int) Math.max(endX - tileX, tileWidth - realX);
+      }
+      int theight = (int) Math.min(endY - tileY, tileLength - realY);
+      if (theight <= 0) {
+        theight = (int) Math.max(endY - tileY, tileLength - realY);
+      }
+
+      // copy appropriate portion of the tile to the output buffer
+
+      int copy = pixel * twidth;
+      // each copy gets its own view, as tiles may be copied concurrently
+      ByteBuffer target = out == null ? null : out.duplicate();
+
+      realX *= pixel;
+      realY *= rowLen;
+
+      for (int q=0; q<effectiveChannels; q++) {
+        int src = (int) (q * tileSize) + realX + realY;
+        int dest = (int) (q * planeSize) + pixel * (tileX - x) +
+          outputRowLen * (tileY - y);
+        if (planar) dest += (planeSize * (position.row / nrows));
+
+        // copying the tile directly will only work if there is no overlap;
+        // otherwise, we may be overwriting a previous tile
+        // (or the current tile may be overwritten by a subsequent tile)
+        if (rowLen == outputRowLen && overlapX == 0 && overlapY == 0) {
+          put(target, tile, src, dest, copy * theight);
+        }
+        else {
+          for (int tileRow=0; tileRow<theight; tileRow++) {
+            put(target, tile, src, dest, copy);
+            src += rowLen;
+            dest += outputRowLen;
+          }
+        }
+      }
+    }
+
+    private void put(ByteBuffer target, byte[] tile, int src, int dest,
+      int length)
+    {
+      if (target == null) {
+        System.arraycopy(tile, src, buf, dest, length);
+      }
+      else {
+        target.position(base + dest);
+        target.put(tile, src, length);
+      }
+    }
+  }
+
 }
@@ -32,14 +32,19 @@
 
 package loci.formats.tiff;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import loci.common.ByteArrayHandle;
 import loci.common.Constants;
@@ -84,6 +89,19 @@ public class TiffSaver {
   /** The codec options if set. */
   private CodecOptions options;
 
+  /** Strip buffers of the last image written, reused by the next one. */
+  private byte[][] stripBuffers;
+
+  /** Executor used to compress strips concurrently, or null. */
+  private ExecutorService compressExecutor;
+
+  /** IFDs whose SubIFDs have not yet been written, keyed by image index. */
+  private Map<Integer, WrittenIFD> subIFDParents =
+    new HashMap<Integer, WrittenIFD>();
+
+  /** The IFD most recently written to the main IFD chain, or null. */
+  private WrittenIFD lastIFD;
+
   // -- Constructors --
   /**
    * Constructs a new TIFF saver from the given filename.
@@ -139,6 +157,9 @@ public class TiffSaver {
    * @throws IOException Thrown if an error occurred while closing.
    */
   public void close() throws IOException {
+    stripBuffers = null;
+    subIFDParents.clear();
+    lastIFD = null;
     if (out != null) {
       out.close();
     }
@@ -184,6 +205,29 @@ public class TiffSaver {
     this.options = options;
   }
 
+  /**
+   * Sets the executor used to compress the strips or tiles of a single image
+   * concurrently within a call to writeImage.  Strips are always written to
+   * the stream in order, on the calling thread, so the output is identical
+   * to that of serial compression.
+   *
+   * The executor is not shut down by this saver.
+   *
+   * @param executor the executor to use, or null to compress all strips on
+   *   the calling thread (the default)
+   */
+  public void setCompressExecutor(ExecutorService executor) {
+    compressExecutor = executor;
+  }
+
+  /**
+   * Retrieves the executor used to compress strips concurrently.
+   * @return See above; null if strips are compressed on the calling thread.
+   */
+  public ExecutorService getCompressExecutor() {
+    return compressExecutor;
+  }
+
   /** Writes the TIFF file header. */
   public void writeHeader() throws IOException {
     // write endianness indicator
@@ -277,6 +321,95 @@ public class TiffSaver {
       int y, int w, int h, boolean last, Integer nChannels,
       boolean copyDirectly)
   throws FormatException, IOException
+  {
+    writeImage(buf, ifd, no, pixelType, x, y, w, h, last, nChannels,
+      copyDirectly, false);
+  }
+
+  /**
+   * Writes reduced resolution copies of an image as SubIFDs of that image's
+   * IFD, which must already have been written with a {@link IFD#SUB_IFD}
+   * entry holding one (placeholder) offset per resolution.  The SubIFDs are
+   * not linked into the main IFD chain, and are marked as reduced resolution
+   * images so that readers do not mistake them for additional planes.
+   *
+   * @param buf The pixels of each reduced resolution, largest first.
+   * @param widths The width of each reduced resolution.
+   * @param heights The height of each reduced resolution.
+   * @param no The index of the full resolution image, as passed to
+   *           <code>writeImage</code>.
+   * @param pixelType The type of pixels.
+   * @param last Pass <code>true</code> if no more images will be written,
+   *             <code>false</code> otherwise.
+   * @throws FormatException
+   * @throws IOException
+   */
+  public synchronized void writeSubResolutions(byte[][] buf, int[] widths,
+      int[] heights, int no, int pixelType, boolean last)
+  throws FormatException, IOException
+  {
+    WrittenIFD written = subIFDParents.remove(no);
+    if (written == null) {
+      throw new FormatException("No IFD with SubIFDs written for image " + no);
+    }
+    IFD parent = written.ifd;
+    long[] subOffsets = parent.getIFDLongArray(IFD.SUB_IFD);
+    if (subOffsets.length != buf.length) {
+      throw new FormatException("Expected " + subOffsets.length +
+        " resolutions, got " + buf.length);
+    }
+    int nChannels = parent.getSamplesPerPixel();
+
+    for (int i=0; i<buf.length; i++) {
+      IFD ifd = new IFD();
+      int[] tags = {IFD.LITTLE_ENDIAN, IFD.COMPRESSION,
+        IFD.PLANAR_CONFIGURATION, IFD.SAMPLE_FORMAT, IFD.PREDICTOR,
+        IFD.COLOR_MAP, IFD.TILE_WIDTH, IFD.TILE_LENGTH, IFD.SOFTWARE};
+      for (int tag : tags) {
+        Object value = parent.get(tag);
+        if (value != null) ifd.put(tag, value);
+      }
+      if (!parent.isTiled()) {
+        long rowsPerStrip = parent.getRowsPerStrip()[0];
+        ifd.putIFDValue(IFD.ROWS_PER_STRIP,
+          new long[] {Math.min(rowsPerStrip, heights[i])});
+      }
+      ifd.putIFDValue(IFD.NEW_SUBFILE_TYPE, 1L);
+      ifd.put(IFD.IMAGE_WIDTH, (long) widths[i]);
+      ifd.put(IFD.IMAGE_LENGTH, (long) heights[i]);
+
+      out.seek(out.length());
+      subOffsets[i] = writeImage(buf[i], ifd, no, pixelType, 0, 0, widths[i],
+        heights[i], true, nChannels, false, true);
+    }
+
+    // the next image is now written after the SubIFDs, so the IFD that
+    // will precede it in the main chain must point past them; other IFDs
+    // keep their next IFD offsets
+    long end = out.length();
+    if (lastIFD != null && lastIFD.next != 0) {
+      lastIFD.next = last ? 0 : end;
+      if (lastIFD != written) {
+        rewriteIFD(lastIFD);
+      }
+    }
+
+    // rewrite the parent IFD in place; its size is unchanged
+    parent.putIFDValue(IFD.SUB_IFD, subOffsets);
+    rewriteIFD(written);
+    out.seek(end);
+  }
+
+  /**
+   * Writes an image, or part of one.  If <code>subIFD</code> is set, the
+   * image is written as a SubIFD that is not part of the main IFD chain.
+   *
+   * @return the offset of the image's IFD
+   */
+  private long writeImage(byte[] buf, IFD ifd, int no, int pixelType, int x,
+      int y, int w, int h, boolean last, Integer nChannels,
+      boolean copyDirectly, boolean subIFD)
+  throws FormatException, IOException
   {
     LOGGER.debug("Attempting to write image.");
     //b/c method is public should check parameters again
@@ -292,10 +425,9 @@ public class TiffSaver {
     TiffCompression compression;
     int tileWidth, tileHeight, nStrips;
     boolean interleaved;
-    ByteArrayOutputStream[] stripBuf;
+    byte[][] stripBuf;
     synchronized (this) {
       int bytesPerPixel = FormatTools.getBytesPerPixel(pixelType);
-      int blockSize = w * h * bytesPerPixel;
       if (nChannels == null) {
         nChannels = buf.length / (w * h * bytesPerPixel);
       }
@@ -309,65 +441,38 @@ public class TiffSaver {
       tileWidth = (int) ifd.getTileWidth();
       tileHeight = (int) ifd.getTileLength();
       int tilesPerRow = (int) ifd.getTilesPerRow();
-      int rowsPerStrip = (int) ifd.getRowsPerStrip()[0];
-      int stripSize = rowsPerStrip * tileWidth * bytesPerPixel;
       nStrips =
         ((w + tileWidth - 1) / tileWidth) * ((h + tileHeight - 1) / tileHeight);
+      if (!interleaved) nStrips *= nChannels;
 
-      if (interleaved) stripSize *= nChannels;
-      else nStrips *= nChannels;
-
-      stripBuf = new ByteArrayOutputStream[nStrips];
-      DataOutputStream[] stripOut = new DataOutputStream[nStrips];
-      for (int strip=0; strip<nStrips; strip++) {
-        stripBuf[strip] = new ByteArrayOutputStream(stripSize);
-        stripOut[strip] = new DataOutputStream(stripBuf[strip]);
-      }
       int[] bps = ifd.getBitsPerSample();
-      int off;
 
       // write pixel strips to output buffers
       int effectiveStrips = !interleaved ? nStrips / nChannels : nStrips;
       if (effectiveStrips == 1 && copyDirectly) {
-        stripOut[0].write(buf);
+        stripBuf = new byte[nStrips][];
+        stripBuf[0] = Arrays.copyOf(buf, buf.length);
+        for (int strip=1; strip<nStrips; strip++) {
+          stripBuf[strip] = new byte[0];
+        }
       }
       else {
-        for (int strip = 0; strip < effectiveStrips; strip++) {
-          int xOffset = (strip % tilesPerRow) * tileWidth;
-          int yOffset = (strip / tilesPerRow) * tileHeight;
-          for (int row=0; row<tileHeight; row++) {
-            for (int col=0; col<tileWidth; col++) {
-              int ndx = ((row+yOffset) * w + col + xOffset) * bytesPerPixel;
-              for (int c=0; c<nChannels; c++) {
-                for (int n=0; n<bps[c]/8; n++) {
-                  if (interleaved) {
-                    off = ndx * nChannels + c * bytesPerPixel + n;
-                    if (row >= h || col >= w) {
-                      stripOut[strip].writeByte(0);
-                    } else if (off < buf.length) {
-                      stripOut[strip].writeByte(buf[off]);
-                    }
-                    else {
-                      stripOut[strip].writeByte(0);
-                    }
-                  }
-                  else {
-                    off = c * blockSize + ndx + n;
-                    int realStrip = (c * (nStrips / nChannels)) + strip;
-                    if (row >= h || col >= w) {
-                      stripOut[realStrip].writeByte(0);
-                    } else if (off < buf.length) {
-                      stripOut[realStrip].writeByte(buf[off]);
-                    }
-                    else {
-                      stripOut[realStrip].writeByte(0);
-                    }
-                  }
-                }
-              }
+        int[] stripLengths = new int[nStrips];
+        for (int strip=0; strip<nStrips; strip++) {
+          int sampleBytes = 0;
+          if (interleaved) {
+            for (int c=0; c<nChannels; c++) {
+              sampleBytes += bps[c] / 8;
             }
           }
+          else {
+            sampleBytes = bps[strip / effectiveStrips] / 8;
+          }
+          stripLengths[strip] = tileWidth * tileHeight * sampleBytes;
         }
+        stripBuf = getStripBuffers(stripLengths);
+        assembleStrips(buf, stripBuf, w, h, nChannels, bytesPerPixel, bps,
+          interleaved, tileWidth, tileHeight, tilesPerRow);
       }
     }
 
@@ -376,25 +481,242 @@ public class TiffSaver {
     // TiffWriter.saveBytes() --> TiffSaver.writeImage() stack that is NOT
     // synchronized.
     byte[][] strips = new byte[nStrips][];
+    CodecOptions[] codecOptions = new CodecOptions[nStrips];
     for (int strip=0; strip<nStrips; strip++) {
-      strips[strip] = stripBuf[strip].toByteArray();
-      TiffCompression.difference(strips[strip], ifd);
-      CodecOptions codecOptions = compression.getCompressionCodecOptions(
+      codecOptions[strip] = compression.getCompressionCodecOptions(
           ifd, options);
-      codecOptions.height = tileHeight;
-      codecOptions.width = tileWidth;
-      codecOptions.channels = interleaved ? nChannels : 1;
+      codecOptions[strip].height = tileHeight;
+      codecOptions[strip].width = tileWidth;
+      codecOptions[strip].channels = interleaved ? nChannels : 1;
+    }
 
-      strips[strip] = compression.compress(strips[strip], codecOptions);
-      if (LOGGER.isDebugEnabled()) {
-        LOGGER.debug(String.format("Compressed strip %d/%d length %d",
-            strip + 1, nStrips, strips[strip].length));
+    ExecutorService executor = compressExecutor;
+    if (executor != null && nStrips > 1) {
+      compressStrips(executor, stripBuf, strips, ifd, compression,
+        codecOptions);
+    }
+    else {
+      for (int strip=0; strip<nStrips; strip++) {
+        strips[strip] = compressStrip(stripBuf[strip], ifd, compression,
+          codecOptions[strip]);
+        if (LOGGER.isDebugEnabled()) {
+          LOGGER.debug(String.format("Compressed strip %d/%d length %d",
+              strip + 1, nStrips, strips[strip].length));
+        }
       }
     }
 
     // This operation is synchronized
     synchronized (this) {
-      writeImageIFD(ifd, no, strips, nChannels, last, x ,y);
+      long ifdOffset =
+        writeImageIFD(ifd, no, strips, nChannels, last, x, y, subIFD);
+      stripBuffers = stripBuf;
+      return ifdOffset;
+    }
+  }
+
+  /**
+   * Returns buffers of the given lengths for assembling strips, reusing those
+   * of the previous image where possible.
+   */
+  private byte[][] getStripBuffers(int[] lengths) {
+    byte[][] pool = stripBuffers;
+    stripBuffers = null;
+    byte[][] strips = new byte[lengths.length][];
+    for (int i=0; i<strips.length; i++) {
+      if (pool != null && i < pool.length && pool[i] != null &&
+        pool[i].length == lengths[i])
+      {
+        strips[i] = pool[i];
+      }
+      else {
+        strips[i] = new byte[lengths[i]];
+      }
+    }
+    return strips;
+  }
+
+  /**
+   * Copies the region in the given buffer into strip or tile buffers, a row
+   * of each tile at a time when all samples are bytesPerPixel wide.  Parts of
+   * edge tiles that lie outside the region, or beyond the end of the buffer,
+   * are filled with zeros.
+   */
+  private static void assembleStrips(byte[] buf, byte[][] strips, int w,
+      int h, int nChannels, int bytesPerPixel, int[] bps,
+      boolean interleaved, int tileWidth, int tileHeight, int tilesPerRow)
+  {
+    boolean contiguous = true;
+    for (int c=0; c<nChannels; c++) {
+      if (bps[c] / 8 != bytesPerPixel) {
+        contiguous = false;
+      }
+    }
+    int blockSize = w * h * bytesPerPixel;
+    int effectiveStrips =
+      interleaved ? strips.length : strips.length / nChannels;
+
+    for (int strip=0; strip<effectiveStrips; strip++) {
+      int xOffset = (strip % tilesPerRow) * tileWidth;
+      int yOffset = (strip / tilesPerRow) * tileHeight;
+      int cols = Math.max(0, Math.min(tileWidth, w - xOffset));
+      int rows = Math.max(0, Math.min(tileHeight, h - yOffset));
+      int ndx = (yOffset * w + xOffset) * bytesPerPixel;
+
+      if (interleaved && contiguous) {
+        int pixel = bytesPerPixel * nChannels;
+        copyRows(buf, ndx * nChannels, w * pixel, strips[strip],
+          tileWidth * pixel, cols * pixel, rows);
+      }
+      else if (contiguous) {
+        for (int c=0; c<nChannels; c++) {
+          copyRows(buf, c * blockSize + ndx, w * bytesPerPixel,
+            strips[c * effectiveStrips + strip], tileWidth * bytesPerPixel,
+            cols * bytesPerPixel, rows);
+        }
+      }
+      else {
+        // samples narrower or wider than the pixel type; copy each byte
+        int[] written = new int[interleaved ? 1 : nChannels];
+        for (int row=0; row<tileHeight; row++) {
+          for (int col=0; col<tileWidth; col++) {
+            int pixel = ((row + yOffset) * w + col + xOffset) * bytesPerPixel;
+            boolean inside = row < rows && col < cols;
+            for (int c=0; c<nChannels; c++) {
+              int d = interleaved ? 0 : c;
+              byte[] tile =
+                strips[interleaved ? strip : c * effectiveStrips + strip];
+              for (int n=0; n<bps[c]/8; n++) {
+                int off = interleaved ?
+                  pixel * nChannels + c * bytesPerPixel + n :
+                  c * blockSize + pixel + n;
+                tile[written[d]++] = inside && off < buf.length ? buf[off] : 0;
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Copies rows of copyLength bytes from src into a tile of rows of
+   * destRowLength bytes, zero-filling the rest of the tile.
+   */
+  private static void copyRows(byte[] src, int srcOffset, int srcRowLength,
+      byte[] dest, int destRowLength, int copyLength, int rows)
+  {
+    int destOffset = 0;
+    for (int row=0; row<rows; row++) {
+      int n = Math.max(0, Math.min(copyLength, src.length - srcOffset));
+      if (n > 0) {
+        System.arraycopy(src, srcOffset, dest, destOffset, n);
+      }
+      Arrays.fill(dest, destOffset + n, destOffset + destRowLength, (byte) 0);
+      srcOffset += srcRowLength;
+      destOffset += destRowLength;
+    }
+    Arrays.fill(dest, destOffset, dest.length, (byte) 0);
+  }
+
+  /** Applies differencing and compression to a single strip. */
+  private static byte[] compressStrip(byte[] strip, IFD ifd,
+      TiffCompression compression, CodecOptions codecOptions)
+  throws FormatException, IOException
+  {
+    TiffCompression.difference(strip, ifd);
+    return compression.compress(strip, codecOptions);
+  }
+
+  /**
+   * Compresses all strips using the given executor, storing each compressed
+   * strip at its own index so that the write order is unaffected.
+   */
+  private void compressStrips(ExecutorService executor,
+      byte[][] stripBuf, byte[][] strips, final IFD ifd,
+      final TiffCompression compression, CodecOptions[] codecOptions)
+  throws FormatException, IOException
+  {
+    List<Future<byte[]>> pending = new ArrayList<Future<byte[]>>();
+    final AtomicBoolean aborted = new AtomicBoolean();
+    try {
+      for (int i=0; i<stripBuf.length; i++) {
+        final byte[] strip = stripBuf[i];
+        final CodecOptions stripOptions = codecOptions[i];
+        pending.add(executor.submit(new Callable<byte[]>() {
+          @Override
+          public byte[] call() throws FormatException, IOException {
+            if (aborted.get()) {
+              return null;
+            }
+            return compressStrip(strip, ifd, compression, stripOptions);
+          }
+        }));
+      }
+      for (int i=0; i<strips.length; i++) {
+        strips[i] = waitForStrip(pending.get(i));
+      }
+      if (LOGGER.isDebugEnabled()) {
+        LOGGER.debug(String.format("Compressed %d strips concurrently",
+            strips.length));
+      }
+    }
+    finally {
+      // tasks that have not started yet are skipped, and running tasks must
+      // finish before the caller may reuse the strip buffers
+      aborted.set(true);
+      waitForAll(pending);
+    }
+  }
+
+  /** Waits for a strip compression task to finish, rethrowing any failure. */
+  private static byte[] waitForStrip(Future<byte[]> task)
+    throws FormatException, IOException
+  {
+    try {
+      return task.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new FormatException("Interrupted while compressing strips", e);
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof FormatException) {
+        throw (FormatException) cause;
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new FormatException(cause);
+    }
+  }
+
+  /**
+   * Waits for the given strip compression tasks to finish, ignoring any
+   * failure, so that none is still reading the strip buffers.
+   */
+  private static void waitForAll(List<? extends Future<?>> tasks) {
+    boolean interrupted = false;
+    for (Future<?> task : tasks) {
+      while (true) {
+        try {
+          task.get();
+          break;
+        }
+        catch (InterruptedException e) {
+          interrupted = true;
+        }
+        catch (ExecutionException e) {
+          break;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
     }
   }
 
@@ -408,11 +730,14 @@ public class TiffSaver {
    * <code>false</code> otherwise.
    * @param x The initial X offset of the strips/tiles to write.
    * @param y The initial Y offset of the strips/tiles to write.
+   * @param subIFD Pass <code>true</code> if the IFD is a SubIFD of image
+   * <code>no</code>, <code>false</code> otherwise.
+   * @return the offset of the IFD
    * @throws FormatException
    * @throws IOException
    */
-  private void writeImageIFD(IFD ifd, int no, byte[][] strips,
-      int nChannels, boolean last, int x, int y)
+  private long writeImageIFD(IFD ifd, int no, byte[][] strips,
+      int nChannels, boolean last, int x, int y, boolean subIFD)
   throws FormatException, IOException {
     LOGGER.debug("Attempting to write image IFD.");
     int tilesPerRow = (int) ifd.getTilesPerRow();
@@ -420,7 +745,7 @@ public class TiffSaver {
     boolean interleaved = ifd.getPlanarConfiguration() == 1;
     boolean isTiled = ifd.isTiled();
 
-    if (!sequentialWrite) {
+    if (!sequentialWrite && !subIFD) {
       RandomAccessInputStream in = null;
       if (filename != null) {
         in = new RandomAccessInputStream(filename);
@@ -561,6 +886,26 @@ public class TiffSaver {
     if (LOGGER.isDebugEnabled()) {
       LOGGER.debug("Offset after IFD write: {}", out.getFilePointer());
     }
+    if (!subIFD) {
+      // remember where the IFD is, so that it can be rewritten once the
+      // SubIFD offsets are known
+      WrittenIFD written = new WrittenIFD(ifd, fp, last ? 0 : endFP);
+      if (ifd.containsKey(IFD.SUB_IFD)) {
+        subIFDParents.put(no, written);
+      }
+      if (lastIFD == null || fp >= lastIFD.offset) {
+        lastIFD = written;
+      }
+    }
+    return fp;
+  }
+
+  /** Rewrites an IFD in place, with its current next IFD offset. */
+  private void rewriteIFD(WrittenIFD written)
+    throws FormatException, IOException
+  {
+    out.seek(written.offset);
+    writeIFD(written.ifd, written.next);
   }
 
   public void writeIFD(IFD ifd, long nextOffset)
@@ -975,4 +1320,19 @@ public class TiffSaver {
     }
   }
 
+  // -- Helper classes --
+
+  /** An IFD that has been written, and its position in the file. */
+  private static class WrittenIFD {
+    private final IFD ifd;
+    private final long offset;
+    private long next;
+
+    WrittenIFD(IFD ifd, long offset, long next) {
+      this.ifd = ifd;
+      this.offset = offset;
+      this.next = next;
+    }
+  }
+
 }
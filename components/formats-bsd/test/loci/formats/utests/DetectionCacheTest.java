@@ -0,0 +1,167 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.UUID;
+
+import loci.formats.ClassList;
+import loci.formats.DetectionCache;
+import loci.formats.IFormatReader;
+import loci.formats.ImageReader;
+import loci.formats.in.FakeReader;
+import loci.formats.in.TiffReader;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link loci.formats.DetectionCache}.
+ */
+public class DetectionCacheTest {
+
+  private static final String TEST_FILE =
+    "test&pixelType=int8&sizeX=20&sizeY=20&sizeC=1&sizeZ=1&sizeT=1.fake";
+
+  private File idDir;
+
+  private File cacheDir;
+
+  private String id;
+
+  private ImageReader reader;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    String uuid = UUID.randomUUID().toString();
+    idDir = new File(System.getProperty("java.io.tmpdir"), uuid);
+    idDir.mkdirs();
+    cacheDir = new File(idDir, "cache");
+    File tempFile = new File(idDir, TEST_FILE);
+    tempFile.createNewFile();
+    id = tempFile.getAbsolutePath();
+
+    ClassList<IFormatReader> classes =
+      new ClassList<IFormatReader>(IFormatReader.class);
+    classes.addClass(FakeReader.class);
+    classes.addClass(TiffReader.class);
+    reader = new ImageReader(classes);
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    reader.close();
+    delete(idDir);
+  }
+
+  @Test
+  public void testNoCache() throws Exception {
+    assertNull(reader.getDetectionCache());
+    assertEquals(FakeReader.class, reader.getReader(id).getClass());
+  }
+
+  @Test
+  public void testMemoryCache() throws Exception {
+    DetectionCache cache = new DetectionCache();
+    reader.setDetectionCache(cache);
+    assertNull(cache.get(id));
+    assertEquals(FakeReader.class, reader.getReader(id).getClass());
+    assertEquals(FakeReader.class.getName(), cache.get(id));
+    assertNull(cache.getCacheFile(id));
+  }
+
+  @Test
+  public void testCachedReaderIsUsed() throws Exception {
+    DetectionCache cache = new DetectionCache();
+    cache.put(id, TiffReader.class);
+    reader.setDetectionCache(cache);
+    assertEquals(TiffReader.class, reader.getReader(id).getClass());
+  }
+
+  @Test
+  public void testChangedFile() throws Exception {
+    DetectionCache cache = new DetectionCache();
+    cache.put(id, TiffReader.class);
+    FileOutputStream out = new FileOutputStream(id);
+    out.write(new byte[16]);
+    out.close();
+    assertNull(cache.get(id));
+
+    reader.setDetectionCache(cache);
+    assertEquals(FakeReader.class, reader.getReader(id).getClass());
+  }
+
+  @Test
+  public void testDiskCache() throws Exception {
+    DetectionCache cache = new DetectionCache(cacheDir);
+    reader.setDetectionCache(cache);
+    reader.getReader(id);
+    File f = cache.getCacheFile(id);
+    assertTrue(f.exists());
+    assertTrue(f.getAbsolutePath().startsWith(cacheDir.getAbsolutePath()));
+
+    DetectionCache reloaded = new DetectionCache(cacheDir);
+    assertEquals(FakeReader.class.getName(), reloaded.get(id));
+
+    reloaded.remove(id);
+    assertTrue(!f.exists());
+  }
+
+  @Test
+  public void testLeastRecentlyUsed() throws Exception {
+    File other = new File(idDir, "other.fake");
+    other.createNewFile();
+    DetectionCache cache = new DetectionCache(1, null);
+    cache.put(id, FakeReader.class);
+    cache.put(other.getAbsolutePath(), FakeReader.class);
+    assertNull(cache.get(id));
+    assertEquals(FakeReader.class.getName(),
+      cache.get(other.getAbsolutePath()));
+  }
+
+  private void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+}
@@ -0,0 +1,229 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests;
+
+import static org.testng.AssertJUnit.*;
+
+import java.util.Arrays;
+
+import loci.common.Location;
+import loci.formats.DimensionSwapper;
+import loci.formats.TileCache;
+import loci.formats.TileCachingReader;
+import loci.formats.in.FakeReader;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for {@link TileCache} and {@link TileCachingReader}.
+ */
+public class TileCacheTest {
+
+  private static final String TEST_FILE =
+    "test&pixelType=uint16&sizeX=100&sizeY=70&sizeC=3&rgb=3&sizeT=2";
+
+  private static final int TILE_SIZE = 32;
+
+  private TileCache cache;
+
+  private TileCachingReader reader;
+
+  private FakeReader fake;
+
+  @BeforeMethod
+  public void setUp() {
+    cache = new TileCache(1024);
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    if (reader != null) {
+      reader.close();
+      reader = null;
+    }
+    if (fake != null) {
+      fake.close();
+      fake = null;
+    }
+  }
+
+  @DataProvider(name = "interleaved")
+  public Object[][] createInterleaved() {
+    return new Object[][] {{true}, {false}};
+  }
+
+  private TileCache.Key key(int col) {
+    return new TileCache.Key("test.fake", 0, 0, "format", 0, 0, 0, col);
+  }
+
+  @Test
+  public void testHitAndMiss() {
+    assertNull(cache.get(key(0)));
+    cache.put(key(0), new byte[100]);
+    assertNotNull(cache.get(key(0)));
+    assertNotNull(cache.get(key(0)));
+    assertEquals(2, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+    assertEquals(100, cache.getSize());
+    assertEquals(1, cache.getTileCount());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEviction() {
+    for (int i=0; i<4; i++) {
+      cache.put(key(i), new byte[256]);
+    }
+    assertEquals(1024, cache.getSize());
+    cache.get(key(0));
+    cache.put(key(4), new byte[256]);
+    assertEquals(1024, cache.getSize());
+    assertEquals(1, cache.getEvictionCount());
+    assertNotNull(cache.get(key(0)));
+    assertNull(cache.get(key(1)));
+    assertNotNull(cache.get(key(4)));
+  }
+
+  @Test
+  public void testOversizedTile() {
+    cache.put(key(0), new byte[256]);
+    cache.put(key(1), new byte[2048]);
+    assertNull(cache.get(key(1)));
+    assertNotNull(cache.get(key(0)));
+    assertEquals(0, cache.getEvictionCount());
+  }
+
+  @Test
+  public void testSetMaxSize() {
+    for (int i=0; i<4; i++) {
+      cache.put(key(i), new byte[256]);
+    }
+    cache.setMaxSize(512);
+    assertEquals(512, cache.getSize());
+    assertEquals(2, cache.getTileCount());
+    assertNotNull(cache.get(key(3)));
+  }
+
+  @Test
+  public void testRemoveFile() {
+    cache.put(key(0), new byte[10]);
+    cache.put(new TileCache.Key("other.fake", 0, 0, "format", 0, 0, 0, 0),
+      new byte[10]);
+    cache.remove("test.fake");
+    assertEquals(1, cache.getTileCount());
+    assertEquals(10, cache.getSize());
+    assertNull(cache.get(key(0)));
+  }
+
+  @Test
+  public void testRewrittenFile() {
+    cache.put(key(0), new byte[10]);
+    assertNull(cache.get(
+      new TileCache.Key("test.fake", 0, 1000, "format", 0, 0, 0, 0)));
+    assertNull(cache.get(
+      new TileCache.Key("test.fake", 20, 0, "format", 0, 0, 0, 0)));
+    assertNotNull(cache.get(key(0)));
+  }
+
+  @Test
+  public void testSwappedDimensions() throws Exception {
+    String id = "test&sizeX=100&sizeY=70&sizeZ=2&sizeT=3.fake";
+    Location.mapId(id, id);
+    TileCache shared = new TileCache(TileCache.DEFAULT_MAX_SIZE);
+    String[] orders = {"XYZCT", "XYTCZ"};
+    for (String order : orders) {
+      DimensionSwapper expected = new DimensionSwapper(new FakeReader());
+      expected.setId(id);
+      expected.setOutputOrder(order);
+      DimensionSwapper swapper = new DimensionSwapper(new TiledFakeReader());
+      reader = new TileCachingReader(swapper, shared);
+      reader.setId(id);
+      swapper.setOutputOrder(order);
+      try {
+        for (int no=0; no<reader.getImageCount(); no++) {
+          assertTrue(Arrays.equals(expected.openBytes(no, 0, 0, 40, 50),
+            reader.openBytes(no, 0, 0, 40, 50)));
+        }
+      }
+      finally {
+        expected.close();
+        reader.close();
+        reader = null;
+      }
+    }
+    assertEquals(0, shared.getHitCount());
+  }
+
+  @Test(dataProvider = "interleaved")
+  public void testRegions(boolean interleaved) throws Exception {
+    String id = TEST_FILE + "&interleaved=" + interleaved + ".fake";
+    Location.mapId(id, id);
+    fake = new FakeReader();
+    fake.setId(id);
+    reader = new TileCachingReader(new TiledFakeReader(),
+      new TileCache(TileCache.DEFAULT_MAX_SIZE));
+    reader.setId(id);
+
+    int[][] regions = {
+      {0, 0, 100, 70}, {5, 7, 40, 50}, {31, 31, 2, 2}, {64, 64, 36, 6},
+      {99, 69, 1, 1}, {0, 33, 100, 1}
+    };
+    for (int no=0; no<reader.getImageCount(); no++) {
+      for (int[] r : regions) {
+        byte[] expected = fake.openBytes(no, r[0], r[1], r[2], r[3]);
+        byte[] actual = reader.openBytes(no, r[0], r[1], r[2], r[3]);
+        assertTrue(Arrays.equals(expected, actual));
+      }
+    }
+    TileCache tiles = reader.getTileCache();
+    assertEquals(2 * 4 * 3, tiles.getTileCount());
+    assertEquals(2 * 4 * 3, tiles.getMissCount());
+    assertTrue(tiles.getHitCount() > 0);
+  }
+
+  /** Fake reader with small tiles, so that regions span several of them. */
+  private static class TiledFakeReader extends FakeReader {
+    @Override
+    public int getOptimalTileWidth() {
+      return TILE_SIZE;
+    }
+
+    @Override
+    public int getOptimalTileHeight() {
+      return TILE_SIZE;
+    }
+  }
+
+}
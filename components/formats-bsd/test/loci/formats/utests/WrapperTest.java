@@ -50,6 +50,7 @@ import loci.formats.IFormatReader;
 import loci.formats.ImageReader;
 import loci.formats.Memoizer;
 import loci.formats.MinMaxCalculator;
+import loci.formats.TileCachingReader;
 
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
@@ -72,7 +73,8 @@ public class WrapperTest {
       {new FileStitcher()},
       {new ImageReader()},
       {new MinMaxCalculator()},
-      {new Memoizer()}
+      {new Memoizer()},
+      {new TileCachingReader()}
     };
     for (int i=0; i<wrappers.length; i++) {
       IFormatReader reader = (IFormatReader) wrappers[i][0];
@@ -0,0 +1,280 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests.tiff;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import loci.formats.FormatException;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.TiffCompression;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link IFD} behaves as a map of tags to values.
+ */
+public class IFDTest {
+
+  private IFD ifd;
+
+  private Map<Integer, Object> expected;
+
+  @BeforeMethod
+  public void setUp() {
+    ifd = new IFD();
+    expected = new HashMap<Integer, Object>();
+    put(IFD.LITTLE_ENDIAN, Boolean.TRUE);
+    put(IFD.IMAGE_WIDTH, 512L);
+    put(IFD.IMAGE_LENGTH, 256);
+    put(IFD.BITS_PER_SAMPLE, new int[] {8, 8, 8});
+    put(IFD.COMPRESSION, TiffCompression.UNCOMPRESSED);
+    put(IFD.ORIENTATION, (short) 1);
+    put(IFD.IMAGE_DESCRIPTION, "comment");
+    put(IFD.STRIP_OFFSETS, new long[] {8, 1024});
+  }
+
+  @Test
+  public void testGet() throws FormatException {
+    assertEquals(expected.size(), ifd.size());
+    for (Integer tag : expected.keySet()) {
+      assertTrue(ifd.containsKey(tag));
+      assertEquals(expected.get(tag), ifd.get(tag));
+      assertEquals(expected.get(tag), ifd.getIFDValue(tag));
+    }
+    assertEquals(Long.class, ifd.get(IFD.IMAGE_WIDTH).getClass());
+    assertEquals(Integer.class, ifd.get(IFD.IMAGE_LENGTH).getClass());
+    assertEquals(Short.class, ifd.get(IFD.ORIENTATION).getClass());
+    assertTrue(ifd.isLittleEndian());
+    assertEquals(512, ifd.getImageWidth());
+    assertNull(ifd.get(IFD.SOFTWARE));
+    assertNull(ifd.get("256"));
+    assertFalse(ifd.containsKey(IFD.SOFTWARE));
+  }
+
+  @Test
+  public void testReplace() {
+    assertEquals(512L, ifd.put(IFD.IMAGE_WIDTH, "wide"));
+    assertEquals("wide", ifd.get(IFD.IMAGE_WIDTH));
+    ifd.putIFDValue(IFD.IMAGE_WIDTH, 1024);
+    assertEquals(1024, ifd.get(IFD.IMAGE_WIDTH));
+    assertEquals(expected.size(), ifd.size());
+  }
+
+  @Test
+  public void testRemove() {
+    assertEquals("comment", ifd.remove(IFD.IMAGE_DESCRIPTION));
+    assertNull(ifd.remove(IFD.IMAGE_DESCRIPTION));
+    expected.remove(IFD.IMAGE_DESCRIPTION);
+    assertEquals(expected, ifd);
+    ifd.clear();
+    assertTrue(ifd.isEmpty());
+  }
+
+  @Test
+  public void testIteration() {
+    int previous = -1;
+    int count = 0;
+    for (Map.Entry<Integer, Object> entry : ifd.entrySet()) {
+      assertTrue(entry.getKey() > previous);
+      assertEquals(expected.get(entry.getKey()), entry.getValue());
+      previous = entry.getKey();
+      count++;
+    }
+    assertEquals(expected.size(), count);
+
+    for (Map.Entry<Integer, Object> entry : ifd.entrySet()) {
+      if (entry.getKey() == IFD.IMAGE_LENGTH) entry.setValue(128);
+    }
+    assertEquals(128, ifd.get(IFD.IMAGE_LENGTH));
+
+    Iterator<Integer> tags = ifd.keySet().iterator();
+    while (tags.hasNext()) {
+      if (tags.next() >= IFD.IMAGE_DESCRIPTION) tags.remove();
+    }
+    assertEquals(5, ifd.size());
+    assertTrue(ifd.values().contains(Boolean.TRUE));
+  }
+
+  @Test(expectedExceptions={ ConcurrentModificationException.class })
+  public void testConcurrentModification() {
+    for (Integer tag : ifd.keySet()) {
+      ifd.putIFDValue(tag + 1, 0);
+    }
+  }
+
+  @Test
+  public void testCopy() {
+    IFD copy = new IFD(ifd);
+    assertEquals(ifd, copy);
+    assertEquals(ifd.hashCode(), copy.hashCode());
+    copy.remove(IFD.IMAGE_WIDTH);
+    assertTrue(ifd.containsKey(IFD.IMAGE_WIDTH));
+    assertEquals(ifd, ifd.clone());
+    assertEquals(new HashMap<Integer, Object>(ifd), ifd);
+  }
+
+  @Test
+  public void testDefaultMethods() {
+    assertEquals("comment", ifd.getOrDefault(IFD.IMAGE_DESCRIPTION, "none"));
+    assertEquals("none", ifd.getOrDefault(IFD.SOFTWARE, "none"));
+    assertEquals(512L, ifd.putIfAbsent(IFD.IMAGE_WIDTH, 1024L));
+    assertNull(ifd.putIfAbsent(IFD.SOFTWARE, "test"));
+    assertEquals("test", ifd.get(IFD.SOFTWARE));
+    assertFalse(ifd.remove(IFD.SOFTWARE, "other"));
+    assertTrue(ifd.remove(IFD.SOFTWARE, "test"));
+    assertFalse(ifd.containsKey(IFD.SOFTWARE));
+    assertFalse(ifd.replace(IFD.IMAGE_LENGTH, 128, 64));
+    assertTrue(ifd.replace(IFD.IMAGE_LENGTH, 256, 64));
+    assertEquals(64, ifd.replace(IFD.IMAGE_LENGTH, 32));
+    assertNull(ifd.replace(IFD.SOFTWARE, "test"));
+    assertEquals(32, ifd.get(IFD.IMAGE_LENGTH));
+    assertEquals(expected.size(), ifd.size());
+  }
+
+  @Test
+  public void testForEach() {
+    final Map<Integer, Object> seen = new HashMap<Integer, Object>();
+    ifd.forEach(new BiConsumer<Integer, Object>() {
+      @Override
+      public void accept(Integer tag, Object value) {
+        seen.put(tag, value);
+      }
+    });
+    assertEquals(expected, seen);
+  }
+
+  @Test
+  public void testReplaceAll() {
+    ifd.replaceAll(new BiFunction<Integer, Object, Object>() {
+      @Override
+      public Object apply(Integer tag, Object value) {
+        return value instanceof Number ? tag : value;
+      }
+    });
+    assertEquals(IFD.IMAGE_WIDTH, ifd.get(IFD.IMAGE_WIDTH));
+    assertEquals(IFD.ORIENTATION, ifd.get(IFD.ORIENTATION));
+    assertEquals("comment", ifd.get(IFD.IMAGE_DESCRIPTION));
+    assertEquals(expected.size(), ifd.size());
+  }
+
+  @Test
+  public void testCompute() {
+    BiFunction<Integer, Object, Object> increment =
+      new BiFunction<Integer, Object, Object>() {
+        @Override
+        public Object apply(Integer tag, Object value) {
+          return value == null ? 1 : ((Number) value).intValue() + 1;
+        }
+      };
+    assertEquals(257, ifd.compute(IFD.IMAGE_LENGTH, increment));
+    assertEquals(1, ifd.compute(IFD.SOFTWARE, increment));
+    assertEquals(2, ifd.computeIfPresent(IFD.SOFTWARE, increment));
+    assertNull(ifd.computeIfPresent(IFD.ARTIST, increment));
+    assertFalse(ifd.containsKey(IFD.ARTIST));
+    assertEquals(2, ifd.get(IFD.SOFTWARE));
+
+    Function<Integer, Object> name = new Function<Integer, Object>() {
+      @Override
+      public Object apply(Integer tag) {
+        return IFD.getIFDTagName(tag);
+      }
+    };
+    assertEquals("comment", ifd.computeIfAbsent(IFD.IMAGE_DESCRIPTION, name));
+    assertEquals("ARTIST", ifd.computeIfAbsent(IFD.ARTIST, name));
+    assertEquals("ARTIST", ifd.get(IFD.ARTIST));
+
+    BiFunction<Integer, Object, Object> discard =
+      new BiFunction<Integer, Object, Object>() {
+        @Override
+        public Object apply(Integer tag, Object value) {
+          return null;
+        }
+      };
+    assertNull(ifd.compute(IFD.ARTIST, discard));
+    assertNull(ifd.computeIfPresent(IFD.SOFTWARE, discard));
+    assertEquals(expected.size(), ifd.size());
+  }
+
+  @Test
+  public void testMerge() {
+    BiFunction<Object, Object, Object> concat =
+      new BiFunction<Object, Object, Object>() {
+        @Override
+        public Object apply(Object a, Object b) {
+          return a == null ? null : a + "," + b;
+        }
+      };
+    assertEquals("comment,more",
+      ifd.merge(IFD.IMAGE_DESCRIPTION, "more", concat));
+    assertEquals("first", ifd.merge(IFD.SOFTWARE, "first", concat));
+    assertEquals("comment,more", ifd.get(IFD.IMAGE_DESCRIPTION));
+    assertEquals(expected.size() + 1, ifd.size());
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(ifd);
+    out.close();
+    ObjectInputStream in = new ObjectInputStream(
+      new ByteArrayInputStream(bytes.toByteArray()));
+    IFD copy = (IFD) in.readObject();
+    in.close();
+    assertEquals(expected.size(), copy.size());
+    assertEquals(512L, copy.get(IFD.IMAGE_WIDTH));
+    assertEquals("comment", copy.get(IFD.IMAGE_DESCRIPTION));
+  }
+
+  private void put(int tag, Object value) {
+    expected.put(tag, value);
+    ifd.put(tag, value);
+  }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests.tiff;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import loci.common.ByteArrayHandle;
+import loci.common.RandomAccessInputStream;
+import loci.common.RandomAccessOutputStream;
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.IFDList;
+import loci.formats.tiff.LazyIFDList;
+import loci.formats.tiff.TiffParser;
+import loci.formats.tiff.TiffSaver;
+
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests that {@link LazyIFDList} reads the same IFDs as
+ * {@link TiffParser#getIFDs()}.
+ */
+public class LazyIFDListTest {
+
+  private static final int IFD_COUNT = 20;
+
+  private static final int CACHE_SIZE = 4;
+
+  /** Every THUMBNAIL_INTERVAL-th IFD of the file with thumbnails is one. */
+  private static final int THUMBNAIL_INTERVAL = 3;
+
+  private TiffParser tiffParser;
+
+  @BeforeMethod
+  public void setUp() throws FormatException, IOException {
+    tiffParser = createParser(IFD_COUNT, false);
+  }
+
+  /**
+   * Writes a TIFF file with the given number of IFDs, of increasing width,
+   * optionally marking every {@link #THUMBNAIL_INTERVAL}-th as a thumbnail.
+   */
+  private TiffParser createParser(int count, boolean thumbnails)
+    throws FormatException, IOException
+  {
+    ByteArrayHandle handle = new ByteArrayHandle();
+    RandomAccessOutputStream out = new RandomAccessOutputStream(handle);
+    TiffSaver tiffSaver = new TiffSaver(out, handle);
+    tiffSaver.setWritingSequentially(true);
+    tiffSaver.writeHeader();
+    for (int i=0; i<count; i++) {
+      IFD ifd = new IFD();
+      ifd.putIFDValue(IFD.IMAGE_WIDTH, 4 + i);
+      ifd.putIFDValue(IFD.IMAGE_LENGTH, 2);
+      ifd.putIFDValue(IFD.LITTLE_ENDIAN, Boolean.FALSE);
+      if (thumbnails && i % THUMBNAIL_INTERVAL == 1) {
+        ifd.putIFDValue(IFD.NEW_SUBFILE_TYPE, 1L);
+      }
+      byte[] plane = new byte[(4 + i) * 2];
+      out.seek(out.length());
+      tiffSaver.writeImage(plane, ifd, i, FormatTools.UINT8,
+        i == count - 1);
+    }
+    out.close();
+
+    handle.seek(0);
+    return new TiffParser(new RandomAccessInputStream(handle));
+  }
+
+  @Test
+  public void testOffsets() throws IOException {
+    long[] offsets = tiffParser.getIFDOffsets();
+    LazyIFDList ifds = new LazyIFDList(tiffParser, CACHE_SIZE);
+    for (int i=0; i<offsets.length; i++) {
+      assertEquals(offsets[i], ifds.getOffset(i));
+    }
+    assertEquals(IFD_COUNT, ifds.size());
+  }
+
+  @Test
+  public void testGet() throws FormatException, IOException {
+    IFDList expected = tiffParser.getIFDs();
+    LazyIFDList ifds = new LazyIFDList(tiffParser, CACHE_SIZE);
+    // read backwards, so that the chain is followed on the first get
+    for (int i=IFD_COUNT - 1; i>=0; i--) {
+      assertEquals(expected.get(i).getImageWidth(),
+        ifds.get(i).getImageWidth());
+      assertTrue(ifds.getCachedCount() <= CACHE_SIZE);
+    }
+    int i = 0;
+    for (IFD ifd : ifds) {
+      assertEquals(4 + i, ifd.getImageWidth());
+      i++;
+    }
+    assertEquals(IFD_COUNT, i);
+  }
+
+  @Test
+  public void testCache() {
+    LazyIFDList ifds = new LazyIFDList(tiffParser, CACHE_SIZE);
+    IFD first = ifds.get(0);
+    assertSame(first, ifds.get(0));
+    for (int i=1; i<=CACHE_SIZE; i++) {
+      ifds.get(i);
+    }
+    assertEquals(CACHE_SIZE, ifds.getCachedCount());
+    assertFalse(first == ifds.get(0));
+  }
+
+  @Test(expectedExceptions={ IndexOutOfBoundsException.class })
+  public void testGetPastEnd() {
+    new LazyIFDList(tiffParser).get(IFD_COUNT);
+  }
+
+  @Test
+  public void testSkipThumbnails() throws FormatException, IOException {
+    TiffParser parser = createParser(IFD_COUNT, true);
+    IFDList expected = parser.getNonThumbnailIFDs();
+    assertTrue(expected.size() < IFD_COUNT);
+    LazyIFDList ifds = parser.getLazyNonThumbnailIFDs();
+    assertEquals(expected.size(), ifds.size());
+    for (int i=0; i<expected.size(); i++) {
+      assertEquals(expected.get(i).getImageWidth(),
+        ifds.getIFD(i).getImageWidth());
+    }
+  }
+
+  @Test
+  public void testSingleThumbnail() throws FormatException, IOException {
+    // a file whose only IFD is a thumbnail still has one image
+    ByteArrayHandle handle = new ByteArrayHandle();
+    RandomAccessOutputStream out = new RandomAccessOutputStream(handle);
+    TiffSaver tiffSaver = new TiffSaver(out, handle);
+    tiffSaver.writeHeader();
+    IFD ifd = new IFD();
+    ifd.putIFDValue(IFD.IMAGE_WIDTH, 4);
+    ifd.putIFDValue(IFD.IMAGE_LENGTH, 2);
+    ifd.putIFDValue(IFD.LITTLE_ENDIAN, Boolean.FALSE);
+    ifd.putIFDValue(IFD.NEW_SUBFILE_TYPE, 1L);
+    tiffSaver.writeImage(new byte[8], ifd, 0, FormatTools.UINT8, true);
+    out.close();
+    handle.seek(0);
+
+    TiffParser parser = new TiffParser(new RandomAccessInputStream(handle));
+    LazyIFDList ifds = parser.getLazyNonThumbnailIFDs();
+    assertEquals(1, ifds.size());
+    assertEquals(4, ifds.getIFD(0).getImageWidth());
+  }
+
+  @Test
+  public void testHasIFD() throws IOException {
+    LazyIFDList ifds = new LazyIFDList(tiffParser, CACHE_SIZE);
+    assertTrue(ifds.hasIFD(0));
+    assertTrue(ifds.hasIFD(IFD_COUNT - 1));
+    assertFalse(ifds.hasIFD(IFD_COUNT));
+    assertEquals(0, ifds.getCachedCount());
+  }
+
+  @Test
+  public void testSerialization() throws FormatException, IOException {
+    LazyIFDList ifds = new LazyIFDList(tiffParser, CACHE_SIZE);
+    ifds.get(2);
+
+    // configured as in Memoizer
+    Kryo kryo = new Kryo();
+    ((Kryo.DefaultInstantiatorStrategy) kryo.getInstantiatorStrategy())
+      .setFallbackInstantiatorStrategy(new StdInstantiatorStrategy());
+    Output output = new Output(1024, -1);
+    kryo.writeObject(output, ifds);
+    assertEquals(1, ifds.getCachedCount());
+
+    LazyIFDList copy = kryo.readObject(
+      new Input(output.toBytes()), LazyIFDList.class);
+    assertEquals(0, copy.getCachedCount());
+    copy.setParser(tiffParser);
+    assertEquals(ifds.getOffset(2), copy.getOffset(2));
+    assertEquals(IFD_COUNT, copy.size());
+    for (int i=0; i<IFD_COUNT; i++) {
+      assertEquals(4 + i, copy.getIFD(i).getImageWidth());
+      assertTrue(copy.getCachedCount() <= CACHE_SIZE);
+    }
+  }
+
+  @Test
+  public void testJava8Methods() throws FormatException {
+    LazyIFDList ifds = new LazyIFDList(tiffParser, CACHE_SIZE);
+    final List<IFD> seen = new ArrayList<IFD>();
+    ifds.forEach(new Consumer<IFD>() {
+      @Override
+      public void accept(IFD ifd) {
+        seen.add(ifd);
+      }
+    });
+    assertEquals(IFD_COUNT, seen.size());
+    assertEquals(4 + IFD_COUNT - 1, seen.get(IFD_COUNT - 1).getImageWidth());
+    assertEquals(IFD_COUNT, ifds.stream().count());
+    assertTrue(ifds.getCachedCount() <= CACHE_SIZE);
+  }
+
+  @Test
+  public void testModify() {
+    LazyIFDList ifds = new LazyIFDList(tiffParser, CACHE_SIZE);
+    ifds.remove(0);
+    assertEquals(IFD_COUNT - 1, ifds.size());
+    assertEquals(IFD_COUNT - 1, ifds.getCachedCount());
+    IFD ifd = ifds.get(0);
+    assertSame(ifd, ifds.get(0));
+  }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests.tiff;
+
+import static org.testng.AssertJUnit.*;
+
+import java.io.File;
+
+import loci.common.services.ServiceFactory;
+import loci.formats.ImageReader;
+import loci.formats.ome.OMEXMLMetadata;
+import loci.formats.out.OMETiffWriter;
+import loci.formats.services.OMEXMLService;
+import loci.formats.tiff.TiffParser;
+
+import ome.xml.model.enums.DimensionOrder;
+import ome.xml.model.enums.PixelType;
+import ome.xml.model.primitives.PositiveInteger;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tests writing multi-file OME-TIFF datasets with a companion file.
+ */
+public class OMETiffWriterCompanionTest {
+
+  public static final int SIZE_X = 16;
+
+  public static final int SIZE_Y = 8;
+
+  public static final int SIZE_Z = 3;
+
+  private File directory;
+
+  private OMEXMLMetadata ms;
+
+  @BeforeClass
+  public void setUp() throws Exception {
+    directory = File.createTempFile("OMETiffWriterCompanionTest", "");
+    directory.delete();
+    directory.mkdir();
+
+    ServiceFactory sf = new ServiceFactory();
+    OMEXMLService service = sf.getInstance(OMEXMLService.class);
+    ms = service.createOMEXMLMetadata();
+    ms.setImageID("Image:0", 0);
+    ms.setPixelsID("Pixels:0", 0);
+    ms.setPixelsDimensionOrder(DimensionOrder.XYZCT, 0);
+    ms.setPixelsSizeX(new PositiveInteger(SIZE_X), 0);
+    ms.setPixelsSizeY(new PositiveInteger(SIZE_Y), 0);
+    ms.setPixelsSizeZ(new PositiveInteger(SIZE_Z), 0);
+    ms.setPixelsSizeC(new PositiveInteger(1), 0);
+    ms.setPixelsSizeT(new PositiveInteger(1), 0);
+    ms.setPixelsType(PixelType.UINT8, 0);
+    ms.setPixelsBinDataBigEndian(true, 0, 0);
+    ms.setChannelID("Channel:0:0", 0, 0);
+    ms.setChannelSamplesPerPixel(new PositiveInteger(1), 0, 0);
+  }
+
+  @AfterClass
+  public void tearDown() throws Exception {
+    for (File f : directory.listFiles()) {
+      f.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testCompanionFile() throws Exception {
+    File companion = new File(directory, "test.companion.ome");
+    byte[] plane = new byte[SIZE_X * SIZE_Y];
+
+    OMETiffWriter writer = new OMETiffWriter();
+    writer.setMetadataRetrieve(ms);
+    writer.setCompanionFile(companion.getAbsolutePath());
+    for (int z=0; z<SIZE_Z; z++) {
+      String file =
+        new File(directory, "test_Z" + z + ".ome.tiff").getAbsolutePath();
+      if (z == 0) {
+        writer.setId(file);
+      }
+      else {
+        writer.changeOutputFile(file);
+      }
+      writer.saveBytes(z, plane);
+    }
+    writer.close();
+
+    assertTrue(companion.exists());
+    for (int z=0; z<SIZE_Z; z++) {
+      File file = new File(directory, "test_Z" + z + ".ome.tiff");
+      String comment = new TiffParser(file.getAbsolutePath()).getComment();
+      assertTrue(comment.contains("BinaryOnly"));
+      assertTrue(comment.contains(companion.getName()));
+    }
+
+    ImageReader reader = new ImageReader();
+    try {
+      reader.setId(companion.getAbsolutePath());
+      assertEquals("OME-TIFF", reader.getFormat());
+      assertEquals(SIZE_Z, reader.getImageCount());
+      assertEquals(SIZE_Z, reader.getUsedFiles(true).length);
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+  @Test(expectedExceptions={IllegalArgumentException.class})
+  public void testInvalidCompanionName() throws Exception {
+    new OMETiffWriter().setCompanionFile("test.ome.xml");
+  }
+}
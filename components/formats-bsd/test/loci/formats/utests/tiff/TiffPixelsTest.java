@@ -35,6 +35,7 @@ package loci.formats.utests.tiff;
 import static org.testng.AssertJUnit.assertEquals;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import loci.common.ByteArrayHandle;
 import loci.common.RandomAccessInputStream;
@@ -153,7 +154,43 @@ public class TiffPixelsTest {
     }
   }
 
-  // -- Helper method --
+  @Test
+  public void testDirectBuffer() throws FormatException, IOException {
+    ifd.put(IFD.COMPRESSION, TiffCompression.LZW.getCode());
+    ByteBuffer plane = ByteBuffer.allocateDirect(data.length + 8);
+    plane.position(3);
+    readSavedPlane(plane, 0, 0, IMAGE_WIDTH, IMAGE_LENGTH);
+    assertEquals(data.length + 3, plane.position());
+    for (int i=0; i<data.length; i++) {
+      assertEquals(data[i], plane.get(i + 3));
+    }
+  }
+
+  @Test
+  public void testBufferRegion() throws FormatException, IOException {
+    ifd.put(IFD.COMPRESSION, TiffCompression.UNCOMPRESSED.getCode());
+    int bpp = BITS_PER_PIXEL / 8;
+    int x = 5, y = 7, w = 11, h = 13;
+    ByteBuffer plane = ByteBuffer.allocateDirect(w * h * bpp);
+    readSavedPlane(plane, x, y, w, h);
+    assertEquals(plane.capacity(), plane.position());
+    for (int row=0; row<h; row++) {
+      for (int col=0; col<w * bpp; col++) {
+        assertEquals(data[((y + row) * IMAGE_WIDTH + x) * bpp + col],
+          plane.get(row * w * bpp + col));
+      }
+    }
+  }
+
+  @Test(expectedExceptions={ FormatException.class })
+  public void testBufferTooSmall() throws FormatException, IOException {
+    ifd.put(IFD.COMPRESSION, TiffCompression.UNCOMPRESSED.getCode());
+    ByteBuffer plane = ByteBuffer.allocate(data.length);
+    plane.position(1);
+    readSavedPlane(plane, 0, 0, IMAGE_WIDTH, IMAGE_LENGTH);
+  }
+
+  // -- Helper methods --
 
   private byte[] readSavedPlane() throws FormatException, IOException {
     ByteArrayHandle savedData = new ByteArrayHandle();
@@ -170,4 +207,18 @@ public class TiffPixelsTest {
     return plane;
   }
 
+  private void readSavedPlane(ByteBuffer plane, int x, int y, int w, int h)
+    throws FormatException, IOException
+  {
+    ByteArrayHandle savedData = new ByteArrayHandle();
+    RandomAccessOutputStream out = new RandomAccessOutputStream(savedData);
+    RandomAccessInputStream in = new RandomAccessInputStream(savedData);
+    TiffSaver saver = new TiffSaver(out, savedData);
+    saver.writeImage(data, ifd, 0, FormatTools.UINT16, false);
+    out.close();
+    TiffParser parser = new TiffParser(in);
+    parser.getSamples(ifd, plane, x, y, w, h);
+    in.close();
+  }
+
 }
@@ -37,12 +37,18 @@ import static org.testng.AssertJUnit.assertFalse;
 import static org.testng.AssertJUnit.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import loci.common.ByteArrayHandle;
 import loci.common.RandomAccessInputStream;
 import loci.common.RandomAccessOutputStream;
 import loci.formats.FormatException;
+import loci.formats.FormatTools;
 import loci.formats.tiff.IFD;
+import loci.formats.tiff.IFDList;
+import loci.formats.tiff.TiffCompression;
 import loci.formats.tiff.TiffParser;
 import loci.formats.tiff.TiffSaver;
 
@@ -163,4 +169,160 @@ public class TiffSaverTest {
     assertTrue("new comment".equals(tiffParser.getComment()));
   }
 
+  @Test
+  public void testConcurrentCompression() throws FormatException, IOException {
+    byte[] plane = new byte[128 * 96];
+    for (int i=0; i<plane.length; i++) {
+      plane[i] = (byte) (i % 128 + i / 1000);
+    }
+    byte[] serial = writeTiledImage(plane, null);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      assertTrue(Arrays.equals(serial, writeTiledImage(plane, executor)));
+    }
+    finally {
+      executor.shutdown();
+    }
+
+    TiffParser parser =
+      new TiffParser(new RandomAccessInputStream(new ByteArrayHandle(serial)));
+    byte[] samples = new byte[plane.length];
+    parser.getSamples(parser.getFirstIFD(), samples);
+    assertTrue(Arrays.equals(plane, samples));
+  }
+
+  @Test
+  public void testWriteSubResolutions() throws FormatException, IOException {
+    int[] widths = {128, 64, 32};
+    int[] heights = {96, 48, 24};
+    byte[][] planes = new byte[widths.length][];
+    for (int r=0; r<planes.length; r++) {
+      planes[r] = new byte[widths[r] * heights[r]];
+      for (int i=0; i<planes[r].length; i++) {
+        planes[r][i] = (byte) (i % 127 + r);
+      }
+    }
+    byte[][] sub = Arrays.copyOfRange(planes, 1, planes.length);
+    int[] subWidths = Arrays.copyOfRange(widths, 1, widths.length);
+    int[] subHeights = Arrays.copyOfRange(heights, 1, heights.length);
+
+    ByteArrayHandle handle = new ByteArrayHandle(INITIAL_CAPACITY);
+    TiffSaver saver =
+      new TiffSaver(new RandomAccessOutputStream(handle), handle);
+    saver.setWritingSequentially(true);
+    saver.writeHeader();
+    for (int no=0; no<2; no++) {
+      IFD plane = new IFD();
+      plane.putIFDValue(IFD.LITTLE_ENDIAN, Boolean.FALSE);
+      plane.putIFDValue(IFD.IMAGE_WIDTH, widths[0]);
+      plane.putIFDValue(IFD.IMAGE_LENGTH, heights[0]);
+      plane.putIFDValue(IFD.TILE_WIDTH, 32);
+      plane.putIFDValue(IFD.TILE_LENGTH, 32);
+      plane.putIFDValue(IFD.COMPRESSION, TiffCompression.LZW.getCode());
+      plane.putIFDValue(IFD.SUB_IFD, new long[sub.length]);
+      saver.writeImage(planes[0], plane, no, FormatTools.UINT8, no == 1);
+      saver.writeSubResolutions(sub, subWidths, subHeights, no,
+        FormatTools.UINT8, no == 1);
+    }
+
+    TiffParser parser = new TiffParser(new RandomAccessInputStream(handle));
+    assertEquals(2, parser.getIFDOffsets().length);
+    IFDList ifds = parser.getIFDs();
+    assertEquals(2 * planes.length, ifds.size());
+    assertEquals(2, parser.getNonThumbnailIFDs().size());
+    for (int i=0; i<ifds.size(); i++) {
+      int r = i % planes.length;
+      IFD ifd = ifds.get(i);
+      assertEquals(widths[r], ifd.getImageWidth());
+      assertEquals(heights[r], ifd.getImageLength());
+      Number subfileType = (Number) ifd.getIFDValue(IFD.NEW_SUBFILE_TYPE);
+      assertEquals(r > 0, subfileType != null && subfileType.intValue() == 1);
+      byte[] samples = new byte[planes[r].length];
+      parser.getSamples(ifd, samples);
+      assertTrue(Arrays.equals(planes[r], samples));
+    }
+  }
+
+  @Test
+  public void testWriteSubResolutionsAfterLaterPlanes()
+    throws FormatException, IOException
+  {
+    int[] widths = {64, 32};
+    int[] heights = {48, 24};
+    byte[][] planes = new byte[widths.length][];
+    for (int r=0; r<planes.length; r++) {
+      planes[r] = new byte[widths[r] * heights[r]];
+      for (int i=0; i<planes[r].length; i++) {
+        planes[r][i] = (byte) (i % 127 + r);
+      }
+    }
+    byte[][] sub = {planes[1]};
+    int[] subWidths = {widths[1]};
+    int[] subHeights = {heights[1]};
+
+    ByteArrayHandle handle = new ByteArrayHandle(INITIAL_CAPACITY);
+    RandomAccessOutputStream stream = new RandomAccessOutputStream(handle);
+    TiffSaver saver = new TiffSaver(stream, handle);
+    saver.setWritingSequentially(true);
+    saver.writeHeader();
+    IFD[] ifds = new IFD[3];
+    for (int no=0; no<ifds.length; no++) {
+      ifds[no] = new IFD();
+      ifds[no].putIFDValue(IFD.LITTLE_ENDIAN, Boolean.FALSE);
+      ifds[no].putIFDValue(IFD.IMAGE_WIDTH, widths[0]);
+      ifds[no].putIFDValue(IFD.IMAGE_LENGTH, heights[0]);
+      ifds[no].putIFDValue(IFD.SUB_IFD, new long[1]);
+    }
+
+    // the SubIFDs of each plane are written after the next plane; as in
+    // TiffWriter, each plane is appended to the end of the file
+    saver.writeImage(planes[0], ifds[0], 0, FormatTools.UINT8, false);
+    stream.seek(stream.length());
+    saver.writeImage(planes[0], ifds[1], 1, FormatTools.UINT8, false);
+    saver.writeSubResolutions(sub, subWidths, subHeights, 0,
+      FormatTools.UINT8, false);
+    stream.seek(stream.length());
+    saver.writeImage(planes[0], ifds[2], 2, FormatTools.UINT8, true);
+    saver.writeSubResolutions(sub, subWidths, subHeights, 1,
+      FormatTools.UINT8, false);
+    saver.writeSubResolutions(sub, subWidths, subHeights, 2,
+      FormatTools.UINT8, true);
+
+    TiffParser parser = new TiffParser(new RandomAccessInputStream(handle));
+    assertEquals(3, parser.getIFDOffsets().length);
+    IFDList all = parser.getIFDs();
+    assertEquals(6, all.size());
+    assertEquals(3, parser.getNonThumbnailIFDs().size());
+    for (int i=0; i<all.size(); i++) {
+      int r = i % planes.length;
+      IFD ifd = all.get(i);
+      assertEquals(widths[r], ifd.getImageWidth());
+      byte[] samples = new byte[planes[r].length];
+      parser.getSamples(ifd, samples);
+      assertTrue(Arrays.equals(planes[r], samples));
+    }
+  }
+
+  /** Writes an LZW-compressed tiled image, returning the file's bytes. */
+  private byte[] writeTiledImage(byte[] plane, ExecutorService executor)
+    throws FormatException, IOException
+  {
+    IFD tiled = new IFD();
+    tiled.putIFDValue(IFD.LITTLE_ENDIAN, Boolean.FALSE);
+    tiled.putIFDValue(IFD.IMAGE_WIDTH, 128);
+    tiled.putIFDValue(IFD.IMAGE_LENGTH, 96);
+    tiled.putIFDValue(IFD.TILE_WIDTH, 32);
+    tiled.putIFDValue(IFD.TILE_LENGTH, 32);
+    tiled.putIFDValue(IFD.COMPRESSION, TiffCompression.LZW.getCode());
+
+    ByteArrayHandle handle = new ByteArrayHandle(INITIAL_CAPACITY);
+    TiffSaver saver =
+      new TiffSaver(new RandomAccessOutputStream(handle), handle);
+    saver.setWritingSequentially(true);
+    saver.setCompressExecutor(executor);
+    saver.writeHeader();
+    saver.writeImage(plane, tiled, 0, FormatTools.UINT8, true);
+    return Arrays.copyOf(handle.getBytes(), (int) handle.length());
+  }
+
 }
@@ -0,0 +1,189 @@
+/*
+ * #%L
+ * BSD implementations of Bio-Formats readers and writers
+ * %%
+ * Copyright (C) 2005 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package loci.formats.utests.tiff;
+
+import static org.testng.AssertJUnit.*;
+
+import java.io.File;
+import java.util.Arrays;
+
+import loci.common.services.ServiceFactory;
+import loci.formats.FormatException;
+import loci.formats.ome.OMEXMLMetadata;
+import loci.formats.out.TiffWriter;
+import loci.formats.services.OMEXMLService;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.IFDList;
+import loci.formats.tiff.TiffParser;
+
+import ome.xml.model.enums.DimensionOrder;
+import ome.xml.model.enums.PixelType;
+import ome.xml.model.primitives.PositiveInteger;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests writing reduced resolutions as SubIFDs with {@link TiffWriter}.
+ */
+public class TiffWriterTest {
+
+  public static final int SIZE_X = 64;
+
+  public static final int SIZE_Y = 48;
+
+  public static final int SIZE_Z = 3;
+
+  public static final int RESOLUTIONS = 3;
+
+  private File target;
+
+  private OMEXMLMetadata ms;
+
+  @BeforeMethod
+  public void setUp() throws Exception {
+    target = File.createTempFile("TiffWriterTest", ".tiff");
+
+    ServiceFactory sf = new ServiceFactory();
+    OMEXMLService service = sf.getInstance(OMEXMLService.class);
+    ms = service.createOMEXMLMetadata();
+    ms.setImageID("Image:0", 0);
+    ms.setPixelsID("Pixels:0", 0);
+    ms.setPixelsDimensionOrder(DimensionOrder.XYZCT, 0);
+    ms.setPixelsSizeX(new PositiveInteger(SIZE_X), 0);
+    ms.setPixelsSizeY(new PositiveInteger(SIZE_Y), 0);
+    ms.setPixelsSizeZ(new PositiveInteger(SIZE_Z), 0);
+    ms.setPixelsSizeC(new PositiveInteger(1), 0);
+    ms.setPixelsSizeT(new PositiveInteger(1), 0);
+    ms.setPixelsType(PixelType.UINT8, 0);
+    ms.setPixelsBinDataBigEndian(true, 0, 0);
+    ms.setChannelID("Channel:0:0", 0, 0);
+    ms.setChannelSamplesPerPixel(new PositiveInteger(1), 0, 0);
+  }
+
+  @AfterMethod
+  public void tearDown() throws Exception {
+    target.delete();
+  }
+
+  @Test
+  public void testResolutionsWrittenAfterLaterPlanes() throws Exception {
+    TiffWriter writer = new TiffWriter();
+    writer.setMetadataRetrieve(ms);
+    writer.setResolutionCount(RESOLUTIONS);
+    writer.setGenerateResolutions(false);
+    writer.setId(target.getAbsolutePath());
+    for (int z=0; z<SIZE_Z; z++) {
+      writer.saveBytes(z, getPlane(0, z));
+    }
+
+    // the resolutions of the first plane are complete once the last
+    // plane has been written
+    for (int r=1; r<RESOLUTIONS; r++) {
+      writer.setResolution(r);
+      writer.saveBytes(0, getPlane(r, 0), 0, 0, getWidth(r), getHeight(r));
+    }
+
+    // the resolutions of the other planes are written when the writer is
+    // closed, with the missing resolution left blank
+    writer.setResolution(1);
+    writer.saveBytes(1, getPlane(1, 1), 0, 0, getWidth(1), getHeight(1));
+    writer.close();
+
+    TiffParser parser = new TiffParser(target.getAbsolutePath());
+    try {
+      long[] offsets = parser.getIFDOffsets();
+      assertEquals(SIZE_Z, offsets.length);
+      IFDList ifds = parser.getIFDs();
+      assertEquals(SIZE_Z * RESOLUTIONS, ifds.size());
+      for (int z=0; z<SIZE_Z; z++) {
+        IFD ifd = parser.getIFD(offsets[z]);
+        assertEquals(RESOLUTIONS - 1,
+          ifd.getIFDLongArray(IFD.SUB_IFD).length);
+        for (int r=0; r<RESOLUTIONS; r++) {
+          IFD resolution = ifds.get(z * RESOLUTIONS + r);
+          assertEquals(getWidth(r), resolution.getImageWidth());
+          assertEquals(getHeight(r), resolution.getImageLength());
+
+          byte[] samples = new byte[getWidth(r) * getHeight(r)];
+          parser.getSamples(resolution, samples);
+          if (r == 0 || z == 0 || (z == 1 && r == 1)) {
+            assertTrue(Arrays.equals(getPlane(r, z), samples));
+          }
+          else {
+            assertTrue(Arrays.equals(new byte[samples.length], samples));
+          }
+        }
+      }
+    }
+    finally {
+      parser.getStream().close();
+    }
+  }
+
+  @Test(expectedExceptions=FormatException.class)
+  public void testOversizedResolutionRejected() throws Exception {
+    // the first reduced resolution of a 100000 x 100000 plane is 2.5 GB
+    ms.setPixelsSizeX(new PositiveInteger(100000), 0);
+    ms.setPixelsSizeY(new PositiveInteger(100000), 0);
+    ms.setPixelsSizeZ(new PositiveInteger(1), 0);
+    TiffWriter writer = new TiffWriter();
+    writer.setMetadataRetrieve(ms);
+    writer.setResolutionCount(2);
+    writer.setId(target.getAbsolutePath());
+    try {
+      writer.saveBytes(0, new byte[SIZE_X * SIZE_Y], 0, 0, SIZE_X, SIZE_Y);
+    }
+    finally {
+      writer.close();
+    }
+  }
+
+  private int getWidth(int resolution) {
+    return SIZE_X >> resolution;
+  }
+
+  private int getHeight(int resolution) {
+    return SIZE_Y >> resolution;
+  }
+
+  private byte[] getPlane(int resolution, int z) {
+    byte[] plane = new byte[getWidth(resolution) * getHeight(resolution)];
+    for (int i=0; i<plane.length; i++) {
+      plane[i] = (byte) (i % 101 + resolution * 7 + z * 13 + 1);
+    }
+    return plane;
+  }
+
+}
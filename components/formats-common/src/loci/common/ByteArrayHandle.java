@@ -43,7 +43,9 @@ import java.nio.ByteOrder;
  *
  * @see IRandomAccess
  */
-public class ByteArrayHandle extends AbstractNIOHandle {
+public class ByteArrayHandle extends AbstractNIOHandle
+  implements IPositionalAccess
+{
 
   // -- Constants --
 
@@ -173,6 +175,21 @@ public class ByteArrayHandle extends AbstractNIOHandle {
     return len;
   }
 
+  /* @see IPositionalAccess.read(long, byte[], int, int) */
+  @Override
+  public int read(long pos, byte[] b, int off, int len) throws IOException {
+    if (pos >= length()) {
+      return len == 0 ? 0 : -1;
+    }
+    if (pos + len > length()) {
+      len = (int) (length() - pos);
+    }
+    ByteBuffer view = buffer.duplicate();
+    view.position((int) pos);
+    view.get(b, off, len);
+    return len;
+  }
+
   /* @see IRandomAccess.seek(long) */
   @Override
   public void seek(long pos) throws IOException {
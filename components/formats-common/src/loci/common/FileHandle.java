@@ -38,6 +38,7 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 
 /**
  * A wrapper for RandomAccessFile that implements the IRandomAccess interface.
@@ -47,7 +48,7 @@ import java.nio.ByteOrder;
  *
  * @author Curtis Rueden ctrueden at wisc.edu
  */
-public class FileHandle implements IRandomAccess {
+public class FileHandle implements IRandomAccess, IPositionalAccess {
 
   // -- Fields --
 
@@ -124,6 +125,23 @@ public class FileHandle implements IRandomAccess {
     return n;
   }
 
+  /* @see IPositionalAccess.read(long, byte[], int, int) */
+  @Override
+  public int read(long pos, byte[] b, int off, int len) throws IOException {
+    long remaining = length() - pos;
+    if (remaining <= 0) {
+      return len == 0 ? 0 : -1;
+    }
+    int realLength = (int) Math.min(len, remaining);
+    ByteBuffer dst = ByteBuffer.wrap(b, off, realLength);
+    FileChannel channel = raf.getChannel();
+    while (dst.hasRemaining()) {
+      int n = channel.read(dst, pos + dst.position() - off);
+      if (n < 0) break;
+    }
+    return dst.position() - off;
+  }
+
   /* @see IRandomAccess.seek(long) */
   @Override
   public void seek(long pos) throws IOException {
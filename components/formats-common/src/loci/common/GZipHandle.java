@@ -38,6 +38,9 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.zip.GZIPInputStream;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 /**
  * StreamHandle implementation for reading from gzip-compressed files
  * or byte arrays.  Instances of GZipHandle are read-only.
@@ -48,6 +51,25 @@ import java.util.zip.GZIPInputStream;
  */
 public class GZipHandle extends StreamHandle {
 
+  // -- Constants --
+
+  /** Logger for this class. */
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(GZipHandle.class);
+
+  // -- Static fields --
+
+  /** Distance in uncompressed bytes between access points. */
+  protected static long indexSpan = GZipIndex.DEFAULT_SPAN;
+
+  /** Whether or not access point indexes are saved next to the file. */
+  protected static boolean saveIndex = false;
+
+  // -- Fields --
+
+  /** Access points used to resume decompression when seeking. */
+  private GZipIndex index;
+
   // -- Constructor --
 
   /**
@@ -62,20 +84,67 @@ public class GZipHandle extends StreamHandle {
       throw new HandleException(file + " is not a gzip file.");
     }
 
+    try {
+      index = GZipIndex.load(file);
+    }
+    catch (IOException e) {
+      LOGGER.debug("Could not read gzip index for {}", file, e);
+    }
+    if (index == null) {
+      try {
+        index = GZipIndex.build(file, indexSpan);
+        if (saveIndex) {
+          try {
+            index.save(file);
+          }
+          catch (IOException e) {
+            LOGGER.debug("Could not save gzip index for {}", file, e);
+          }
+        }
+      }
+      catch (IOException e) {
+        LOGGER.debug("Could not index {}", file, e);
+      }
+    }
+
     resetStream();
 
-    length = 0;
-    while (true) {
-      int skip = stream.skipBytes(1024);
-      if (skip <= 0) break;
-      length += skip;
+    if (index != null) {
+      length = index.getLength();
     }
+    else {
+      length = 0;
+      while (true) {
+        int skip = stream.skipBytes(1024);
+        if (skip <= 0) break;
+        length += skip;
+      }
 
-    resetStream();
+      resetStream();
+    }
   }
 
   // -- GZipHandle API methods --
 
+  /**
+   * Set the distance in uncompressed bytes between the access points
+   * recorded when a file is opened.
+   *
+   * Larger spans use less memory, but make seeking slower.
+   */
+  public static void setIndexSpan(long span) {
+    indexSpan = span;
+  }
+
+  /**
+   * Set whether or not the access points recorded when a file is opened
+   * are saved next to the file, so that subsequent GZipHandles for the
+   * same file do not need to decompress it before the first seek.
+   */
+  public static void setSaveIndex(boolean save) {
+    saveIndex = save;
+  }
+
   /** Returns true if the given filename is a gzip file. */
   public static boolean isGZipFile(String file) throws IOException {
     if (!file.toLowerCase().endsWith(".gz")) return false;
@@ -87,6 +156,25 @@ public class GZipHandle extends StreamHandle {
     return DataTools.bytesToInt(b, true) == GZIPInputStream.GZIP_MAGIC;
   }
 
+  // -- IRandomAccess API methods --
+
+  /* @see IRandomAccess#seek(long) */
+  @Override
+  public void seek(long pos) throws IOException {
+    if (index != null) {
+      // resume from the nearest access point if it is closer than the
+      // current position
+      int point = index.getAccessPoint(pos);
+      long offset = index.getOffset(point);
+      if (pos < fp || offset > fp) {
+        if (stream != null) stream.close();
+        stream = new DataInputStream(index.open(file, point));
+        fp = offset;
+      }
+    }
+    super.seek(pos);
+  }
+
   // -- StreamHandle API methods --
 
   /* @see StreamHandle#resetStream() */
@@ -0,0 +1,688 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package loci.common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Index of access points into a gzip-compressed file, in the manner of
+ * zlib's zran example.  Each access point records the bit offset of a
+ * deflate block boundary in the compressed file, the corresponding offset
+ * in the uncompressed data, and the 32 KB of uncompressed data preceding
+ * it; decompression can then be resumed from the nearest access point
+ * instead of from the start of the file.
+ *
+ * java.util.zip.Inflater cannot report block boundaries, so the index is
+ * built by a small stand-alone inflater that decodes the whole file once
+ * without retaining its output.
+ *
+ * @see GZipHandle
+ */
+public class GZipIndex {
+
+  // -- Constants --
+
+  /** Default distance in uncompressed bytes between access points. */
+  public static final long DEFAULT_SPAN = 4 * 1024 * 1024;
+
+  /** Size of the deflate sliding window. */
+  private static final int WINDOW_SIZE = 32768;
+
+  /** Magic number at the start of a saved index ("GZIX"). */
+  private static final int MAGIC = 0x475a4958;
+
+  /** Version of the saved index format. */
+  private static final int VERSION = 1;
+
+  /** Size of the buffer used when reading compressed data. */
+  private static final int BUFFER_SIZE = 65536;
+
+  private static final int[] LENGTH_BASE = {3, 4, 5, 6, 7, 8, 9, 10, 11, 13,
+    15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195,
+    227, 258};
+  private static final int[] LENGTH_EXTRA = {0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1,
+    1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0};
+  private static final int[] DISTANCE_BASE = {1, 2, 3, 4, 5, 7, 9, 13, 17, 25,
+    33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097,
+    6145, 8193, 12289, 16385, 24577};
+  private static final int[] DISTANCE_EXTRA = {0, 0, 0, 0, 1, 1, 2, 2, 3, 3,
+    4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13};
+  private static final int[] CODE_LENGTH_ORDER = {16, 17, 18, 0, 8, 7, 9, 6,
+    10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15};
+
+  private static final Huffman FIXED_LITERALS;
+  private static final Huffman FIXED_DISTANCES;
+
+  static {
+    int[] lengths = new int[288];
+    for (int i=0; i<lengths.length; i++) {
+      lengths[i] = i < 144 ? 8 : i < 256 ? 9 : i < 280 ? 7 : 8;
+    }
+    int[] distances = new int[30];
+    for (int i=0; i<distances.length; i++) {
+      distances[i] = 5;
+    }
+    try {
+      FIXED_LITERALS = new Huffman(lengths, 0, lengths.length);
+      FIXED_DISTANCES = new Huffman(distances, 0, distances.length);
+    }
+    catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // -- Fields --
+
+  /** Length in bytes of the uncompressed data. */
+  private long length;
+
+  /** Length in bytes of the indexed gzip file. */
+  private long sourceLength;
+
+  /** Last modification time of the indexed gzip file. */
+  private long sourceModified;
+
+  /** Access points, in increasing order of uncompressed offset. */
+  private List<AccessPoint> points = new ArrayList<AccessPoint>();
+
+  // -- Constructor --
+
+  private GZipIndex() { }
+
+  // -- GZipIndex API methods --
+
+  /**
+   * Builds an index for the given gzip file, with access points roughly
+   * every <code>span</code> bytes of uncompressed data.
+   *
+   * @throws IOException if the file cannot be read or is not a valid
+   *   gzip file.
+   */
+  public static GZipIndex build(String file, long span) throws IOException {
+    File f = new File(file);
+    GZipIndex index = new GZipIndex();
+    index.sourceLength = f.length();
+    index.sourceModified = f.lastModified();
+
+    InputStream in = new FileInputStream(f);
+    try {
+      new Scanner(in, index, span).scan();
+    }
+    finally {
+      in.close();
+    }
+    return index;
+  }
+
+  /**
+   * Reads a previously saved index for the given gzip file.
+   *
+   * @return the index, or null if no index has been saved, or if the saved
+   *   index does not match the current state of the file.
+   */
+  public static GZipIndex load(String file) throws IOException {
+    File f = new File(file);
+    File indexFile = getIndexFile(file);
+    if (!indexFile.exists()) return null;
+
+    DataInputStream in = new DataInputStream(new BufferedInputStream(
+      new InflaterInputStream(new FileInputStream(indexFile))));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+      GZipIndex index = new GZipIndex();
+      index.sourceLength = in.readLong();
+      index.sourceModified = in.readLong();
+      if (index.sourceLength != f.length() ||
+        index.sourceModified != f.lastModified())
+      {
+        return null;
+      }
+      index.length = in.readLong();
+      int count = in.readInt();
+      for (int i=0; i<count; i++) {
+        AccessPoint point = new AccessPoint();
+        point.out = in.readLong();
+        point.in = in.readLong();
+        point.memberStart = in.readBoolean();
+        point.window = new byte[in.readInt()];
+        in.readFully(point.window);
+        index.points.add(point);
+      }
+      return index;
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Writes this index next to the given gzip file, so that it can be
+   * retrieved with {@link #load(String)}.
+   */
+  public void save(String file) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+      new DeflaterOutputStream(new FileOutputStream(getIndexFile(file)))));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(sourceLength);
+      out.writeLong(sourceModified);
+      out.writeLong(length);
+      out.writeInt(points.size());
+      for (AccessPoint point : points) {
+        out.writeLong(point.out);
+        out.writeLong(point.in);
+        out.writeBoolean(point.memberStart);
+        out.writeInt(point.window.length);
+        out.write(point.window);
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  /** Returns the file in which the index for the given file is saved. */
+  public static File getIndexFile(String file) {
+    File f = new File(file).getAbsoluteFile();
+    return new File(f.getParent(), "." + f.getName() + ".bfgzi");
+  }
+
+  /** Returns the length in bytes of the uncompressed data. */
+  public long getLength() {
+    return length;
+  }
+
+  /** Returns the number of access points in this index. */
+  public int getAccessPointCount() {
+    return points.size();
+  }
+
+  /**
+   * Returns the uncompressed offset at which decompression resumes when
+   * opening the given access point.
+   */
+  public long getOffset(int point) {
+    return points.get(point).out;
+  }
+
+  /**
+   * Returns the index of the last access point at or before the given
+   * uncompressed offset.
+   */
+  public int getAccessPoint(long offset) {
+    int low = 0;
+    int high = points.size() - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (points.get(mid).out <= offset) low = mid;
+      else high = mid - 1;
+    }
+    return low;
+  }
+
+  /**
+   * Opens a stream of uncompressed data from the given file, starting at
+   * the offset of the given access point.
+   */
+  public InputStream open(String file, int point) throws IOException {
+    return new IndexedInflaterStream(file, point);
+  }
+
+  // -- Helper classes --
+
+  /** A position from which decompression can be resumed. */
+  private static class AccessPoint {
+    /** Offset into the uncompressed data. */
+    public long out;
+    /** Offset in bits into the compressed file. */
+    public long in;
+    /** True if this is the start of a gzip member. */
+    public boolean memberStart;
+    /** Uncompressed data preceding this access point. */
+    public byte[] window;
+  }
+
+  /** Canonical Huffman code, decoded with a single lookup table. */
+  private static class Huffman {
+    /** Length in bits of the longest code. */
+    public int maxLength;
+    /** Entries are (symbol << 4) | code length, indexed by reversed code. */
+    public int[] table;
+
+    public Huffman(int[] lengths, int offset, int count) throws IOException {
+      int[] counts = new int[16];
+      for (int i=0; i<count; i++) {
+        counts[lengths[offset + i]]++;
+        maxLength = Math.max(maxLength, lengths[offset + i]);
+      }
+      counts[0] = 0;
+      int left = 1;
+      for (int len=1; len<16; len++) {
+        left = (left << 1) - counts[len];
+        if (left < 0) throw new IOException("Over-subscribed Huffman code");
+      }
+
+      int[] next = new int[16];
+      int code = 0;
+      for (int len=1; len<16; len++) {
+        code = (code + counts[len - 1]) << 1;
+        next[len] = code;
+      }
+
+      table = new int[1 << maxLength];
+      for (int symbol=0; symbol<count; symbol++) {
+        int len = lengths[offset + symbol];
+        if (len == 0) continue;
+        int c = next[len]++;
+        int reversed = 0;
+        for (int b=0; b<len; b++) {
+          reversed = (reversed << 1) | ((c >>> b) & 1);
+        }
+        int entry = (symbol << 4) | len;
+        for (int i=reversed; i<table.length; i+=1 << len) {
+          table[i] = entry;
+        }
+      }
+    }
+  }
+
+  /**
+   * Decodes a gzip stream in a single pass, recording access points and
+   * the uncompressed length.
+   */
+  private static class Scanner {
+    private InputStream in;
+    private GZipIndex index;
+    private long span;
+
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int bufferPos, bufferLength;
+    /** Number of compressed bytes moved into the bit buffer. */
+    private long consumed;
+    private long bits;
+    private int bitCount;
+
+    private byte[] window = new byte[WINDOW_SIZE];
+    private int windowPos;
+    /** Number of uncompressed bytes produced. */
+    private long total;
+    /** Uncompressed offset of the current member. */
+    private long memberOffset;
+
+    public Scanner(InputStream in, GZipIndex index, long span) {
+      this.in = in;
+      this.index = index;
+      this.span = span;
+    }
+
+    public void scan() throws IOException {
+      do {
+        readHeader();
+        memberOffset = total;
+        addAccessPoint(true);
+        boolean last;
+        do {
+          AccessPoint previous = index.points.get(index.points.size() - 1);
+          if (total - previous.out >= span) {
+            addAccessPoint(false);
+          }
+          last = getBits(1) == 1;
+          int type = getBits(2);
+          if (type == 0) inflateStored();
+          else if (type == 1) inflateCodes(FIXED_LITERALS, FIXED_DISTANCES);
+          else if (type == 2) inflateDynamic();
+          else throw new IOException("Invalid deflate block type");
+        }
+        while (!last);
+
+        // the trailer holds the CRC-32 and the member length modulo 2^32
+        alignToByte();
+        getBits(16);
+        getBits(16);
+        long size = getBits(16) | ((long) getBits(16) << 16);
+        if (size != ((total - memberOffset) & 0xffffffffL)) {
+          throw new IOException("Incorrect gzip member length");
+        }
+      }
+      while (nextMember());
+      index.length = total;
+    }
+
+    private void addAccessPoint(boolean memberStart) {
+      AccessPoint point = new AccessPoint();
+      point.out = total;
+      point.in = consumed * 8 - bitCount;
+      point.memberStart = memberStart;
+      int n = memberStart ? 0 : (int) Math.min(WINDOW_SIZE, total);
+      point.window = new byte[n];
+      int start = (windowPos - n) & (WINDOW_SIZE - 1);
+      int tail = Math.min(n, WINDOW_SIZE - start);
+      System.arraycopy(window, start, point.window, 0, tail);
+      System.arraycopy(window, 0, point.window, tail, n - tail);
+      index.points.add(point);
+    }
+
+    /** Returns true if another gzip member follows the current one. */
+    private boolean nextMember() throws IOException {
+      if (!fill(16) || bitCount < 16) return false;
+      return (bits & 0xffff) == 0x8b1f;
+    }
+
+    private void readHeader() throws IOException {
+      if (getBits(16) != 0x8b1f || getBits(8) != 8) {
+        throw new IOException("Not a gzip stream");
+      }
+      int flags = getBits(8);
+      getBits(16);
+      getBits(16);
+      getBits(16);
+      if ((flags & 4) != 0) {
+        int extra = getBits(16);
+        for (int i=0; i<extra; i++) getBits(8);
+      }
+      if ((flags & 8) != 0) {
+        while (getBits(8) != 0);
+      }
+      if ((flags & 16) != 0) {
+        while (getBits(8) != 0);
+      }
+      if ((flags & 2) != 0) getBits(16);
+    }
+
+    private void inflateStored() throws IOException {
+      alignToByte();
+      int len = getBits(16);
+      int complement = getBits(16);
+      if (len != (~complement & 0xffff)) {
+        throw new IOException("Invalid stored block length");
+      }
+      for (int i=0; i<len; i++) {
+        output((byte) getBits(8));
+      }
+    }
+
+    private void inflateDynamic() throws IOException {
+      int literals = getBits(5) + 257;
+      int distances = getBits(5) + 1;
+      int codes = getBits(4) + 4;
+
+      int[] lengths = new int[19];
+      for (int i=0; i<codes; i++) {
+        lengths[CODE_LENGTH_ORDER[i]] = getBits(3);
+      }
+      Huffman lengthCode = new Huffman(lengths, 0, lengths.length);
+
+      lengths = new int[literals + distances];
+      int i = 0;
+      while (i < lengths.length) {
+        int symbol = decode(lengthCode);
+        if (symbol < 16) {
+          lengths[i++] = symbol;
+          continue;
+        }
+        int value = 0;
+        int repeat;
+        if (symbol == 16) {
+          if (i == 0) throw new IOException("Invalid code length repeat");
+          value = lengths[i - 1];
+          repeat = 3 + getBits(2);
+        }
+        else if (symbol == 17) repeat = 3 + getBits(3);
+        else repeat = 11 + getBits(7);
+        if (i + repeat > lengths.length) {
+          throw new IOException("Too many code lengths");
+        }
+        while (repeat-- > 0) lengths[i++] = value;
+      }
+      if (lengths[256] == 0) {
+        throw new IOException("Missing end-of-block code");
+      }
+
+      inflateCodes(new Huffman(lengths, 0, literals),
+        new Huffman(lengths, literals, distances));
+    }
+
+    private void inflateCodes(Huffman literals, Huffman distances)
+      throws IOException
+    {
+      while (true) {
+        int symbol = decode(literals);
+        if (symbol < 256) {
+          output((byte) symbol);
+          continue;
+        }
+        if (symbol == 256) return;
+        symbol -= 257;
+        if (symbol >= LENGTH_BASE.length) {
+          throw new IOException("Invalid length code");
+        }
+        int len = LENGTH_BASE[symbol] + getBits(LENGTH_EXTRA[symbol]);
+        symbol = decode(distances);
+        if (symbol >= DISTANCE_BASE.length) {
+          throw new IOException("Invalid distance code");
+        }
+        int distance = DISTANCE_BASE[symbol] + getBits(DISTANCE_EXTRA[symbol]);
+        if (distance > total - memberOffset) {
+          throw new IOException("Distance too far back");
+        }
+        for (int i=0; i<len; i++) {
+          window[windowPos] = window[(windowPos - distance) & (WINDOW_SIZE - 1)];
+          windowPos = (windowPos + 1) & (WINDOW_SIZE - 1);
+        }
+        total += len;
+      }
+    }
+
+    private void output(byte b) {
+      window[windowPos] = b;
+      windowPos = (windowPos + 1) & (WINDOW_SIZE - 1);
+      total++;
+    }
+
+    private int decode(Huffman code) throws IOException {
+      fill(code.maxLength);
+      if (code.maxLength == 0) throw new IOException("Empty Huffman code");
+      int entry = code.table[(int) (bits & ((1 << code.maxLength) - 1))];
+      int len = entry & 15;
+      if (len == 0) throw new IOException("Invalid Huffman code");
+      if (len > bitCount) throw new EOFException();
+      bits >>>= len;
+      bitCount -= len;
+      return entry >>> 4;
+    }
+
+    private int getBits(int n) throws IOException {
+      if (!fill(n)) throw new EOFException();
+      int value = (int) (bits & ((1L << n) - 1));
+      bits >>>= n;
+      bitCount -= n;
+      return value;
+    }
+
+    private void alignToByte() {
+      bits >>>= bitCount & 7;
+      bitCount -= bitCount & 7;
+    }
+
+    /**
+     * Ensures that at least n bits are buffered.
+     * @return false if the end of the stream was reached first
+     */
+    private boolean fill(int n) throws IOException {
+      while (bitCount < n) {
+        if (bufferPos == bufferLength) {
+          bufferLength = in.read(buffer);
+          bufferPos = 0;
+          if (bufferLength <= 0) {
+            bufferLength = 0;
+            return false;
+          }
+        }
+        bits |= (long) (buffer[bufferPos++] & 0xff) << bitCount;
+        bitCount += 8;
+        consumed++;
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Stream of uncompressed data that starts from an access point.  The
+   * compressed data is shifted as it is read so that the Inflater sees a
+   * byte-aligned raw deflate stream.
+   */
+  private class IndexedInflaterStream extends InputStream {
+    private RandomAccessFile in;
+    private Inflater inflater = new Inflater(true);
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private byte[] single = new byte[1];
+    private int point;
+    private int shift;
+    private int carry;
+    private boolean eof;
+    private long out;
+
+    public IndexedInflaterStream(String file, int point) throws IOException {
+      in = new RandomAccessFile(file, "r");
+      start(point);
+    }
+
+    private void start(int p) throws IOException {
+      AccessPoint accessPoint = points.get(p);
+      point = p;
+      out = accessPoint.out;
+      shift = (int) (accessPoint.in & 7);
+      eof = false;
+      in.seek(accessPoint.in >>> 3);
+      inflater.reset();
+      if (accessPoint.window.length > 0) {
+        inflater.setDictionary(accessPoint.window);
+      }
+      if (shift != 0) {
+        carry = in.read();
+        if (carry < 0) throw new EOFException();
+      }
+    }
+
+    /** Moves to the access point at the start of the next gzip member. */
+    private boolean nextMember() throws IOException {
+      for (int p=point+1; p<points.size(); p++) {
+        AccessPoint accessPoint = points.get(p);
+        if (accessPoint.memberStart) {
+          if (accessPoint.out != out) {
+            throw new IOException("Incorrect gzip member length");
+          }
+          start(p);
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private boolean fillInput() throws IOException {
+      if (eof) return false;
+      int n = in.read(buffer);
+      if (n <= 0) {
+        // supply the remaining bits, or the extra byte that a raw
+        // Inflater may require at the end of its input
+        eof = true;
+        buffer[0] = (byte) (shift == 0 ? 0 : carry >>> shift);
+        inflater.setInput(buffer, 0, 1);
+        return true;
+      }
+      if (shift != 0) {
+        for (int i=0; i<n; i++) {
+          int b = buffer[i] & 0xff;
+          buffer[i] = (byte) ((carry >>> shift) | (b << (8 - shift)));
+          carry = b;
+        }
+      }
+      inflater.setInput(buffer, 0, n);
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) return 0;
+      try {
+        while (true) {
+          int n = inflater.inflate(b, off, len);
+          if (n > 0) {
+            out += n;
+            return n;
+          }
+          if (inflater.finished()) {
+            if (out >= length || !nextMember()) return -1;
+          }
+          else if (inflater.needsDictionary()) {
+            throw new IOException("Missing inflater dictionary");
+          }
+          else if (inflater.needsInput() && !fillInput()) {
+            throw new EOFException("Unexpected end of gzip stream");
+          }
+        }
+      }
+      catch (DataFormatException e) {
+        throw new IOException(e);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      inflater.end();
+      in.close();
+    }
+  }
+
+}
@@ -52,7 +52,9 @@ import org.slf4j.LoggerFactory;
  *
  * @author Chris Allan <callan at blackcat dot ca>
  */
-public class NIOFileHandle extends AbstractNIOHandle {
+public class NIOFileHandle extends AbstractNIOHandle
+  implements IPositionalAccess
+{
 
   // -- Constants --
 
@@ -284,6 +286,24 @@ public class NIOFileHandle extends AbstractNIOHandle {
     return realLength;
   }
 
+  /* @see IPositionalAccess.read(long, byte[], int, int) */
+  @Override
+  public int read(long pos, byte[] b, int off, int len) throws IOException {
+    long remaining = length() - pos;
+    if (remaining <= 0) {
+      return len == 0 ? 0 : -1;
+    }
+    int realLength = (int) Math.min(len, remaining);
+    ByteBuffer dst = ByteBuffer.wrap(b, off, realLength);
+    // FileChannel positional reads do not modify the channel's position,
+    // and may proceed concurrently with each other
+    while (dst.hasRemaining()) {
+      int n = channel.read(dst, pos + dst.position() - off);
+      if (n < 0) break;
+    }
+    return dst.position() - off;
+  }
+
   /* @see IRandomAccess.seek(long) */
   @Override
   public void seek(long pos) throws IOException {
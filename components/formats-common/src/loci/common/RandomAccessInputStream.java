@@ -34,6 +34,7 @@ package loci.common;
 
 import java.io.Closeable;
 import java.io.DataInput;
+import java.io.EOFException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
@@ -198,6 +199,15 @@ public class RandomAccessInputStream extends InputStream implements DataInput, C
     return raf.getFilePointer();
   }
 
+  /**
+   * Returns true if positional reads are served directly by the underlying
+   * handle.  Compressed and other stream-based handles must move through the
+   * stream to emulate them, so sequential reads are cheaper there.
+   */
+  public boolean isPositionalReadEfficient() {
+    return !(raf instanceof StreamHandle);
+  }
+
   /** Closes the streams. */
   @Override
   public void close() throws IOException {
@@ -615,6 +625,65 @@ public class RandomAccessInputStream extends InputStream implements DataInput, C
     return rtn;
   }
 
+  /**
+   * Read up to n bytes, starting at the given absolute position in the
+   * stream, into the given array at the specified offset.
+   * The current file pointer is neither used nor changed, so this method
+   * may be used by several threads sharing the same stream.
+   *
+   * Handles that do not implement {@link IPositionalAccess} are locked
+   * while they seek, read and restore the file pointer, so positional reads
+   * of such handles do not run concurrently and must not be mixed with
+   * other reads from other threads.
+   *
+   * @return the number of bytes read, or -1 if pos is at or beyond
+   *   the end of the stream
+   */
+  public int read(long pos, byte[] array, int offset, int n)
+    throws IOException
+  {
+    long remaining = length() - pos;
+    if (remaining <= 0) {
+      return n == 0 ? 0 : -1;
+    }
+    if (n > remaining) {
+      n = (int) remaining;
+    }
+    if (raf instanceof IPositionalAccess) {
+      return ((IPositionalAccess) raf).read(pos, array, offset, n);
+    }
+    synchronized (raf) {
+      long fp = raf.getFilePointer();
+      try {
+        raf.seek(pos);
+        return raf.read(array, offset, n);
+      }
+      finally {
+        raf.seek(fp);
+      }
+    }
+  }
+
+  /**
+   * Read exactly n bytes, starting at the given absolute position in the
+   * stream, into the given array at the specified offset.
+   * The current file pointer is neither used nor changed.
+   *
+   * @throws EOFException if the end of the stream is reached first
+   */
+  public void readFully(long pos, byte[] array, int offset, int n)
+    throws IOException
+  {
+    int total = 0;
+    while (total < n) {
+      int count = read(pos + total, array, offset + total, n - total);
+      if (count <= 0) {
+        throw new EOFException();
+      }
+      total += count;
+    }
+  }
+
   /** Read bytes from the stream into the given buffer. */
   public int read(ByteBuffer buf) throws IOException {
     return raf.read(buf);
@@ -0,0 +1,155 @@
+/*
+ * #%L
+ * Common package for I/O and related utilities
+ * %%
+ * Copyright (C) 2005 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package loci.common.utests;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import loci.common.GZipHandle;
+import loci.common.GZipIndex;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Unit tests for seeking within a loci.common.GZipHandle using its index
+ * of access points.
+ *
+ * @see loci.common.GZipHandle
+ * @see loci.common.GZipIndex
+ */
+public class GZipHandleTest {
+
+  // -- Constants --
+
+  private static final int LENGTH = 1024 * 1024;
+
+  private static final int SPAN = 65536;
+
+  // -- Fields --
+
+  private byte[] data;
+
+  private File file;
+
+  // -- Setup methods --
+
+  @BeforeMethod
+  public void setup() throws IOException {
+    Random random = new Random(42);
+    data = new byte[LENGTH];
+    for (int i=0; i<data.length; i++) {
+      data[i] = (byte) (i % 5 == 0 ? random.nextInt(256) : i / 1000);
+    }
+
+    // write the data as two gzip members
+    file = File.createTempFile("gziphandle", ".gz");
+    file.deleteOnExit();
+    FileOutputStream out = new FileOutputStream(file);
+    GZIPOutputStream gzip = new GZIPOutputStream(out);
+    gzip.write(data, 0, LENGTH / 3);
+    gzip.finish();
+    gzip = new GZIPOutputStream(out);
+    gzip.write(data, LENGTH / 3, LENGTH - LENGTH / 3);
+    gzip.close();
+
+    GZipHandle.setIndexSpan(SPAN);
+  }
+
+  @AfterMethod
+  public void tearDown() {
+    GZipHandle.setIndexSpan(GZipIndex.DEFAULT_SPAN);
+    GZipHandle.setSaveIndex(false);
+    GZipIndex.getIndexFile(file.getAbsolutePath()).delete();
+  }
+
+  // -- Test methods --
+
+  @Test
+  public void testIndex() throws IOException {
+    GZipIndex index = GZipIndex.build(file.getAbsolutePath(), SPAN);
+    assertEquals(LENGTH, index.getLength());
+    // one access point per gzip member, plus those within each member
+    assertTrue(index.getAccessPointCount() > 2);
+    assertEquals(0, index.getAccessPoint(0));
+    for (int p=0; p<index.getAccessPointCount(); p++) {
+      assertEquals(p, index.getAccessPoint(index.getOffset(p)));
+    }
+  }
+
+  @Test
+  public void testRandomSeek() throws IOException {
+    GZipHandle handle = new GZipHandle(file.getAbsolutePath());
+    assertEquals(LENGTH, handle.length());
+    checkRandomReads(handle);
+    handle.close();
+  }
+
+  @Test
+  public void testSavedIndex() throws IOException {
+    String path = file.getAbsolutePath();
+    GZipHandle.setSaveIndex(true);
+    new GZipHandle(path).close();
+    assertTrue(GZipIndex.getIndexFile(path).exists());
+
+    GZipIndex index = GZipIndex.load(path);
+    assertEquals(LENGTH, index.getLength());
+
+    GZipHandle handle = new GZipHandle(path);
+    assertEquals(LENGTH, handle.length());
+    checkRandomReads(handle);
+    handle.close();
+  }
+
+  // -- Helper methods --
+
+  private void checkRandomReads(GZipHandle handle) throws IOException {
+    Random random = new Random(7);
+    byte[] buf = new byte[1000];
+    for (int i=0; i<50; i++) {
+      int pos = random.nextInt(LENGTH - buf.length);
+      handle.seek(pos);
+      handle.readFully(buf);
+      for (int j=0; j<buf.length; j++) {
+        assertEquals(data[pos + j], buf[j]);
+      }
+    }
+  }
+
+}
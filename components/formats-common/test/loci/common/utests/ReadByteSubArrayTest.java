@@ -37,6 +37,7 @@ import static org.testng.AssertJUnit.assertEquals;
 import java.io.IOException;
 
 import loci.common.IRandomAccess;
+import loci.common.RandomAccessInputStream;
 import loci.common.utests.providers.IRandomAccessProvider;
 import loci.common.utests.providers.IRandomAccessProviderFactory;
 
@@ -149,6 +150,33 @@ public class ReadByteSubArrayTest {
     assertEquals(0x00, b[3]);
   }
 
+  @Test
+  public void testPositionalReadByte() throws IOException {
+    RandomAccessInputStream stream = new RandomAccessInputStream(fileHandle);
+    fileHandle.seek(3);
+    byte[] b = new byte[4];
+    int length = stream.read(7, b, 1, 2);
+    assertEquals(3, fileHandle.getFilePointer());
+    assertEquals(2, length);
+    assertEquals(0x00, b[0]);
+    assertEquals(0x08, b[1]);
+    assertEquals(0x09, b[2]);
+    assertEquals(0x00, b[3]);
+    assertEquals(0x04, fileHandle.readByte());
+  }
+
+  @Test
+  public void testPositionalReadPastEnd() throws IOException {
+    RandomAccessInputStream stream = new RandomAccessInputStream(fileHandle);
+    byte[] b = new byte[4];
+    int length = stream.read(14, b, 0, 4);
+    assertEquals(0, fileHandle.getFilePointer());
+    assertEquals(2, length);
+    assertEquals((byte) 0xFF, b[0]);
+    assertEquals((byte) 0xFE, b[1]);
+    assertEquals(-1, stream.read(16, b, 0, 4));
+  }
+
   @Test
   public void testRandomAccessReadByte() throws IOException {
     testSeekForwardReadByte();
@@ -31,9 +31,12 @@ import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
 import javax.xml.parsers.DocumentBuilder;
 
 import loci.common.ByteArrayHandle;
@@ -71,6 +74,8 @@ import ome.units.quantity.Temperature;
 import ome.units.quantity.Time;
 import ome.units.UNITS;
 
+import org.perf4j.StopWatch;
+import org.perf4j.slf4j.Slf4JStopWatch;
 import org.xml.sax.SAXException;
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
@@ -118,8 +123,19 @@ public class ZeissCZIReader extends FormatReader {
 
   private ArrayList<Segment> segments;
   private ArrayList<SubBlock> planes;
+
+  /** Reduced resolution SubBlocks, which are not included in planes. */
+  private ArrayList<SubBlock> pyramidPlanes = new ArrayList<SubBlock>();
+
+  /** Downsampling factor of each resolution, starting with 1. */
+  private ArrayList<Integer> resolutionScales = new ArrayList<Integer>();
   private HashMap<Coordinate, ArrayList<Integer>> indexIntoPlanes =
     new HashMap<Coordinate, ArrayList<Integer>>();
+  private ArrayList<HashMap<Coordinate, TileIndex>> tileIndexes =
+    new ArrayList<HashMap<Coordinate, TileIndex>>();
+
+  /** Open streams for reading pixel data, keyed by file name. */
+  private transient HashMap<String, RandomAccessInputStream> pixelStreams;
   private int rotations = 1;
   private int positions = 1;
   private int illuminations = 1;
@@ -307,18 +323,23 @@ public class ZeissCZIReader extends FormatReader {
 
     boolean validScanDim =
       scanDim == (getImageCount() / (getSizeC() * phases)) && scanDim > 1;
-    if (planes.size() == getImageCount()) {
+    if (planes.size() == getImageCount() || getResolution() > 0) {
       validScanDim = false;
     }
 
     Arrays.fill(buf, (byte) 0);
-    RandomAccessInputStream stream = new RandomAccessInputStream(currentId);
-    try {
-      int minTileX = Integer.MAX_VALUE, minTileY = Integer.MAX_VALUE;
+
+    // find the subblocks that may contain part of the requested region
+    int minTileX = Integer.MAX_VALUE, minTileY = Integer.MAX_VALUE;
+    List<SubBlock> tiles = new ArrayList<SubBlock>();
+    Coordinate coordinate =
+      new Coordinate(currentSeries, no, getImageCount());
+    if (validScanDim) {
       for (SubBlock plane : planes) {
         if ((plane.seriesIndex == currentSeries && plane.planeIndex == no) ||
-          (plane.planeIndex == previousChannel && validScanDim))
+          plane.planeIndex == previousChannel)
         {
+          tiles.add(plane);
           if (plane.row < minTileY) {
             minTileY = plane.row;
           }
@@ -327,73 +348,84 @@ public class ZeissCZIReader extends FormatReader {
           }
         }
       }
-      for (SubBlock plane : planes) {
-        if ((plane.seriesIndex == currentSeries && plane.planeIndex == no) ||
-          (plane.planeIndex == previousChannel && validScanDim))
-        {
-          if ((prestitched != null && prestitched) || validScanDim) {
-            int realX = plane.x;
-            int realY = plane.y;
+    }
+    else if (getResolution() < tileIndexes.size() &&
+      tileIndexes.get(getResolution()).containsKey(coordinate))
+    {
+      TileIndex index = tileIndexes.get(getResolution()).get(coordinate);
+      minTileX = index.minTileX;
+      minTileY = index.minTileY;
+      tiles = index.getTiles(image);
+    }
+    else if (getResolution() == 0 && indexIntoPlanes.containsKey(coordinate))
+    {
+      for (Integer index : indexIntoPlanes.get(coordinate)) {
+        tiles.add(planes.get(index));
+      }
+    }
 
-            Region tile = new Region(plane.col, plane.row, realX, realY);
-            if (validScanDim) {
-              tile.y += (no / getSizeC());
-              image.height = scanDim;
-            }
-            if (prestitched != null && prestitched && realX == getSizeX() && realY == getSizeY()) {
-              tile.x = 0;
-              tile.y = 0;
-            }
-            else if (prestitched != null && prestitched) {
-              // normalize the coordinates such that minimum row/col values are 0
-              tile.x -= minTileX;
-              tile.y -= minTileY;
-            }
+    for (SubBlock plane : tiles) {
+      if ((prestitched != null && prestitched) || validScanDim) {
+        int realX = plane.x;
+        int realY = plane.y;
 
-            if (tile.intersects(image)) {
-              byte[] rawData = new SubBlock(plane).readPixelData();
-              Region intersection = tile.intersection(image);
-              int intersectionX = 0;
+        Region tile = new Region(plane.col, plane.row, realX, realY);
+        if (validScanDim) {
+          tile.y += (no / getSizeC());
+          image.height = scanDim;
+        }
+        if (prestitched != null && prestitched && realX == getSizeX() && realY == getSizeY()) {
+          tile.x = 0;
+          tile.y = 0;
+        }
+        else if (prestitched != null && prestitched) {
+          // normalize the coordinates such that minimum row/col values are 0
+          tile.x -= minTileX;
+          tile.y -= minTileY;
+        }
 
-              if (tile.x < image.x) {
-                intersectionX = image.x - tile.x;
-              }
+        if (tile.intersects(image)) {
+          byte[] rawData =
+            plane.readPixelData(getPixelStream(plane.filename));
+          Region intersection = tile.intersection(image);
+          int intersectionX = 0;
 
-              outputCol = (intersection.x - x) * pixel;
-              outputRow = intersection.y - y;
-              if (validScanDim) {
-                outputRow -= tile.y;
-              }
+          if (tile.x < image.x) {
+            intersectionX = image.x - tile.x;
+          }
 
-              int rowLen = pixel * (int) Math.min(intersection.width, realX);
-              int outputOffset = outputRow * outputRowLen + outputCol;
-              for (int trow=0; trow<intersection.height; trow++) {
-                int realRow = trow + intersection.y - tile.y;
-                if (validScanDim) {
-                  realRow += tile.y;
-                }
-                int inputOffset = pixel * (realRow * realX + intersectionX);
-                System.arraycopy(
-                  rawData, inputOffset, buf, outputOffset, rowLen);
-                outputOffset += outputRowLen;
-              }
-            }
+          outputCol = (intersection.x - x) * pixel;
+          outputRow = intersection.y - y;
+          if (validScanDim) {
+            outputRow -= tile.y;
           }
-          else {
-            byte[] rawData = new SubBlock(plane).readPixelData();
-            RandomAccessInputStream s = new RandomAccessInputStream(rawData);
-            try {
-              readPlane(s, x, y, w, h, buf);
-            }
-            finally {
-              s.close();
+
+          int rowLen = pixel * (int) Math.min(intersection.width, realX);
+          int outputOffset = outputRow * outputRowLen + outputCol;
+          for (int trow=0; trow<intersection.height; trow++) {
+            int realRow = trow + intersection.y - tile.y;
+            if (validScanDim) {
+              realRow += tile.y;
             }
-            break;
+            int inputOffset = pixel * (realRow * realX + intersectionX);
+            System.arraycopy(
+              rawData, inputOffset, buf, outputOffset, rowLen);
+            outputOffset += outputRowLen;
           }
         }
       }
-    } finally {
-        stream.close();
+      else {
+        byte[] rawData =
+          plane.readPixelData(getPixelStream(plane.filename));
+        RandomAccessInputStream s = new RandomAccessInputStream(rawData);
+        try {
+          readPlane(s, x, y, w, h, buf);
+        }
+        finally {
+          s.close();
+        }
+        break;
+      }
     }
 
     if (isRGB()) {
@@ -416,6 +448,12 @@ public class ZeissCZIReader extends FormatReader {
   @Override
   public void close(boolean fileOnly) throws IOException {
     super.close(fileOnly);
+    if (pixelStreams != null) {
+      for (RandomAccessInputStream stream : pixelStreams.values()) {
+        stream.close();
+      }
+      pixelStreams = null;
+    }
     if (!fileOnly) {
       pixels = null;
       segments = null;
@@ -466,6 +504,9 @@ public class ZeissCZIReader extends FormatReader {
       illuminationLabels = null;
       phaseLabels = null;
       indexIntoPlanes.clear();
+      tileIndexes.clear();
+      pyramidPlanes.clear();
+      resolutionScales.clear();
       parser = null;
     }
   }
@@ -545,6 +586,7 @@ public class ZeissCZIReader extends FormatReader {
     }
 
     calculateDimensions();
+    separatePyramidPlanes();
 
     if (getSizeC() == 0) {
       ms0.sizeC = 1;
@@ -565,8 +607,14 @@ public class ZeissCZIReader extends FormatReader {
 
     int bpp = FormatTools.getBytesPerPixel(getPixelType());
     for (int i=0; i<planes.size(); i++) {
+      // subblocks listed in the directory are trusted, apart from the first
+      // valid one which is needed to calculate the scan dimension
+      if (i > 0 && !planes.get(i).hasHeader()) {
+        continue;
+      }
       long planeSize = (long) planes.get(i).x * planes.get(i).y * bpp;
       if (planes.get(i).directoryEntry.compression == UNCOMPRESSED) {
+        planes.get(i).readHeader(getPixelStream(planes.get(i).filename));
         long size = planes.get(i).dataSize;
         if (size < planeSize || planeSize >= Integer.MAX_VALUE || size < 0) {
           LOGGER.trace(
@@ -580,7 +628,8 @@ public class ZeissCZIReader extends FormatReader {
         }
       }
       else {
-        byte[] pixels = planes.get(i).readPixelData();
+        byte[] pixels = planes.get(i).readPixelData(
+          getPixelStream(planes.get(i).filename));
         if (pixels.length < planeSize || planeSize >= Integer.MAX_VALUE) {
           LOGGER.trace(
             "removing block #{}; calculated size = {}, decoded size = {}",
@@ -783,6 +832,21 @@ public class ZeissCZIReader extends FormatReader {
       indexIntoPlanes.put(c, indices);
     }
 
+    // index the tiles in each plane of a prestitched image, so that
+    // openBytes can quickly find the tiles that intersect a given region
+    if (prestitched != null && prestitched) {
+      HashMap<Coordinate, TileIndex> fullResolution =
+        new HashMap<Coordinate, TileIndex>();
+      for (Coordinate c : indexIntoPlanes.keySet()) {
+        List<SubBlock> tiles = new ArrayList<SubBlock>();
+        for (Integer index : indexIntoPlanes.get(c)) {
+          tiles.add(planes.get(index));
+        }
+        fullResolution.put(c, new TileIndex(tiles, getSizeX(), getSizeY()));
+      }
+      tileIndexes.add(fullResolution);
+    }
+
     if (channels.size() > 0 && channels.get(0).color != null && !isRGB()) {
       for (int i=0; i<seriesCount; i++) {
         core.get(i).indexed = true;
@@ -875,6 +939,9 @@ public class ZeissCZIReader extends FormatReader {
         }
 
         SubBlock p = planes.get(index.get(0));
+        if (getMetadataOptions().getMetadataLevel() != MetadataLevel.MINIMUM) {
+          p.readHeader(getPixelStream(p.filename));
+        }
         if (startTime == null) {
           startTime = p.timestamp;
         }
@@ -1017,18 +1084,176 @@ public class ZeissCZIReader extends FormatReader {
       }
     }
 
+    addResolutions();
+
     // not needed by further calls on the reader
     segments = null;
   }
 
   // -- Helper methods --
 
+  /**
+   * Returns an open stream for reading pixel data from the given file,
+   * opening it if necessary.  Streams are closed by {@link #close(boolean)}.
+   */
+  private RandomAccessInputStream getPixelStream(String filename)
+    throws IOException
+  {
+    if (pixelStreams == null) {
+      pixelStreams = new HashMap<String, RandomAccessInputStream>();
+    }
+    RandomAccessInputStream stream = pixelStreams.get(filename);
+    if (stream == null) {
+      stream = new RandomAccessInputStream(filename);
+      pixelStreams.put(filename, stream);
+    }
+    return stream;
+  }
+
+  /**
+   * Moves any reduced resolution (pyramid) SubBlocks from the list of planes
+   * to the list of pyramid planes.  A pyramid SubBlock stores fewer pixels
+   * than its logical size in X or Y; its size and position are converted
+   * to the coordinate space of its resolution.
+   */
+  private void separatePyramidPlanes() {
+    ArrayList<SubBlock> fullResolution = new ArrayList<SubBlock>();
+    for (SubBlock plane : planes) {
+      int scale = 1;
+      int storedX = plane.x, storedY = plane.y;
+      for (DimensionEntry dimension : plane.directoryEntry.dimensionEntries) {
+        if (dimension == null || dimension.storedSize <= 0 ||
+          dimension.storedSize == dimension.size)
+        {
+          continue;
+        }
+        char axis = dimension.dimension.charAt(0);
+        if (axis == 'X') {
+          storedX = dimension.storedSize;
+          scale = Math.max(scale,
+            Math.round((float) dimension.size / dimension.storedSize));
+        }
+        else if (axis == 'Y') {
+          storedY = dimension.storedSize;
+          scale = Math.max(scale,
+            Math.round((float) dimension.size / dimension.storedSize));
+        }
+      }
+
+      if (scale > 1) {
+        plane.scale = scale;
+        plane.x = storedX;
+        plane.y = storedY;
+        plane.col /= scale;
+        plane.row /= scale;
+        pyramidPlanes.add(plane);
+      }
+      else {
+        fullResolution.add(plane);
+      }
+    }
+
+    // keep the original list if there is nothing but pyramid data
+    if (fullResolution.size() > 0) {
+      planes = fullResolution;
+    }
+    else {
+      for (SubBlock plane : pyramidPlanes) {
+        plane.scale = 1;
+      }
+      pyramidPlanes.clear();
+    }
+    LOGGER.trace("found {} pyramid SubBlocks", pyramidPlanes.size());
+  }
+
+  /**
+   * Adds a CoreMetadata entry to each series for every pyramid level, and
+   * indexes the SubBlocks in each level.  Pyramid levels are only exposed
+   * through the resolution API, so that the series are unchanged when
+   * resolutions are flattened.
+   */
+  private void addResolutions() {
+    if (pyramidPlanes.size() == 0 || hasFlattenedResolutions() ||
+      prestitched == null || !prestitched)
+    {
+      return;
+    }
+
+    TreeSet<Integer> scales = new TreeSet<Integer>();
+    for (SubBlock plane : pyramidPlanes) {
+      scales.add(plane.scale);
+    }
+    resolutionScales.add(1);
+    resolutionScales.addAll(scales);
+
+    for (int r=1; r<resolutionScales.size(); r++) {
+      HashMap<Coordinate, List<SubBlock>> levelTiles =
+        new HashMap<Coordinate, List<SubBlock>>();
+      for (SubBlock plane : pyramidPlanes) {
+        if (plane.scale != resolutionScales.get(r)) {
+          continue;
+        }
+        Coordinate c =
+          new Coordinate(plane.seriesIndex, plane.planeIndex, getImageCount());
+        List<SubBlock> tiles = levelTiles.get(c);
+        if (tiles == null) {
+          tiles = new ArrayList<SubBlock>();
+          levelTiles.put(c, tiles);
+        }
+        tiles.add(plane);
+      }
+
+      int sizeX = getResolutionSize(getSizeX(), resolutionScales.get(r));
+      int sizeY = getResolutionSize(getSizeY(), resolutionScales.get(r));
+      HashMap<Coordinate, TileIndex> level =
+        new HashMap<Coordinate, TileIndex>();
+      for (Coordinate c : levelTiles.keySet()) {
+        level.put(c, new TileIndex(levelTiles.get(c), sizeX, sizeY));
+      }
+      tileIndexes.add(level);
+    }
+
+    ArrayList<CoreMetadata> resolutions = new ArrayList<CoreMetadata>();
+    for (int i=0; i<core.size(); i++) {
+      CoreMetadata ms = core.get(i);
+      ms.resolutionCount = resolutionScales.size();
+      resolutions.add(ms);
+      for (int r=1; r<resolutionScales.size(); r++) {
+        CoreMetadata level = new CoreMetadata(ms);
+        level.sizeX = getResolutionSize(ms.sizeX, resolutionScales.get(r));
+        level.sizeY = getResolutionSize(ms.sizeY, resolutionScales.get(r));
+        level.resolutionCount = 1;
+        resolutions.add(level);
+      }
+    }
+    core = resolutions;
+  }
+
+  /** Returns the size of a dimension after downsampling by the given scale. */
+  private int getResolutionSize(int size, int scale) {
+    return (size + scale - 1) / scale;
+  }
+
   private void readSegments(String id) throws IOException {
     if (in != null) {
       in.close();
     }
     in = new RandomAccessInputStream(id, BUFFER_SIZE);
     in.order(isLittleEndian());
+
+    StopWatch sw = new Slf4JStopWatch(LOGGER, Slf4JStopWatch.DEBUG_LEVEL);
+    int segmentCount = segments.size();
+    int planeCount = planes.size();
+    if (readDirectorySegments(id)) {
+      sw.stop("loci.formats.in.ZeissCZIReader.readSegments.directory");
+      return;
+    }
+
+    // the directory could not be used, so discard anything read from it
+    // and walk every segment in the file instead
+    segments.subList(segmentCount, segments.size()).clear();
+    planes.subList(planeCount, planes.size()).clear();
+    in.seek(0);
     while (in.getFilePointer() < in.length()) {
       Segment segment = readSegment(id);
       if (segment == null) {
@@ -1041,6 +1266,105 @@ public class ZeissCZIReader extends FormatReader {
       }
       segment.close();
     }
+    sw.stop("loci.formats.in.ZeissCZIReader.readSegments.scan");
+  }
+
+  /**
+   * Reads the segments referenced by the file header - the metadata,
+   * subblock directory, and attachment directory - without scanning the
+   * rest of the file.  Subblocks are built from their directory entries;
+   * their headers and metadata are not read until they are needed.
+   *
+   * @return true if the subblock directory was found and every entry in it
+   *   points into this file
+   */
+  private boolean readDirectorySegments(String id) throws IOException {
+    try {
+      Segment segment = readSegment(id);
+      if (!(segment instanceof FileHeader)) {
+        LOGGER.debug("No file header found in {}", id);
+        return false;
+      }
+      FileHeader header = (FileHeader) segment;
+      segments.add(header);
+      header.close();
+
+      if (header.updatePending) {
+        LOGGER.debug("Subblock directory in {} may be out of date", id);
+        return false;
+      }
+
+      segment = readSegment(id, header.directoryPosition);
+      if (!(segment instanceof Directory)) {
+        LOGGER.debug("No subblock directory found in {}", id);
+        return false;
+      }
+      Directory directory = (Directory) segment;
+      segments.add(directory);
+      directory.close();
+
+      if (directory.entries.length == 0) {
+        return false;
+      }
+
+      // list the subblocks in the same order as a linear scan would
+      DirectoryEntry[] entries = directory.entries.clone();
+      Arrays.sort(entries, new Comparator<DirectoryEntry>() {
+        @Override
+        public int compare(DirectoryEntry a, DirectoryEntry b) {
+          return Long.compare(a.filePosition, b.filePosition);
+        }
+      });
+
+      for (DirectoryEntry entry : entries) {
+        if (entry.filePart != header.filePart) {
+          LOGGER.debug("Subblock directory in {} references file part {}",
+            id, entry.filePart);
+          return false;
+        }
+        if (entry.filePosition <= 0 ||
+          entry.filePosition + HEADER_SIZE > in.length())
+        {
+          LOGGER.debug("Invalid subblock directory entry at {} in {}",
+            entry.filePosition, id);
+          return false;
+        }
+        SubBlock subBlock = new SubBlock(id, entry);
+        segments.add(subBlock);
+        planes.add(subBlock);
+      }
+
+      if (header.metadataPosition > 0) {
+        segment = readSegment(id, header.metadataPosition);
+        if (segment instanceof Metadata) {
+          segments.add(segment);
+          segment.close();
+        }
+      }
+
+      if (header.attachmentDirectoryPosition > 0) {
+        segment = readSegment(id, header.attachmentDirectoryPosition);
+        if (segment instanceof AttachmentDirectory) {
+          AttachmentEntry[] attachments =
+            ((AttachmentDirectory) segment).entries;
+          segment.close();
+          for (AttachmentEntry entry : attachments) {
+            segment = readSegment(id, entry.filePosition);
+            if (segment instanceof Attachment) {
+              segments.add(segment);
+              segment.close();
+            }
+          }
+        }
+      }
+      LOGGER.debug("Read {} subblocks from directory in {}", entries.length,
+        id);
+      return true;
+    }
+    catch (IOException e) {
+      LOGGER.debug("Could not read subblock directory in " + id, e);
+      return false;
+    }
   }
 
   private void calculateDimensions() {
@@ -1205,9 +1529,13 @@ public class ZeissCZIReader extends FormatReader {
       }
     }
 
-    for (int p=0; p<planes.size(); p++) {
-      LOGGER.trace("  processing plane #{} of {}", p, planes.size());
-      SubBlock plane = planes.get(p);
+    // pyramid SubBlocks are assigned indices in the same way as
+    // full resolution SubBlocks
+    ArrayList<SubBlock> blocks = new ArrayList<SubBlock>(planes);
+    blocks.addAll(pyramidPlanes);
+    for (int p=0; p<blocks.size(); p++) {
+      LOGGER.trace("  processing plane #{} of {}", p, blocks.size());
+      SubBlock plane = blocks.get(p);
       int z = 0;
       int c = 0;
       int t = 0;
@@ -1286,7 +1614,7 @@ public class ZeissCZIReader extends FormatReader {
         }
       }
 
-      if (angles > 1 && noAngle) {
+      if (angles > 1 && noAngle && p < planes.size()) {
         extra[extraDimOrder.indexOf('V')] =
           p / (getImageCount() * (getSeriesCount() / angles));
       }
@@ -2537,6 +2865,21 @@ public class ZeissCZIReader extends FormatReader {
     nameStack.pop();
   }
 
+  /**
+   * Reads the segment starting at the given position.
+   *
+   * @return the segment, or null if the position is outside of the file
+   */
+  private Segment readSegment(String filename, long position)
+    throws IOException
+  {
+    if (position <= 0 || position + HEADER_SIZE > in.length()) {
+      return null;
+    }
+    in.seek(position);
+    return readSegment(filename);
+  }
+
   private Segment readSegment(String filename) throws IOException {
     // align the stream to a multiple of 32 bytes
     int skip =
@@ -2888,10 +3231,27 @@ public class ZeissCZIReader extends FormatReader {
     public int x, y;
     public int row, col;
 
+    /** Downsampling factor, which is greater than 1 for pyramid data. */
+    public int scale = 1;
+
+    /** Whether the subblock header and metadata have been read. */
+    private boolean headerRead;
+
     public SubBlock() {
       super();
     }
 
+    /**
+     * Creates a subblock from its entry in the subblock directory, without
+     * reading anything from the file.
+     */
+    public SubBlock(String filename, DirectoryEntry entry) {
+      super(filename);
+      this.id = "ZISRAWSUBBLOCK";
+      this.startingPosition = entry.filePosition;
+      this.directoryEntry = entry;
+    }
+
     public SubBlock(SubBlock model) {
       super(model);
       this.metadataSize = model.metadataSize;
@@ -2909,6 +3269,8 @@ public class ZeissCZIReader extends FormatReader {
       this.stageZ = model.stageZ;
       this.x = model.x;
       this.y = model.y;
+      this.scale = model.scale;
+      this.headerRead = model.headerRead;
     }
 
     @Override
@@ -2939,6 +3301,7 @@ public class ZeissCZIReader extends FormatReader {
           s.seek(s.getFilePointer() + dataSize + attachmentSize);
           parseMetadata();
         }
+        headerRead = true;
       }
       finally {
         if (stream == null) {
@@ -2949,6 +3312,29 @@ public class ZeissCZIReader extends FormatReader {
 
     // -- SubBlock API methods --
 
+    /** Returns whether the subblock header and metadata have been read. */
+    public boolean hasHeader() {
+      return headerRead;
+    }
+
+    /**
+     * Reads the subblock header and metadata from the given stream, if
+     * they have not been read yet.
+     */
+    public void readHeader(RandomAccessInputStream s) throws IOException {
+      if (headerRead) {
+        return;
+      }
+      RandomAccessInputStream previous = stream;
+      stream = s;
+      try {
+        fillInData();
+      }
+      finally {
+        stream = previous;
+      }
+    }
+
     public byte[] readPixelData() throws FormatException, IOException {
       RandomAccessInputStream s = new RandomAccessInputStream(filename);
       try {
@@ -2959,6 +3345,7 @@ public class ZeissCZIReader extends FormatReader {
     }
 
     public byte[] readPixelData(RandomAccessInputStream s) throws FormatException, IOException {
+      readHeader(s);
       byte[] data = new byte[(int) dataSize];
       s.order(isLittleEndian());
       s.seek(dataOffset);
@@ -3297,6 +3684,91 @@ public class ZeissCZIReader extends FormatReader {
     }
   }
 
+  /**
+   * Grid of the subblocks that make up one plane of a prestitched image.
+   * Each grid cell is the size of the largest subblock, so a subblock
+   * is listed in at most four cells.
+   */
+  static class TileIndex {
+    public int minTileX = Integer.MAX_VALUE;
+    public int minTileY = Integer.MAX_VALUE;
+
+    private List<SubBlock> tiles;
+    private Region[] bounds;
+    private int cellWidth = 1, cellHeight = 1;
+    private HashMap<Long, ArrayList<Integer>> cells =
+      new HashMap<Long, ArrayList<Integer>>();
+
+    public TileIndex(List<SubBlock> tiles, int sizeX, int sizeY) {
+      this.tiles = tiles;
+      for (SubBlock tile : tiles) {
+        minTileX = Math.min(minTileX, tile.col);
+        minTileY = Math.min(minTileY, tile.row);
+        cellWidth = Math.max(cellWidth, tile.x);
+        cellHeight = Math.max(cellHeight, tile.y);
+      }
+
+      // tile coordinates are normalized in the same way as in openBytes
+      bounds = new Region[tiles.size()];
+      for (int i=0; i<bounds.length; i++) {
+        SubBlock tile = tiles.get(i);
+        bounds[i] = new Region(tile.col - minTileX, tile.row - minTileY,
+          tile.x, tile.y);
+        if (tile.x == sizeX && tile.y == sizeY) {
+          bounds[i].x = 0;
+          bounds[i].y = 0;
+        }
+
+        int lastRow = (bounds[i].y + bounds[i].height - 1) / cellHeight;
+        int lastCol = (bounds[i].x + bounds[i].width - 1) / cellWidth;
+        for (int row=bounds[i].y / cellHeight; row<=lastRow; row++) {
+          for (int col=bounds[i].x / cellWidth; col<=lastCol; col++) {
+            Long key = getKey(row, col);
+            ArrayList<Integer> cell = cells.get(key);
+            if (cell == null) {
+              cell = new ArrayList<Integer>();
+              cells.put(key, cell);
+            }
+            cell.add(i);
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns the subblocks that intersect the given region, in the order
+     * in which they were originally listed.
+     */
+    public List<SubBlock> getTiles(Region region) {
+      TreeSet<Integer> hits = new TreeSet<Integer>();
+      int lastRow = (region.y + region.height - 1) / cellHeight;
+      int lastCol = (region.x + region.width - 1) / cellWidth;
+      for (int row=region.y / cellHeight; row<=lastRow; row++) {
+        for (int col=region.x / cellWidth; col<=lastCol; col++) {
+          ArrayList<Integer> cell = cells.get(getKey(row, col));
+          if (cell == null) {
+            continue;
+          }
+          for (Integer index : cell) {
+            if (bounds[index].intersects(region)) {
+              hits.add(index);
+            }
+          }
+        }
+      }
+
+      List<SubBlock> result = new ArrayList<SubBlock>();
+      for (Integer index : hits) {
+        result.add(tiles.get(index));
+      }
+      return result;
+    }
+
+    private static Long getKey(int row, int col) {
+      return ((long) row << 32) | (col & 0xffffffffL);
+    }
+  }
+
   static class Channel {
     public String name;
     public String color;
@@ -0,0 +1,180 @@
+/*
+ * #%L
+ * OME Bio-Formats manual and automated test suite.
+ * %%
+ * Copyright (C) 2006 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.tests;
+
+import java.io.IOException;
+
+import loci.common.Location;
+import loci.formats.FormatException;
+import loci.formats.IFormatReader;
+import loci.formats.ImageReader;
+import loci.formats.cache.ByteArraySource;
+import loci.formats.cache.Cache;
+import loci.formats.cache.CacheException;
+import loci.formats.cache.CachePrefetcher;
+import loci.formats.cache.CrosshairStrategy;
+import loci.formats.cache.ICacheStrategy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A class for measuring the latency to the displayed plane while scrubbing
+ * through Z, with a {@link Cache} updated synchronously and with a
+ * {@link CachePrefetcher} using an increasing number of threads.
+ *
+ * Usage: java loci.tests.CachePrefetchTester [file]
+ *
+ * If no file is given, a synthetic stack is used, each plane of which
+ * takes {@link #LOAD_DELAY} ms to load.
+ */
+public class CachePrefetchTester {
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(CachePrefetchTester.class);
+
+  private static final String TEST_FILE =
+    "scrub&pixelType=uint8&sizeX=512&sizeY=512&sizeZ=200.fake";
+
+  /** Time spent loading each synthetic plane, in milliseconds. */
+  private static final int LOAD_DELAY = 20;
+
+  /** Time spent displaying each plane, in milliseconds. */
+  private static final int FRAME_DELAY = 30;
+
+  /** Number of planes cached on either side of the current one. */
+  private static final int RANGE = 8;
+
+  /** Source whose planes are slow to load, but may be loaded in parallel. */
+  private static class SlowSource extends ByteArraySource {
+    private int delay;
+
+    public SlowSource(IFormatReader r, int delay) {
+      super(r);
+      this.delay = delay;
+    }
+
+    @Override
+    public Object getObject(int index) throws CacheException {
+      try {
+        Thread.sleep(delay);
+      }
+      catch (InterruptedException e) {
+        throw new CacheException(e);
+      }
+      synchronized (reader) {
+        return super.getObject(index);
+      }
+    }
+  }
+
+  private IFormatReader reader;
+  private int delay;
+
+  public CachePrefetchTester(IFormatReader reader, int delay) {
+    this.reader = reader;
+    this.delay = delay;
+  }
+
+  private Cache createCache(boolean autoUpdate) throws CacheException {
+    int[] lengths = {reader.getSizeZ(), reader.getEffectiveSizeC(),
+      reader.getSizeT()};
+    CrosshairStrategy strategy = new CrosshairStrategy(lengths);
+    strategy.setRange(RANGE, 0);
+    strategy.setOrder(ICacheStrategy.FORWARD_ORDER, 0);
+    return new Cache(strategy, new SlowSource(reader, delay), autoUpdate);
+  }
+
+  /**
+   * Scrubs forward through Z, spending {@link #FRAME_DELAY} ms displaying
+   * each plane, and returns the mean latency to the displayed plane in
+   * milliseconds. With 0 threads, the cache is updated synchronously.
+   */
+  public double testScrub(int threads) throws CacheException {
+    Cache cache = createCache(threads == 0);
+    CachePrefetcher prefetcher = null;
+    if (threads > 0) {
+      prefetcher = new CachePrefetcher(cache, threads);
+      prefetcher.setSourceThreadSafe(true);
+    }
+    try {
+      int[] pos = new int[3];
+      long total = 0, worst = 0;
+      int sizeZ = reader.getSizeZ();
+      for (int z=0; z<sizeZ; z++) {
+        pos[0] = z;
+        long start = System.nanoTime();
+        cache.setCurrentPos(pos);
+        Object plane = prefetcher == null ?
+          cache.getObject(pos) : prefetcher.getObject(pos);
+        long latency = System.nanoTime() - start;
+        if (plane == null) {
+          throw new CacheException("Plane " + z + " was not loaded");
+        }
+        total += latency;
+        worst = Math.max(worst, latency);
+        Thread.sleep(FRAME_DELAY);
+      }
+      double mean = total / 1e6 / sizeZ;
+      LOGGER.info("{}: mean latency {} ms, worst {} ms", new Object[] {
+        threads == 0 ? "synchronous" : threads + " thread(s)",
+        String.format("%.1f", mean), String.format("%.1f", worst / 1e6)});
+      return mean;
+    }
+    catch (InterruptedException e) {
+      throw new CacheException(e);
+    }
+    finally {
+      if (prefetcher != null) prefetcher.shutdown();
+    }
+  }
+
+  public void testScrub() throws CacheException {
+    testScrub(0);
+    int maxThreads = Runtime.getRuntime().availableProcessors();
+    for (int threads=1; threads<=maxThreads; threads*=2) {
+      testScrub(threads);
+    }
+  }
+
+  public static void main(String[] args)
+    throws CacheException, FormatException, IOException
+  {
+    String id = args.length > 0 ? args[0] : TEST_FILE;
+    if (args.length == 0) Location.mapId(id, id);
+    IFormatReader reader = new ImageReader();
+    try {
+      reader.setId(id);
+      LOGGER.info("Scrubbing {} planes of {}", reader.getSizeZ(), id);
+      new CachePrefetchTester(reader, args.length > 0 ? 0 : LOAD_DELAY)
+        .testScrub();
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+}
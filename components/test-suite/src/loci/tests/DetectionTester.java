@@ -0,0 +1,151 @@
+/*
+ * #%L
+ * OME Bio-Formats manual and automated test suite.
+ * %%
+ * Copyright (C) 2006 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package loci.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import loci.formats.FormatException;
+import loci.formats.IFormatReader;
+import loci.formats.ImageReader;
+import loci.formats.UnknownFormatException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A class for timing file format detection with
+ * {@link loci.formats.ImageReader#getReader(String)}, which reads the start
+ * of each file once for all readers, against checking each reader in turn
+ * with {@link loci.formats.IFormatReader#isThisType(String, boolean)}.
+ *
+ * Usage: java loci.tests.DetectionTester [directory]
+ *
+ * If no directory is given, the testng.directory system property is used,
+ * as for the automated tests.
+ */
+public class DetectionTester {
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(DetectionTester.class);
+
+  private static final int ITERATIONS = 3;
+
+  private ImageReader reader = new ImageReader();
+
+  /** Recursively adds the files in the given directory to the list. */
+  public void getFiles(File dir, List<String> files) {
+    String[] list = dir.list();
+    if (list == null) return;
+    Arrays.sort(list);
+    for (String name : list) {
+      if (name.startsWith(".")) continue;
+      File file = new File(dir, name);
+      if (file.isDirectory()) getFiles(file, files);
+      else files.add(file.getAbsolutePath());
+    }
+  }
+
+  /**
+   * Returns the name of the first reader whose
+   * {@link IFormatReader#isThisType(String, boolean)} method accepts the file.
+   */
+  public String checkEachReader(String file) {
+    for (IFormatReader r : reader.getReaders()) {
+      if (r.isThisType(file, true)) return r.getClass().getSimpleName();
+    }
+    return null;
+  }
+
+  /** Returns the name of the reader chosen by ImageReader. */
+  public String checkImageReader(String file)
+    throws FormatException, IOException
+  {
+    try {
+      return reader.getReader(file).getClass().getSimpleName();
+    }
+    catch (UnknownFormatException e) {
+      return null;
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+  public void testDetection(List<String> files)
+    throws FormatException, IOException
+  {
+    LOGGER.info("Detecting the format of {} files", files.size());
+
+    long eachBest = Long.MAX_VALUE;
+    long imageReaderBest = Long.MAX_VALUE;
+    for (int i=0; i<ITERATIONS; i++) {
+      String[] expected = new String[files.size()];
+      long start = System.currentTimeMillis();
+      for (int f=0; f<files.size(); f++) {
+        expected[f] = checkEachReader(files.get(f));
+      }
+      eachBest = Math.min(eachBest, System.currentTimeMillis() - start);
+
+      start = System.currentTimeMillis();
+      for (int f=0; f<files.size(); f++) {
+        String format = checkImageReader(files.get(f));
+        if (format == null ? expected[f] != null : !format.equals(expected[f]))
+        {
+          LOGGER.warn("{}: detected as {}, expected {}",
+            new Object[] {files.get(f), format, expected[f]});
+        }
+      }
+      imageReaderBest =
+        Math.min(imageReaderBest, System.currentTimeMillis() - start);
+    }
+
+    int count = Math.max(files.size(), 1);
+    LOGGER.info("Each reader: {} ms ({} ms/file)",
+      eachBest, String.format("%.2f", (double) eachBest / count));
+    LOGGER.info("ImageReader: {} ms ({} ms/file)",
+      imageReaderBest, String.format("%.2f", (double) imageReaderBest / count));
+    LOGGER.info("  speedup: {}", String.format("%.2f",
+      imageReaderBest == 0 ? 0 : (double) eachBest / imageReaderBest));
+  }
+
+  public static void main(String[] args) throws FormatException, IOException {
+    String dir = args.length > 0 ? args[0] :
+      System.getProperty("testng.directory");
+    if (dir == null) {
+      LOGGER.error("Please specify a directory containing files to test:");
+      LOGGER.error("  java loci.tests.DetectionTester /path/to/data");
+      return;
+    }
+    DetectionTester tester = new DetectionTester();
+    List<String> files = new ArrayList<String>();
+    tester.getFiles(new File(dir), files);
+    tester.testDetection(files);
+  }
+
+}
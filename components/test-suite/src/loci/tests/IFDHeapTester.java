@@ -0,0 +1,158 @@
+/*
+ * #%L
+ * OME Bio-Formats manual and automated test suite.
+ * %%
+ * Copyright (C) 2006 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package loci.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import loci.common.RandomAccessInputStream;
+import loci.common.RandomAccessOutputStream;
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.IFDList;
+import loci.formats.tiff.TiffParser;
+import loci.formats.tiff.TiffRational;
+import loci.formats.tiff.TiffSaver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A class for measuring the heap used by parsed IFDs, compared with the
+ * same entries stored in plain {@link HashMap}s.
+ *
+ * Usage: java loci.tests.IFDHeapTester [ifdCount]
+ */
+public class IFDHeapTester {
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(IFDHeapTester.class);
+
+  /** Writes a TIFF file containing the given number of small IFDs. */
+  public void writeFile(String file, int ifdCount)
+    throws FormatException, IOException
+  {
+    RandomAccessOutputStream out = new RandomAccessOutputStream(file);
+    try {
+      TiffSaver saver = new TiffSaver(out, file);
+      saver.setWritingSequentially(true);
+      saver.writeHeader();
+      byte[] plane = new byte[16 * 16];
+      for (int i=0; i<ifdCount; i++) {
+        IFD ifd = new IFD();
+        ifd.put(IFD.LITTLE_ENDIAN, Boolean.FALSE);
+        ifd.putIFDValue(IFD.IMAGE_WIDTH, 16);
+        ifd.putIFDValue(IFD.IMAGE_LENGTH, 16);
+        ifd.putIFDValue(IFD.ROWS_PER_STRIP, 1);
+        ifd.putIFDValue(IFD.IMAGE_DESCRIPTION, "plane " + i);
+        ifd.putIFDValue(IFD.SOFTWARE, "IFDHeapTester");
+        ifd.putIFDValue(IFD.X_RESOLUTION, new TiffRational(72, 1));
+        ifd.putIFDValue(IFD.Y_RESOLUTION, new TiffRational(72, 1));
+        ifd.putIFDValue(IFD.RESOLUTION_UNIT, 2);
+        out.seek(out.length());
+        saver.writeImage(plane, ifd, i, FormatTools.UINT8, i == ifdCount - 1);
+      }
+    }
+    finally {
+      out.close();
+    }
+  }
+
+  public void testHeap(String file) throws IOException {
+    RandomAccessInputStream in = new RandomAccessInputStream(file);
+    try {
+      TiffParser parser = new TiffParser(in);
+
+      long before = usedMemory();
+      IFDList ifds = parser.getIFDs();
+      for (IFD ifd : ifds) {
+        parser.fillInIFD(ifd);
+      }
+      long ifdBytes = usedMemory() - before;
+
+      before = usedMemory();
+      List<Map<Integer, Object>> maps =
+        new ArrayList<Map<Integer, Object>>(ifds.size());
+      for (IFD ifd : ifds) {
+        Map<Integer, Object> map = new HashMap<Integer, Object>();
+        for (Map.Entry<Integer, Object> entry : ifd.entrySet()) {
+          map.put(entry.getKey(), copy(entry.getValue()));
+        }
+        maps.add(map);
+      }
+      long mapBytes = usedMemory() - before;
+
+      LOGGER.info("{} IFDs, {} entries each", ifds.size(), ifds.get(0).size());
+      LOGGER.info("  IFD:     {} bytes per IFD", ifdBytes / ifds.size());
+      LOGGER.info("  HashMap: {} bytes per IFD", mapBytes / maps.size());
+    }
+    finally {
+      in.close();
+    }
+  }
+
+  /** Copies arrays and strings, so that the maps do not share them. */
+  private static Object copy(Object value) {
+    if (value instanceof String) {
+      return new String((String) value);
+    }
+    if (value != null && value.getClass().isArray()) {
+      int length = Array.getLength(value);
+      Object copy =
+        Array.newInstance(value.getClass().getComponentType(), length);
+      System.arraycopy(value, 0, copy, 0, length);
+      return copy;
+    }
+    return value;
+  }
+
+  private static long usedMemory() {
+    Runtime r = Runtime.getRuntime();
+    for (int i=0; i<4; i++) {
+      System.gc();
+      try {
+        Thread.sleep(50);
+      }
+      catch (InterruptedException e) { }
+    }
+    return r.totalMemory() - r.freeMemory();
+  }
+
+  public static void main(String[] args) throws Exception {
+    int ifdCount = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    File file = File.createTempFile("IFDHeapTester", ".tif");
+    file.deleteOnExit();
+    IFDHeapTester tester = new IFDHeapTester();
+    tester.writeFile(file.getAbsolutePath(), ifdCount);
+    tester.testHeap(file.getAbsolutePath());
+  }
+
+}
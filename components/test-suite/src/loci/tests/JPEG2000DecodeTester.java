@@ -0,0 +1,181 @@
+/*
+ * #%L
+ * OME Bio-Formats manual and automated test suite.
+ * %%
+ * Copyright (C) 2006 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package loci.tests;
+
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import loci.common.services.DependencyException;
+import loci.common.services.ServiceException;
+import loci.common.services.ServiceFactory;
+import loci.formats.FormatException;
+import loci.formats.codec.CodecOptions;
+import loci.formats.codec.JPEG2000Codec;
+import loci.formats.codec.JPEG2000CodecOptions;
+import loci.formats.gui.AWTImageTools;
+import loci.formats.services.JAIIIOService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A class for timing JPEG-2000 decompression through an intermediate
+ * {@link java.awt.image.Raster} against decoding directly into a byte array
+ * with {@link JAIIIOService#readBytes}.
+ *
+ * Usage: java loci.tests.JPEG2000DecodeTester [width height channels bits]
+ */
+public class JPEG2000DecodeTester {
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(JPEG2000DecodeTester.class);
+
+  private static final int ITERATIONS = 5;
+
+  private JAIIIOService service;
+
+  public JPEG2000DecodeTester() throws DependencyException {
+    service = new ServiceFactory().getInstance(JAIIIOService.class);
+  }
+
+  /** Decodes the given data as JPEG2000Codec did before readBytes existed. */
+  public byte[] decodeRaster(byte[] buf, JPEG2000CodecOptions options)
+    throws IOException, ServiceException
+  {
+    WritableRaster b = (WritableRaster)
+      service.readRaster(new ByteArrayInputStream(buf), options);
+    byte[][] single = AWTImageTools.getPixelBytes(b, options.littleEndian);
+    int bpp = single[0].length / (b.getWidth() * b.getHeight());
+    if (single.length == 1) return single[0];
+    byte[] rtn = new byte[single.length * single[0].length];
+    if (options.interleaved) {
+      int next = 0;
+      for (int i=0; i<single[0].length/bpp; i++) {
+        for (int j=0; j<single.length; j++) {
+          for (int bb=0; bb<bpp; bb++) {
+            rtn[next++] = single[j][i * bpp + bb];
+          }
+        }
+      }
+    }
+    else {
+      for (int i=0; i<single.length; i++) {
+        System.arraycopy(single[i], 0, rtn, i * single[0].length,
+          single[i].length);
+      }
+    }
+    return rtn;
+  }
+
+  /** Decodes the given data directly into a byte array. */
+  public byte[] decodeBytes(byte[] buf, JPEG2000CodecOptions options)
+    throws IOException, ServiceException
+  {
+    return service.readBytes(new ByteArrayInputStream(buf), options);
+  }
+
+  public void testDecode(int width, int height, int channels, int bits)
+    throws FormatException, IOException, ServiceException
+  {
+    int bpp = bits / 8;
+    byte[] plane = new byte[width * height * channels * bpp];
+    Random random = new Random(0);
+    for (int i=0; i<plane.length; i++) {
+      // smooth gradient with a little noise, so the image compresses
+      // roughly like real data
+      plane[i] = (byte) (((i / (channels * bpp)) % width) + random.nextInt(8));
+    }
+
+    CodecOptions options = new CodecOptions();
+    options.width = width;
+    options.height = height;
+    options.channels = channels;
+    options.bitsPerSample = bits;
+    options.interleaved = true;
+    options.littleEndian = false;
+    options.lossless = true;
+    byte[] compressed = new JPEG2000Codec().compress(plane, options);
+    LOGGER.info("{}x{}, {} channels, {} bits: {} bytes compressed",
+      new Object[] {width, height, channels, bits, compressed.length});
+
+    JPEG2000CodecOptions j2kOptions =
+      JPEG2000CodecOptions.getDefaultOptions(options);
+    for (boolean little : new boolean[] {false, true}) {
+      for (boolean interleaved : new boolean[] {true, false}) {
+        j2kOptions.littleEndian = little;
+        j2kOptions.interleaved = interleaved;
+
+        long rasterBest = Long.MAX_VALUE;
+        long bytesBest = Long.MAX_VALUE;
+        byte[] expected = null;
+        byte[] actual = null;
+        for (int i=0; i<ITERATIONS; i++) {
+          long start = System.currentTimeMillis();
+          expected = decodeRaster(compressed, j2kOptions);
+          rasterBest = Math.min(rasterBest, System.currentTimeMillis() - start);
+
+          start = System.currentTimeMillis();
+          actual = decodeBytes(compressed, j2kOptions);
+          bytesBest = Math.min(bytesBest, System.currentTimeMillis() - start);
+        }
+
+        if (actual == null) {
+          LOGGER.warn("  direct decoding is not supported for this image");
+          return;
+        }
+        if (!Arrays.equals(expected, actual)) {
+          LOGGER.error("  little={} interleaved={}: decoded pixels differ",
+            little, interleaved);
+        }
+        LOGGER.info("  little={} interleaved={}: raster {} MB/s, direct {} MB/s",
+          new Object[] {little, interleaved,
+          mbPerSecond(plane.length, rasterBest),
+          mbPerSecond(plane.length, bytesBest)});
+      }
+    }
+  }
+
+  private static String mbPerSecond(long bytes, long millis) {
+    return String.format("%.2f",
+      (bytes / (1024.0 * 1024.0)) / (Math.max(millis, 1) / 1000.0));
+  }
+
+  public static void main(String[] args) throws Exception {
+    JPEG2000DecodeTester tester = new JPEG2000DecodeTester();
+    if (args.length >= 4) {
+      tester.testDecode(Integer.parseInt(args[0]), Integer.parseInt(args[1]),
+        Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+      return;
+    }
+    tester.testDecode(1024, 1024, 1, 8);
+    tester.testDecode(1024, 1024, 1, 16);
+    tester.testDecode(1024, 1024, 3, 8);
+    tester.testDecode(1024, 1024, 3, 16);
+  }
+
+}
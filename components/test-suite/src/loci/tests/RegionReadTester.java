@@ -0,0 +1,207 @@
+/*
+ * #%L
+ * OME Bio-Formats manual and automated test suite.
+ * %%
+ * Copyright (C) 2006 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package loci.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import loci.common.NIOFileHandle;
+import loci.common.RandomAccessInputStream;
+import loci.common.RandomAccessOutputStream;
+import loci.formats.CoreMetadata;
+import loci.formats.FormatException;
+import loci.formats.FormatReader;
+import loci.formats.FormatTools;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A class for counting the reads issued when extracting regions of a raw
+ * plane with FormatReader.readPlane, compared with the per-row skip and
+ * read that readPlane used previously.
+ *
+ * Usage: java loci.tests.RegionReadTester [width height]
+ */
+public class RegionReadTester {
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(RegionReadTester.class);
+
+  private static final int ITERATIONS = 3;
+
+  /** File handle that counts the reads issued against it. */
+  private static class CountingHandle extends NIOFileHandle {
+    private long reads;
+
+    CountingHandle(File file) throws IOException {
+      super(file, "r");
+    }
+
+    @Override
+    public int read(ByteBuffer buf, int off, int len) throws IOException {
+      reads++;
+      return super.read(buf, off, len);
+    }
+
+    @Override
+    public int read(long pos, byte[] b, int off, int len) throws IOException {
+      reads++;
+      return super.read(pos, b, off, len);
+    }
+  }
+
+  /** Reader for a single uint8 plane with no header. */
+  private static class RawReader extends FormatReader {
+    private int width;
+    private int height;
+
+    RawReader(int width, int height) {
+      super("Raw", "raw");
+      this.width = width;
+      this.height = height;
+    }
+
+    @Override
+    protected void initFile(String id) throws FormatException, IOException {
+      super.initFile(id);
+      CoreMetadata m = core.get(0);
+      m.sizeX = width;
+      m.sizeY = height;
+      m.sizeZ = 1;
+      m.sizeC = 1;
+      m.sizeT = 1;
+      m.imageCount = 1;
+      m.pixelType = FormatTools.UINT8;
+      m.dimensionOrder = "XYCZT";
+    }
+
+    @Override
+    public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h)
+      throws FormatException, IOException
+    {
+      throw new FormatException("Use readRegion");
+    }
+
+    public byte[] readRegion(RandomAccessInputStream s, int x, int y,
+      int w, int h) throws IOException
+    {
+      s.seek(0);
+      return readPlane(s, x, y, w, h, new byte[w * h]);
+    }
+  }
+
+  /** Reads a region with a skip and a read per row. */
+  public byte[] readRegionByRow(RandomAccessInputStream s, int width,
+    int x, int y, int w, int h) throws IOException
+  {
+    byte[] buf = new byte[w * h];
+    s.seek(0);
+    s.seek((long) y * width);
+    for (int row=0; row<h; row++) {
+      s.skipBytes(x);
+      s.read(buf, row * w, w);
+      if (row < h - 1) {
+        s.skipBytes(width - w - x);
+      }
+    }
+    return buf;
+  }
+
+  public void testRegion(File file, int width, int height,
+    int x, int y, int w, int h) throws FormatException, IOException
+  {
+    RawReader reader = new RawReader(width, height);
+    reader.setId(file.getAbsolutePath());
+    CountingHandle handle = new CountingHandle(file);
+    RandomAccessInputStream s = new RandomAccessInputStream(handle);
+    try {
+      long rowBest = Long.MAX_VALUE;
+      long rowReads = 0;
+      long regionBest = Long.MAX_VALUE;
+      long regionReads = 0;
+      byte[] expected = null;
+      byte[] actual = null;
+      for (int i=0; i<ITERATIONS; i++) {
+        handle.reads = 0;
+        long start = System.currentTimeMillis();
+        expected = readRegionByRow(s, width, x, y, w, h);
+        rowBest = Math.min(rowBest, System.currentTimeMillis() - start);
+        rowReads = handle.reads;
+
+        handle.reads = 0;
+        start = System.currentTimeMillis();
+        actual = reader.readRegion(s, x, y, w, h);
+        regionBest = Math.min(regionBest, System.currentTimeMillis() - start);
+        regionReads = handle.reads;
+      }
+      LOGGER.info("{}x{} region at ({}, {}):",
+        new Object[] {w, h, x, y});
+      LOGGER.info("  per row:   {} ms, {} reads", rowBest, rowReads);
+      LOGGER.info("  readPlane: {} ms, {} reads", regionBest, regionReads);
+      if (!Arrays.equals(expected, actual)) {
+        LOGGER.warn("  region pixels differ");
+      }
+    }
+    finally {
+      s.close();
+      reader.close();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int width = args.length > 1 ? Integer.parseInt(args[0]) : 100000;
+    int height = args.length > 1 ? Integer.parseInt(args[1]) : 512;
+
+    File file = File.createTempFile("RegionReadTester", ".raw");
+    file.deleteOnExit();
+    RandomAccessOutputStream out =
+      new RandomAccessOutputStream(file.getAbsolutePath());
+    try {
+      byte[] row = new byte[width];
+      for (int y=0; y<height; y++) {
+        for (int x=0; x<width; x++) {
+          row[x] = (byte) (x + y);
+        }
+        out.write(row);
+      }
+    }
+    finally {
+      out.close();
+    }
+
+    RegionReadTester tester = new RegionReadTester();
+    // narrow tall tile, rows far apart
+    tester.testRegion(file, width, height, width / 2, 0, 256, height);
+    // wide tile, rows close together
+    tester.testRegion(file, width, height, 16, height / 4,
+      width - 32, height / 2);
+    // full width strip
+    tester.testRegion(file, width, height, 0, height / 4, width, height / 2);
+  }
+
+}
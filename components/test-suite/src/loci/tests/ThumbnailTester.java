@@ -0,0 +1,167 @@
+/*
+ * #%L
+ * OME Bio-Formats manual and automated test suite.
+ * %%
+ * Copyright (C) 2006 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package loci.tests;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import loci.formats.IFormatReader;
+import loci.formats.ImageReader;
+import loci.formats.ReaderWrapper;
+import loci.formats.gui.AWTImageTools;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A class for timing {@link FormatTools#openThumbBytes} against scaling a
+ * whole plane with AWT, as openThumbBytes did previously.
+ *
+ * Usage: java loci.tests.ThumbnailTester [file ...]
+ */
+public class ThumbnailTester {
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(ThumbnailTester.class);
+
+  private static final int ITERATIONS = 3;
+
+  private static final String[] DEFAULT_FILES = {
+    "uint8&sizeX=4096&sizeY=4096.fake",
+    "uint16&sizeX=4096&sizeY=4096&pixelType=uint16.fake",
+    "rgb&sizeX=4096&sizeY=4096&sizeC=3&rgb=3.fake",
+    "float&sizeX=2048&sizeY=2048&pixelType=float.fake",
+    "large&sizeX=16384&sizeY=16384.fake",
+  };
+
+  /** Reader wrapper that counts the bytes returned by openBytes. */
+  private static class CountingReader extends ReaderWrapper {
+    private long bytesRead;
+
+    CountingReader(IFormatReader r) {
+      super(r);
+    }
+
+    @Override
+    public byte[] openBytes(int no, byte[] buf, int x, int y, int w, int h)
+      throws FormatException, IOException
+    {
+      byte[] b = super.openBytes(no, buf, x, y, w, h);
+      bytesRead += b.length;
+      return b;
+    }
+
+    @Override
+    public byte[] openBytes(int no, int x, int y, int w, int h)
+      throws FormatException, IOException
+    {
+      byte[] b = super.openBytes(no, x, y, w, h);
+      bytesRead += b.length;
+      return b;
+    }
+  }
+
+  /** Creates a thumbnail by scaling a whole plane with AWT. */
+  public byte[] openThumbBytesAWT(IFormatReader reader, int no)
+    throws FormatException, IOException
+  {
+    int planeSize = FormatTools.getPlaneSize(reader);
+    byte[] plane = null;
+    if (planeSize < 0) {
+      int width = reader.getThumbSizeX() * 4;
+      int height = reader.getThumbSizeY() * 4;
+      int x = (reader.getSizeX() - width) / 2;
+      int y = (reader.getSizeY() - height) / 2;
+      plane = reader.openBytes(no, x, y, width, height);
+    }
+    else {
+      plane = reader.openBytes(no);
+    }
+    BufferedImage img = AWTImageTools.openImage(plane, reader,
+      reader.getSizeX(), reader.getSizeY());
+    img = AWTImageTools.makeUnsigned(img);
+    BufferedImage thumb = AWTImageTools.scale(img, reader.getThumbSizeX(),
+      reader.getThumbSizeY(), false);
+    byte[][] bytes = AWTImageTools.getPixelBytes(thumb,
+      reader.isLittleEndian());
+    if (bytes.length == 1) return bytes[0];
+    byte[] rtn = new byte[bytes.length * bytes[0].length];
+    for (int i=0; i<bytes.length; i++) {
+      System.arraycopy(bytes[i], 0, rtn, bytes[0].length * i, bytes[i].length);
+    }
+    return rtn;
+  }
+
+  public void testThumbnail(String id) throws FormatException, IOException {
+    CountingReader reader = new CountingReader(new ImageReader());
+    reader.setFlattenedResolutions(false);
+    try {
+      reader.setId(id);
+      LOGGER.info("{}: {}x{}, {} resolution(s), thumbnail {}x{}",
+        new Object[] {id, reader.getSizeX(), reader.getSizeY(),
+        reader.getResolutionCount(), reader.getThumbSizeX(),
+        reader.getThumbSizeY()});
+
+      long awtBest = Long.MAX_VALUE;
+      long awtBytes = 0;
+      long thumbBest = Long.MAX_VALUE;
+      long thumbBytes = 0;
+      for (int i=0; i<ITERATIONS; i++) {
+        reader.bytesRead = 0;
+        long start = System.currentTimeMillis();
+        try {
+          openThumbBytesAWT(reader, 0);
+          awtBest = Math.min(awtBest, System.currentTimeMillis() - start);
+        }
+        catch (OutOfMemoryError e) {
+          LOGGER.info("  AWT: out of memory");
+        }
+        awtBytes = reader.bytesRead;
+
+        reader.bytesRead = 0;
+        start = System.currentTimeMillis();
+        FormatTools.openThumbBytes(reader, 0);
+        thumbBest = Math.min(thumbBest, System.currentTimeMillis() - start);
+        thumbBytes = reader.bytesRead;
+      }
+      LOGGER.info("  AWT:      {} ms, {} bytes read", awtBest, awtBytes);
+      LOGGER.info("  headless: {} ms, {} bytes read", thumbBest, thumbBytes);
+    }
+    finally {
+      reader.close();
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    ThumbnailTester tester = new ThumbnailTester();
+    String[] files = args.length > 0 ? args : DEFAULT_FILES;
+    for (String file : files) {
+      tester.testThumbnail(file);
+    }
+  }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * #%L
+ * OME Bio-Formats manual and automated test suite.
+ * %%
+ * Copyright (C) 2006 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.tests;
+
+import java.io.IOException;
+import java.util.Random;
+
+import loci.common.ByteArrayHandle;
+import loci.common.RandomAccessOutputStream;
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.TiffCompression;
+import loci.formats.tiff.TiffSaver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A class for measuring the rate at which
+ * {@link loci.formats.tiff.TiffSaver} assembles strips and tiles from
+ * interleaved and planar RGB planes.  Data is written uncompressed to memory,
+ * so that assembly dominates the time taken.
+ *
+ * Usage: java loci.tests.TiffAssemblyTester
+ */
+public class TiffAssemblyTester {
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(TiffAssemblyTester.class);
+
+  private static final int SIZE = 4096;
+  private static final int CHANNELS = 3;
+  private static final int TILE_SIZE = 512;
+  private static final int ROWS_PER_STRIP = 64;
+  private static final int ITERATIONS = 5;
+
+  private byte[] plane;
+
+  public TiffAssemblyTester() {
+    plane = new byte[SIZE * SIZE * CHANNELS * 2];
+    new Random(SIZE).nextBytes(plane);
+  }
+
+  /**
+   * Writes the 16-bit RGB plane repeatedly and returns the best rate in
+   * MB/s.
+   */
+  public double testAssembly(boolean interleaved, boolean tiled)
+    throws FormatException, IOException
+  {
+    ByteArrayHandle bytes = new ByteArrayHandle(plane.length + 1024 * 1024);
+    long best = Long.MAX_VALUE;
+    for (int i=0; i<ITERATIONS; i++) {
+      IFD ifd = new IFD();
+      ifd.putIFDValue(IFD.LITTLE_ENDIAN, Boolean.FALSE);
+      ifd.putIFDValue(IFD.IMAGE_WIDTH, SIZE);
+      ifd.putIFDValue(IFD.IMAGE_LENGTH, SIZE);
+      ifd.putIFDValue(IFD.PLANAR_CONFIGURATION, interleaved ? 1 : 2);
+      ifd.putIFDValue(IFD.COMPRESSION,
+        TiffCompression.UNCOMPRESSED.getCode());
+      if (tiled) {
+        ifd.putIFDValue(IFD.TILE_WIDTH, TILE_SIZE);
+        ifd.putIFDValue(IFD.TILE_LENGTH, TILE_SIZE);
+      }
+      else {
+        ifd.putIFDValue(IFD.ROWS_PER_STRIP, new long[] {ROWS_PER_STRIP});
+      }
+
+      bytes.setLength(0);
+      TiffSaver saver = new TiffSaver(new RandomAccessOutputStream(bytes),
+        bytes);
+      saver.setWritingSequentially(true);
+      saver.writeHeader();
+      long start = System.currentTimeMillis();
+      saver.writeImage(plane, ifd, 0, FormatTools.UINT16, true);
+      best = Math.min(best, System.currentTimeMillis() - start);
+      saver.close();
+    }
+    double mb = (double) plane.length / (1024 * 1024);
+    double rate = best == 0 ? 0 : mb * 1000 / best;
+    LOGGER.info("{} {}: {} ms ({} MB/s)", new Object[] {
+      interleaved ? "interleaved" : "planar",
+      tiled ? TILE_SIZE + "x" + TILE_SIZE + " tiles" :
+      ROWS_PER_STRIP + " row strips", best, String.format("%.1f", rate)});
+    return rate;
+  }
+
+  public static void main(String[] args) throws FormatException, IOException {
+    TiffAssemblyTester tester = new TiffAssemblyTester();
+    tester.testAssembly(true, false);
+    tester.testAssembly(true, true);
+    tester.testAssembly(false, false);
+  }
+
+}
@@ -0,0 +1,185 @@
+/*
+ * #%L
+ * OME Bio-Formats manual and automated test suite.
+ * %%
+ * Copyright (C) 2006 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+
+package loci.tests;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import loci.common.RandomAccessInputStream;
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.TiffCompression;
+import loci.formats.tiff.TiffParser;
+import loci.formats.tiff.TiffSaver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A class for testing the scaling of
+ * {@link loci.formats.tiff.TiffParser#getSamples(IFD, byte[], int, int, long, long)}
+ * with the number of tile decoding threads.
+ *
+ * Usage: java loci.tests.TiffDecodeTester [file.tif]
+ *
+ * If no file is given, a synthetic tiled LZW-compressed TIFF is generated.
+ */
+public class TiffDecodeTester {
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(TiffDecodeTester.class);
+
+  private static final int SIZE = 8192;
+  private static final int TILE_SIZE = 512;
+  private static final int ITERATIONS = 3;
+
+  /** Region read by the most recent call to testRegion. */
+  private byte[] lastRegion;
+
+  /** Writes a synthetic single-plane tiled LZW TIFF. */
+  public void createData(String filename) throws FormatException, IOException {
+    LOGGER.info("Generating {}x{} LZW TIFF with {}x{} tiles...",
+      new Object[] {SIZE, SIZE, TILE_SIZE, TILE_SIZE});
+
+    // smooth gradient with a little noise, so that the data compresses
+    // but is not trivial to decode
+    byte[] plane = new byte[SIZE * SIZE];
+    Random random = new Random(SIZE);
+    for (int y=0; y<SIZE; y++) {
+      for (int x=0; x<SIZE; x++) {
+        plane[y * SIZE + x] = (byte) ((x + y + random.nextInt(4)) & 0xff);
+      }
+    }
+
+    IFD ifd = new IFD();
+    ifd.putIFDValue(IFD.LITTLE_ENDIAN, Boolean.FALSE);
+    ifd.putIFDValue(IFD.IMAGE_WIDTH, SIZE);
+    ifd.putIFDValue(IFD.IMAGE_LENGTH, SIZE);
+    ifd.putIFDValue(IFD.TILE_WIDTH, TILE_SIZE);
+    ifd.putIFDValue(IFD.TILE_LENGTH, TILE_SIZE);
+    ifd.putIFDValue(IFD.COMPRESSION, TiffCompression.LZW.getCode());
+
+    TiffSaver saver = new TiffSaver(filename);
+    try {
+      saver.setWritingSequentially(true);
+      saver.writeHeader();
+      saver.writeImage(plane, ifd, 0, FormatTools.UINT8, true);
+    }
+    finally {
+      saver.close();
+    }
+  }
+
+  /**
+   * Reads the given region of the first plane repeatedly using the given
+   * number of decoding threads, and returns the best time in milliseconds.
+   */
+  public long testRegion(String filename, int threads, int x, int y,
+    int w, int h, byte[] expected) throws FormatException, IOException
+  {
+    ExecutorService executor =
+      threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+    RandomAccessInputStream in = new RandomAccessInputStream(filename);
+    try {
+      TiffParser parser = new TiffParser(in);
+      parser.setDecodeExecutor(executor, threads);
+      IFD ifd = parser.getFirstIFD();
+      parser.fillInIFD(ifd);
+      int bpp = ifd.getBytesPerSample()[0] * ifd.getSamplesPerPixel();
+      byte[] buf = new byte[w * h * bpp];
+
+      long best = Long.MAX_VALUE;
+      for (int i=0; i<ITERATIONS; i++) {
+        long start = System.currentTimeMillis();
+        parser.getSamples(ifd, buf, x, y, w, h);
+        best = Math.min(best, System.currentTimeMillis() - start);
+      }
+      if (expected != null && !Arrays.equals(expected, buf)) {
+        throw new FormatException(threads + " thread read does not match " +
+          "single-threaded read");
+      }
+      double mb = (double) buf.length / (1024 * 1024);
+      LOGGER.info("{} thread(s): {}x{} region in {} ms ({} MB/s)",
+        new Object[] {threads, w, h, best,
+        String.format("%.1f", best == 0 ? 0 : mb * 1000 / best)});
+      lastRegion = buf;
+      return best;
+    }
+    finally {
+      in.close();
+      if (executor != null) {
+        executor.shutdown();
+      }
+    }
+  }
+
+  public void testDecode(String filename) throws FormatException, IOException {
+    RandomAccessInputStream in = new RandomAccessInputStream(filename);
+    long width, height;
+    try {
+      IFD ifd = new TiffParser(in).getFirstIFD();
+      width = ifd.getImageWidth();
+      height = ifd.getImageLength();
+    }
+    finally {
+      in.close();
+    }
+    int w = (int) Math.min(width, SIZE);
+    int h = (int) Math.min(height, SIZE);
+
+    int maxThreads = Runtime.getRuntime().availableProcessors();
+    long serial = testRegion(filename, 1, 0, 0, w, h, null);
+    byte[] expected = lastRegion;
+    for (int threads=2; threads<=maxThreads; threads*=2) {
+      long time = testRegion(filename, threads, 0, 0, w, h, expected);
+      LOGGER.info("  speedup: {}",
+        String.format("%.2f", time == 0 ? 0 : (double) serial / time));
+    }
+  }
+
+  public static void main(String[] args) throws FormatException, IOException {
+    TiffDecodeTester tester = new TiffDecodeTester();
+    if (args.length > 0) {
+      tester.testDecode(args[0]);
+      return;
+    }
+    File file = File.createTempFile("TiffDecodeTester", ".tif");
+    try {
+      tester.createData(file.getAbsolutePath());
+      tester.testDecode(file.getAbsolutePath());
+    }
+    finally {
+      file.delete();
+    }
+  }
+
+}
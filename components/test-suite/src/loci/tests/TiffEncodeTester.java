@@ -0,0 +1,176 @@
+/*
+ * #%L
+ * OME Bio-Formats manual and automated test suite.
+ * %%
+ * Copyright (C) 2006 - 2016 Open Microscopy Environment:
+ *   - Board of Regents of the University of Wisconsin-Madison
+ *   - Glencoe Software, Inc.
+ *   - University of Dundee
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the 
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public 
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+
+package loci.tests;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import loci.common.ByteArrayHandle;
+import loci.common.RandomAccessOutputStream;
+import loci.formats.FormatException;
+import loci.formats.FormatTools;
+import loci.formats.tiff.IFD;
+import loci.formats.tiff.TiffCompression;
+import loci.formats.tiff.TiffSaver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A class for testing the scaling of
+ * {@link loci.formats.tiff.TiffSaver#writeImage(byte[], IFD, int, int, boolean)}
+ * with the number of strip compression threads, for a range of tile sizes
+ * and codecs.
+ *
+ * Usage: java loci.tests.TiffEncodeTester [codec ...]
+ *
+ * where each codec is the name of a {@link TiffCompression} constant; by
+ * default LZW, DEFLATE, JPEG and JPEG_2000 are tested.
+ */
+public class TiffEncodeTester {
+
+  private static final Logger LOGGER =
+    LoggerFactory.getLogger(TiffEncodeTester.class);
+
+  private static final int SIZE = 4096;
+  private static final int[] TILE_SIZES = {256, 512, 1024};
+  private static final int ITERATIONS = 3;
+
+  private static final String[] DEFAULT_CODECS =
+    {"LZW", "DEFLATE", "JPEG", "JPEG_2000"};
+
+  /** Synthetic plane to compress. */
+  private byte[] plane;
+
+  /** File written by the most recent call to testWrite. */
+  private byte[] lastFile;
+
+  public TiffEncodeTester() {
+    // smooth gradient with a little noise, so that the data compresses
+    // but is not trivial to encode
+    plane = new byte[SIZE * SIZE];
+    Random random = new Random(SIZE);
+    for (int y=0; y<SIZE; y++) {
+      for (int x=0; x<SIZE; x++) {
+        plane[y * SIZE + x] = (byte) ((x + y + random.nextInt(4)) & 0xff);
+      }
+    }
+  }
+
+  /** Writes the plane as a single-IFD tiled TIFF in memory. */
+  private byte[] write(TiffCompression compression, int tileSize,
+    ExecutorService executor) throws FormatException, IOException
+  {
+    IFD ifd = new IFD();
+    ifd.putIFDValue(IFD.LITTLE_ENDIAN, Boolean.FALSE);
+    ifd.putIFDValue(IFD.IMAGE_WIDTH, SIZE);
+    ifd.putIFDValue(IFD.IMAGE_LENGTH, SIZE);
+    ifd.putIFDValue(IFD.TILE_WIDTH, tileSize);
+    ifd.putIFDValue(IFD.TILE_LENGTH, tileSize);
+    ifd.putIFDValue(IFD.COMPRESSION, compression.getCode());
+
+    ByteArrayHandle bytes = new ByteArrayHandle();
+    RandomAccessOutputStream out = new RandomAccessOutputStream(bytes);
+    TiffSaver saver = new TiffSaver(out, bytes);
+    try {
+      saver.setWritingSequentially(true);
+      saver.setCompressExecutor(executor);
+      saver.writeHeader();
+      saver.writeImage(plane, ifd, 0, FormatTools.UINT8, true);
+    }
+    finally {
+      saver.close();
+    }
+    return Arrays.copyOf(bytes.getBytes(), (int) bytes.length());
+  }
+
+  /**
+   * Writes the plane repeatedly using the given number of compression
+   * threads, and returns the best time in milliseconds.
+   */
+  public long testWrite(TiffCompression compression, int tileSize,
+    int threads, byte[] expected) throws FormatException, IOException
+  {
+    ExecutorService executor =
+      threads > 1 ? Executors.newFixedThreadPool(threads) : null;
+    try {
+      long best = Long.MAX_VALUE;
+      byte[] file = null;
+      for (int i=0; i<ITERATIONS; i++) {
+        long start = System.currentTimeMillis();
+        file = write(compression, tileSize, executor);
+        best = Math.min(best, System.currentTimeMillis() - start);
+      }
+      if (expected != null && !Arrays.equals(expected, file)) {
+        throw new FormatException(threads + " thread write does not match " +
+          "single-threaded write");
+      }
+      double mb = (double) plane.length / (1024 * 1024);
+      LOGGER.info("{} {}x{} tiles, {} thread(s): {} ms ({} MB/s)",
+        new Object[] {compression, tileSize, tileSize, threads, best,
+        String.format("%.1f", best == 0 ? 0 : mb * 1000 / best)});
+      lastFile = file;
+      return best;
+    }
+    finally {
+      if (executor != null) {
+        executor.shutdown();
+      }
+    }
+  }
+
+  public void testEncode(TiffCompression compression)
+    throws FormatException, IOException
+  {
+    int maxThreads = Runtime.getRuntime().availableProcessors();
+    for (int tileSize : TILE_SIZES) {
+      long serial = testWrite(compression, tileSize, 1, null);
+      byte[] expected = lastFile;
+      for (int threads=2; threads<=maxThreads; threads*=2) {
+        long time = testWrite(compression, tileSize, threads, expected);
+        LOGGER.info("  speedup: {}",
+          String.format("%.2f", time == 0 ? 0 : (double) serial / time));
+      }
+    }
+  }
+
+  public static void main(String[] args) throws FormatException, IOException {
+    TiffEncodeTester tester = new TiffEncodeTester();
+    String[] codecs = args.length > 0 ? args : DEFAULT_CODECS;
+    for (String codec : codecs) {
+      try {
+        tester.testEncode(TiffCompression.valueOf(codec));
+      }
+      catch (FormatException e) {
+        LOGGER.warn("Could not test " + codec, e);
+      }
+    }
+  }
+
+}